@@ -0,0 +1,140 @@
+package info.varden.hauk.service;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import info.varden.hauk.http.BulkStopSharingPacket;
+import info.varden.hauk.http.ConnectionParameters;
+import info.varden.hauk.http.ServerException;
+import info.varden.hauk.http.StopSharingPacket;
+import info.varden.hauk.http.security.CertificateValidationPolicy;
+import info.varden.hauk.struct.Session;
+import info.varden.hauk.struct.Share;
+import info.varden.hauk.struct.ShareMode;
+import info.varden.hauk.struct.Version;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * Ends 50 links of a session on a stub backend with a simulated mobile network round trip time,
+ * one request at a time as for older backends, and in a single bulk request.
+ */
+@SuppressWarnings({"DuplicateStringLiteralInspection", "HardCodedStringLiteral"})
+public final class BulkStopSharingTest {
+
+    private static final String TAG = "BulkStopSharing";
+    private static final int LINKS = 50;
+    private static final long LATENCY_MILLIS = 100L;
+    private static final long TIMEOUT_SECONDS = 60L;
+
+    private Instrumentation instrumentation;
+    private Context ctx;
+    private StubBackend backend;
+    private List<Share> shares;
+
+    @Before
+    public void setUp() throws IOException {
+        this.instrumentation = InstrumentationRegistry.getInstrumentation();
+        this.ctx = this.instrumentation.getTargetContext();
+        this.backend = new StubBackend();
+        this.backend.setLatency(LATENCY_MILLIS);
+        new Thread(this.backend).start();
+
+        ConnectionParameters connParams = new ConnectionParameters(null, null, 5000, CertificateValidationPolicy.VALIDATE_ALL);
+        Session session = new Session(this.backend.getURL(), connParams, new Version("1.7"), "test-session", System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(10L), 1, 0.0F, null);
+        this.shares = new ArrayList<>(LINKS);
+        for (int i = 0; i < LINKS; i++) {
+            String id = String.format("%04X-%04X", i, i * 7);
+            this.shares.add(new Share(session, this.backend.getURL() + "?" + id, id, ShareMode.CREATE_ALONE));
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        this.backend.close();
+    }
+
+    @Test
+    public void endsLinksFasterInOneRequest() throws InterruptedException {
+        long start = SystemClock.elapsedRealtime();
+        final CountDownLatch sequentialDone = new CountDownLatch(LINKS);
+        this.instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                stopSequentially(new ArrayDeque<>(BulkStopSharingTest.this.shares), sequentialDone);
+            }
+        });
+        assertThat("Sequential requests timed out", sequentialDone.await(TIMEOUT_SECONDS, TimeUnit.SECONDS), is(true));
+        long sequentialMillis = SystemClock.elapsedRealtime() - start;
+
+        start = SystemClock.elapsedRealtime();
+        final CountDownLatch bulkDone = new CountDownLatch(LINKS);
+        final AtomicInteger failed = new AtomicInteger();
+        this.instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                new BulkStopSharingPacket(BulkStopSharingTest.this.ctx, BulkStopSharingTest.this.shares.get(0).getSession(), BulkStopSharingTest.this.shares) {
+                    @Override
+                    protected void onShareStopped(Share share) {
+                        bulkDone.countDown();
+                    }
+
+                    @Override
+                    protected void onShareNotStopped(Share share, ServerException ex) {
+                        failed.incrementAndGet();
+                        bulkDone.countDown();
+                    }
+
+                    @Override
+                    protected void onFailure(Exception ex) {
+                        Log.e(TAG, "Bulk request failed", ex);
+                    }
+                }.send();
+            }
+        });
+        assertThat("Bulk request timed out", bulkDone.await(TIMEOUT_SECONDS, TimeUnit.SECONDS), is(true));
+        long bulkMillis = SystemClock.elapsedRealtime() - start;
+
+        Log.i(TAG, "Ending " + LINKS + " links with " + LATENCY_MILLIS + " ms latency: " + sequentialMillis + " ms one at a time, " + bulkMillis + " ms in one request");
+        assertThat(failed.get(), is(0));
+        assertTrue("Bulk request took " + bulkMillis + " ms", bulkMillis * 10L < sequentialMillis);
+    }
+
+    /**
+     * Stops the given shares one at a time, like the session manager does for older backends.
+     */
+    private void stopSequentially(final Queue<Share> remaining, final CountDownLatch done) {
+        Share share = remaining.poll();
+        if (share == null) return;
+        new StopSharingPacket(this.ctx, share) {
+            @Override
+            protected void onSuccess() {
+                done.countDown();
+                stopSequentially(remaining, done);
+            }
+
+            @Override
+            protected void onFailure(Exception ex) {
+                Log.e(TAG, "Request failed", ex);
+            }
+        }.send();
+    }
+}
@@ -0,0 +1,146 @@
+package info.varden.hauk.service;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.content.Intent;
+import android.location.LocationManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import info.varden.hauk.Constants;
+import info.varden.hauk.struct.Session;
+import info.varden.hauk.struct.Version;
+import info.varden.hauk.system.preferences.PreferenceManager;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * Shares location at a one-second interval to a stub backend, and to two additional stub backends
+ * at the same time, one of which takes three seconds to answer each request. Counts the location
+ * updates received by each backend, to check that the slow backend does not delay the others.
+ */
+@SuppressWarnings({"DuplicateStringLiteralInspection", "HardCodedStringLiteral"})
+public final class FanOutTest {
+
+    private static final String TAG = "FanOut";
+    private static final Version VERSION = new Version("1.7");
+    private static final long SLOW_LATENCY_MILLIS = 3000L;
+    private static final long FIX_INTERVAL_MILLIS = 250L;
+    private static final long PHASE_MILLIS = 15000L;
+    private static final long TIMEOUT_SECONDS = 30L;
+
+    private Context ctx;
+    private LocationManager locMan;
+    private StubBackend primary;
+    private StubBackend slow;
+    private StubBackend fast;
+    private Intent pusher;
+    private Thread feeder;
+
+    @Before
+    public void setUp() throws IOException {
+        Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+        this.ctx = instrumentation.getTargetContext();
+        ServiceTestUtils.grantLocationAccess(instrumentation);
+        PreferenceManager prefs = new PreferenceManager(this.ctx);
+        prefs.set(Constants.PREF_INSTANT_FIRST_FIX, false);
+        prefs.set(Constants.PREF_THROTTLE_UNWATCHED, false);
+        prefs.set(Constants.PREF_HIGH_FREQUENCY, false);
+        prefs.set(Constants.PREF_ADAPTIVE_INTERVAL, false);
+        prefs.set(Constants.PREF_PREDICTIVE_POSTING, false);
+
+        this.primary = new StubBackend();
+        this.slow = new StubBackend();
+        this.slow.setLatency(SLOW_LATENCY_MILLIS);
+        this.fast = new StubBackend();
+        new Thread(this.primary).start();
+        new Thread(this.slow).start();
+        new Thread(this.fast).start();
+
+        this.locMan = ServiceTestUtils.addMockGps(this.ctx);
+
+        Session session = ServiceTestUtils.createSession(this.primary, VERSION);
+        this.pusher = ServiceTestUtils.createPusher(this.ctx, session);
+
+        // Feed the mock GPS provider a walk at four fixes per second.
+        this.feeder = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                double lat = ServiceTestUtils.LATITUDE;
+                while (!Thread.currentThread().isInterrupted()) {
+                    lat += 1.0E-5;
+                    FanOutTest.this.locMan.setTestProviderLocation(LocationManager.GPS_PROVIDER, ServiceTestUtils.createLocation(lat, 0L));
+                    SystemClock.sleep(FIX_INTERVAL_MILLIS);
+                }
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws IOException, InterruptedException {
+        this.feeder.interrupt();
+        this.feeder.join();
+        this.ctx.stopService(this.pusher);
+        ServiceTestUtils.cleanUp(this.ctx, this.locMan);
+        this.primary.close();
+        this.slow.close();
+        this.fast.close();
+    }
+
+    @Test
+    public void slowDestinationDoesNotDelayOthers() throws InterruptedException {
+        ServiceTestUtils.startService(this.ctx, this.pusher);
+        addDestination(this.slow);
+        addDestination(this.fast);
+        this.feeder.start();
+
+        assertThat("No location was posted", this.fast.getPosts().poll(TIMEOUT_SECONDS, TimeUnit.SECONDS), is(notNullValue()));
+        this.primary.getPosts().clear();
+        this.slow.getPosts().clear();
+        this.fast.getPosts().clear();
+        SystemClock.sleep(PHASE_MILLIS);
+        int primaryPosts = this.primary.getPosts().size();
+        int slowPosts = this.slow.getPosts().size();
+        int fastPosts = this.fast.getPosts().size();
+        long fastGap = maxGap(this.fast);
+
+        Log.i(TAG, "Posts in " + PHASE_MILLIS + " ms: " + primaryPosts + " to main backend, " + fastPosts + " to fast backend, " + slowPosts + " to slow backend (latency " + SLOW_LATENCY_MILLIS + " ms); longest gap between posts to fast backend " + fastGap + " ms");
+        assertTrue("Posted only " + primaryPosts + " times to main backend", primaryPosts >= PHASE_MILLIS / TimeUnit.SECONDS.toMillis(1L) - 2);
+        assertTrue("Posted " + fastPosts + " times to fast backend and " + primaryPosts + " times to main backend", fastPosts >= primaryPosts - 1);
+        assertTrue("Posted " + slowPosts + " times to slow backend", slowPosts <= PHASE_MILLIS / SLOW_LATENCY_MILLIS + 1);
+        assertTrue("Fast backend received no location for " + fastGap + " ms", fastGap < SLOW_LATENCY_MILLIS);
+    }
+
+    private void addDestination(StubBackend backend) {
+        Intent intent = new Intent(this.ctx, RemoteLocationPushService.class);
+        intent.setAction(LocationPushService.ACTION_ADD_DESTINATION);
+        intent.putExtra(Constants.EXTRA_SESSION, ServiceTestUtils.createSession(backend, VERSION));
+        this.ctx.startService(intent);
+    }
+
+    /**
+     * Returns the longest time between two consecutive location updates received by the backend.
+     */
+    private static long maxGap(StubBackend backend) {
+        BlockingQueue<Long> posts = backend.getPosts();
+        long max = 0L;
+        Long last = posts.poll();
+        Long post;
+        while (last != null && (post = posts.poll()) != null) {
+            max = Math.max(max, post - last);
+            last = post;
+        }
+        return max;
+    }
+}
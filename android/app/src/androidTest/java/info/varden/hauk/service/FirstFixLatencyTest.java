@@ -0,0 +1,108 @@
+package info.varden.hauk.service;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.content.Intent;
+import android.location.LocationManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import info.varden.hauk.Constants;
+import info.varden.hauk.http.parameter.LocationProvider;
+import info.varden.hauk.struct.Session;
+import info.varden.hauk.struct.Version;
+import info.varden.hauk.system.preferences.PreferenceManager;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * Measures the time from starting the location push service until the first location is posted to
+ * a stub backend, when the GNSS provider has a last known location but does not deliver any new
+ * fixes, as with a cold start. The last known location should be posted as a coarse location
+ * straight away, and be followed by the first live location once one arrives.
+ */
+@SuppressWarnings({"DuplicateStringLiteralInspection", "HardCodedStringLiteral"})
+public final class FirstFixLatencyTest {
+
+    private static final String TAG = "FirstFixLatency";
+    private static final long MAX_FIRST_POST_MILLIS = 5000L;
+    private static final long LAST_KNOWN_AGE_MILLIS = 60000L;
+    private static final long TIMEOUT_SECONDS = 30L;
+
+    private Context ctx;
+    private LocationManager locMan;
+    private StubBackend backend;
+    private Intent pusher;
+
+    @Before
+    public void setUp() throws IOException {
+        Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+        this.ctx = instrumentation.getTargetContext();
+        ServiceTestUtils.grantLocationAccess(instrumentation);
+        new PreferenceManager(this.ctx).set(Constants.PREF_INSTANT_FIRST_FIX, true);
+
+        this.backend = new StubBackend();
+        new Thread(this.backend).start();
+
+        // Give the mock GPS provider a last known location from a minute ago.
+        this.locMan = ServiceTestUtils.addMockGps(this.ctx);
+        this.locMan.setTestProviderLocation(LocationManager.GPS_PROVIDER, ServiceTestUtils.createLocation(ServiceTestUtils.LATITUDE, LAST_KNOWN_AGE_MILLIS));
+
+        Session session = ServiceTestUtils.createSession(this.backend, new Version("1.6"));
+        this.pusher = ServiceTestUtils.createPusher(this.ctx, session);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        this.ctx.stopService(this.pusher);
+        ServiceTestUtils.cleanUp(this.ctx, this.locMan);
+        this.backend.close();
+    }
+
+    @Test
+    public void postsLastKnownLocationBeforeFirstFix() throws InterruptedException {
+        long start = SystemClock.elapsedRealtime();
+        ServiceTestUtils.startService(this.ctx, this.pusher);
+
+        Long first = this.backend.getPosts().poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertThat("Last known location was not posted", first, is(notNullValue()));
+        long latency = first - start;
+        Log.i(TAG, "First location was posted " + latency + " ms after starting the service");
+        assertTrue("First location was posted after " + latency + " ms", latency <= MAX_FIRST_POST_MILLIS);
+
+        // The last known location is flagged as coarse and keeps its own, older timestamp.
+        String body = this.backend.getBodies().take();
+        assertThat("Last known location was not flagged as coarse", body, containsString(Constants.PACKET_PARAM_PROVIDER_ACCURACY + "=" + LocationProvider.COARSE.getMode()));
+        double time = Double.parseDouble(param(body, Constants.PACKET_PARAM_TIMESTAMP));
+        double age = System.currentTimeMillis() / 1000.0 - time;
+        assertTrue("Last known location posted with age " + age + " s", age >= LAST_KNOWN_AGE_MILLIS / 1000.0 - 5.0);
+
+        // It is then replaced by a live location.
+        this.locMan.setTestProviderLocation(LocationManager.GPS_PROVIDER, ServiceTestUtils.createLocation(ServiceTestUtils.LATITUDE, 0L));
+        Long live = this.backend.getPosts().poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertThat("Live location was not posted", live, is(notNullValue()));
+        body = this.backend.getBodies().take();
+        assertThat("Live location was not flagged as fine", body, containsString(Constants.PACKET_PARAM_PROVIDER_ACCURACY + "=" + LocationProvider.FINE.getMode()));
+        assertTrue("Live location is not newer", Double.parseDouble(param(body, Constants.PACKET_PARAM_TIMESTAMP)) > time);
+    }
+
+    /**
+     * Returns the value of a parameter in a form-encoded body.
+     */
+    private static String param(String body, String name) {
+        for (String pair : body.split("&")) {
+            if (pair.startsWith(name + "=")) return pair.substring(name.length() + 1);
+        }
+        throw new AssertionError("Parameter " + name + " missing from " + body);
+    }
+}
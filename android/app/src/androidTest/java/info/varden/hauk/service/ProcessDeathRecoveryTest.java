@@ -0,0 +1,125 @@
+package info.varden.hauk.service;
+
+import android.app.ActivityManager;
+import android.app.Instrumentation;
+import android.content.Context;
+import android.content.Intent;
+import android.location.LocationManager;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import info.varden.hauk.struct.Session;
+import info.varden.hauk.struct.Version;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * Kills the {@code :location} process while a session is being shared and measures how long it
+ * takes until the restarted location push service posts a location again. Locations are fed
+ * through a mock GPS provider and posted to a stub backend running in the test process.
+ */
+@SuppressWarnings({"DuplicateStringLiteralInspection", "HardCodedStringLiteral"})
+public final class ProcessDeathRecoveryTest {
+
+    private static final String TAG = "ProcessDeathRecovery";
+    private static final long MAX_RECOVERY_GAP_MILLIS = 15000L;
+    private static final long FIX_INTERVAL_MILLIS = 500L;
+    private static final long TIMEOUT_SECONDS = 60L;
+
+    private Context ctx;
+    private LocationManager locMan;
+    private StubBackend backend;
+    private Thread feeder;
+    private Intent pusher;
+
+    @Before
+    public void setUp() throws IOException {
+        Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+        this.ctx = instrumentation.getTargetContext();
+        ServiceTestUtils.grantLocationAccess(instrumentation);
+
+        this.backend = new StubBackend();
+        new Thread(this.backend).start();
+
+        // Feed fixes to a mock GPS provider so that the test does not depend on a real fix.
+        this.locMan = ServiceTestUtils.addMockGps(this.ctx);
+        this.feeder = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!Thread.currentThread().isInterrupted()) {
+                    ProcessDeathRecoveryTest.this.locMan.setTestProviderLocation(LocationManager.GPS_PROVIDER, ServiceTestUtils.createLocation(ServiceTestUtils.LATITUDE, 0L));
+                    SystemClock.sleep(FIX_INTERVAL_MILLIS);
+                }
+            }
+        });
+        this.feeder.start();
+
+        Session session = ServiceTestUtils.createSession(this.backend, new Version("1.6"));
+        this.pusher = ServiceTestUtils.createPusher(this.ctx, session);
+    }
+
+    @After
+    public void tearDown() throws IOException, InterruptedException {
+        this.ctx.stopService(this.pusher);
+        this.feeder.interrupt();
+        this.feeder.join();
+        ServiceTestUtils.cleanUp(this.ctx, this.locMan);
+        this.backend.close();
+    }
+
+    @Test
+    public void resumesPostingAfterProcessDeath() throws InterruptedException {
+        ServiceTestUtils.startService(this.ctx, this.pusher);
+
+        // Wait for the service to post a few locations before killing it.
+        BlockingQueue<Long> posts = this.backend.getPosts();
+        Long lastBeforeKill = null;
+        for (int i = 0; i < 3; i++) {
+            lastBeforeKill = posts.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            assertThat("Service did not post locations before being killed", lastBeforeKill, is(notNullValue()));
+        }
+
+        int pid = findServicePid();
+        assertThat("Location process not found", pid, is(not(-1)));
+        Process.killProcess(pid);
+        long killedAt = SystemClock.elapsedRealtime();
+        Log.i(TAG, "Killed location process " + pid);
+
+        // Skip any requests that were already in flight from the old process.
+        Long firstAfterRestart;
+        do {
+            firstAfterRestart = posts.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            assertThat("Service did not resume posting after being killed", firstAfterRestart, is(notNullValue()));
+            if (firstAfterRestart <= killedAt) lastBeforeKill = firstAfterRestart;
+        } while (firstAfterRestart <= killedAt);
+
+        long gap = firstAfterRestart - lastBeforeKill;
+        Log.i(TAG, "Posting resumed " + (firstAfterRestart - killedAt) + " ms after the process was killed; gap between posts was " + gap + " ms");
+        assertThat("New process was not started", findServicePid(), is(not(pid)));
+        assertTrue("Gap between posts was " + gap + " ms", gap <= MAX_RECOVERY_GAP_MILLIS);
+    }
+
+    /**
+     * Returns the process ID of the {@code :location} process, or -1 if it is not running.
+     */
+    private int findServicePid() {
+        ActivityManager am = (ActivityManager) this.ctx.getSystemService(Context.ACTIVITY_SERVICE);
+        String name = this.ctx.getPackageName() + ":location";
+        for (ActivityManager.RunningAppProcessInfo info : am.getRunningAppProcesses()) {
+            if (info.processName.equals(name)) return info.pid;
+        }
+        return -1;
+    }
+}
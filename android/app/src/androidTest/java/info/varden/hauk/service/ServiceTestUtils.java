@@ -0,0 +1,136 @@
+package info.varden.hauk.service;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.content.Intent;
+import android.location.Criteria;
+import android.location.Location;
+import android.location.LocationManager;
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import info.varden.hauk.Constants;
+import info.varden.hauk.caching.ResumableSessions;
+import info.varden.hauk.http.ConnectionParameters;
+import info.varden.hauk.http.security.CertificateValidationPolicy;
+import info.varden.hauk.struct.Session;
+import info.varden.hauk.struct.Share;
+import info.varden.hauk.struct.ShareMode;
+import info.varden.hauk.struct.Version;
+
+/**
+ * Shared setup for tests that run the location push service against a stub backend, with
+ * locations fed through a mock GPS provider.
+ */
+@SuppressWarnings({"DuplicateStringLiteralInspection", "HardCodedStringLiteral"})
+final class ServiceTestUtils {
+    /**
+     * The latitude of the locations fed to the mock GPS provider unless a test moves them.
+     */
+    static final double LATITUDE = 59.9139;
+    private static final double LONGITUDE = 10.7522;
+
+    private ServiceTestUtils() {
+    }
+
+    /**
+     * Grants the app location access and lets it use mock locations.
+     */
+    static void grantLocationAccess(Instrumentation instrumentation) throws IOException {
+        String pkg = instrumentation.getTargetContext().getPackageName();
+        shell(instrumentation, "pm grant " + pkg + " android.permission.ACCESS_FINE_LOCATION");
+        shell(instrumentation, "appops set " + pkg + " android:mock_location allow");
+    }
+
+    /**
+     * Replaces the GPS provider with an enabled mock provider.
+     *
+     * @return The location manager the mock provider was added to.
+     */
+    static LocationManager addMockGps(Context ctx) {
+        LocationManager locMan = (LocationManager) ctx.getSystemService(Context.LOCATION_SERVICE);
+        locMan.addTestProvider(LocationManager.GPS_PROVIDER, false, false, false, false, true, true, true, Criteria.POWER_LOW, Criteria.ACCURACY_FINE);
+        locMan.setTestProviderEnabled(LocationManager.GPS_PROVIDER, true);
+        return locMan;
+    }
+
+    /**
+     * Removes the mock GPS provider and any session that was saved as resumable by the test.
+     */
+    static void cleanUp(Context ctx, LocationManager locMan) {
+        locMan.removeTestProvider(LocationManager.GPS_PROVIDER);
+        ResumableSessions resumable = new ResumableSessions(ctx);
+        resumable.clearResumableSession();
+        resumable.clearLastSentFix();
+    }
+
+    /**
+     * Creates a GPS fix at the given latitude.
+     *
+     * @param latitude The latitude of the fix.
+     * @param age      How many milliseconds ago the fix was obtained.
+     */
+    static Location createLocation(double latitude, long age) {
+        Location location = new Location(LocationManager.GPS_PROVIDER);
+        location.setLatitude(latitude);
+        location.setLongitude(LONGITUDE);
+        location.setAccuracy(5.0F);
+        location.setTime(System.currentTimeMillis() - age);
+        location.setElapsedRealtimeNanos(SystemClock.elapsedRealtimeNanos() - TimeUnit.MILLISECONDS.toNanos(age));
+        return location;
+    }
+
+    /**
+     * Creates a session against the stub backend that lasts ten minutes and posts every second.
+     */
+    static Session createSession(StubBackend backend, Version version) {
+        ConnectionParameters connParams = new ConnectionParameters(null, null, 10000, CertificateValidationPolicy.VALIDATE_ALL);
+        return new Session(backend.getURL(), connParams, version, "test-session", System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(10L), 1, 0.0F, null);
+    }
+
+    /**
+     * Saves a share of the given session the same way the session manager does before the service
+     * is started, and creates the intent that starts the service for it.
+     */
+    static Intent createPusher(Context ctx, Session session) {
+        Share share = new Share(session, session.getServerURL() + "?TEST", "TEST", ShareMode.CREATE_ALONE);
+        ResumableSessions resumable = new ResumableSessions(ctx);
+        resumable.setSessionResumable(session);
+        resumable.setShareResumable(share);
+        resumable.clearLastSentFix();
+
+        Intent pusher = new Intent(ctx, RemoteLocationPushService.class);
+        pusher.setAction(LocationPushService.ACTION_ID);
+        pusher.putExtra(Constants.EXTRA_SHARE, share);
+        pusher.putExtra(Constants.EXTRA_SESSION, session);
+        return pusher;
+    }
+
+    /**
+     * Starts the location push service in the foreground.
+     */
+    static void startService(Context ctx, Intent pusher) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            ctx.startForegroundService(pusher);
+        } else {
+            ctx.startService(pusher);
+        }
+    }
+
+    /**
+     * Runs a shell command as the shell user and waits for it to complete.
+     */
+    private static void shell(Instrumentation instrumentation, String command) throws IOException {
+        ParcelFileDescriptor pfd = instrumentation.getUiAutomation().executeShellCommand(command);
+        try (InputStream is = new ParcelFileDescriptor.AutoCloseInputStream(pfd)) {
+            byte[] buffer = new byte[1024];
+            //noinspection StatementWithEmptyBody
+            while (is.read(buffer) != -1) ;
+        }
+    }
+}
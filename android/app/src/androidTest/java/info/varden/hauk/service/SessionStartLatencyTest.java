@@ -0,0 +1,179 @@
+package info.varden.hauk.service;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.location.Location;
+import android.location.LocationManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import info.varden.hauk.Constants;
+import info.varden.hauk.caching.ResumableSessions;
+import info.varden.hauk.http.ConnectionParameters;
+import info.varden.hauk.http.SessionInitiationPacket;
+import info.varden.hauk.http.security.CertificateValidationPolicy;
+import info.varden.hauk.manager.SessionInitiationResponseHandler;
+import info.varden.hauk.manager.SessionManager;
+import info.varden.hauk.manager.StopSharingCallback;
+import info.varden.hauk.struct.AdoptabilityPreference;
+import info.varden.hauk.struct.KeyDerivable;
+import info.varden.hauk.struct.ShareMode;
+import info.varden.hauk.struct.Version;
+import info.varden.hauk.system.preferences.PreferenceManager;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * Measures the time from the user starting an end-to-end encrypted share until the first location
+ * update is acknowledged by a stub backend that takes half a second to answer each request. GNSS
+ * warm-up and key derivation run while the session is being created.
+ */
+@SuppressWarnings({"DuplicateStringLiteralInspection", "HardCodedStringLiteral"})
+public final class SessionStartLatencyTest {
+
+    private static final String TAG = "SessionStartLatency";
+    private static final long LATENCY_MILLIS = 500L;
+    private static final long MAX_FIRST_ACK_MILLIS = 5000L;
+    private static final long FIX_INTERVAL_MILLIS = 250L;
+    private static final long TIMEOUT_SECONDS = 30L;
+    private static final String E2E_PASSWORD = "correct horse battery staple";
+
+    private Instrumentation instrumentation;
+    private Context ctx;
+    private LocationManager locMan;
+    private StubBackend backend;
+    private SessionManager manager;
+    private Thread feeder;
+
+    @Before
+    public void setUp() throws IOException {
+        this.instrumentation = InstrumentationRegistry.getInstrumentation();
+        this.ctx = this.instrumentation.getTargetContext();
+        ServiceTestUtils.grantLocationAccess(this.instrumentation);
+        new PreferenceManager(this.ctx).set(Constants.PREF_INSTANT_FIRST_FIX, true);
+        new ResumableSessions(this.ctx).clearLastSentFix();
+
+        this.backend = new StubBackend();
+        this.backend.setLatency(LATENCY_MILLIS);
+        new Thread(this.backend).start();
+
+        this.locMan = ServiceTestUtils.addMockGps(this.ctx);
+
+        this.instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                SessionStartLatencyTest.this.manager = new SessionManager(SessionStartLatencyTest.this.ctx, new StopSharingCallback() {
+                    @Override
+                    public void onSuccess() {
+                    }
+
+                    @Override
+                    public void onShareNull() {
+                    }
+
+                    @Override
+                    public void onFailure(Exception ex) {
+                        Log.e(TAG, "Session could not be stopped", ex);
+                    }
+                }) {
+                    @Override
+                    protected void requestLocationPermission() {
+                        fail("Location permission was not granted");
+                    }
+                };
+            }
+        });
+
+        // Feed the mock GPS provider a fix four times per second.
+        this.feeder = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!Thread.currentThread().isInterrupted()) {
+                    SessionStartLatencyTest.this.locMan.setTestProviderLocation(LocationManager.GPS_PROVIDER, ServiceTestUtils.createLocation(ServiceTestUtils.LATITUDE, 0L));
+                    SystemClock.sleep(FIX_INTERVAL_MILLIS);
+                }
+            }
+        });
+        this.feeder.start();
+    }
+
+    @After
+    public void tearDown() throws IOException, InterruptedException {
+        this.instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                SessionStartLatencyTest.this.manager.stopSharing();
+            }
+        });
+        this.feeder.interrupt();
+        this.feeder.join();
+        ServiceTestUtils.cleanUp(this.ctx, this.locMan);
+        this.backend.close();
+    }
+
+    @Test
+    public void acknowledgesFirstPointSoonAfterTap() throws InterruptedException, GeneralSecurityException {
+        final SessionInitiationPacket.InitParameters initParams = new SessionInitiationPacket.InitParameters(this.backend.getURL(), "", "", 600, 1, 0.0F, null, E2E_PASSWORD);
+        initParams.setConnectionParameters(new ConnectionParameters(null, null, 5000, CertificateValidationPolicy.VALIDATE_ALL));
+        final AtomicLong tap = new AtomicLong();
+        this.instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                tap.set(SystemClock.elapsedRealtime());
+                SessionStartLatencyTest.this.manager.prepareSession(initParams, ShareMode.CREATE_ALONE, AdoptabilityPreference.ALLOW_ADOPTION);
+                try {
+                    SessionStartLatencyTest.this.manager.shareLocation(initParams, new ResponseHandler(), AdoptabilityPreference.ALLOW_ADOPTION);
+                } catch (Exception ex) {
+                    throw new AssertionError(ex);
+                }
+            }
+        });
+
+        Long ack = this.backend.getAcks().poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertThat("No location was acknowledged", ack, is(notNullValue()));
+        long latency = ack - tap.get();
+
+        // For comparison, derive a key with the same parameters as the share.
+        long start = SystemClock.elapsedRealtime();
+        new KeyDerivable(E2E_PASSWORD, initParams.getKeyDerivable().getSalt()).deriveSpec();
+        long derivation = SystemClock.elapsedRealtime() - start;
+
+        Log.i(TAG, "First location acknowledged " + latency + " ms after tap (backend latency " + LATENCY_MILLIS + " ms, key derivation " + derivation + " ms)");
+        assertTrue("First location acknowledged after " + latency + " ms", latency <= MAX_FIRST_ACK_MILLIS);
+    }
+
+    private static final class ResponseHandler implements SessionInitiationResponseHandler {
+        @Override
+        public void onInitiating() {
+        }
+
+        @Override
+        public void onSuccess() {
+        }
+
+        @Override
+        public void onShareModeForciblyDowngraded(ShareMode downgradeTo, Version backendVersion) {
+        }
+
+        @Override
+        public void onE2EForciblyDisabled(Version backendVersion) {
+        }
+
+        @Override
+        public void onFailure(Exception ex) {
+            Log.e(TAG, "Session could not be created", ex);
+        }
+    }
+}
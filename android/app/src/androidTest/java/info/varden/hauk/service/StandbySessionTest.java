@@ -0,0 +1,217 @@
+package info.varden.hauk.service;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.location.LocationManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import info.varden.hauk.Constants;
+import info.varden.hauk.http.ConnectionParameters;
+import info.varden.hauk.http.SessionInitiationPacket;
+import info.varden.hauk.http.security.CertificateValidationPolicy;
+import info.varden.hauk.manager.SessionInitiationResponseHandler;
+import info.varden.hauk.manager.SessionManager;
+import info.varden.hauk.manager.StopSharingCallback;
+import info.varden.hauk.struct.AdoptabilityPreference;
+import info.varden.hauk.struct.ShareMode;
+import info.varden.hauk.struct.Version;
+import info.varden.hauk.system.preferences.PreferenceManager;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * Measures the time from the user starting a single-user share until the share link is available,
+ * against a stub backend that takes half a second to answer each request, with and without a
+ * session on standby.
+ */
+@SuppressWarnings({"DuplicateStringLiteralInspection", "HardCodedStringLiteral"})
+public final class StandbySessionTest {
+
+    private static final String TAG = "StandbySession";
+    private static final long LATENCY_MILLIS = 500L;
+    private static final int DURATION_MINUTES = 10;
+    private static final long TIMEOUT_SECONDS = 30L;
+
+    private Instrumentation instrumentation;
+    private Context ctx;
+    private PreferenceManager prefs;
+    private LocationManager locMan;
+    private StubBackend backend;
+    private SessionManager manager;
+    private volatile CountDownLatch stopped;
+
+    @Before
+    public void setUp() throws IOException {
+        this.instrumentation = InstrumentationRegistry.getInstrumentation();
+        this.ctx = this.instrumentation.getTargetContext();
+        ServiceTestUtils.grantLocationAccess(this.instrumentation);
+
+        this.backend = new StubBackend();
+        this.backend.setLatency(LATENCY_MILLIS);
+        new Thread(this.backend).start();
+
+        // The standby session is created from the default share settings.
+        this.prefs = new PreferenceManager(this.ctx);
+        this.prefs.set(Constants.PREF_SERVER_ENCRYPTED, this.backend.getURL());
+        this.prefs.set(Constants.PREF_USERNAME_ENCRYPTED, "");
+        this.prefs.set(Constants.PREF_PASSWORD_ENCRYPTED, "");
+        this.prefs.set(Constants.PREF_DURATION, DURATION_MINUTES);
+        this.prefs.set(Constants.PREF_DURATION_UNIT, Constants.DURATION_UNIT_MINUTES);
+        this.prefs.set(Constants.PREF_INTERVAL, 1);
+        this.prefs.set(Constants.PREF_UPDATE_DISTANCE, 0.0F);
+        this.prefs.set(Constants.PREF_CUSTOM_ID, "");
+        this.prefs.set(Constants.PREF_ENABLE_E2E, false);
+        this.prefs.set(Constants.PREF_ALLOW_ADOPTION, true);
+        this.prefs.set(Constants.PREF_STANDBY_SESSION, false);
+
+        this.locMan = ServiceTestUtils.addMockGps(this.ctx);
+
+        this.instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                StandbySessionTest.this.manager = new SessionManager(StandbySessionTest.this.ctx, new StopSharingCallback() {
+                    @Override
+                    public void onSuccess() {
+                        StandbySessionTest.this.stopped.countDown();
+                    }
+
+                    @Override
+                    public void onShareNull() {
+                        StandbySessionTest.this.stopped.countDown();
+                    }
+
+                    @Override
+                    public void onFailure(Exception ex) {
+                        Log.e(TAG, "Session could not be stopped", ex);
+                        StandbySessionTest.this.stopped.countDown();
+                    }
+                }) {
+                    @Override
+                    protected void requestLocationPermission() {
+                        fail("Location permission was not granted");
+                    }
+                };
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws IOException, InterruptedException {
+        this.prefs.set(Constants.PREF_STANDBY_SESSION, false);
+        stop();
+        this.instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                StandbySessionTest.this.manager.discardStandbySession();
+            }
+        });
+        ServiceTestUtils.cleanUp(this.ctx, this.locMan);
+        this.backend.close();
+    }
+
+    @Test
+    public void startsInstantlyWithStandbySession() throws InterruptedException {
+        long coldMillis = share();
+        stop();
+
+        // Enable the standby session and wait for the backend to create it.
+        this.prefs.set(Constants.PREF_STANDBY_SESSION, true);
+        this.backend.getCreates().clear();
+        this.instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                StandbySessionTest.this.manager.updateStandbySession();
+            }
+        });
+        assertThat("Standby session was not created", this.backend.getCreates().poll(TIMEOUT_SECONDS, TimeUnit.SECONDS), is(notNullValue()));
+        // Let the response reach the session manager.
+        SystemClock.sleep(LATENCY_MILLIS);
+        this.instrumentation.waitForIdleSync();
+
+        long warmMillis = share();
+        Log.i(TAG, "Share started " + coldMillis + " ms after tap without standby session, " + warmMillis + " ms with standby session (backend latency " + LATENCY_MILLIS + " ms)");
+        assertTrue("Share without standby session started after " + coldMillis + " ms", coldMillis >= LATENCY_MILLIS);
+        assertTrue("Share with standby session started after " + warmMillis + " ms", warmMillis < LATENCY_MILLIS);
+    }
+
+    /**
+     * Starts a share with the default settings and returns the time until it was started.
+     */
+    private long share() throws InterruptedException {
+        final SessionInitiationPacket.InitParameters initParams = new SessionInitiationPacket.InitParameters(this.backend.getURL(), "", "", DURATION_MINUTES * 60, 1, 0.0F, "", "");
+        initParams.setConnectionParameters(new ConnectionParameters(null, null, 5000, CertificateValidationPolicy.VALIDATE_ALL));
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicLong tap = new AtomicLong();
+        final AtomicLong done = new AtomicLong();
+        this.instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                tap.set(SystemClock.elapsedRealtime());
+                try {
+                    StandbySessionTest.this.manager.shareLocation(initParams, new ResponseHandler(done, started), AdoptabilityPreference.ALLOW_ADOPTION);
+                } catch (Exception ex) {
+                    throw new AssertionError(ex);
+                }
+            }
+        });
+        assertThat("Share was not started", started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS), is(true));
+        return done.get() - tap.get();
+    }
+
+    private void stop() throws InterruptedException {
+        this.stopped = new CountDownLatch(1);
+        this.instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                StandbySessionTest.this.manager.stopSharing();
+            }
+        });
+        assertThat("Share was not stopped", this.stopped.await(TIMEOUT_SECONDS, TimeUnit.SECONDS), is(true));
+    }
+
+    private static final class ResponseHandler implements SessionInitiationResponseHandler {
+        private final AtomicLong done;
+        private final CountDownLatch started;
+
+        private ResponseHandler(AtomicLong done, CountDownLatch started) {
+            this.done = done;
+            this.started = started;
+        }
+
+        @Override
+        public void onInitiating() {
+        }
+
+        @Override
+        public void onSuccess() {
+            this.done.set(SystemClock.elapsedRealtime());
+            this.started.countDown();
+        }
+
+        @Override
+        public void onShareModeForciblyDowngraded(ShareMode downgradeTo, Version backendVersion) {
+        }
+
+        @Override
+        public void onE2EForciblyDisabled(Version backendVersion) {
+        }
+
+        @Override
+        public void onFailure(Exception ex) {
+            Log.e(TAG, "Session could not be created", ex);
+        }
+    }
+}
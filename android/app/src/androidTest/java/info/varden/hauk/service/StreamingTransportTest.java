@@ -0,0 +1,158 @@
+package info.varden.hauk.service;
+
+import android.content.Context;
+import android.location.Location;
+import android.location.LocationManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import info.varden.hauk.http.ConnectionParameters;
+import info.varden.hauk.http.LocationUpdatePacket;
+import info.varden.hauk.http.ServerException;
+import info.varden.hauk.http.WebSocketTransport;
+import info.varden.hauk.http.parameter.LocationProvider;
+import info.varden.hauk.http.security.CertificateValidationPolicy;
+import info.varden.hauk.struct.Session;
+import info.varden.hauk.struct.Version;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * Sends location updates to a stub backend one at a time, first as HTTP requests and then over a
+ * stream, and compares the bytes exchanged per update and the mean time until each update is
+ * acknowledged. Also checks that no updates are lost when the stream drops, and that updates are
+ * posted over HTTP, without attempting a stream handshake, when the backend does not advertise
+ * streaming support.
+ */
+@SuppressWarnings({"DuplicateStringLiteralInspection", "HardCodedStringLiteral"})
+public final class StreamingTransportTest {
+
+    private static final String TAG = "Streaming";
+    private static final int POINTS = 30;
+    private static final long LATENCY_MILLIS = 50L;
+    private static final long TIMEOUT_SECONDS = 30L;
+    private static final String RESULT_OK = "OK";
+
+    private Context ctx;
+    private StubBackend backend;
+    private Session httpSession;
+    private Session streamSession;
+
+    @Before
+    public void setUp() throws IOException {
+        this.ctx = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        this.backend = new StubBackend();
+        this.backend.setLatency(LATENCY_MILLIS);
+        new Thread(this.backend).start();
+
+        ConnectionParameters params = new ConnectionParameters(null, null, 10000, CertificateValidationPolicy.VALIDATE_ALL);
+        long expiry = System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1L);
+        this.httpSession = new Session(this.backend.getURL(), params, new Version("1.7"), "http-session", expiry, 1, 0.0F, null);
+        this.streamSession = new Session(this.backend.getURL(), params.withTransport(new WebSocketTransport()), new Version("1.7"), "stream-session", expiry, 1, 0.0F, null);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        WebSocketTransport.disconnect(this.streamSession);
+        this.backend.close();
+    }
+
+    @Test
+    public void streamingUsesFewerBytesPerUpdate() throws InterruptedException {
+        long httpLatency = sendUpdates(this.httpSession, POINTS);
+        long httpBytes = this.backend.getHttpBytes();
+        long streamLatency = sendUpdates(this.streamSession, POINTS);
+        long streamBytes = this.backend.getStreamBytes();
+
+        Log.i(TAG, "HTTP: " + httpBytes / POINTS + " bytes and " + httpLatency + " ms per update; stream: " + streamBytes / POINTS + " bytes and " + streamLatency + " ms per update, including the handshake (" + POINTS + " updates, " + LATENCY_MILLIS + " ms backend latency)");
+        assertThat(this.backend.getPosts().size(), is(2 * POINTS));
+        assertThat("Updates were posted over HTTP instead of streamed", this.backend.getHttpBytes(), is(httpBytes));
+        assertTrue("Streaming used " + streamBytes + " bytes, HTTP " + httpBytes, streamBytes < httpBytes);
+    }
+
+    @Test
+    public void resumesAfterStreamIsDropped() throws InterruptedException, IOException {
+        // Learn that the backend supports streaming, as when the session is created.
+        sendUpdates(this.httpSession, 1);
+        long httpBytes = this.backend.getHttpBytes();
+        sendUpdates(this.streamSession, POINTS / 2);
+        this.backend.dropStreams();
+        sendUpdates(this.streamSession, POINTS / 2);
+
+        assertThat(this.backend.getPosts().size(), is(POINTS + 1));
+        assertThat("Stream was not reopened", this.backend.getStreamConnections(), is(2L));
+        assertThat("Updates were posted over HTTP instead of streamed", this.backend.getHttpBytes(), is(httpBytes));
+    }
+
+    @Test
+    public void postsFirstUpdateOverHttpUntilStreamingIsAdvertised() throws InterruptedException {
+        sendUpdates(this.streamSession, 1);
+        assertThat(this.backend.getStreamHandshakes(), is(0L));
+        long httpBytes = this.backend.getHttpBytes();
+        sendUpdates(this.streamSession, POINTS / 2);
+
+        assertThat(this.backend.getStreamConnections(), is(1L));
+        assertThat("Updates were posted over HTTP instead of streamed", this.backend.getHttpBytes(), is(httpBytes));
+    }
+
+    @Test
+    public void fallsBackToHttpWithoutStreamingSupport() throws InterruptedException {
+        this.backend.setStreaming(false);
+        sendUpdates(this.streamSession, POINTS / 2);
+
+        assertThat(this.backend.getPosts().size(), is(POINTS / 2));
+        assertThat("Stream handshake was attempted", this.backend.getStreamHandshakes(), is(0L));
+        assertThat(this.backend.getStreamConnections(), is(0L));
+        assertTrue("Updates were not posted over HTTP", this.backend.getHttpBytes() > 0L);
+    }
+
+    /**
+     * Sends location updates one at a time, waiting for each to be acknowledged.
+     *
+     * @return The mean time in milliseconds until an update was acknowledged.
+     */
+    private long sendUpdates(Session session, int count) throws InterruptedException {
+        final BlockingQueue<String> results = new LinkedBlockingQueue<>();
+        long total = 0L;
+        for (int i = 0; i < count; i++) {
+            Location location = new Location(LocationManager.GPS_PROVIDER);
+            location.setLatitude(59.9139 + i * 1.0E-5);
+            location.setLongitude(10.7522);
+            location.setAccuracy(5.0F);
+            long start = SystemClock.elapsedRealtime();
+            new LocationUpdatePacket(this.ctx, session, location, LocationProvider.FINE) {
+                @Override
+                protected void onShareListReceived(String linkFormat, String[] shares) {
+                }
+
+                @Override
+                protected void onSuccess(String[] data, Version backendVersion) throws ServerException {
+                    super.onSuccess(data, backendVersion);
+                    results.add(RESULT_OK);
+                }
+
+                @Override
+                protected void onFailure(Exception ex) {
+                    results.add(ex.toString());
+                }
+            }.send();
+            String result = results.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            assertThat("Update " + i + " was not acknowledged", result, is(notNullValue()));
+            assertThat("Update " + i + " failed", result, is(RESULT_OK));
+            total += SystemClock.elapsedRealtime() - start;
+        }
+        return total / count;
+    }
+}
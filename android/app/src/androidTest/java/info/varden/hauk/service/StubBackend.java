@@ -0,0 +1,495 @@
+package info.varden.hauk.service;
+
+import android.os.SystemClock;
+import android.util.Base64;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import info.varden.hauk.Constants;
+
+/**
+ * A minimal HTTP server that accepts location updates like the Hauk backend and records the time
+ * at which each one was received, along with its form-encoded body. Like the backend, it can
+ * suggest a longer interval while nobody is viewing any of the session's shares, create sessions,
+ * and stop shares one at a time or in bulk. Shares are viewed by fetching them like the frontend,
+ * and the session can be added to a group share.
+ *
+ * <p>Location updates can also be streamed over a WebSocket connection to
+ * {@link Constants#URL_PATH_STREAM}, which is handled on a thread of its own. The bytes exchanged
+ * for location updates are counted for both HTTP requests and streams, so that the overhead of
+ * each can be compared.</p>
+ */
+@SuppressWarnings({"DuplicateStringLiteralInspection", "HardCodedStringLiteral"})
+final class StubBackend implements Runnable {
+    private static final String URL_PATH_FETCH = "api/fetch.php?id=";
+    private static final String SOLO_SHARE_ID = "TEST";
+    private static final int SHARE_TYPE_ALONE = 0;
+    private static final int SHARE_TYPE_GROUP = 1;
+
+    /**
+     * How long a share counts as viewed after it was fetched, like the backend: two polls at the
+     * one-second interval of the test sessions plus the default request timeout.
+     */
+    private static final long VIEWED_MILLIS = 12000L;
+
+    private final ServerSocket socket;
+    private final BlockingQueue<Long> posts = new LinkedBlockingQueue<>();
+    private final BlockingQueue<String> bodies = new LinkedBlockingQueue<>();
+    private final BlockingQueue<Long> acks = new LinkedBlockingQueue<>();
+    private final BlockingQueue<Long> creates = new LinkedBlockingQueue<>();
+    private volatile int suggestedInterval = 0;
+    private volatile long latency = 0L;
+    private volatile boolean streaming = true;
+    private final AtomicLong httpBytes = new AtomicLong();
+    private final AtomicLong streamBytes = new AtomicLong();
+    private final AtomicLong streamConnections = new AtomicLong();
+    private final AtomicLong streamHandshakes = new AtomicLong();
+    private final List<Socket> streams = new CopyOnWriteArrayList<>();
+
+    /**
+     * The type of each share the session contributes to, by share ID.
+     */
+    private final Map<String, Integer> targets = new ConcurrentHashMap<>();
+
+    /**
+     * The time on the monotonic clock until which each share counts as viewed, by share ID.
+     */
+    private final Map<String, Long> viewedUntil = new ConcurrentHashMap<>();
+
+    /**
+     * The highest sequence number received on each stream channel, to discard updates that are
+     * sent again after a reconnect.
+     */
+    private final Map<String, Long> received = new HashMap<>();
+
+    StubBackend() throws IOException {
+        this.socket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        this.targets.put(SOLO_SHARE_ID, SHARE_TYPE_ALONE);
+    }
+
+    String getURL() {
+        return "http://127.0.0.1:" + this.socket.getLocalPort() + "/";
+    }
+
+    /**
+     * Returns the times on the monotonic clock at which location updates were received.
+     */
+    BlockingQueue<Long> getPosts() {
+        return this.posts;
+    }
+
+    /**
+     * Returns the bodies of the location updates received, in the same order as
+     * {@link #getPosts()}.
+     */
+    BlockingQueue<String> getBodies() {
+        return this.bodies;
+    }
+
+    /**
+     * Returns the times on the monotonic clock at which responses to location updates were sent,
+     * in the same order as {@link #getPosts()}.
+     */
+    BlockingQueue<Long> getAcks() {
+        return this.acks;
+    }
+
+    /**
+     * Returns the times on the monotonic clock at which responses to session creation requests
+     * were sent.
+     */
+    BlockingQueue<Long> getCreates() {
+        return this.creates;
+    }
+
+    /**
+     * Sets the interval in seconds to suggest in responses to location updates, or 0 to suggest
+     * none, as when someone is viewing the share.
+     */
+    void setSuggestedInterval(int seconds) {
+        this.suggestedInterval = seconds;
+    }
+
+    /**
+     * Adds the session to a group share, which is then listed among its shares and can be
+     * fetched.
+     */
+    void joinGroup(String shareID) {
+        this.targets.put(shareID, SHARE_TYPE_GROUP);
+    }
+
+    /**
+     * Sets the time in milliseconds to wait before responding to each request, to simulate the
+     * round trip time of a mobile network.
+     */
+    void setLatency(long millis) {
+        this.latency = millis;
+    }
+
+    /**
+     * Sets whether to accept streaming connections. If so, HTTP responses advertise streaming
+     * support. If not, the stream handshake is answered with HTTP 404, as by a backend without
+     * streaming support.
+     */
+    void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    /**
+     * Returns the number of bytes exchanged in HTTP requests to post locations and their
+     * responses.
+     */
+    long getHttpBytes() {
+        return this.httpBytes.get();
+    }
+
+    /**
+     * Returns the number of bytes exchanged over streams, including their handshakes.
+     */
+    long getStreamBytes() {
+        return this.streamBytes.get();
+    }
+
+    /**
+     * Returns the number of streaming connections that have been accepted.
+     */
+    long getStreamConnections() {
+        return this.streamConnections.get();
+    }
+
+    /**
+     * Returns the number of stream handshakes that have been received, whether or not they were
+     * accepted.
+     */
+    long getStreamHandshakes() {
+        return this.streamHandshakes.get();
+    }
+
+    /**
+     * Drops all open streams without a closing handshake, as if the network went away.
+     */
+    void dropStreams() throws IOException {
+        for (Socket stream : this.streams) stream.close();
+    }
+
+    void close() throws IOException {
+        this.socket.close();
+        dropStreams();
+    }
+
+    @Override
+    public void run() {
+        while (!this.socket.isClosed()) {
+            Socket client = null;
+            try {
+                client = this.socket.accept();
+                if (!handle(client)) client.close();
+            } catch (IOException ignored) {
+                // The socket was closed or the client disconnected.
+                if (client != null) {
+                    try {
+                        client.close();
+                    } catch (IOException alsoIgnored) {
+                        // Already closed.
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Handles a request.
+     *
+     * @return true if the connection was upgraded to a stream and must be kept open.
+     */
+    private boolean handle(Socket client) throws IOException {
+        // Read the request byte by byte, so that no stream frames are consumed.
+        InputStream is = client.getInputStream();
+        String requestLine = readLine(is);
+        if (requestLine == null) return false;
+        long requestBytes = requestLine.length() + 2;
+        int contentLength = 0;
+        String webSocketKey = null;
+        String header;
+        while ((header = readLine(is)) != null && !header.isEmpty()) {
+            requestBytes += header.length() + 2;
+            if (header.toLowerCase().startsWith("content-length:")) {
+                contentLength = Integer.parseInt(header.substring(header.indexOf(':') + 1).trim());
+            } else if (header.toLowerCase().startsWith("sec-websocket-key:")) {
+                webSocketKey = header.substring(header.indexOf(':') + 1).trim();
+            }
+        }
+        requestBytes += 2;
+        byte[] body = new byte[contentLength];
+        new DataInputStream(is).readFully(body);
+        String content = new String(body, StandardCharsets.UTF_8);
+        requestBytes += contentLength;
+
+        if (requestLine.contains(Constants.URL_PATH_STREAM)) {
+            this.streamHandshakes.incrementAndGet();
+            if (!this.streaming || webSocketKey == null) {
+                respond(client, "HTTP/1.1 404 Not Found", "Not found\n");
+                return false;
+            }
+            this.streamBytes.addAndGet(requestBytes);
+            openStream(client, webSocketKey);
+            return true;
+        }
+
+        if (requestLine.contains(Constants.URL_PATH_POST_LOCATION)) {
+            this.bodies.add(content);
+            this.posts.add(SystemClock.elapsedRealtime());
+            this.httpBytes.addAndGet(requestBytes);
+        }
+
+        if (this.latency > 0L) SystemClock.sleep(this.latency);
+        if (requestLine.contains(URL_PATH_FETCH)) {
+            String shareID = requestLine.split(" ")[1];
+            shareID = shareID.substring(shareID.indexOf(URL_PATH_FETCH) + URL_PATH_FETCH.length());
+            Integer type = this.targets.get(shareID);
+            if (type == null) {
+                respond(client, "HTTP/1.1 404 Not Found", "Session expired\n");
+            } else {
+                // Like the backend, the share counts as viewed until the viewer misses a poll.
+                this.viewedUntil.put(shareID, SystemClock.elapsedRealtime() + VIEWED_MILLIS);
+                respond(client, "HTTP/1.1 200 OK", "{\"type\":" + type + ",\"interval\":1,\"points\":[]}\n");
+            }
+            return false;
+        } else if (requestLine.contains(Constants.URL_PATH_STOP_SHARING)) {
+            // Like the backend, report the result for each share in a bulk request on its own line.
+            StringBuilder response = new StringBuilder(Constants.PACKET_RESPONSE_OK + "\n");
+            String bulkParam = URLEncoder.encode(Constants.PACKET_PARAM_SHARE_ID + "[", "UTF-8");
+            for (int i = content.indexOf(bulkParam); i >= 0; i = content.indexOf(bulkParam, i + 1)) {
+                response.append(Constants.PACKET_RESPONSE_OK).append("\n");
+            }
+            respond(client, "HTTP/1.1 200 OK", response.toString());
+            return false;
+        } else if (requestLine.contains(Constants.URL_PATH_CREATE_SHARE)) {
+            respond(client, "HTTP/1.1 200 OK", Constants.PACKET_RESPONSE_OK + "\ntest-session\n" + getURL() + "?TEST\nTEST\n");
+            this.creates.add(SystemClock.elapsedRealtime());
+            return false;
+        }
+
+        long responseBytes = respond(client, "HTTP/1.1 200 OK", createLocationResponse(content));
+        if (requestLine.contains(Constants.URL_PATH_POST_LOCATION)) {
+            this.httpBytes.addAndGet(responseBytes);
+            this.acks.add(SystemClock.elapsedRealtime());
+        }
+        return false;
+    }
+
+    /**
+     * Returns the response to a location update with the given form-encoded body.
+     */
+    private String createLocationResponse(String content) {
+        // Like the backend, leave out the share list if the client already has it.
+        // The share list only grows, so its length serves as its version.
+        String version = String.valueOf(this.targets.size());
+        String shares = "";
+        if (!content.contains(Constants.PACKET_PARAM_SHARE_LIST_VERSION + "=" + version)) {
+            for (String shareID : this.targets.keySet()) shares += (shares.isEmpty() ? "" : ",") + shareID;
+        }
+        int suggested = isViewed() ? 0 : this.suggestedInterval;
+        return Constants.PACKET_RESPONSE_OK + "\n" + getURL() + "?%s\n" + shares + "\n"
+                + (suggested > 0 ? String.valueOf(suggested) : "") + "\n"
+                + version + "\n";
+    }
+
+    /**
+     * Whether or not any of the shares the session contributes to is being viewed.
+     */
+    private boolean isViewed() {
+        long now = SystemClock.elapsedRealtime();
+        for (String shareID : this.targets.keySet()) {
+            Long deadline = this.viewedUntil.get(shareID);
+            if (deadline != null && deadline >= now) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Answers the stream handshake and serves the stream on a new thread.
+     */
+    private void openStream(final Socket client, String key) throws IOException {
+        String accept;
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            accept = Base64.encodeToString(sha1.digest((key + "258EAFA5-E914-47DA-95CA-C5AB0DC85B11").getBytes(StandardCharsets.US_ASCII)), Base64.NO_WRAP);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IOException(ex);
+        }
+        byte[] handshake = ("HTTP/1.1 101 Switching Protocols\r\n"
+                + "Upgrade: websocket\r\n"
+                + "Connection: Upgrade\r\n"
+                + "Sec-WebSocket-Accept: " + accept + "\r\n"
+                + Constants.HTTP_HEADER_HAUK_VERSION + ": 1.7\r\n\r\n").getBytes(StandardCharsets.UTF_8);
+        client.getOutputStream().write(handshake);
+        client.getOutputStream().flush();
+        this.streamBytes.addAndGet(handshake.length);
+        this.streamConnections.incrementAndGet();
+        this.streams.add(client);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    serveStream(client);
+                } catch (IOException ignored) {
+                    // The stream was dropped.
+                } finally {
+                    StubBackend.this.streams.remove(client);
+                    try {
+                        client.close();
+                    } catch (IOException ignored) {
+                        // Already closed.
+                    }
+                }
+            }
+        }).start();
+    }
+
+    /**
+     * Serves a stream: answers hellos with the last sequence number received on the channel, and
+     * acknowledges each location update, discarding those already received.
+     */
+    private void serveStream(Socket client) throws IOException {
+        InputStream is = client.getInputStream();
+        OutputStream os = client.getOutputStream();
+        String channel = null;
+        String status = createLocationResponse("");
+        while (true) {
+            int[] opcode = new int[1];
+            byte[] payload = readFrame(is, opcode);
+            if (opcode[0] == 0x8) return;
+            if (opcode[0] == 0x9) {
+                writeFrame(os, 0xA, payload);
+                continue;
+            }
+            if (opcode[0] != 0x1) continue;
+
+            String message = new String(payload, StandardCharsets.UTF_8);
+            int newline = message.indexOf('\n');
+            String[] header = message.substring(0, newline).split(" ");
+            String content = message.substring(newline + 1);
+            if (header[0].equals("H")) {
+                channel = header[1];
+                long last;
+                synchronized (this.received) {
+                    last = this.received.containsKey(channel) ? this.received.get(channel) : 0L;
+                }
+                writeFrame(os, 0x1, ("W " + last + "\n" + status).getBytes(StandardCharsets.UTF_8));
+            } else if (header[0].equals("P") && channel != null) {
+                long seq = Long.parseLong(header[1]);
+                boolean duplicate;
+                synchronized (this.received) {
+                    duplicate = this.received.containsKey(channel) && this.received.get(channel) >= seq;
+                    if (!duplicate) this.received.put(channel, seq);
+                }
+                if (!duplicate) {
+                    this.bodies.add(content);
+                    this.posts.add(SystemClock.elapsedRealtime());
+                }
+                if (this.latency > 0L) SystemClock.sleep(this.latency);
+                status = createLocationResponse(content);
+                writeFrame(os, 0x1, ("A " + seq + "\n" + status).getBytes(StandardCharsets.UTF_8));
+                if (!duplicate) this.acks.add(SystemClock.elapsedRealtime());
+            }
+        }
+    }
+
+    /**
+     * Reads a masked frame sent by the client, and counts its bytes.
+     */
+    private byte[] readFrame(InputStream is, int[] opcode) throws IOException {
+        DataInputStream in = new DataInputStream(is);
+        int b0 = in.readUnsignedByte();
+        int b1 = in.readUnsignedByte();
+        opcode[0] = b0 & 0x0F;
+        int length = b1 & 0x7F;
+        int header = 2;
+        if (length == 126) {
+            length = in.readUnsignedShort();
+            header += 2;
+        } else if (length == 127) {
+            length = (int) in.readLong();
+            header += 8;
+        }
+        byte[] mask = new byte[4];
+        if ((b1 & 0x80) != 0) {
+            in.readFully(mask);
+            header += 4;
+        }
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        for (int i = 0; i < length; i++) payload[i] ^= mask[i & 3];
+        this.streamBytes.addAndGet(header + length);
+        return payload;
+    }
+
+    /**
+     * Writes an unmasked frame to the client, and counts its bytes.
+     */
+    private void writeFrame(OutputStream os, int opcode, byte[] payload) throws IOException {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        frame.write(0x80 | opcode);
+        if (payload.length < 126) {
+            frame.write(payload.length);
+        } else {
+            frame.write(126);
+            frame.write(payload.length >>> 8);
+            frame.write(payload.length & 0xFF);
+        }
+        frame.write(payload);
+        os.write(frame.toByteArray());
+        os.flush();
+        this.streamBytes.addAndGet(frame.size());
+    }
+
+    private static String readLine(InputStream is) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b = is.read();
+        if (b < 0) return null;
+        for (; b >= 0 && b != '\n'; b = is.read()) {
+            if (b != '\r') line.write(b);
+        }
+        return new String(line.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Sends a response and closes the connection.
+     *
+     * @return The number of bytes sent.
+     */
+    private long respond(Socket client, String status, String response) throws IOException {
+        byte[] body = response.getBytes(StandardCharsets.UTF_8);
+        byte[] headers = (status + "\r\n"
+                + Constants.HTTP_HEADER_HAUK_VERSION + ": 1.7\r\n"
+                + (this.streaming ? Constants.HTTP_HEADER_HAUK_STREAMING + ": 1\r\n" : "")
+                + "Content-Type: text/plain\r\n"
+                + "Content-Length: " + body.length + "\r\n"
+                + "Connection: close\r\n\r\n").getBytes(StandardCharsets.UTF_8);
+        OutputStream os = client.getOutputStream();
+        os.write(headers);
+        os.write(body);
+        os.flush();
+        return headers.length + body.length;
+    }
+}
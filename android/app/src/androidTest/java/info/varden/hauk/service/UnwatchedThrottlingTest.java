@@ -0,0 +1,188 @@
+package info.varden.hauk.service;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.content.Intent;
+import android.location.LocationManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import info.varden.hauk.Constants;
+import info.varden.hauk.struct.Session;
+import info.varden.hauk.struct.Version;
+import info.varden.hauk.system.preferences.PreferenceManager;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * Shares location at a one-second interval to a stub backend that suggests a ten-second interval,
+ * as the backend does while nobody is viewing the share, and counts the location updates posted
+ * before and after the suggestion is withdrawn, either directly or because a group share the
+ * session is part of is being viewed.
+ */
+@SuppressWarnings({"DuplicateStringLiteralInspection", "HardCodedStringLiteral"})
+public final class UnwatchedThrottlingTest {
+
+    private static final String TAG = "UnwatchedThrottling";
+    private static final int SUGGESTED_INTERVAL_SECONDS = 10;
+    private static final long FIX_INTERVAL_MILLIS = 250L;
+    private static final long PHASE_MILLIS = 25000L;
+    private static final long TIMEOUT_SECONDS = 30L;
+    private static final long VIEWER_POLL_MILLIS = 1000L;
+    private static final String GROUP_SHARE_ID = "GROUP";
+
+    private Context ctx;
+    private LocationManager locMan;
+    private StubBackend backend;
+    private Intent pusher;
+    private Thread feeder;
+
+    @Before
+    public void setUp() throws IOException {
+        Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+        this.ctx = instrumentation.getTargetContext();
+        ServiceTestUtils.grantLocationAccess(instrumentation);
+        PreferenceManager prefs = new PreferenceManager(this.ctx);
+        prefs.set(Constants.PREF_INSTANT_FIRST_FIX, false);
+        prefs.set(Constants.PREF_THROTTLE_UNWATCHED, true);
+        prefs.set(Constants.PREF_UNWATCHED_MAX_INTERVAL, 60);
+
+        this.backend = new StubBackend();
+        this.backend.setSuggestedInterval(SUGGESTED_INTERVAL_SECONDS);
+        new Thread(this.backend).start();
+
+        this.locMan = ServiceTestUtils.addMockGps(this.ctx);
+        Session session = ServiceTestUtils.createSession(this.backend, new Version("1.7"));
+        this.pusher = ServiceTestUtils.createPusher(this.ctx, session);
+
+        // Feed the mock GPS provider a walk at four fixes per second.
+        this.feeder = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                double lat = ServiceTestUtils.LATITUDE;
+                while (!Thread.currentThread().isInterrupted()) {
+                    lat += 1.0E-5;
+                    UnwatchedThrottlingTest.this.locMan.setTestProviderLocation(LocationManager.GPS_PROVIDER, ServiceTestUtils.createLocation(lat, 0L));
+                    SystemClock.sleep(FIX_INTERVAL_MILLIS);
+                }
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws IOException, InterruptedException {
+        this.feeder.interrupt();
+        this.feeder.join();
+        this.ctx.stopService(this.pusher);
+        ServiceTestUtils.cleanUp(this.ctx, this.locMan);
+        this.backend.close();
+    }
+
+    @Test
+    public void postsLessOftenWhileUnwatched() throws InterruptedException {
+        startSharing();
+
+        // The response to the first update suggests the longer interval.
+        assertThat("No location was posted", this.backend.getPosts().poll(TIMEOUT_SECONDS, TimeUnit.SECONDS), is(notNullValue()));
+        int unwatched = countPosts(PHASE_MILLIS);
+
+        // Someone opens the share; the next response has no suggestion.
+        this.backend.setSuggestedInterval(0);
+        assertThat("No location was posted", this.backend.getPosts().poll(TIMEOUT_SECONDS, TimeUnit.SECONDS), is(notNullValue()));
+        int watched = countPosts(PHASE_MILLIS);
+
+        Log.i(TAG, "Posts in " + PHASE_MILLIS + " ms: " + unwatched + " while unwatched, " + watched + " while watched");
+        assertTrue("Posted " + unwatched + " times while unwatched", unwatched <= PHASE_MILLIS / TimeUnit.SECONDS.toMillis(SUGGESTED_INTERVAL_SECONDS) + 1);
+        assertTrue("Posted only " + watched + " times while watched", watched >= 4 * unwatched);
+    }
+
+    @Test
+    public void postsAtNormalRateWhileGroupShareIsViewed() throws InterruptedException {
+        this.backend.joinGroup(GROUP_SHARE_ID);
+        startSharing();
+
+        assertThat("No location was posted", this.backend.getPosts().poll(TIMEOUT_SECONDS, TimeUnit.SECONDS), is(notNullValue()));
+        int unwatched = countPosts(PHASE_MILLIS);
+
+        // Someone opens the group share and keeps polling it like the frontend does.
+        final AtomicInteger failedFetches = new AtomicInteger();
+        Thread viewer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!Thread.currentThread().isInterrupted()) {
+                    if (fetch(GROUP_SHARE_ID) != HttpURLConnection.HTTP_OK) failedFetches.incrementAndGet();
+                    SystemClock.sleep(VIEWER_POLL_MILLIS);
+                }
+            }
+        });
+        viewer.start();
+        int watched;
+        try {
+            assertThat("No location was posted", this.backend.getPosts().poll(TIMEOUT_SECONDS, TimeUnit.SECONDS), is(notNullValue()));
+            watched = countPosts(PHASE_MILLIS);
+        } finally {
+            viewer.interrupt();
+            viewer.join();
+        }
+
+        Log.i(TAG, "Posts in " + PHASE_MILLIS + " ms: " + unwatched + " while unwatched, " + watched + " while the group share was viewed");
+        assertThat("Fetching the group share failed", failedFetches.get(), is(0));
+        assertTrue("Posted " + unwatched + " times while unwatched", unwatched <= PHASE_MILLIS / TimeUnit.SECONDS.toMillis(SUGGESTED_INTERVAL_SECONDS) + 1);
+        assertTrue("Posted only " + watched + " times while the group share was viewed", watched >= 4 * unwatched);
+    }
+
+    /**
+     * Starts the push service and feeds it locations.
+     */
+    private void startSharing() {
+        ServiceTestUtils.startService(this.ctx, this.pusher);
+        this.feeder.start();
+    }
+
+    /**
+     * Fetches a share from the backend like the frontend does.
+     *
+     * @return The HTTP status code, or -1 if the request failed.
+     */
+    private int fetch(String shareID) {
+        HttpURLConnection conn = null;
+        try {
+            conn = (HttpURLConnection) new URL(this.backend.getURL() + "api/fetch.php?id=" + shareID).openConnection();
+            int status = conn.getResponseCode();
+            InputStream is = status < 400 ? conn.getInputStream() : conn.getErrorStream();
+            if (is != null) is.close();
+            return status;
+        } catch (IOException ex) {
+            return -1;
+        } finally {
+            if (conn != null) conn.disconnect();
+        }
+    }
+
+    /**
+     * Counts the location updates received by the backend during the given time.
+     */
+    private int countPosts(long millis) throws InterruptedException {
+        long end = SystemClock.elapsedRealtime() + millis;
+        int count = 0;
+        long remaining;
+        while ((remaining = end - SystemClock.elapsedRealtime()) > 0L) {
+            if (this.backend.getPosts().poll(remaining, TimeUnit.MILLISECONDS) != null) count++;
+        }
+        return count;
+    }
+}
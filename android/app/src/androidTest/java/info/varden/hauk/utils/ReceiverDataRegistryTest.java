@@ -3,7 +3,9 @@ package info.varden.hauk.utils;
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import static org.hamcrest.CoreMatchers.*;
 import static org.junit.Assert.*;
@@ -25,4 +27,40 @@ public final class ReceiverDataRegistryTest {
         assertThat("Retrieved object is wrong type", retrieved, is(instanceOf(testObject.getClass())));
         assertThat("Retrieved object is different instance", retrieved, is(sameInstance((Object) testObject)));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void typedRetrievalTest() {
+        int index = ReceiverDataRegistry.register("test");
+        assertThat("Wrong type was returned", ReceiverDataRegistry.retrieve(index, Integer.class), is(nullValue()));
+
+        index = ReceiverDataRegistry.register("test");
+        assertThat("Typed retrieval failed", ReceiverDataRegistry.retrieve(index, String.class), is("test"));
+        assertThat("Object was not removed on retrieval", ReceiverDataRegistry.retrieve(index), is(nullValue()));
+    }
+
+    @Test
+    public void uniqueIndexTest() {
+        Set<Integer> indices = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            int index = ReceiverDataRegistry.register(i);
+            assertThat("Index was handed out twice", indices.add(index), is(true));
+            assertThat("Index collides with missing extra default", index, is(not(-1)));
+        }
+        for (int index : indices) ReceiverDataRegistry.retrieve(index);
+    }
+
+    @Test
+    public void expiryTest() throws InterruptedException {
+        int index = ReceiverDataRegistry.register(new Object(), 50L);
+        Thread.sleep(100L);
+        assertThat("Expired object was retrieved", ReceiverDataRegistry.retrieve(index), is(nullValue()));
+    }
+
+    @Test
+    public void boundedSizeTest() {
+        for (int i = 0; i < 1000; i++) {
+            ReceiverDataRegistry.register(i);
+        }
+        assertTrue("Registry grew without bounds", ReceiverDataRegistry.size() <= 256);
+    }
+}
@@ -23,11 +23,14 @@ public enum Constants {
     // Shared preferences dictionaries.
     public static final String SHARED_PREFS_CONNECTION = "connectionPrefs";
     public static final String SHARED_PREFS_RESUMABLE = "sessionResumption";
+    public static final String SHARED_PREFS_LAST_FIX = "lastSentFix";
     public static final String SHARED_PREFS_AUTHORIZATIONS = "broadcastAuthorizations";
     public static final String SHARED_PREFS_DEVICE_SPECS = "deviceSpecs";
 
     // Keys for use in stored server preferences.
     public static final Preference<String> PREF_SERVER_ENCRYPTED = new Preference.EncryptedString("cryptServer", "");
+    public static final Preference<String> PREF_SERVER_MIRRORS = new Preference.EncryptedString("cryptServerMirrors", "");
+    public static final Preference<String> PREF_FAN_OUT_SERVERS = new Preference.EncryptedString("cryptFanOutServers", "");
     public static final Preference<ProxyTypeResolver> PREF_PROXY_TYPE = new Preference.Enum<>("proxyType", ProxyTypeResolver.SYSTEM_DEFAULT);
     public static final Preference<String> PREF_PROXY_HOST = new Preference.String("proxyHost", "localhost");
     public static final Preference<Integer> PREF_PROXY_PORT = new Preference.Integer("proxyPort", 9050);
@@ -37,6 +40,23 @@ public enum Constants {
     public static final Preference<String> PREF_PASSWORD_ENCRYPTED = new Preference.EncryptedString("cryptPassword", "");
     public static final Preference<Integer> PREF_DURATION = new Preference.Integer("duration", 30);
     public static final Preference<Integer> PREF_INTERVAL = new Preference.Integer("interval", 1);
+    public static final Preference<Boolean> PREF_ADAPTIVE_INTERVAL = new Preference.Boolean("adaptiveInterval", false);
+    public static final Preference<Integer> PREF_MAX_INTERVAL = new Preference.Integer("maxInterval", 60);
+    public static final Preference<Boolean> PREF_STATIONARY_MODE = new Preference.Boolean("stationaryMode", false);
+    public static final Preference<Boolean> PREF_DUTY_CYCLE = new Preference.Boolean("dutyCycle", false);
+    public static final Preference<Boolean> PREF_PREDICTIVE_POSTING = new Preference.Boolean("predictivePosting", false);
+    public static final Preference<Integer> PREF_PREDICTION_TOLERANCE = new Preference.Integer("predictionTolerance", 25);
+    public static final Preference<Boolean> PREF_FILTER_LOCATIONS = new Preference.Boolean("filterLocations", false);
+    public static final Preference<Boolean> PREF_PASSIVE_LOCATIONS = new Preference.Boolean("passiveLocations", false);
+    public static final Preference<Boolean> PREF_INSTANT_FIRST_FIX = new Preference.Boolean("instantFirstFix", true);
+    public static final Preference<Boolean> PREF_STANDBY_SESSION = new Preference.Boolean("standbySession", false);
+    public static final Preference<Boolean> PREF_HIGH_FREQUENCY = new Preference.Boolean("highFrequency", false);
+    public static final Preference<Integer> PREF_HIGH_FREQUENCY_INTERVAL = new Preference.Integer("highFrequencyInterval", 100);
+    public static final Preference<Boolean> PREF_COMPACT_POINTS = new Preference.Boolean("compactPoints", false);
+    public static final Preference<Integer> PREF_COMPACT_PRECISION = new Preference.Integer("compactPrecision", 6);
+    public static final Preference<Boolean> PREF_STREAM_UPDATES = new Preference.Boolean("streamUpdates", false);
+    public static final Preference<Boolean> PREF_THROTTLE_UNWATCHED = new Preference.Boolean("throttleUnwatched", true);
+    public static final Preference<Integer> PREF_UNWATCHED_MAX_INTERVAL = new Preference.Integer("unwatchedMaxInterval", 60);
     public static final Preference<Integer> PREF_NO_GNSS_FALLBACK = new Preference.Integer("noGnssFallback", 45);
     public static final Preference<Float> PREF_UPDATE_DISTANCE = new Preference.Float("minUpdateDistance", 0.0F);
     public static final Preference<String> PREF_CUSTOM_ID = new Preference.String("requestLink", "");
@@ -48,6 +68,7 @@ public enum Constants {
     public static final Preference<NightModeStyle> PREF_NIGHT_MODE = new Preference.Enum<>("nightMode", NightModeStyle.FOLLOW_SYSTEM);
     public static final Preference<Boolean> PREF_CONFIRM_STOP = new Preference.Boolean("confirmStop", true);
     public static final Preference<Boolean> PREF_HIDE_LOGO = new Preference.Boolean("hideLogo", false);
+    public static final Preference<Boolean> PREF_SEPARATE_PROCESS = new Preference.Boolean("separateProcess", false);
 
     @Deprecated // Use PREF_SERVER_ENCRYPTED instead
     public static final Preference<String> PREF_SERVER = new Preference.String("server", "");
@@ -61,6 +82,16 @@ public enum Constants {
     public static final String RESUME_CLIENT_VERSION = "clientVersion";
     public static final String RESUME_SESSION_PARAMS = "sessionParams";
     public static final String RESUME_SHARE_PARAMS = "shareParams";
+    public static final String RESUME_FAN_OUT_SESSIONS = "fanOutSessions";
+    public static final String RESUME_FAN_OUT_SHARES = "fanOutShares";
+
+    // Keys for use in last sent location fix preferences.
+    public static final String LAST_FIX_PROVIDER = "provider";
+    public static final String LAST_FIX_LATITUDE = "latitude";
+    public static final String LAST_FIX_LONGITUDE = "longitude";
+    public static final String LAST_FIX_ACCURACY = "accuracy";
+    public static final String LAST_FIX_TIME = "time";
+    public static final String LAST_FIX_SENT_TIME = "sentTime";
 
     // Keys for use in device spec preferences.
     public static final String DEVICE_PREF_WARNED_BATTERY_SAVINGS = "hasPromptedBatterySavings";
@@ -73,13 +104,22 @@ public enum Constants {
     public static final String DATE_FORMAT_LOG = "yyyy-MM-dd'T'HH:mm:ss.SSSZ";
     public static final int PORT_MIN = 0;
     public static final int PORT_MAX = 65536;
+    public static final int LINK_COUNT_MIN = 1;
+    public static final int LINK_COUNT_MAX = 100;
+    public static final int HIGH_FREQUENCY_INTERVAL_MIN = 50;
+    public static final int HIGH_FREQUENCY_INTERVAL_MAX = 1000;
+    public static final int COMPACT_PRECISION_MIN = 4;
+    public static final int COMPACT_PRECISION_MAX = 7;
 
     // Keys for intent extras.
     public static final String EXTRA_SHARE = "share";
-    public static final String EXTRA_STOP_TASK = "stopTask";
-    public static final String EXTRA_HANDLER = "handler";
-    public static final String EXTRA_GNSS_ACTIVE_TASK = "gnssActiveTask";
-    public static final String EXTRA_BROADCAST_RECEIVER_REGISTRY_INDEX = "dataRegistryIndex";
+    public static final String EXTRA_SESSION = "session";
+    public static final String EXTRA_E2E_KEY = "e2eKey";
+    public static final String EXTRA_REPLAY_TRACE = "replayTrace";
+    public static final String EXTRA_REPLAY_TIME_SCALE = "replayTimeScale";
+    public static final String EXTRA_LINK_FORMAT = "linkFormat";
+    public static final String EXTRA_SHARE_IDS = "shareIDs";
+    public static final String EXTRA_BROADCAST_RECEIVER_DATA = "receiverData";
     public static final String EXTRA_BROADCAST_AUTHORIZATION_IDENTIFIER = "source";
     public static final String EXTRA_SESSION_SERVER_URL = "server";
     public static final String EXTRA_SESSION_USERNAME = "username";
@@ -91,8 +131,31 @@ public enum Constants {
     public static final String EXTRA_SESSION_MIN_DISTANCE = "minDistance";
     public static final String EXTRA_SESSION_ALLOW_ADOPT = "adoptable";
 
+    // Messages exchanged with the location push service over its Messenger interface.
+    public static final int SERVICE_MSG_ATTACH = 1;
+    public static final int SERVICE_MSG_DETACHED = 2;
+    public static final int SERVICE_MSG_STATUS = 3;
+    public static final int SERVICE_MSG_SHARE_LIST = 4;
+    public static final int SERVICE_MSG_STOPPED = 5;
+
+    // Status codes sent with SERVICE_MSG_STATUS.
+    public static final int SERVICE_STATUS_COARSE_REBOUND = 1;
+    public static final int SERVICE_STATUS_COARSE_RECEIVED = 2;
+    public static final int SERVICE_STATUS_ACCURATE_RECEIVED = 3;
+    public static final int SERVICE_STATUS_CONNECTION_LOST = 4;
+    public static final int SERVICE_STATUS_CONNECTION_RESTORED = 5;
+    public static final int SERVICE_STATUS_STATIONARY = 6;
+
     // Content types for intents.
     public static final String INTENT_TYPE_COPY_LINK = "text/plain";
+    public static final String INTENT_TYPE_EXPORT_TRACE = "application/octet-stream";
+
+    // Flight recorder trace storage.
+    public static final String TRACE_DIRECTORY = "trace";
+    public static final String TRACE_FILE_PREFIX = "flight";
+    public static final String TRACE_EXPORT_FILE_PREFIX = "export-";
+    public static final String TRACE_FILE_EXTENSION = ".trc";
+    public static final String FILE_PROVIDER_AUTHORITY = "info.varden.hauk.fileprovider";
 
     // Backend URLs.
     public static final String URL_PATH_ADOPT_SHARE = "api/adopt.php";
@@ -100,6 +163,7 @@ public enum Constants {
     public static final String URL_PATH_CREATE_NEW_LINK = "api/new-link.php";
     public static final String URL_PATH_POST_LOCATION = "api/post.php";
     public static final String URL_PATH_STOP_SHARING = "api/stop.php";
+    public static final String URL_PATH_STREAM = "api/stream";
 
     // Packet parameter keys.
     public static final String PACKET_PARAM_ACCURACY = "acc";
@@ -111,9 +175,13 @@ public enum Constants {
     public static final String PACKET_PARAM_INIT_VECTOR = "iv";
     public static final String PACKET_PARAM_INTERVAL = "int";
     public static final String PACKET_PARAM_LATITUDE = "lat";
+    public static final String PACKET_PARAM_LINK_COUNT = "cnt";
     public static final String PACKET_PARAM_LONGITUDE = "lon";
     public static final String PACKET_PARAM_NICKNAME = "nic";
     public static final String PACKET_PARAM_PASSWORD = "pwd";
+    public static final String PACKET_PARAM_POINTS = "pts";
+    public static final String PACKET_PARAM_COMPACT_POINTS = "cpt";
+    public static final String PACKET_PARAM_SHARE_LIST_VERSION = "slv";
     public static final String PACKET_PARAM_PROVIDER_ACCURACY = "prv";
     public static final String PACKET_PARAM_SALT = "salt";
     public static final String PACKET_PARAM_SESSION_ID = "sid";
@@ -128,6 +196,9 @@ public enum Constants {
 
     // HTTP data.
     public static final String HTTP_HEADER_HAUK_VERSION = "X-Hauk-Version";
+    public static final String HTTP_HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    public static final String HTTP_HEADER_CONTENT_ENCODING = "Content-Encoding";
+    public static final String HTTP_HEADER_HAUK_STREAMING = "X-Hauk-Streaming";
 
     // Minimum backend version supporting group shares.
     public static final Version VERSION_COMPAT_GROUP_SHARE = new Version("1.1");
@@ -138,6 +209,21 @@ public enum Constants {
     // Minimum backend/frontend version that support end-to-end encryption.
     public static final Version VERSION_COMPAT_E2E_ENCRYPTION = new Version("1.5");
 
+    // Minimum backend version that accepts batches of location points.
+    public static final Version VERSION_COMPAT_BATCH_POST = new Version("1.7");
+
+    // Minimum backend version that accepts locations in the compact point format.
+    public static final Version VERSION_COMPAT_COMPACT_POINTS = new Version("1.7");
+
+    // Minimum backend version that suggests a longer interval while shares are not being viewed.
+    public static final Version VERSION_COMPAT_SUGGESTED_INTERVAL = new Version("1.7");
+
+    // Minimum backend version that only sends the share list when it has changed.
+    public static final Version VERSION_COMPAT_SHARE_LIST_VERSION = new Version("1.7");
+
+    // Minimum backend version that stops, creates and adopts several shares in one request.
+    public static final Version VERSION_COMPAT_BULK_SHARE_MANAGEMENT = new Version("1.7");
+
     // End-to-end encryption specifications.
     public static final int E2E_AES_KEY_SIZE = 256;
     public static final int E2E_PBKDF2_ITERATIONS = 65536;
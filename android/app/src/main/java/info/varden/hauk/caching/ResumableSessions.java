@@ -2,6 +2,9 @@ package info.varden.hauk.caching;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.location.Location;
+
+import androidx.annotation.Nullable;
 
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -18,15 +21,22 @@ import info.varden.hauk.utils.StringSerializer;
  * If the Hauk app crashes or shuts down, the app should give the option to resume any interrupted
  * shares. This class handles this functionality.
  *
+ * <p>The last location fix successfully sent to the backend is stored in a separate preference
+ * file. It is written only by the location push service, which may run in a separate process and
+ * would otherwise overwrite the session data written by the main process with its own, possibly
+ * outdated, cached copy.</p>
+ *
  * @author Marius Lindvall
  */
 public final class ResumableSessions {
     private final Context ctx;
     private final SharedPreferences prefs;
+    private final SharedPreferences lastFix;
 
     public ResumableSessions(Context ctx) {
         this.ctx = ctx;
         this.prefs = ctx.getSharedPreferences(Constants.SHARED_PREFS_RESUMABLE, Context.MODE_PRIVATE);
+        this.lastFix = ctx.getSharedPreferences(Constants.SHARED_PREFS_LAST_FIX, Context.MODE_PRIVATE);
     }
 
     /**
@@ -128,6 +138,109 @@ public final class ResumableSessions {
         editor.apply();
     }
 
+    /**
+     * Saves resumption data for a share on an additional backend that locations are shared to
+     * alongside the session. It is cleared along with the rest of the session.
+     *
+     * @param share The share to save resumption data for, with its session attached.
+     */
+    public void addFanOutShare(Share share) {
+        Log.i("Setting fan-out share %s resumable", share); //NON-NLS
+
+        // Shares do not serialize their sessions, so the sessions are saved in a separate list.
+        ArrayList<Share> shares = StringSerializer.deserialize(this.prefs.getString(Constants.RESUME_FAN_OUT_SHARES, null));
+        ArrayList<Session> sessions = StringSerializer.deserialize(this.prefs.getString(Constants.RESUME_FAN_OUT_SESSIONS, null));
+        if (shares == null || sessions == null) {
+            shares = new ArrayList<>();
+            sessions = new ArrayList<>();
+        }
+        shares.add(share);
+        sessions.add(share.getSession());
+        SharedPreferences.Editor editor = this.prefs.edit();
+        editor.putString(Constants.RESUME_FAN_OUT_SHARES, StringSerializer.serialize(shares));
+        editor.putString(Constants.RESUME_FAN_OUT_SESSIONS, StringSerializer.serialize(sessions));
+        editor.apply();
+    }
+
+    /**
+     * Returns the saved shares on additional backends whose sessions are still active, with their
+     * sessions attached.
+     */
+    public List<Share> getFanOutShares() {
+        List<Share> active = new ArrayList<>();
+        if (!this.prefs.getString(Constants.RESUME_CLIENT_VERSION, "").equals(BuildConfig.VERSION_NAME)) return active;
+        List<Share> shares = StringSerializer.deserialize(this.prefs.getString(Constants.RESUME_FAN_OUT_SHARES, null));
+        List<Session> sessions = StringSerializer.deserialize(this.prefs.getString(Constants.RESUME_FAN_OUT_SESSIONS, null));
+        if (shares == null || sessions == null || shares.size() != sessions.size()) return active;
+        for (int i = 0; i < shares.size(); i++) {
+            if (!sessions.get(i).isActive()) continue;
+            shares.get(i).setSession(sessions.get(i));
+            active.add(shares.get(i));
+        }
+        return active;
+    }
+
+    /**
+     * Removes a share on an additional backend from the resumption data.
+     *
+     * @param viewURL The link to the share to remove. Share IDs are only unique per backend.
+     */
+    public void clearFanOutShare(String viewURL) {
+        Log.i("Clearing fan-out share %s", viewURL); //NON-NLS
+        ArrayList<Share> shares = StringSerializer.deserialize(this.prefs.getString(Constants.RESUME_FAN_OUT_SHARES, null));
+        ArrayList<Session> sessions = StringSerializer.deserialize(this.prefs.getString(Constants.RESUME_FAN_OUT_SESSIONS, null));
+        if (shares == null || sessions == null || shares.size() != sessions.size()) return;
+        for (int i = shares.size() - 1; i >= 0; i--) {
+            if (shares.get(i).getViewURL().equals(viewURL)) {
+                shares.remove(i);
+                sessions.remove(i);
+            }
+        }
+        SharedPreferences.Editor editor = this.prefs.edit();
+        editor.putString(Constants.RESUME_FAN_OUT_SHARES, StringSerializer.serialize(shares));
+        editor.putString(Constants.RESUME_FAN_OUT_SESSIONS, StringSerializer.serialize(sessions));
+        editor.apply();
+    }
+
+    /**
+     * Saves the location fix that was last sent to the backend, along with the time it was sent.
+     * This allows a restarted location push service to continue from where it left off.
+     *
+     * @param location The location that was sent.
+     */
+    public void setLastSentFix(Location location) {
+        SharedPreferences.Editor editor = this.lastFix.edit();
+        editor.putString(Constants.LAST_FIX_PROVIDER, location.getProvider());
+        editor.putLong(Constants.LAST_FIX_LATITUDE, Double.doubleToRawLongBits(location.getLatitude()));
+        editor.putLong(Constants.LAST_FIX_LONGITUDE, Double.doubleToRawLongBits(location.getLongitude()));
+        editor.putFloat(Constants.LAST_FIX_ACCURACY, location.getAccuracy());
+        editor.putLong(Constants.LAST_FIX_TIME, location.getTime());
+        editor.putLong(Constants.LAST_FIX_SENT_TIME, System.currentTimeMillis());
+        editor.apply();
+    }
+
+    /**
+     * Returns the location fix that was last sent to the backend, or null if none is saved.
+     */
+    @Nullable
+    public Location getLastSentFix() {
+        if (!this.lastFix.contains(Constants.LAST_FIX_TIME)) return null;
+        Location location = new Location(this.lastFix.getString(Constants.LAST_FIX_PROVIDER, null));
+        location.setLatitude(Double.longBitsToDouble(this.lastFix.getLong(Constants.LAST_FIX_LATITUDE, 0L)));
+        location.setLongitude(Double.longBitsToDouble(this.lastFix.getLong(Constants.LAST_FIX_LONGITUDE, 0L)));
+        location.setAccuracy(this.lastFix.getFloat(Constants.LAST_FIX_ACCURACY, 0.0F));
+        location.setTime(this.lastFix.getLong(Constants.LAST_FIX_TIME, 0L));
+        return location;
+    }
+
+    /**
+     * Returns the time, in milliseconds since the Unix epoch, at which the last location fix was
+     * sent to the backend, or 0 if none is saved.
+     */
+    public long getLastSentTime() {
+        return this.lastFix.getLong(Constants.LAST_FIX_SENT_TIME, 0L);
+    }
+
     /**
      * Clears saved resumable session data.
      */
@@ -138,4 +251,13 @@ public final class ResumableSessions {
         editor.clear();
         editor.apply();
     }
+
+    /**
+     * Clears the saved last sent location fix.
+     */
+    public void clearLastSentFix() {
+        SharedPreferences.Editor editor = this.lastFix.edit();
+        editor.clear();
+        editor.apply();
+    }
 }
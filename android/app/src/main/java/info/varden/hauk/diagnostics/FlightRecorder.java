@@ -0,0 +1,306 @@
+package info.varden.hauk.diagnostics;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.location.LocationManager;
+import android.os.Process;
+
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import info.varden.hauk.Constants;
+import info.varden.hauk.utils.Log;
+
+/**
+ * <p>An always-on, on-device recorder of session events. Events are written as fixed-size binary
+ * records into a memory-mapped ring file, so that recording an event is only a handful of memory
+ * writes and never blocks on I/O or allocates. Because the file is memory-mapped, the kernel keeps
+ * the written events even if the app process is killed, and the trace picks up where it left off
+ * when the recorder is opened again. Each app process writes to its own trace file, named after the
+ * process, as the ring cannot be shared safely between processes.</p>
+ *
+ * <p>The file starts with a {@value #HEADER_SIZE}-byte header, followed by {@value #CAPACITY}
+ * records of {@value #RECORD_SIZE} bytes each. All values are big-endian. The header contains:</p>
+ * <ul>
+ *     <li>8 bytes magic ({@code HAUKTRC1})</li>
+ *     <li>int32 format version, record size and capacity</li>
+ *     <li>int32 reserved</li>
+ *     <li>int64 total number of records ever written; the next record goes into slot
+ *         {@code count % capacity}</li>
+ * </ul>
+ * <p>Each record contains an int64 wall clock timestamp in milliseconds, an int16 event code (see
+ * {@link TraceEvent}), an int16 argument, an int32 sequence number, an int64 value and two
+ * float32 values. Traces can be decoded using {@code android/tools/decode_trace.py}.</p>
+ *
+ * @author Marius Lindvall
+ */
+public enum FlightRecorder {
+    ;
+
+    private static final byte[] MAGIC = {'H', 'A', 'U', 'K', 'T', 'R', 'C', '1'};
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int RECORD_SIZE = 32;
+    private static final int CAPACITY = 8192;
+
+    private static final int OFFSET_VERSION = 8;
+    private static final int OFFSET_RECORD_SIZE = 12;
+    private static final int OFFSET_CAPACITY = 16;
+    private static final int OFFSET_COUNT = 24;
+
+    // Codes for endpoints and location providers stored in the argument field of records.
+    private static final short ENDPOINT_OTHER = 0;
+    private static final short ENDPOINT_CREATE = 1;
+    private static final short ENDPOINT_POST = 2;
+    private static final short ENDPOINT_STOP = 3;
+    private static final short ENDPOINT_NEW_LINK = 4;
+    private static final short ENDPOINT_ADOPT = 5;
+    private static final short PROVIDER_OTHER = 0;
+    private static final short PROVIDER_GPS = 1;
+    private static final short PROVIDER_NETWORK = 2;
+    private static final short PROVIDER_PASSIVE = 3;
+    private static final short PROVIDER_UNKNOWN = 4;
+
+    private static final Object lock = new Object();
+    private static final AtomicInteger sequence = new AtomicInteger();
+
+    /**
+     * The memory-mapped trace file. Null if the recorder has not been opened or failed to open, in
+     * which case all events are silently dropped.
+     */
+    private static MappedByteBuffer buffer = null;
+
+    /**
+     * The trace file of this process.
+     */
+    private static File traceFile = null;
+
+    /**
+     * The total number of records written to the trace file.
+     */
+    private static long count = 0;
+
+    /**
+     * Opens the trace file for writing, creating it if it does not exist. Calling this function
+     * when the recorder is already open has no effect.
+     *
+     * @param ctx Android application context.
+     */
+    public static void open(Context ctx) {
+        synchronized (lock) {
+            if (buffer != null) return;
+            File dir = new File(ctx.getFilesDir(), Constants.TRACE_DIRECTORY);
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                Log.e("Could not create trace directory %s", dir); //NON-NLS
+                return;
+            }
+            File trace = new File(dir, getTraceFileName(ctx));
+            try (RandomAccessFile file = new RandomAccessFile(trace, "rw")) {
+                file.setLength(HEADER_SIZE + (long) CAPACITY * RECORD_SIZE);
+                // The mapping stays valid after the channel is closed.
+                MappedByteBuffer map = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, file.length());
+                if (hasValidHeader(map)) {
+                    count = map.getLong(OFFSET_COUNT);
+                } else {
+                    Log.i("Initializing new flight recorder trace"); //NON-NLS
+                    map.put(MAGIC, 0, MAGIC.length);
+                    map.putInt(OFFSET_VERSION, FORMAT_VERSION);
+                    map.putInt(OFFSET_RECORD_SIZE, RECORD_SIZE);
+                    map.putInt(OFFSET_CAPACITY, CAPACITY);
+                    map.putLong(OFFSET_COUNT, 0L);
+                    count = 0;
+                }
+                buffer = map;
+                traceFile = trace;
+                Log.i("Flight recorder opened %s with %s records already written", trace.getName(), count); //NON-NLS
+            } catch (IOException ex) {
+                Log.e("Could not open flight recorder trace", ex); //NON-NLS
+            }
+        }
+    }
+
+    /**
+     * Returns the name of the trace file for the current process. The main process uses
+     * {@code flight.trc}, while e.g. the {@code :location} process uses
+     * {@code flight-location.trc}.
+     *
+     * @param ctx Android application context.
+     */
+    private static String getTraceFileName(Context ctx) {
+        String suffix = "";
+        ActivityManager am = (ActivityManager) ctx.getSystemService(Context.ACTIVITY_SERVICE);
+        if (am != null && am.getRunningAppProcesses() != null) {
+            int pid = Process.myPid();
+            for (ActivityManager.RunningAppProcessInfo info : am.getRunningAppProcesses()) {
+                int sep = info.processName.indexOf(':');
+                if (info.pid == pid && sep >= 0) suffix = "-" + info.processName.substring(sep + 1);
+            }
+        }
+        return Constants.TRACE_FILE_PREFIX + suffix + Constants.TRACE_FILE_EXTENSION;
+    }
+
+    /**
+     * Checks whether the given buffer contains a trace header compatible with this recorder.
+     */
+    private static boolean hasValidHeader(ByteBuffer map) {
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (map.get(i) != MAGIC[i]) return false;
+        }
+        return map.getInt(OFFSET_VERSION) == FORMAT_VERSION
+                && map.getInt(OFFSET_RECORD_SIZE) == RECORD_SIZE
+                && map.getInt(OFFSET_CAPACITY) == CAPACITY;
+    }
+
+    /**
+     * Records an event without any additional data.
+     *
+     * @param event The type of event to record.
+     */
+    public static void record(TraceEvent event) {
+        record(event, 0, 0, 0L, 0.0F, 0.0F);
+    }
+
+    /**
+     * Records an event. This function does not allocate and is safe to call from any thread.
+     *
+     * @param event The type of event to record.
+     * @param arg   An event-specific small argument, such as a provider or endpoint code.
+     * @param seq   A sequence number to correlate related events, e.g. from
+     *              {@link #nextSequence()}.
+     * @param value An event-specific value, such as a latency in milliseconds.
+     * @param f1    An event-specific value, such as an accuracy in meters.
+     * @param f2    An event-specific value, such as a speed in meters per second.
+     */
+    public static void record(TraceEvent event, int arg, int seq, long value, float f1, float f2) {
+        long now = System.currentTimeMillis();
+        synchronized (lock) {
+            if (buffer == null) return;
+            int offset = HEADER_SIZE + (int) (count % CAPACITY) * RECORD_SIZE;
+            buffer.putLong(offset, now);
+            buffer.putShort(offset + 8, event.getCode());
+            buffer.putShort(offset + 10, (short) arg);
+            buffer.putInt(offset + 12, seq);
+            buffer.putLong(offset + 16, value);
+            buffer.putFloat(offset + 24, f1);
+            buffer.putFloat(offset + 28, f2);
+            count++;
+            buffer.putLong(OFFSET_COUNT, count);
+        }
+    }
+
+    /**
+     * Returns a new sequence number for correlating events that belong to the same operation, such
+     * as the queueing, sending and acknowledgement of a packet.
+     */
+    public static int nextSequence() {
+        return sequence.incrementAndGet();
+    }
+
+    /**
+     * Writes copies of the traces of all app processes to separate files for export. The trace of
+     * the current process is copied consistently; traces of other processes are copied as-is.
+     *
+     * @param ctx Android application context.
+     * @return The files the traces were written to.
+     * @throws IOException if no traces could be found or the copies could not be written.
+     */
+    public static ArrayList<File> snapshot(Context ctx) throws IOException {
+        File dir = new File(ctx.getFilesDir(), Constants.TRACE_DIRECTORY);
+        File[] traces = dir.listFiles();
+        ArrayList<File> exports = new ArrayList<>();
+        if (traces == null) throw new IOException("Trace directory is not readable"); //NON-NLS
+
+        for (File trace : traces) {
+            String name = trace.getName();
+            if (!name.startsWith(Constants.TRACE_FILE_PREFIX) || !name.endsWith(Constants.TRACE_FILE_EXTENSION)) continue;
+
+            byte[] copy = null;
+            synchronized (lock) {
+                if (buffer != null && trace.equals(traceFile)) {
+                    copy = new byte[buffer.capacity()];
+                    ByteBuffer view = buffer.duplicate();
+                    view.position(0);
+                    view.get(copy);
+                }
+            }
+            if (copy == null) copy = readFile(trace);
+
+            File out = new File(dir, Constants.TRACE_EXPORT_FILE_PREFIX + name);
+            try (FileOutputStream os = new FileOutputStream(out)) {
+                os.write(copy);
+            }
+            exports.add(out);
+        }
+
+        if (exports.isEmpty()) throw new IOException("No flight recorder traces found"); //NON-NLS
+        return exports;
+    }
+
+    /**
+     * Reads the entire contents of a file.
+     */
+    private static byte[] readFile(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        try (FileInputStream is = new FileInputStream(file)) {
+            int read = 0;
+            while (read < data.length) {
+                int n = is.read(data, read, data.length - read);
+                if (n < 0) break;
+                read += n;
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Returns the trace code for the given backend URL path.
+     *
+     * @param path A backend path, such as {@link Constants#URL_PATH_POST_LOCATION}.
+     */
+    public static short endpointCode(String path) {
+        switch (path) {
+            case Constants.URL_PATH_CREATE_SHARE:
+                return ENDPOINT_CREATE;
+            case Constants.URL_PATH_POST_LOCATION:
+                return ENDPOINT_POST;
+            case Constants.URL_PATH_STOP_SHARING:
+                return ENDPOINT_STOP;
+            case Constants.URL_PATH_CREATE_NEW_LINK:
+                return ENDPOINT_NEW_LINK;
+            case Constants.URL_PATH_ADOPT_SHARE:
+                return ENDPOINT_ADOPT;
+            default:
+                return ENDPOINT_OTHER;
+        }
+    }
+
+    /**
+     * Returns the trace code for the given Android location provider name.
+     *
+     * @param provider A provider name, such as {@link LocationManager#GPS_PROVIDER}, or null if
+     *                 the fix does not say which provider it came from.
+     */
+    public static short providerCode(@Nullable String provider) {
+        if (provider == null) return PROVIDER_UNKNOWN;
+        switch (provider) {
+            case LocationManager.GPS_PROVIDER:
+                return PROVIDER_GPS;
+            case LocationManager.NETWORK_PROVIDER:
+                return PROVIDER_NETWORK;
+            case LocationManager.PASSIVE_PROVIDER:
+                return PROVIDER_PASSIVE;
+            default:
+                return PROVIDER_OTHER;
+        }
+    }
+}
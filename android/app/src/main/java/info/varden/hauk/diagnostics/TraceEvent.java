@@ -0,0 +1,259 @@
+package info.varden.hauk.diagnostics;
+
+/**
+ * Types of events that can be written to the {@link FlightRecorder}. Each event type has a fixed
+ * numeric code that is stored in the trace file. These codes must never be changed or reused, as
+ * the trace decoder in {@code android/tools} relies on them.
+ *
+ * @author Marius Lindvall
+ */
+public enum TraceEvent {
+    /**
+     * A location sharing session was started. {@code arg} is the ordinal of the session initiation
+     * reason and {@code value} the session expiry time.
+     */
+    SESSION_STARTED(1),
+
+    /**
+     * A location sharing session was stopped, either by the user or on expiry.
+     */
+    SESSION_STOPPED(2),
+
+    /**
+     * The location push service was started. {@code arg} contains the start flags and
+     * {@code value} the start ID.
+     */
+    SERVICE_STARTED(3),
+
+    /**
+     * The location push service was destroyed.
+     */
+    SERVICE_STOPPED(4),
+
+    /**
+     * A user interface attached to the running location push service.
+     */
+    SESSION_REATTACHED(5),
+
+    /**
+     * The location push service was restarted by Android after its process died, and resumed the
+     * session from saved state. {@code value} is the time in milliseconds since the last location
+     * was sent before the process died, or -1 if unknown.
+     */
+    SESSION_RECOVERED(6),
+
+    /**
+     * A location fix was received from a location provider, before it is filtered. {@code arg} is
+     * the provider code, {@code value} the time of the fix, {@code f1} the accuracy in meters and
+     * {@code f2} the speed in meters per second.
+     */
+    FIX_RECEIVED(10),
+
+    /**
+     * A location fix was received but not posted because it was within the minimum distance.
+     * {@code arg} is the provider code, {@code value} the time of the fix, {@code f1} the distance
+     * from the last posted location and {@code f2} the accuracy in meters.
+     */
+    FIX_SUPPRESSED(11),
+
+    /**
+     * The location update interval was changed by the adaptive interval controller. {@code arg} is
+     * the provider code of the fix that caused the change, {@code value} the new interval in
+     * milliseconds and {@code f1} the estimated speed in meters per second.
+     */
+    INTERVAL_CHANGED(12),
+
+    /**
+     * A location fix was rejected by the location filter. {@code arg} is the reason for rejection
+     * as defined in {@link info.varden.hauk.location.Fix}, {@code value} the age of the fix in
+     * milliseconds and {@code f1} its accuracy in meters.
+     */
+    FIX_REJECTED(13),
+
+    /**
+     * The last known location was sent when sharing started. {@code arg} is the provider code,
+     * {@code value} the age of the location in milliseconds and {@code f1} its accuracy in meters.
+     */
+    FIX_LAST_KNOWN(14),
+
+    /**
+     * The backend suggested a longer update interval because nobody is viewing the share, or
+     * withdrew its suggestion. {@code arg} is 1 if the interval was lengthened and 0 if it was
+     * restored, and {@code value} the new interval in milliseconds.
+     */
+    INTERVAL_SUGGESTED(15),
+
+    /**
+     * A packet was queued for sending. {@code arg} is the endpoint code and {@code seq} the packet
+     * sequence number.
+     */
+    PACKET_QUEUED(20),
+
+    /**
+     * A packet body was written to the network. {@code arg} is the endpoint code.
+     */
+    PACKET_SENT(21),
+
+    /**
+     * A successful response was received for a packet. {@code value} is the latency in
+     * milliseconds from when the packet was queued.
+     */
+    PACKET_ACKED(22),
+
+    /**
+     * A packet failed. {@code value} is the latency in milliseconds from when the packet was queued.
+     */
+    PACKET_FAILED(23),
+
+    /**
+     * A location update was accepted by an additional backend that locations are shared to.
+     * {@code arg} is the index of the backend in the list of additional backends, and
+     * {@code value} the latency in milliseconds from when the update was queued.
+     */
+    FAN_OUT_ACKED(24),
+
+    /**
+     * A location update to an additional backend failed. The payload is the same as for
+     * {@link #FAN_OUT_ACKED}.
+     */
+    FAN_OUT_FAILED(25),
+
+    /**
+     * A location update was not sent to an additional backend because too many updates to it were
+     * still waiting for a response. {@code arg} is the index of the backend and {@code value} the
+     * number of updates waiting.
+     */
+    FAN_OUT_DROPPED(26),
+
+    /**
+     * The body of a packet was compressed before it was sent. {@code arg} is the endpoint code,
+     * {@code value} the uncompressed length and {@code f1} the compressed length in bytes.
+     */
+    REQUEST_COMPRESSED(27),
+
+    /**
+     * A compressed response to a packet was received. {@code arg} is the endpoint code,
+     * {@code value} the decompressed length and {@code f1} the compressed length in bytes.
+     */
+    RESPONSE_DECOMPRESSED(28),
+
+    /**
+     * The backend server became unreachable.
+     */
+    CONNECTIVITY_LOST(30),
+
+    /**
+     * The backend server became reachable again.
+     */
+    CONNECTIVITY_RESTORED(31),
+
+    /**
+     * Requests for a session moved to another of the servers it can be reached through.
+     * {@code arg} is the index of the new server, where 0 is the session's own server and mirrors
+     * follow, {@code value} the index of the previous server, {@code f1} the smoothed latency of
+     * the new server in milliseconds and {@code f2} the recent error rate of the previous server.
+     */
+    ENDPOINT_SWITCHED(32),
+
+    /**
+     * A streaming connection to the backend was opened. {@code arg} is the number of unacknowledged
+     * location updates resent over it and {@code value} the time taken to open it in milliseconds.
+     */
+    STREAM_CONNECTED(33),
+
+    /**
+     * A streaming connection to the backend was closed or timed out. {@code arg} is the number of
+     * location updates that were unacknowledged at the time and {@code value} how long the
+     * connection had been open in milliseconds.
+     */
+    STREAM_LOST(34),
+
+    /**
+     * Location updates fell back to HTTP requests because streaming failed. {@code arg} is 1 if the
+     * backend does not support streaming and 0 if the connection failed, and {@code value} is the
+     * time in milliseconds until streaming is tried again.
+     */
+    STREAM_FALLBACK(35),
+
+    /**
+     * The fine location provider timed out or degraded and the coarse provider was rebound.
+     * {@code arg} is the number of provider switches so far, {@code f1} the switches per hour and
+     * {@code f2} the quality score of the fine provider.
+     */
+    PROVIDER_FALLBACK(40),
+
+    /**
+     * A location provider was enabled. {@code arg} is the provider code.
+     */
+    PROVIDER_ENABLED(41),
+
+    /**
+     * A location provider was disabled. {@code arg} is the provider code.
+     */
+    PROVIDER_DISABLED(42),
+
+    /**
+     * The first accurate location fix was received after the service started or after falling back
+     * to the coarse provider. {@code value} is the time taken to acquire the fix in milliseconds
+     * and {@code f1} its accuracy in meters.
+     */
+    GNSS_ACQUIRED(43),
+
+    /**
+     * The user stopped moving and GNSS was turned off. {@code arg} is 1 if this was detected from
+     * location fixes and 2 if the GNSS signal was lost while the user was standing still.
+     */
+    STATIONARY_ENTERED(44),
+
+    /**
+     * Motion was detected while stationary and GNSS was turned on again. {@code arg} is 1 if motion
+     * was detected by the significant motion sensor and 2 if by the accelerometer, and
+     * {@code value} is the time spent stationary in milliseconds.
+     */
+    STATIONARY_EXITED(45),
+
+    /**
+     * A duty-cycled GNSS acquisition window was closed. {@code arg} is 1 if a fix met the accuracy
+     * target and 0 if the window timed out, and {@code value} is the total time GNSS has been
+     * powered up by duty cycling in milliseconds.
+     */
+    DUTY_WINDOW_CLOSED(46),
+
+    /**
+     * A location fix was not posted because it was close enough to the position predicted from
+     * the previous posts. {@code arg} is the provider code, {@code value} the fix time, {@code f1}
+     * the distance from the prediction in meters and {@code f2} the accuracy in meters.
+     */
+    FIX_PREDICTED(47),
+
+    /**
+     * The fine location provider recovered after a fallback and the coarse provider was unbound.
+     * The payload is the same as for {@link #PROVIDER_FALLBACK}.
+     */
+    PROVIDER_RESTORED(48),
+
+    /**
+     * The memory usage of the location push service process was sampled. {@code arg} is 1 if the
+     * service runs in a separate process, 0 otherwise, and {@code value} is the proportional set
+     * size (PSS) of the process in kilobytes.
+     */
+    MEMORY_SAMPLE(50);
+
+    private final short code;
+
+    TraceEvent(int code) {
+        this.code = (short) code;
+    }
+
+    /**
+     * Returns the numeric code of the event as stored in the trace file.
+     */
+    public short getCode() {
+        return this.code;
+    }
+
+    @Override
+    public String toString() {
+        return "TraceEvent<code=" + this.code + ">";
+    }
+}
@@ -4,6 +4,7 @@ import android.app.ProgressDialog;
 import android.content.Context;
 import android.text.Editable;
 import android.text.InputType;
+import android.text.TextUtils;
 import android.text.TextWatcher;
 import android.view.View;
 import android.view.ViewGroup;
@@ -12,12 +13,18 @@ import android.widget.TableLayout;
 import android.widget.TableRow;
 import android.widget.TextView;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import info.varden.hauk.Constants;
 import info.varden.hauk.R;
 import info.varden.hauk.http.AdoptSharePacket;
+import info.varden.hauk.http.BulkAdoptSharePacket;
+import info.varden.hauk.http.ServerException;
 import info.varden.hauk.struct.Share;
 import info.varden.hauk.utils.Log;
 
@@ -70,9 +77,21 @@ public abstract class AdoptDialogBuilder implements CustomDialogBuilder {
      */
     @Override
     public final void onPositive() {
-        // Get the user data.
+        // Get the user data. Several shares may be adopted at once by separating their IDs and
+        // nicknames with commas.
         String nick = this.dialogTxtNick.getText().toString().trim();
         String adoptID = this.dialogTxtShare.getText().toString().trim();
+        List<String> adoptIDs = splitList(adoptID);
+        if (adoptIDs.size() > 1) {
+            List<String> nicks = splitList(nick);
+            if (nicks.size() != adoptIDs.size()) {
+                Log.w("User entered %s share IDs, but %s nicknames", adoptIDs.size(), nicks.size()); //NON-NLS
+                onFailure(new IllegalArgumentException(this.ctx.getString(R.string.err_adopt_nickname_count)));
+            } else {
+                adoptAll(adoptIDs, nicks);
+            }
+            return;
+        }
 
         Log.v("User initiated adoption with nick=%s, id=%s", nick, adoptID); //NON-NLS
 
@@ -104,6 +123,132 @@ public abstract class AdoptDialogBuilder implements CustomDialogBuilder {
         }.send();
     }
 
+    /**
+     * Adopts several shares, in a single request if the backend supports it, and otherwise one at
+     * a time. The success and failure callbacks are each called at most once, with the nicknames
+     * of all adopted users and the reasons for all failed adoptions, respectively.
+     *
+     * @param adoptIDs The IDs of the shares to adopt.
+     * @param nicks    The nicknames to assign to each user, in the same order as the IDs.
+     */
+    private void adoptAll(List<String> adoptIDs, List<String> nicks) {
+        Log.v("User initiated adoption of %s shares with nicks=%s, ids=%s", adoptIDs.size(), nicks, adoptIDs); //NON-NLS
+
+        final ProgressDialog progress = new ProgressDialog(this.ctx);
+        progress.setProgressStyle(ProgressDialog.STYLE_SPINNER);
+        progress.setTitle(R.string.progress_adopt_title);
+        progress.setMessage(String.format(this.ctx.getString(R.string.progress_adopt_body), TextUtils.join(", ", nicks))); //NON-NLS
+        progress.setIndeterminate(true);
+        progress.setCancelable(false);
+        progress.show();
+
+        final BulkAdoptionResult result = new BulkAdoptionResult(progress, adoptIDs.size());
+        if (this.share.getSession().getBackendVersion().isAtLeast(Constants.VERSION_COMPAT_BULK_SHARE_MANAGEMENT)) {
+            new BulkAdoptSharePacket(this.ctx, this.share, adoptIDs, nicks) {
+                @Override
+                protected void onSuccessfulAdoption(String nickname) {
+                    Log.i("Adoption was successful for nick=%s", nickname); //NON-NLS
+                    result.onAdopted(nickname);
+                }
+
+                @Override
+                protected void onFailedAdoption(String nickname, ServerException ex) {
+                    Log.w("Adoption failed for nick=%s", ex, nickname); //NON-NLS
+                    result.onFailed(nickname + ": " + ex.getMessage()); //NON-NLS
+                }
+
+                @Override
+                protected void onFailure(Exception ex) {
+                    Log.w("Adoption failed", ex); //NON-NLS
+                    result.onAborted(ex.getMessage());
+                }
+            }.send();
+        } else {
+            Log.i("Backend does not support bulk requests; adopting %s shares one at a time", adoptIDs.size()); //NON-NLS
+            adoptSequentially(new ArrayDeque<>(adoptIDs), new ArrayDeque<>(nicks), result);
+        }
+    }
+
+    /**
+     * Adopts the given shares one at a time, sending the next request when the previous one has
+     * completed.
+     *
+     * @param adoptIDs The IDs of the shares that have not been adopted yet.
+     * @param nicks    The nicknames to assign to each of the remaining users.
+     * @param result   The results of the adoptions made so far.
+     */
+    private void adoptSequentially(final Queue<String> adoptIDs, final Queue<String> nicks, final BulkAdoptionResult result) {
+        String adoptID = adoptIDs.poll();
+        final String nick = nicks.poll();
+        if (adoptID == null) return;
+        new AdoptSharePacket(this.ctx, this.share, adoptID, nick) {
+            @Override
+            public void onSuccessfulAdoption(String nickname) {
+                Log.i("Adoption was successful for nick=%s", nickname); //NON-NLS
+                result.onAdopted(nickname);
+                adoptSequentially(adoptIDs, nicks, result);
+            }
+
+            @Override
+            protected void onFailure(Exception ex) {
+                Log.w("Adoption failed for nick=%s", ex, nick); //NON-NLS
+                result.onFailed(nick + ": " + ex.getMessage()); //NON-NLS
+                adoptSequentially(adoptIDs, nicks, result);
+            }
+        }.send();
+    }
+
+    /**
+     * Splits a comma-separated list entered by the user, ignoring empty entries.
+     */
+    private static List<String> splitList(String text) {
+        List<String> items = new ArrayList<>();
+        for (String item : text.split(",")) {
+            if (!item.trim().isEmpty()) items.add(item.trim());
+        }
+        return items;
+    }
+
+    /**
+     * Collects the results of adopting several shares, and reports them to the callbacks when all
+     * adoptions have completed.
+     */
+    private final class BulkAdoptionResult {
+        private final ProgressDialog progress;
+        private final int expected;
+        private final List<String> adopted = new ArrayList<>();
+        private final List<String> failed = new ArrayList<>();
+
+        private BulkAdoptionResult(ProgressDialog progress, int expected) {
+            this.progress = progress;
+            this.expected = expected;
+        }
+
+        private void onAdopted(String nickname) {
+            this.adopted.add(nickname);
+            if (this.adopted.size() + this.failed.size() == this.expected) finish();
+        }
+
+        private void onFailed(String reason) {
+            this.failed.add(reason);
+            if (this.adopted.size() + this.failed.size() == this.expected) finish();
+        }
+
+        /**
+         * Called if the request failed as a whole, so that no more results will be received.
+         */
+        private void onAborted(String reason) {
+            this.failed.add(reason);
+            finish();
+        }
+
+        private void finish() {
+            this.progress.dismiss();
+            if (!this.adopted.isEmpty()) onSuccess(TextUtils.join(", ", this.adopted)); //NON-NLS
+            if (!this.failed.isEmpty()) onFailure(new Exception(TextUtils.join(System.lineSeparator(), this.failed)));
+        }
+    }
+
     /**
      * Called when the Cancel button is clicked in the dialog window.
      */
@@ -179,10 +324,21 @@ public abstract class AdoptDialogBuilder implements CustomDialogBuilder {
         public void onTextChanged(CharSequence charSequence, int start, int before, int count) {
             // When the share URL text is changed, try to extract the share ID using regex. If
             // a match is found, replace the entire contents with the match.
-            Matcher matcher = Pattern.compile(Constants.REGEX_ADOPT_ID_FROM_LINK).matcher(charSequence);
-            if (matcher.find()) {
-                Log.i("Found possible link ID %s in URL %s; replacing", matcher.group(1), charSequence); //NON-NLS
-                this.inputBox.setText(matcher.group(1));
+            // Several comma-separated URLs are replaced individually.
+            Pattern pattern = Pattern.compile(Constants.REGEX_ADOPT_ID_FROM_LINK);
+            String[] items = charSequence.toString().split(",", -1);
+            boolean replaced = false;
+            for (int i = 0; i < items.length; i++) {
+                Matcher matcher = pattern.matcher(items[i]);
+                if (matcher.find()) {
+                    Log.i("Found possible link ID %s in URL %s; replacing", matcher.group(1), items[i]); //NON-NLS
+                    items[i] = i > 0 ? " " + matcher.group(1) : matcher.group(1);
+                    replaced = true;
+                }
+            }
+            if (replaced) {
+                this.inputBox.setText(TextUtils.join(",", items));
+                this.inputBox.setSelection(this.inputBox.length());
             }
         }
 
@@ -47,6 +47,11 @@ public final class GNSSStatusUpdateListenerImpl implements GNSSStatusUpdateListe
         Toast.makeText(this.ctx, R.string.label_status_ok, Toast.LENGTH_LONG).show();
     }
 
+    @Override
+    public void onStationary() {
+        // Silently ignore
+    }
+
     @Override
     public void onServerConnectionLost() {
         // Silently ignore
@@ -0,0 +1,90 @@
+package info.varden.hauk.http;
+
+import android.content.Context;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import info.varden.hauk.Constants;
+import info.varden.hauk.R;
+import info.varden.hauk.struct.Share;
+import info.varden.hauk.struct.Version;
+
+/**
+ * Packet representing the action of adopting several solo shares into a group share in one
+ * request. Requires backend version {@link Constants#VERSION_COMPAT_BULK_SHARE_MANAGEMENT}; older
+ * backends must be sent one {@link AdoptSharePacket} per share instead.
+ *
+ * @author Marius Lindvall
+ */
+public abstract class BulkAdoptSharePacket extends Packet {
+    /**
+     * Called for each user that was adopted.
+     *
+     * @param nickname The nickname assigned to the user.
+     */
+    protected abstract void onSuccessfulAdoption(String nickname);
+
+    /**
+     * Called for each user that could not be adopted.
+     *
+     * @param nickname The nickname that would have been assigned to the user.
+     * @param ex       An exception containing the reason given by the server.
+     */
+    protected abstract void onFailedAdoption(String nickname, ServerException ex);
+
+    /**
+     * The assigned nicknames of the users to adopt, in the order they were sent.
+     */
+    private final List<String> nicknames;
+
+    /**
+     * Creates the packet.
+     *
+     * @param ctx       Android application context.
+     * @param target    The group share to adopt the solo shares into.
+     * @param origins   The share IDs of the shares to adopt.
+     * @param nicknames The nicknames that should be assigned to each user when adopted, in the
+     *                  same order as the share IDs.
+     */
+    protected BulkAdoptSharePacket(Context ctx, Share target, List<String> origins, List<String> nicknames) {
+        super(ctx, target.getSession().getEndpoints(), Constants.URL_PATH_ADOPT_SHARE);
+        if (origins.size() != nicknames.size()) {
+            throw new IllegalArgumentException("Each share to adopt must have exactly one nickname"); //NON-NLS
+        }
+        this.nicknames = new ArrayList<>(nicknames);
+        setParameter(Constants.PACKET_PARAM_SESSION_ID, target.getSession().getID());
+        setParameters(Constants.PACKET_PARAM_NICKNAME, nicknames);
+        setParameters(Constants.PACKET_PARAM_ID_TO_ADOPT, origins);
+        setParameter(Constants.PACKET_PARAM_GROUP_PIN, target.getJoinCode());
+    }
+
+    @Override
+    protected final void onSuccess(String[] data, Version backendVersion) throws ServerException {
+        if (data.length < 1) {
+            throw new ServerException(getContext(), R.string.err_empty);
+        }
+
+        // A successful response has OK on line 1, followed by one line per share that is either OK
+        // or the reason the share could not be adopted.
+        if (data[0].equals(Constants.PACKET_RESPONSE_OK)) {
+            for (int i = 0; i < this.nicknames.size(); i++) {
+                String nickname = this.nicknames.get(i);
+                if (i + 1 >= data.length) {
+                    onFailedAdoption(nickname, new ServerException(getContext(), R.string.err_empty));
+                } else if (data[i + 1].equals(Constants.PACKET_RESPONSE_OK)) {
+                    onSuccessfulAdoption(nickname);
+                } else {
+                    onFailedAdoption(nickname, new ServerException(data[i + 1]));
+                }
+            }
+        } else {
+            StringBuilder err = new StringBuilder();
+            for (String line : data) {
+                err.append(line);
+                err.append(System.lineSeparator());
+            }
+            throw new ServerException(err.toString());
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package info.varden.hauk.http;
+
+import android.content.Context;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import info.varden.hauk.Constants;
+import info.varden.hauk.R;
+import info.varden.hauk.struct.Session;
+import info.varden.hauk.struct.Share;
+import info.varden.hauk.struct.ShareMode;
+import info.varden.hauk.struct.Version;
+
+/**
+ * Packet that is sent to create several new single-user sharing links for an already running
+ * session in one request. Requires backend version
+ * {@link Constants#VERSION_COMPAT_BULK_SHARE_MANAGEMENT}; older backends must be sent one
+ * {@link NewLinkPacket} per link instead.
+ *
+ * @author Marius Lindvall
+ */
+public abstract class BulkNewLinkPacket extends Packet {
+    /**
+     * Called if the new share links were successfully created.
+     *
+     * @param shares The shares that were created. The backend may create fewer links than
+     *               requested if the count exceeds its limit.
+     */
+    protected abstract void onSharesCreated(List<Share> shares);
+
+    /**
+     * The session for which the sharing links should be created.
+     */
+    private final Session session;
+
+    /**
+     * Creates the packet.
+     *
+     * @param ctx           Android application context.
+     * @param session       The session to create new sharing links for.
+     * @param count         The number of links to create.
+     * @param allowAdoption Whether or not the new shares should be adoptable.
+     */
+    protected BulkNewLinkPacket(Context ctx, Session session, int count, boolean allowAdoption) {
+        super(ctx, session.getEndpoints(), Constants.URL_PATH_CREATE_NEW_LINK);
+        this.session = session;
+        setParameter(Constants.PACKET_PARAM_SESSION_ID, session.getID());
+        setParameter(Constants.PACKET_PARAM_ADOPTABLE, allowAdoption ? "1" : "0");
+        setParameter(Constants.PACKET_PARAM_LINK_COUNT, String.valueOf(count));
+    }
+
+    @Override
+    protected final void onSuccess(String[] data, Version backendVersion) throws ServerException {
+        if (data.length < 1) {
+            throw new ServerException(getContext(), R.string.err_empty);
+        }
+
+        // A successful response contains "OK" on line 1, followed by the publicly sharable
+        // tracking link and the link ID of each new share on two lines each.
+        if (data[0].equals(Constants.PACKET_RESPONSE_OK)) {
+            List<Share> shares = new ArrayList<>((data.length - 1) / 2);
+            for (int i = 1; i + 1 < data.length; i += 2) {
+                shares.add(new Share(this.session, data[i], data[i + 1], ShareMode.CREATE_ALONE));
+            }
+            onSharesCreated(shares);
+        } else {
+            StringBuilder err = new StringBuilder();
+            for (String line : data) {
+                err.append(line);
+                err.append(System.lineSeparator());
+            }
+            throw new ServerException(err.toString());
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package info.varden.hauk.http;
+
+import android.content.Context;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import info.varden.hauk.Constants;
+import info.varden.hauk.R;
+import info.varden.hauk.struct.Session;
+import info.varden.hauk.struct.Share;
+import info.varden.hauk.struct.Version;
+
+/**
+ * Packet sent to tell the server to stop several shares of a session in one request. Requires
+ * backend version {@link Constants#VERSION_COMPAT_BULK_SHARE_MANAGEMENT}; older backends must be
+ * sent one {@link StopSharingPacket} per share instead.
+ *
+ * @author Marius Lindvall
+ */
+public abstract class BulkStopSharingPacket extends Packet {
+    /**
+     * Called for each share that was successfully stopped.
+     *
+     * @param share The share that was stopped.
+     */
+    protected abstract void onShareStopped(Share share);
+
+    /**
+     * Called for each share that the server could not stop.
+     *
+     * @param share The share that was not stopped.
+     * @param ex    An exception containing the reason given by the server.
+     */
+    protected abstract void onShareNotStopped(Share share, ServerException ex);
+
+    /**
+     * The shares to stop, in the order they were sent.
+     */
+    private final List<Share> shares;
+
+    /**
+     * Creates a request to stop several shares.
+     *
+     * @param ctx     Android application context.
+     * @param session The session the shares belong to.
+     * @param shares  The shares to stop.
+     */
+    protected BulkStopSharingPacket(Context ctx, Session session, List<Share> shares) {
+        super(ctx, session.getEndpoints(), Constants.URL_PATH_STOP_SHARING);
+        this.shares = new ArrayList<>(shares);
+        setParameter(Constants.PACKET_PARAM_SESSION_ID, session.getID());
+        List<String> shareIDs = new ArrayList<>(shares.size());
+        for (Share share : shares) {
+            shareIDs.add(share.getID());
+        }
+        setParameters(Constants.PACKET_PARAM_SHARE_ID, shareIDs);
+    }
+
+    @Override
+    protected final void onSuccess(String[] data, Version backendVersion) throws ServerException {
+        if (data.length < 1) {
+            throw new ServerException(getContext(), R.string.err_empty);
+        }
+
+        // A successful response has OK on line 1, followed by one line per share that is either OK
+        // or the reason the share could not be stopped.
+        if (data[0].equals(Constants.PACKET_RESPONSE_OK)) {
+            for (int i = 0; i < this.shares.size(); i++) {
+                Share share = this.shares.get(i);
+                if (i + 1 >= data.length) {
+                    onShareNotStopped(share, new ServerException(getContext(), R.string.err_empty));
+                } else if (data[i + 1].equals(Constants.PACKET_RESPONSE_OK)) {
+                    onShareStopped(share);
+                } else {
+                    onShareNotStopped(share, new ServerException(data[i + 1]));
+                }
+            }
+        } else {
+            StringBuilder err = new StringBuilder();
+            for (String line : data) {
+                err.append(line);
+                err.append(System.lineSeparator());
+            }
+            throw new ServerException(err.toString());
+        }
+    }
+}
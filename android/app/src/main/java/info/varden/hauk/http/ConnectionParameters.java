@@ -16,6 +16,11 @@ import info.varden.hauk.http.security.CertificateValidationPolicy;
 public final class ConnectionParameters implements Serializable {
     private static final long serialVersionUID = -6275381322711990147L;
 
+    /**
+     * The transport used when none is set.
+     */
+    private static final Transport DEFAULT_TRANSPORT = new HttpTransport();
+
     /**
      * The type of proxy to use for the connection.
      */
@@ -36,11 +41,40 @@ public final class ConnectionParameters implements Serializable {
      */
     private final CertificateValidationPolicy tlsPolicy;
 
+    /**
+     * The transport used to deliver packets, or null for the default HTTP transport. Null for
+     * parameters saved by versions without transport support.
+     */
+    @Nullable
+    private final Transport transport;
+
     public ConnectionParameters(Proxy.Type proxyType, SocketAddress proxyAddress, int connectTimeout, CertificateValidationPolicy tlsPolicy) {
+        this(proxyType, proxyAddress, connectTimeout, tlsPolicy, null);
+    }
+
+    private ConnectionParameters(Proxy.Type proxyType, SocketAddress proxyAddress, int connectTimeout, CertificateValidationPolicy tlsPolicy, @Nullable Transport transport) {
         this.proxyType = proxyType;
         this.proxyAddress = proxyAddress;
         this.connectTimeout = connectTimeout;
         this.tlsPolicy = tlsPolicy;
+        this.transport = transport;
+    }
+
+    /**
+     * Returns a copy of these parameters that connects directly instead of through the proxy.
+     */
+    ConnectionParameters withoutProxy() {
+        return new ConnectionParameters(null, null, this.connectTimeout, this.tlsPolicy, this.transport);
+    }
+
+    /**
+     * Returns a copy of these parameters that delivers packets using the given transport instead
+     * of HTTP requests.
+     *
+     * @param transport The transport to use.
+     */
+    public ConnectionParameters withTransport(Transport transport) {
+        return new ConnectionParameters(this.proxyType, this.proxyAddress, this.connectTimeout, this.tlsPolicy, transport);
     }
 
     @Nullable
@@ -56,6 +90,10 @@ public final class ConnectionParameters implements Serializable {
         return this.tlsPolicy;
     }
 
+    Transport getTransport() {
+        return this.transport == null ? DEFAULT_TRANSPORT : this.transport;
+    }
+
     @Override
     public String toString() {
         return "ConnectionParameters{"
@@ -63,6 +101,7 @@ public final class ConnectionParameters implements Serializable {
                 + ",proxyAddress=" + this.proxyAddress
                 + ",connectTimeout=" + this.connectTimeout
                 + ",tlsPolicy=" + this.tlsPolicy
+                + ",transport=" + getTransport()
                 + "}";
     }
 }
@@ -2,38 +2,30 @@ package info.varden.hauk.http;
 
 import android.content.Context;
 import android.os.AsyncTask;
+import android.os.SystemClock;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
-import java.net.HttpURLConnection;
-import java.net.Proxy;
-import java.net.URL;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
 import java.net.URLEncoder;
+import java.net.UnknownHostException;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.Locale;
+import java.util.List;
 import java.util.Map;
-import java.util.Random;
 
-import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLHandshakeException;
 
-import info.varden.hauk.BuildConfig;
-import info.varden.hauk.Constants;
-import info.varden.hauk.R;
-import info.varden.hauk.http.security.CertificateValidationPolicy;
-import info.varden.hauk.http.security.InsecureHostnameVerifier;
-import info.varden.hauk.http.security.InsecureTrustManager;
+import info.varden.hauk.diagnostics.FlightRecorder;
+import info.varden.hauk.diagnostics.TraceEvent;
 import info.varden.hauk.struct.Version;
 import info.varden.hauk.utils.Log;
 
 /**
- * An asynchronous task that HTTP-POSTs data to a given URL with the given POST fields.
+ * An asynchronous task that sends a request to a backend using the {@link Transport} configured
+ * for it, and returns the response.
  *
  * @author Marius Lindvall
  */
@@ -56,7 +48,10 @@ public class ConnectionThread extends AsyncTask<ConnectionThread.Request, String
     }
 
     /**
-     * Sends the HTTP request.
+     * Sends the HTTP request. If the request can be sent to several servers, it is sent to them in
+     * the order chosen by their {@link EndpointSelector} until one of them responds. Requests that
+     * are not idempotent are only sent to the next server if the previous one could not be
+     * connected to, so that they are never carried out twice.
      *
      * @param params The request to send. Note: Exactly one request must be provided in this vararg.
      *               All other requests are ignored!
@@ -66,68 +61,71 @@ public class ConnectionThread extends AsyncTask<ConnectionThread.Request, String
     @Override
     @SuppressWarnings("HardCodedStringLiteral")
     protected final Response doInBackground(Request... params) {
-        int seq = new Random().nextInt();
-        try {
-            Request req = params[0];
-            Log.v("Assigning seq=%s for request %s", seq, req);
+        Request req = params[0];
+        int seq = req.getSequence();
+        Log.v("Assigning seq=%s for request %s", seq, req);
+        List<Endpoint> endpoints = req.getEndpoints();
+        if (endpoints.size() == 1) return send(req, endpoints.get(0), false);
 
-            // Configure and open the connection.
-            Proxy proxy = req.getParameters().getProxy();
-            URL url = new URL(req.getURL());
-            HttpURLConnection client = (HttpURLConnection) (proxy == null ? url.openConnection() : url.openConnection(proxy));
-            if (url.getHost().endsWith(".onion") && url.getProtocol().equals("https")) {
-                // Check if TLS validation should be disabled for .onion addresses over HTTPS.
-                if (req.getParameters().getTLSPolicy().equals(CertificateValidationPolicy.DISABLE_TRUST_ANCHOR_ONION)) {
-                    Log.v("[seq:%s] Setting insecure SSL socket factory for connection to comply with TLS policy", seq);
-                    ((HttpsURLConnection) client).setSSLSocketFactory(InsecureTrustManager.getSocketFactory());
-                } else if (req.getParameters().getTLSPolicy().equals(CertificateValidationPolicy.DISABLE_ALL_ONION)) {
-                    Log.v("[seq:%s] Setting insecure SSL socket factory and disabling hostname validation for connection to comply with TLS policy", seq);
-                    ((HttpsURLConnection) client).setSSLSocketFactory(InsecureTrustManager.getSocketFactory());
-                    ((HttpsURLConnection) client).setHostnameVerifier(new InsecureHostnameVerifier());
+        // An idempotent request that reached a server whose response was lost is repeated on a
+        // mirror. Mirrors share their storage, so e.g. a repeated location update is harmless.
+        // Other requests wait for the server's response instead, since repeating them could e.g.
+        // create a second session or link.
+        EndpointSelector selector = EndpointSelector.forEndpoints(endpoints);
+        Response resp = null;
+        for (int index : selector.order(SystemClock.elapsedRealtime())) {
+            Endpoint endpoint = endpoints.get(index);
+            long start = SystemClock.elapsedRealtime();
+            resp = send(req, endpoint, req.isIdempotent());
+            long now = SystemClock.elapsedRealtime();
+            if (resp.getException() == null) {
+                int previous = selector.onSuccess(index, now - start, now);
+                if (previous >= 0) {
+                    Log.i("[seq:%s] Requests moved from %s to %s", seq, endpoints.get(previous).getURL(), endpoint.getURL());
+                    FlightRecorder.record(TraceEvent.ENDPOINT_SWITCHED, (short) index, seq, previous, (float) selector.getLatency(index), (float) selector.getErrorRate(previous, now));
                 }
+                return resp;
             }
+            selector.onFailure(index, now);
+            Log.w("[seq:%s] Request to %s failed", resp.getException(), seq, endpoint.getURL());
+            if (!req.isIdempotent() && !isConnectFailure(resp.getException())) {
+                Log.w("[seq:%s] Request may have reached %s; not repeating it on another server", seq, endpoint.getURL());
+                break;
+            }
+        }
+        return resp;
+    }
 
-            // Post the data.
-            Log.v("[seq:%s] Setting connection parameters", seq);
-            client.setConnectTimeout(req.getParameters().getTimeout());
-            client.setRequestMethod("POST");
-            client.setRequestProperty("Accept-Language", Locale.getDefault().getLanguage());
-            client.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
-            client.setRequestProperty("User-Agent", "Hauk/" + BuildConfig.VERSION_NAME + " " + System.getProperty("http.agent"));
-            client.setDoInput(true);
-            client.setDoOutput(true);
-
-            Log.v("[seq:%s] Writing data to socket", seq);
-            OutputStream os = client.getOutputStream();
-            BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8));
-            writer.write(params[0].getURLEncodedData());
-            writer.flush();
-            os.close();
+    /**
+     * Whether an exception means that no connection could be made to a server, so that the
+     * request cannot have reached it. Requests that are not idempotent have no read timeout, so
+     * a timeout can only occur while connecting.
+     *
+     * @param ex The exception that the request failed with.
+     */
+    private static boolean isConnectFailure(Exception ex) {
+        return ex instanceof ConnectException
+                || ex instanceof NoRouteToHostException
+                || ex instanceof UnknownHostException
+                || ex instanceof SocketTimeoutException
+                || ex instanceof SSLHandshakeException;
+    }
 
-            int response = client.getResponseCode();
-            Log.v("[seq:%s] Response code for request is %s", seq, response);
-            if (response == HttpURLConnection.HTTP_OK) {
-                // The response should be returned as an array of strings where each element of the
-                // array is one line of output. Hauk uses this array as an argument array when
-                // processing the response.
-                String line;
-                ArrayList<String> lines = new ArrayList<>();
-                BufferedReader br = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
-                while ((line = br.readLine()) != null) {
-                    Log.v("[seq:%s] resp += \"%s\"", seq, line);
-                    lines.add(line);
-                }
-                br.close();
-                Log.v("[seq:%s] Returning success response", seq);
-                return new Response(null, lines.toArray(new String[0]), new Version(client.getHeaderField(Constants.HTTP_HEADER_HAUK_VERSION)));
-            } else {
-                // Hauk only returns HTTP 200; any other response should be considered an error.
-                Log.v("[seq:%s] Returning HTTP code failure response", seq);
-                return new Response(new ServerException(String.format(params[0].getContext().getString(R.string.err_response_code), String.valueOf(response))), null, null);
-            }
+    /**
+     * Sends the request to the given server using the transport configured for it.
+     *
+     * @param req      The request to send.
+     * @param endpoint The server to send it to.
+     * @param failover Whether other servers can be tried if this one does not respond.
+     *
+     * @return The response, or a response holding the exception that occurred.
+     */
+    private static Response send(Request req, Endpoint endpoint, boolean failover) {
+        try {
+            return endpoint.getConnectionParameters().getTransport().send(req, endpoint, failover);
         } catch (Exception ex) {
             // If an exception occurred, return no data.
-            Log.v("[seq:%s] Returning exception failure response", ex, seq);
+            Log.v("[seq:%s] Returning exception failure response", ex, req.getSequence()); //NON-NLS
             return new Response(ex, null, null);
         }
     }
@@ -144,43 +142,69 @@ public class ConnectionThread extends AsyncTask<ConnectionThread.Request, String
     }
 
     /**
-     * A structure representing an HTTP POST request. Contains a URL as well as a map of key-value
-     * data to be posted to the URL.
+     * A structure representing a request to a backend. Contains the servers and path to send the
+     * request to, as well as a map of key-value data to send.
      */
-    static class Request {
+    public static final class Request {
         private final Context ctx;
-        private final String url;
+        private final List<Endpoint> endpoints;
+        private final String path;
         private final Map<String, String> data;
-        private final ConnectionParameters params;
+        private final int seq;
+        private final short endpoint;
+        private final boolean idempotent;
 
         /**
-         * Constructs an HTTP request that should be passed through a proxy.
+         * Constructs an HTTP request to one of the given servers.
          *
-         * @param ctx    Android application context.
-         * @param url    The URL to POST data to.
-         * @param data   A set of key-value pairs consisting of data to be sent in the POST request.
-         * @param params The parameters that should be used when establishing the connection.
+         * @param ctx        Android application context.
+         * @param endpoints  The servers to POST data to, along with their connection parameters.
+         * @param path       The path underneath the server base URLs to POST data to.
+         * @param data       A set of key-value pairs consisting of data to be sent in the POST
+         *                   request.
+         * @param seq        A sequence number identifying this request in logs and traces.
+         * @param endpoint   The flight recorder code of the endpoint being called.
+         * @param idempotent Whether the request may be carried out more than once.
          */
-        Request(Context ctx, String url, Map<String, String> data, ConnectionParameters params) {
+        Request(Context ctx, List<Endpoint> endpoints, String path, Map<String, String> data, int seq, short endpoint, boolean idempotent) {
             this.ctx = ctx;
-            this.url = url;
+            this.endpoints = Collections.unmodifiableList(endpoints);
+            this.path = path;
             this.data = Collections.unmodifiableMap(data);
-            this.params = params;
+            this.seq = seq;
+            this.endpoint = endpoint;
+            this.idempotent = idempotent;
+        }
+
+        int getSequence() {
+            return this.seq;
         }
 
-        private Context getContext() {
+        short getEndpoint() {
+            return this.endpoint;
+        }
+
+        Context getContext() {
             return this.ctx;
         }
 
-        private String getURL() {
-            return this.url;
+        private boolean isIdempotent() {
+            return this.idempotent;
+        }
+
+        private List<Endpoint> getEndpoints() {
+            return this.endpoints;
         }
 
-        private ConnectionParameters getParameters() {
-            return this.params;
+        Map<String, String> getData() {
+            return this.data;
         }
 
-        private String getURLEncodedData() throws UnsupportedEncodingException {
+        String getPath() {
+            return this.path;
+        }
+
+        String getURLEncodedData() throws UnsupportedEncodingException {
             // Create a URL-encoded data body for the HTTP request.
             StringBuilder sb = new StringBuilder();
             boolean first = true;
@@ -204,18 +228,20 @@ public class ConnectionThread extends AsyncTask<ConnectionThread.Request, String
                 body = "<exception>";
             }
             return "Request{"
-                    + "url=" + this.url
+                    + "endpoints=" + this.endpoints
+                    + ",path=" + this.path
                     + ",body=" + body
-                    + ",params=" + this.params
+                    + ",seq=" + this.seq
                     + "}";
         }
     }
 
     /**
-     * A structure representing an HTTP response. Contains either an array of strings representing
-     * each line of the response body, or an exception, if one occurred during the request.
+     * A structure representing a response from a backend. Contains either an array of strings
+     * representing each line of the response body, or an exception, if one occurred during the
+     * request.
      */
-    static final class Response {
+    public static final class Response {
         private final Exception ex;
         private final String[] data;
         private final Version ver;
@@ -226,6 +252,16 @@ public class ConnectionThread extends AsyncTask<ConnectionThread.Request, String
             this.ver = ver;
         }
 
+        /**
+         * Constructs a successful response.
+         *
+         * @param data The lines of the response body.
+         * @param ver  The version of the backend.
+         */
+        Response(String[] data, Version ver) {
+            this(null, data, ver);
+        }
+
         /**
          * Check if an exception was thrown when sending the HTTP request. Returns the exception if
          * one was thrown, null otherwise.
@@ -0,0 +1,143 @@
+package info.varden.hauk.http;
+
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses request bodies and decompresses responses exchanged with the backend. Backends that
+ * accept compressed request bodies say so in the {@code Accept-Encoding} header of their
+ * responses, as described in RFC 7694, so request bodies to a backend are only compressed once a
+ * response from it has been received.
+ *
+ * @author Marius Lindvall
+ */
+final class ContentCoding {
+    static final String GZIP = "gzip"; //NON-NLS
+    static final String DEFLATE = "deflate"; //NON-NLS
+
+    /**
+     * The content codings accepted in responses. Only gzip is accepted, since some servers send
+     * raw deflate data instead of the zlib format the "deflate" coding requires.
+     */
+    static final String ACCEPTED = GZIP;
+
+    /**
+     * Request bodies shorter than this many bytes are not compressed. Plain location updates stay
+     * below it, since they would barely shrink, while end-to-end encrypted updates and requests
+     * for several shares are larger.
+     */
+    static final int THRESHOLD = 256;
+
+    /**
+     * The largest response accepted after decompression, to protect against decompression bombs.
+     */
+    private static final int MAX_DECODED_LENGTH = 4 << 20;
+
+    /**
+     * The coding to compress request bodies with, by backend URL.
+     */
+    private static final Map<String, String> CODINGS = new ConcurrentHashMap<>();
+
+    private ContentCoding() {
+    }
+
+    /**
+     * Remembers which content codings a backend accepts for request bodies. Called for each
+     * response from the backend. deflate is preferred over gzip because its header is smaller.
+     *
+     * @param url            The base URL of the backend.
+     * @param acceptEncoding The Accept-Encoding header of the response, or null if missing.
+     */
+    static void onResponse(String url, @Nullable String acceptEncoding) {
+        boolean gzip = false;
+        boolean deflate = false;
+        if (acceptEncoding != null) {
+            for (String coding : acceptEncoding.split(",")) {
+                // Ignore codings with a quality value of zero, e.g. "gzip;q=0".
+                String[] parts = coding.trim().toLowerCase(Locale.ENGLISH).split(";");
+                if (parts.length > 1 && parts[1].trim().matches("q=0(\\.0*)?")) continue; //NON-NLS
+                gzip |= parts[0].trim().equals(GZIP);
+                deflate |= parts[0].trim().equals(DEFLATE);
+            }
+        }
+        if (deflate) {
+            CODINGS.put(url, DEFLATE);
+        } else if (gzip) {
+            CODINGS.put(url, GZIP);
+        } else {
+            CODINGS.remove(url);
+        }
+    }
+
+    /**
+     * Returns the content coding to compress a request body with, or null if it should be sent
+     * uncompressed.
+     *
+     * @param url    The base URL of the backend the request is sent to.
+     * @param length The length of the uncompressed body in bytes.
+     */
+    @Nullable
+    static String negotiate(String url, int length) {
+        return length < THRESHOLD ? null : CODINGS.get(url);
+    }
+
+    /**
+     * Compresses data with the given content coding.
+     *
+     * @param data   The data to compress.
+     * @param coding {@link #GZIP} or {@link #DEFLATE}.
+     */
+    static byte[] encode(byte[] data, String coding) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(data.length / 2 + 32);
+        OutputStream os = coding.equals(GZIP) ? new GZIPOutputStream(buffer) : new DeflaterOutputStream(buffer);
+        os.write(data);
+        os.close();
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Decompresses a response body with the given content coding.
+     *
+     * @param data   The response body as received.
+     * @param coding The Content-Encoding header of the response, or null if uncompressed.
+     * @throws IOException If the coding is not supported or the data is malformed.
+     */
+    static byte[] decode(byte[] data, @Nullable String coding) throws IOException {
+        if (coding == null || coding.trim().isEmpty() || coding.trim().equalsIgnoreCase("identity")) return data; //NON-NLS
+        if (!coding.trim().equalsIgnoreCase(GZIP)) throw new IOException("Unsupported content coding " + coding); //NON-NLS
+        return readFully(new GZIPInputStream(new ByteArrayInputStream(data)), MAX_DECODED_LENGTH);
+    }
+
+    /**
+     * Reads a stream to the end.
+     *
+     * @param is        The stream to read.
+     * @param maxLength The maximum number of bytes to read.
+     * @throws IOException If the stream is longer than the maximum length.
+     */
+    static byte[] readFully(InputStream is, int maxLength) throws IOException {
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            byte[] chunk = new byte[4096];
+            int count;
+            while ((count = is.read(chunk)) >= 0) {
+                if (buffer.size() + count > maxLength) throw new IOException("Response is longer than " + maxLength + " bytes"); //NON-NLS
+                buffer.write(chunk, 0, count);
+            }
+            return buffer.toByteArray();
+        } finally {
+            is.close();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package info.varden.hauk.http;
+
+import java.io.Serializable;
+
+/**
+ * A server that a session can be reached through, along with the parameters used to connect to
+ * it. A session has one endpoint for its server, and one for each mirror of that server.
+ *
+ * @author Marius Lindvall
+ */
+public final class Endpoint implements Serializable {
+    private static final long serialVersionUID = 4626310791573349281L;
+
+    /**
+     * The server base URL, including trailing slash.
+     */
+    private final String url;
+
+    /**
+     * Connection parameters for connections to this server.
+     */
+    private final ConnectionParameters connParams;
+
+    public Endpoint(String url, ConnectionParameters connParams) {
+        this.url = url;
+        this.connParams = connParams;
+    }
+
+    public String getURL() {
+        return this.url;
+    }
+
+    ConnectionParameters getConnectionParameters() {
+        return this.connParams;
+    }
+
+    /**
+     * Whether or not the given URL points to a Tor onion service.
+     */
+    static boolean isOnion(String url) {
+        int start = url.indexOf("://") + 3; //NON-NLS
+        int end = start;
+        while (end < url.length() && url.charAt(end) != '/' && url.charAt(end) != ':') end++;
+        return url.substring(start, end).toLowerCase().endsWith(".onion"); //NON-NLS
+    }
+
+    @Override
+    public String toString() {
+        return "Endpoint{url=" + this.url
+                + ",connParams=" + this.connParams
+                + "}";
+    }
+}
@@ -0,0 +1,253 @@
+package info.varden.hauk.http;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps track of the health of the servers a session can be reached through, and decides which of
+ * them requests are sent to. Each server is scored by its smoothed response time, penalized by its
+ * recent error rate. The session's own server is preferred over mirrors unless a mirror is
+ * considerably faster, and traffic only moves to another server when it is clearly better, so that
+ * requests do not alternate between servers of similar quality.
+ *
+ * <p>A server that fails several requests in a row is not used for a while, with the pause growing
+ * for each further failure. Errors are forgotten over time, so that requests move back to the
+ * session's own server once it has recovered.</p>
+ *
+ * <p>Selectors are shared by all requests to the same list of servers, and are forgotten when a
+ * session on those servers is stopped. Times are given in milliseconds on the monotonic clock.</p>
+ *
+ * @author Marius Lindvall
+ */
+final class EndpointSelector {
+    /**
+     * The weight of each new response time and outcome in the smoothed response time and error
+     * rate.
+     */
+    private static final double SMOOTHING = 0.3;
+
+    /**
+     * The time after which the error rate has decayed to 1/e of its value.
+     */
+    private static final double ERROR_DECAY_MILLIS = 2.0 * 60.0 * 1000.0;
+
+    /**
+     * How much the error rate penalizes a server. A server that fails every request scores as if
+     * it took this many times longer to respond, plus one.
+     */
+    private static final double ERROR_PENALTY = 4.0;
+
+    /**
+     * The factor applied to the score of the session's own server, so that mirrors are only used
+     * if they are at least twice as good.
+     */
+    private static final double PRIMARY_PREFERENCE = 0.5;
+
+    /**
+     * The factor applied to the score of the server currently in use, to avoid switching between
+     * servers of similar quality.
+     */
+    private static final double CURRENT_PREFERENCE = 0.8;
+
+    /**
+     * The number of consecutive failures after which a server is no longer used for a while.
+     */
+    private static final int FAILURES_BEFORE_PAUSE = 2;
+    private static final long MIN_PAUSE_MILLIS = 30L * 1000L;
+    private static final long MAX_PAUSE_MILLIS = 5L * 60L * 1000L;
+
+    /**
+     * The largest number of selectors kept at once. Sessions that expire without being stopped
+     * leave their selector behind, so the least recently used ones are dropped beyond this.
+     */
+    private static final int MAX_SELECTORS = 16;
+
+    private static final Map<String, EndpointSelector> SELECTORS = new LinkedHashMap<String, EndpointSelector>(MAX_SELECTORS, 0.75F, true) {
+        private static final long serialVersionUID = 4630152877094622713L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, EndpointSelector> eldest) {
+            return size() > MAX_SELECTORS;
+        }
+    };
+
+    private final Health[] health;
+
+    /**
+     * The index of the server that the last successful request was sent to.
+     */
+    private int current = 0;
+
+    EndpointSelector(int count) {
+        this.health = new Health[count];
+        for (int i = 0; i < count; i++) this.health[i] = new Health();
+    }
+
+    /**
+     * Returns the selector shared by all requests to the given list of servers.
+     */
+    static synchronized EndpointSelector forEndpoints(List<Endpoint> endpoints) {
+        String key = keyOf(endpoints);
+        EndpointSelector selector = SELECTORS.get(key);
+        if (selector == null) {
+            selector = new EndpointSelector(endpoints.size());
+            SELECTORS.put(key, selector);
+        }
+        return selector;
+    }
+
+    /**
+     * Forgets the selector for the given list of servers, once a session on them has ended.
+     * Requests that are sent to them later start over with a new selector.
+     */
+    static synchronized void forget(List<Endpoint> endpoints) {
+        SELECTORS.remove(keyOf(endpoints));
+    }
+
+    /**
+     * Returns the number of selectors currently kept.
+     */
+    static synchronized int count() {
+        return SELECTORS.size();
+    }
+
+    private static String keyOf(List<Endpoint> endpoints) {
+        StringBuilder key = new StringBuilder();
+        for (Endpoint endpoint : endpoints) key.append(endpoint.getURL()).append(' ');
+        return key.toString();
+    }
+
+    /**
+     * Returns the indices of the servers in the order they should be tried. Servers that are
+     * paused after repeated failures are tried last, in the order their pauses end.
+     *
+     * @param now The current time.
+     */
+    synchronized List<Integer> order(final long now) {
+        List<Integer> order = new ArrayList<>(this.health.length);
+        for (int i = 0; i < this.health.length; i++) order.add(i);
+        final double[] scores = new double[this.health.length];
+        for (int i = 0; i < scores.length; i++) scores[i] = score(i, now);
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                Health ha = EndpointSelector.this.health[a];
+                Health hb = EndpointSelector.this.health[b];
+                boolean pausedA = ha.pausedUntil > now;
+                boolean pausedB = hb.pausedUntil > now;
+                if (pausedA != pausedB) return pausedA ? 1 : -1;
+                if (pausedA) return Long.compare(ha.pausedUntil, hb.pausedUntil);
+                int cmp = Double.compare(scores[a], scores[b]);
+                return cmp != 0 ? cmp : Integer.compare(a, b);
+            }
+        });
+        return order;
+    }
+
+    /**
+     * Records that a request to a server succeeded.
+     *
+     * @param index   The index of the server.
+     * @param latency The time it took the server to respond.
+     * @param now     The current time.
+     * @return The index of the server that requests were previously sent to if they have now moved
+     *         to this server, or -1 if they have not moved.
+     */
+    synchronized int onSuccess(int index, long latency, long now) {
+        Health h = this.health[index];
+        h.latency = h.latency < 0.0 ? latency : h.latency + SMOOTHING * (latency - h.latency);
+        h.updateErrorRate(0.0, now);
+        h.failures = 0;
+        h.pausedUntil = 0L;
+        if (index == this.current) return -1;
+        int previous = this.current;
+        this.current = index;
+        return previous;
+    }
+
+    /**
+     * Records that a request to a server failed.
+     *
+     * @param index The index of the server.
+     * @param now   The current time.
+     */
+    synchronized void onFailure(int index, long now) {
+        Health h = this.health[index];
+        h.updateErrorRate(1.0, now);
+        h.failures++;
+        if (h.failures >= FAILURES_BEFORE_PAUSE) {
+            long pause = MIN_PAUSE_MILLIS << Math.min(h.failures - FAILURES_BEFORE_PAUSE, 10);
+            h.pausedUntil = now + Math.min(pause, MAX_PAUSE_MILLIS);
+        }
+    }
+
+    /**
+     * Returns the smoothed response time of a server in milliseconds, or -1 if unknown.
+     */
+    synchronized double getLatency(int index) {
+        return this.health[index].latency;
+    }
+
+    /**
+     * Returns the recent error rate of a server, between 0 and 1.
+     */
+    synchronized double getErrorRate(int index, long now) {
+        return this.health[index].getErrorRate(now);
+    }
+
+    /**
+     * Returns the score of a server; lower is better. Mirrors that have not responded yet score
+     * worse than all others, so that they are only tried when the others fail, while the session's
+     * own server is tried first until it has responded.
+     */
+    private double score(int index, long now) {
+        Health h = this.health[index];
+        if (h.latency < 0.0) return index == 0 ? 0.0 : Double.POSITIVE_INFINITY;
+        double score = h.latency * (1.0 + ERROR_PENALTY * h.getErrorRate(now));
+        if (index == 0) score *= PRIMARY_PREFERENCE;
+        if (index == this.current) score *= CURRENT_PREFERENCE;
+        return score;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "EndpointSelector{current=" + this.current
+                + ",health=" + Arrays.toString(this.health)
+                + "}";
+    }
+
+    /**
+     * Observed health of a single server.
+     */
+    private static final class Health {
+        private double latency = -1.0;
+        private double errorRate = 0.0;
+        private long errorUpdated = 0L;
+        private int failures = 0;
+        private long pausedUntil = 0L;
+
+        private double getErrorRate(long now) {
+            return this.errorRate * Math.exp(-(now - this.errorUpdated) / ERROR_DECAY_MILLIS);
+        }
+
+        private void updateErrorRate(double outcome, long now) {
+            double rate = getErrorRate(now);
+            this.errorRate = rate + SMOOTHING * (outcome - rate);
+            this.errorUpdated = now;
+        }
+
+        @Override
+        public String toString() {
+            return "{latency=" + this.latency
+                    + ",errorRate=" + this.errorRate
+                    + ",failures=" + this.failures
+                    + ",pausedUntil=" + this.pausedUntil
+                    + "}";
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package info.varden.hauk.http;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Proxy;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Locale;
+
+import javax.net.ssl.HttpsURLConnection;
+
+import info.varden.hauk.BuildConfig;
+import info.varden.hauk.Constants;
+import info.varden.hauk.R;
+import info.varden.hauk.diagnostics.FlightRecorder;
+import info.varden.hauk.diagnostics.TraceEvent;
+import info.varden.hauk.http.security.CertificateValidationPolicy;
+import info.varden.hauk.http.security.InsecureHostnameVerifier;
+import info.varden.hauk.http.security.InsecureTrustManager;
+import info.varden.hauk.struct.Version;
+import info.varden.hauk.utils.Log;
+
+/**
+ * The default transport, which HTTP-POSTs the packet fields as a form to the backend and reads the
+ * response line by line. Large forms are compressed if the backend accepts it, and compressed
+ * responses are decompressed.
+ *
+ * @author Marius Lindvall
+ */
+public final class HttpTransport implements Transport {
+    private static final long serialVersionUID = -2178407306917519427L;
+
+    /**
+     * The largest response accepted, in bytes.
+     */
+    private static final int MAX_RESPONSE_LENGTH = 4 << 20;
+
+    @Override
+    @SuppressWarnings("HardCodedStringLiteral")
+    public ConnectionThread.Response send(ConnectionThread.Request request, Endpoint endpoint, boolean failover) throws Exception {
+        int seq = request.getSequence();
+        ConnectionParameters connParams = endpoint.getConnectionParameters();
+
+        // Configure and open the connection.
+        Proxy proxy = connParams.getProxy();
+        URL url = new URL(endpoint.getURL() + request.getPath());
+        HttpURLConnection client = (HttpURLConnection) (proxy == null ? url.openConnection() : url.openConnection(proxy));
+        if (url.getHost().endsWith(".onion") && url.getProtocol().equals("https")) {
+            // Check if TLS validation should be disabled for .onion addresses over HTTPS.
+            if (connParams.getTLSPolicy().equals(CertificateValidationPolicy.DISABLE_TRUST_ANCHOR_ONION)) {
+                Log.v("[seq:%s] Setting insecure SSL socket factory for connection to comply with TLS policy", seq);
+                ((HttpsURLConnection) client).setSSLSocketFactory(InsecureTrustManager.getSocketFactory());
+            } else if (connParams.getTLSPolicy().equals(CertificateValidationPolicy.DISABLE_ALL_ONION)) {
+                Log.v("[seq:%s] Setting insecure SSL socket factory and disabling hostname validation for connection to comply with TLS policy", seq);
+                ((HttpsURLConnection) client).setSSLSocketFactory(InsecureTrustManager.getSocketFactory());
+                ((HttpsURLConnection) client).setHostnameVerifier(new InsecureHostnameVerifier());
+            }
+        }
+
+        // Post the data.
+        Log.v("[seq:%s] Setting connection parameters", seq);
+        client.setConnectTimeout(connParams.getTimeout());
+        if (failover) client.setReadTimeout(connParams.getTimeout());
+        client.setRequestMethod("POST");
+        client.setRequestProperty("Accept-Language", Locale.getDefault().getLanguage());
+        client.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+        client.setRequestProperty(Constants.HTTP_HEADER_ACCEPT_ENCODING, ContentCoding.ACCEPTED);
+        client.setRequestProperty("User-Agent", "Hauk/" + BuildConfig.VERSION_NAME + " " + System.getProperty("http.agent"));
+        client.setDoInput(true);
+        client.setDoOutput(true);
+
+        // Compress large forms if the backend has said it accepts compressed forms. Forms with
+        // the backend password are never compressed, so that its length cannot leak through the
+        // compressed length of the form.
+        byte[] body = request.getURLEncodedData().getBytes(StandardCharsets.UTF_8);
+        String coding = ContentCoding.negotiate(endpoint.getURL(), body.length);
+        if (coding != null && !request.getData().containsKey(Constants.PACKET_PARAM_PASSWORD)) {
+            byte[] compressed = ContentCoding.encode(body, coding);
+            if (compressed.length < body.length) {
+                Log.v("[seq:%s] Compressed request from %s to %s bytes using %s", seq, body.length, compressed.length, coding);
+                FlightRecorder.record(TraceEvent.REQUEST_COMPRESSED, request.getEndpoint(), seq, body.length, compressed.length, 0.0F);
+                client.setRequestProperty(Constants.HTTP_HEADER_CONTENT_ENCODING, coding);
+                body = compressed;
+            }
+        }
+        client.setFixedLengthStreamingMode(body.length);
+
+        Log.v("[seq:%s] Writing data to socket", seq);
+        OutputStream os = client.getOutputStream();
+        os.write(body);
+        os.flush();
+        os.close();
+        FlightRecorder.record(TraceEvent.PACKET_SENT, request.getEndpoint(), seq, 0L, 0.0F, 0.0F);
+
+        int response = client.getResponseCode();
+        Log.v("[seq:%s] Response code for request is %s", seq, response);
+        ContentCoding.onResponse(endpoint.getURL(), client.getHeaderField(Constants.HTTP_HEADER_ACCEPT_ENCODING));
+        WebSocketTransport.onResponse(endpoint.getURL(), client.getHeaderField(Constants.HTTP_HEADER_HAUK_STREAMING));
+        if (response == HttpURLConnection.HTTP_OK) {
+            // The response should be returned as an array of strings where each element of the
+            // array is one line of output. Hauk uses this array as an argument array when
+            // processing the response.
+            byte[] raw = ContentCoding.readFully(client.getInputStream(), MAX_RESPONSE_LENGTH);
+            String contentEncoding = client.getContentEncoding();
+            byte[] data = ContentCoding.decode(raw, contentEncoding);
+            if (data != raw) {
+                Log.v("[seq:%s] Decompressed response from %s to %s bytes using %s", seq, raw.length, data.length, contentEncoding);
+                FlightRecorder.record(TraceEvent.RESPONSE_DECOMPRESSED, request.getEndpoint(), seq, data.length, raw.length, 0.0F);
+            }
+
+            String line;
+            ArrayList<String> lines = new ArrayList<>();
+            BufferedReader br = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(data), StandardCharsets.UTF_8));
+            while ((line = br.readLine()) != null) {
+                Log.v("[seq:%s] resp += \"%s\"", seq, line);
+                lines.add(line);
+            }
+            br.close();
+            Log.v("[seq:%s] Returning success response", seq);
+            return new ConnectionThread.Response(lines.toArray(new String[0]), new Version(client.getHeaderField(Constants.HTTP_HEADER_HAUK_VERSION)));
+        } else {
+            // Hauk only returns HTTP 200; any other response should be considered an error.
+            Log.v("[seq:%s] Returning HTTP code failure response", seq);
+            throw new ServerException(String.format(request.getContext().getString(R.string.err_response_code), String.valueOf(response)));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "HttpTransport";
+    }
+}
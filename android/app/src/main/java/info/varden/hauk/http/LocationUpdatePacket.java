@@ -4,6 +4,8 @@ import android.content.Context;
 import android.location.Location;
 import android.util.Base64;
 
+import androidx.annotation.Nullable;
+
 import java.nio.charset.StandardCharsets;
 import java.security.SecureRandom;
 
@@ -12,6 +14,7 @@ import javax.crypto.Cipher;
 import info.varden.hauk.Constants;
 import info.varden.hauk.R;
 import info.varden.hauk.http.parameter.LocationProvider;
+import info.varden.hauk.location.CompactPointEncoder;
 import info.varden.hauk.struct.Session;
 import info.varden.hauk.struct.Version;
 import info.varden.hauk.utils.Log;
@@ -23,6 +26,12 @@ import info.varden.hauk.utils.TimeUtils;
  * @author Marius Lindvall
  */
 public abstract class LocationUpdatePacket extends Packet {
+    /**
+     * The version of the share list that the client already has, or null if unknown.
+     */
+    @Nullable
+    private String shareListVersion = null;
+
     /**
      * Called whenever a list of currently active shares are received from the server. This list may
      * be updated by the server if the user is adopted into a group share. This function is called
@@ -38,22 +47,79 @@ public abstract class LocationUpdatePacket extends Packet {
     protected abstract void onShareListReceived(String linkFormat, String[] shares);
 
     /**
-     * Creates the packet.
+     * Called whenever the backend has accepted a location update, with the update interval it
+     * suggests. The backend suggests a longer interval while nobody is viewing any of the shares
+     * the session is part of, and withdraws the suggestion once someone opens a share link.
+     *
+     * @since 1.7
+     * @param intervalMillis The suggested interval in milliseconds, or 0 if the backend has no
+     *                       suggestion and the normal interval should be used.
+     */
+    @SuppressWarnings({"DesignForExtension", "NoopMethodInAbstractClass"})
+    protected void onIntervalSuggested(long intervalMillis) {
+    }
+
+    /**
+     * Called after {@link #onShareListReceived(String, String[])} with the version of the share
+     * list that was received. Passing this version to {@link #setShareListVersion(String)} on the
+     * next packet lets the backend leave the list out if it has not changed since.
+     *
+     * @since 1.7
+     * @param version An opaque version string.
+     */
+    @SuppressWarnings({"DesignForExtension", "NoopMethodInAbstractClass"})
+    protected void onShareListVersionReceived(String version) {
+    }
+
+    /**
+     * Creates the packet, timestamped with the current time.
      *
      * @param ctx      Android application context.
      * @param session  The session for which location is being updated.
      * @param location The updated location data obtained from GNSS/network sensors.
      */
     protected LocationUpdatePacket(Context ctx, Session session, Location location, LocationProvider accuracy) {
-        super(ctx, session.getServerURL(), session.getConnectionParameters(), Constants.URL_PATH_POST_LOCATION);
+        this(ctx, session, location, accuracy, System.currentTimeMillis());
+    }
+
+    /**
+     * Creates the packet with a given timestamp. Viewers treat locations with old timestamps as
+     * outdated.
+     *
+     * @param ctx      Android application context.
+     * @param session  The session for which location is being updated.
+     * @param location The location data obtained from GNSS/network sensors.
+     * @param time     The UTC time of the location in milliseconds.
+     */
+    protected LocationUpdatePacket(Context ctx, Session session, Location location, LocationProvider accuracy, long time) {
+        this(ctx, session, location, accuracy, time, -1);
+    }
+
+    /**
+     * Creates the packet with a given timestamp, optionally in the compact point format.
+     *
+     * @param ctx       Android application context.
+     * @param session   The session for which location is being updated.
+     * @param location  The location data obtained from GNSS/network sensors.
+     * @param time      The UTC time of the location in milliseconds.
+     * @param precision The number of decimal places to send of the coordinates in the compact
+     *                  point format, or -1 to send the location as decimal strings. Ignored if the
+     *                  session does not support the compact point format.
+     */
+    protected LocationUpdatePacket(Context ctx, Session session, Location location, LocationProvider accuracy, long time, int precision) {
+        super(ctx, session.getEndpoints(), Constants.URL_PATH_POST_LOCATION);
         setParameter(Constants.PACKET_PARAM_SESSION_ID, session.getID());
 
-        if (session.getDerivableE2EKey() == null) {
+        if (precision >= 0 && supportsCompactPoints(session)) {
+            CompactPointEncoder points = new CompactPointEncoder(precision);
+            points.add(time, location.getLatitude(), location.getLongitude(), location.hasAccuracy() ? location.getAccuracy() : -1.0F, location.hasSpeed() ? location.getSpeed() : -1.0F);
+            setCompactPoints(accuracy, points);
+        } else if (session.getDerivableE2EKey() == null) {
             // If not using end-to-end encryption, send parameters in plain text.
             setParameter(Constants.PACKET_PARAM_LATITUDE, String.valueOf(location.getLatitude()));
             setParameter(Constants.PACKET_PARAM_LONGITUDE, String.valueOf(location.getLongitude()));
             setParameter(Constants.PACKET_PARAM_PROVIDER_ACCURACY, String.valueOf(accuracy.getMode()));
-            setParameter(Constants.PACKET_PARAM_TIMESTAMP, String.valueOf(System.currentTimeMillis() / (double) TimeUtils.MILLIS_PER_SECOND));
+            setParameter(Constants.PACKET_PARAM_TIMESTAMP, String.valueOf(time / (double) TimeUtils.MILLIS_PER_SECOND));
 
             // Not all devices provide these parameters:
             if (location.hasSpeed()) setParameter(Constants.PACKET_PARAM_SPEED, String.valueOf(location.getSpeed()));
@@ -69,7 +135,7 @@ public abstract class LocationUpdatePacket extends Packet {
                 setParameter(Constants.PACKET_PARAM_LATITUDE, Base64.encodeToString(cipher.doFinal(String.valueOf(location.getLatitude()).getBytes(StandardCharsets.UTF_8)), Base64.DEFAULT));
                 setParameter(Constants.PACKET_PARAM_LONGITUDE, Base64.encodeToString(cipher.doFinal(String.valueOf(location.getLongitude()).getBytes(StandardCharsets.UTF_8)), Base64.DEFAULT));
                 setParameter(Constants.PACKET_PARAM_PROVIDER_ACCURACY, Base64.encodeToString(cipher.doFinal(String.valueOf(accuracy.getMode()).getBytes(StandardCharsets.UTF_8)), Base64.DEFAULT));
-                setParameter(Constants.PACKET_PARAM_TIMESTAMP, Base64.encodeToString(cipher.doFinal(String.valueOf(System.currentTimeMillis() / (double) TimeUtils.MILLIS_PER_SECOND).getBytes(StandardCharsets.UTF_8)), Base64.DEFAULT));
+                setParameter(Constants.PACKET_PARAM_TIMESTAMP, Base64.encodeToString(cipher.doFinal(String.valueOf(time / (double) TimeUtils.MILLIS_PER_SECOND).getBytes(StandardCharsets.UTF_8)), Base64.DEFAULT));
 
                 // Not all devices provide these parameters:
                 if (location.hasSpeed()) setParameter(Constants.PACKET_PARAM_SPEED, Base64.encodeToString(cipher.doFinal(String.valueOf(location.getSpeed()).getBytes(StandardCharsets.UTF_8)), Base64.DEFAULT));
@@ -80,6 +146,77 @@ public abstract class LocationUpdatePacket extends Packet {
         }
     }
 
+    /**
+     * Creates a packet containing a batch of locations for high-frequency sharing. Batches are
+     * only supported without end-to-end encryption, and only by backends of version
+     * {@link Constants#VERSION_COMPAT_BATCH_POST} or later.
+     *
+     * @param ctx      Android application context.
+     * @param session  The session for which location is being updated.
+     * @param baseTime The UTC time in milliseconds of the first location in the batch.
+     * @param points   The batch of locations, encoded as described in
+     *                 {@link info.varden.hauk.location.PointBuffer}.
+     */
+    protected LocationUpdatePacket(Context ctx, Session session, long baseTime, CharSequence points) {
+        super(ctx, session.getEndpoints(), Constants.URL_PATH_POST_LOCATION);
+        setParameter(Constants.PACKET_PARAM_SESSION_ID, session.getID());
+        setParameter(Constants.PACKET_PARAM_PROVIDER_ACCURACY, String.valueOf(LocationProvider.FINE.getMode()));
+        setParameter(Constants.PACKET_PARAM_TIMESTAMP, String.valueOf(baseTime / (double) TimeUtils.MILLIS_PER_SECOND));
+        setParameter(Constants.PACKET_PARAM_POINTS, points.toString());
+    }
+
+    /**
+     * Creates a packet containing one or more locations in the compact point format. Only
+     * supported for sessions where {@link #supportsCompactPoints(Session)} is true.
+     *
+     * @param ctx      Android application context.
+     * @param session  The session for which location is being updated.
+     * @param accuracy The provider of the locations.
+     * @param points   The encoded locations.
+     */
+    protected LocationUpdatePacket(Context ctx, Session session, LocationProvider accuracy, CompactPointEncoder points) {
+        super(ctx, session.getEndpoints(), Constants.URL_PATH_POST_LOCATION);
+        setParameter(Constants.PACKET_PARAM_SESSION_ID, session.getID());
+        setCompactPoints(accuracy, points);
+    }
+
+    private void setCompactPoints(LocationProvider accuracy, CompactPointEncoder points) {
+        setParameter(Constants.PACKET_PARAM_PROVIDER_ACCURACY, String.valueOf(accuracy.getMode()));
+        setParameter(Constants.PACKET_PARAM_COMPACT_POINTS, Base64.encodeToString(points.toByteArray(), Base64.NO_WRAP));
+    }
+
+    /**
+     * Tells the backend which version of the share list the client already has. If the list has
+     * not changed since, {@link #onShareListReceived(String, String[])} is not called.
+     *
+     * @param version The version last received through {@link #onShareListVersionReceived(String)},
+     *                or null if no list has been received.
+     */
+    protected final void setShareListVersion(@Nullable String version) {
+        this.shareListVersion = version;
+        if (version != null) setParameter(Constants.PACKET_PARAM_SHARE_LIST_VERSION, version);
+    }
+
+    /**
+     * Whether or not locations can be sent to a session in the compact point format. Requires a
+     * backend that can decode it, and a session without end-to-end encryption, since the backend
+     * cannot decode encrypted points.
+     *
+     * @param session The session to check.
+     */
+    public static boolean supportsCompactPoints(Session session) {
+        return session.getBackendVersion().isAtLeast(Constants.VERSION_COMPAT_COMPACT_POINTS) && session.getDerivableE2EKey() == null;
+    }
+
+    /**
+     * Location updates can be repeated, since mirrors share their storage and the backend drops
+     * points that it has already stored.
+     */
+    @Override
+    final boolean isIdempotent() {
+        return true;
+    }
+
     @SuppressWarnings("DesignForExtension")
     @Override
     protected void onSuccess(String[] data, Version backendVersion) throws ServerException {
@@ -89,19 +226,22 @@ public abstract class LocationUpdatePacket extends Packet {
         }
 
         if (data[0].equals(Constants.PACKET_RESPONSE_OK)) {
-            // If the backend is >= v1.2, post.php returns a list of currently active share links.
-            // Update the user interface to include these.
-            if (backendVersion.isAtLeast(Constants.VERSION_COMPAT_VIEW_ID)) {
+            readStatus(data, backendVersion, this.shareListVersion, new StatusListener() {
+                @Override
+                public void onShareListReceived(String linkFormat, String[] shares) {
+                    LocationUpdatePacket.this.onShareListReceived(linkFormat, shares);
+                }
 
-                // The share link list is comma-separated.
-                String linkFormat = data[1];
-                String shareCSV = data[2];
-                if (!shareCSV.isEmpty()) {
-                    onShareListReceived(linkFormat, shareCSV.split(","));
-                } else {
-                    onShareListReceived(linkFormat, new String[0]);
+                @Override
+                public void onShareListVersionReceived(String version) {
+                    LocationUpdatePacket.this.onShareListVersionReceived(version);
                 }
-            }
+
+                @Override
+                public void onIntervalSuggested(long intervalMillis) {
+                    LocationUpdatePacket.this.onIntervalSuggested(intervalMillis);
+                }
+            });
         } else {
             // If the first line of the response is not "OK", an error of some sort has occurred and
             // should be displayed to the user.
@@ -113,4 +253,83 @@ public abstract class LocationUpdatePacket extends Packet {
             throw new ServerException(err.toString());
         }
     }
+
+    /**
+     * Reads the status lines of a successful response to a location update, which hold the list
+     * of shares the session is part of and the update interval suggested by the backend. The
+     * backend may also push these lines to the client over a streaming connection.
+     *
+     * @param data           The lines of the response, starting with "OK".
+     * @param backendVersion The version of the backend.
+     * @param knownVersion   The version of the share list that the client already has, or null to
+     *                       always report the share list.
+     * @param listener       The listener to report the status to.
+     */
+    static void readStatus(String[] data, Version backendVersion, @Nullable String knownVersion, StatusListener listener) {
+        // If the backend is >= v1.2, post.php returns a list of currently active share links.
+        // Update the user interface to include these.
+        if (backendVersion.isAtLeast(Constants.VERSION_COMPAT_VIEW_ID)) {
+
+            // If the backend is >= v1.7, the version of the share list is included on the fifth
+            // line. The list itself is left out if it matches the version the client has.
+            String version = null;
+            if (backendVersion.isAtLeast(Constants.VERSION_COMPAT_SHARE_LIST_VERSION) && data.length > 4 && !data[4].isEmpty()) {
+                version = data[4];
+            }
+            if (version == null || !version.equals(knownVersion)) {
+                // The share link list is comma-separated.
+                String linkFormat = data[1];
+                String shareCSV = data[2];
+                if (!shareCSV.isEmpty()) {
+                    listener.onShareListReceived(linkFormat, shareCSV.split(","));
+                } else {
+                    listener.onShareListReceived(linkFormat, new String[0]);
+                }
+                if (version != null) listener.onShareListVersionReceived(version);
+            }
+        }
+
+        // If the backend is >= v1.7, a fourth line with an interval in seconds is included
+        // while nobody is viewing the shares.
+        if (backendVersion.isAtLeast(Constants.VERSION_COMPAT_SUGGESTED_INTERVAL)) {
+            long suggested = 0L;
+            if (data.length > 3 && !data[3].isEmpty()) {
+                try {
+                    suggested = Long.parseLong(data[3].trim()) * TimeUtils.MILLIS_PER_SECOND;
+                } catch (NumberFormatException ex) {
+                    Log.w("Ignoring invalid interval suggestion %s", ex, data[3]); //NON-NLS
+                }
+            }
+            listener.onIntervalSuggested(suggested);
+        }
+    }
+
+    /**
+     * Receives the status that the backend reports along with each accepted location update.
+     */
+    public interface StatusListener {
+        /**
+         * Called with the list of shares the session is part of.
+         *
+         * @param linkFormat A format string for the public view link of each share.
+         * @param shares     The IDs of the shares.
+         */
+        void onShareListReceived(String linkFormat, String[] shares);
+
+        /**
+         * Called after {@link #onShareListReceived(String, String[])} with the version of the
+         * share list, if the backend reports it.
+         *
+         * @param version An opaque version string.
+         */
+        void onShareListVersionReceived(String version);
+
+        /**
+         * Called with the update interval suggested by the backend.
+         *
+         * @param intervalMillis The suggested interval in milliseconds, or 0 if the backend has
+         *                       no suggestion.
+         */
+        void onIntervalSuggested(long intervalMillis);
+    }
 }
@@ -0,0 +1,84 @@
+package info.varden.hauk.http;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import info.varden.hauk.struct.Version;
+
+/**
+ * A transport that delivers packets to backends running in the same process instead of over the
+ * network, for use in tests and benchmarks. Backends are registered under the server URL that
+ * sessions use to reach them.
+ *
+ * @author Marius Lindvall
+ */
+public final class LoopbackTransport implements Transport {
+    private static final long serialVersionUID = 7723609446232870135L;
+
+    /**
+     * The backends that can be reached, by base URL. Not serialized with the transport, so that
+     * sessions restored in another process cannot reach backends that only exist in this one.
+     */
+    private static final Map<String, Registration> BACKENDS = new ConcurrentHashMap<>();
+
+    /**
+     * A backend that handles packets in the same process.
+     */
+    public interface Backend {
+        /**
+         * Handles a packet sent to the backend. Called on the thread that sends the packet.
+         *
+         * @param path The path underneath the base URL that was called.
+         * @param data The fields of the packet.
+         * @return The lines of the response.
+         * @throws Exception If the request should fail with the given exception.
+         */
+        String[] handle(String path, Map<String, String> data) throws Exception;
+    }
+
+    /**
+     * Makes a backend reachable through this transport.
+     *
+     * @param url     The base URL of the backend, including trailing slash.
+     * @param version The backend version to report in responses.
+     * @param backend The backend.
+     */
+    public static void register(String url, Version version, Backend backend) {
+        BACKENDS.put(url, new Registration(version, backend));
+    }
+
+    /**
+     * Makes a backend unreachable, so that further packets to it fail.
+     *
+     * @param url The base URL of the backend.
+     */
+    public static void unregister(String url) {
+        BACKENDS.remove(url);
+    }
+
+    @Override
+    public ConnectionThread.Response send(ConnectionThread.Request request, Endpoint endpoint, boolean failover) throws Exception {
+        Registration registration = BACKENDS.get(endpoint.getURL());
+        if (registration == null) throw new IOException("No loopback backend at " + endpoint.getURL()); //NON-NLS
+        return new ConnectionThread.Response(registration.backend.handle(request.getPath(), request.getData()), registration.version);
+    }
+
+    @Override
+    public String toString() {
+        return "LoopbackTransport";
+    }
+
+    /**
+     * A registered backend and the version it reports.
+     */
+    private static final class Registration {
+        private final Version version;
+        private final Backend backend;
+
+        private Registration(Version version, Backend backend) {
+            this.version = version;
+            this.backend = backend;
+        }
+    }
+}
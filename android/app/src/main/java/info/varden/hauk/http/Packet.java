@@ -1,9 +1,16 @@
 package info.varden.hauk.http;
 
 import android.content.Context;
+import android.os.AsyncTask;
+import android.os.SystemClock;
 
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Executor;
 
+import info.varden.hauk.diagnostics.FlightRecorder;
+import info.varden.hauk.diagnostics.TraceEvent;
 import info.varden.hauk.struct.Version;
 import info.varden.hauk.utils.Log;
 
@@ -17,9 +24,8 @@ import info.varden.hauk.utils.Log;
 public abstract class Packet {
     private final HashMap<String, String> params;
     private final Context ctx;
-    private final String server;
+    private final List<Endpoint> endpoints;
     private final String path;
-    private final ConnectionParameters connParams;
 
     /**
      * Called if the request is successful.
@@ -49,11 +55,22 @@ public abstract class Packet {
      * @param path   The path underneath the base URL that should be called.
      */
     Packet(Context ctx, String server, ConnectionParameters connParams, String path) {
+        this(ctx, Collections.singletonList(new Endpoint(server, connParams)), path);
+    }
+
+    /**
+     * Constructor for a packet that can be sent to any of several servers that share the same
+     * sessions, e.g. a backend and its mirrors.
+     *
+     * @param ctx       Android application context.
+     * @param endpoints The servers to send the packet to, starting with the preferred one.
+     * @param path      The path underneath the base URLs that should be called.
+     */
+    Packet(Context ctx, List<Endpoint> endpoints, String path) {
         this.params = new HashMap<>();
         this.ctx = ctx;
-        this.server = server;
+        this.endpoints = endpoints;
         this.path = path;
-        this.connParams = connParams;
     }
 
     /**
@@ -66,6 +83,29 @@ public abstract class Packet {
         this.params.put(key, value);
     }
 
+    /**
+     * Adds a list of parameters to send in the packet data. The values are indexed so that the
+     * backend receives them as an array in their original order.
+     *
+     * @param key    The parameter key.
+     * @param values The parameter values.
+     */
+    final void setParameters(String key, List<String> values) {
+        for (int i = 0; i < values.size(); i++) {
+            this.params.put(key + "[" + i + "]", values.get(i)); //NON-NLS
+        }
+    }
+
+    /**
+     * Whether sending the packet more than once has the same effect as sending it once. Only such
+     * packets are repeated on a mirror when a server fails after the request may have reached it;
+     * other packets are only sent to a mirror when the connection to a server could not be made.
+     */
+    @SuppressWarnings("DesignForExtension")
+    boolean isIdempotent() {
+        return false;
+    }
+
     /**
      * Returns Android application context for usage in e.g. creating ServerExceptions.
      */
@@ -74,10 +114,24 @@ public abstract class Packet {
     }
 
     /**
-     * Sends the packet.
+     * Sends the packet. Packets are sent one at a time, in the order they were sent.
      */
     public final void send() {
+        send(AsyncTask.SERIAL_EXECUTOR);
+    }
+
+    /**
+     * Sends the packet on the given executor instead of the default one, e.g. a
+     * {@link RequestQueue} per backend so that a slow backend does not hold up the others.
+     *
+     * @param executor The executor to run the request on.
+     */
+    public final void send(Executor executor) {
         Log.v("Sending packet of type %s", getClass().getName()); //NON-NLS
+        final int seq = FlightRecorder.nextSequence();
+        final short endpoint = FlightRecorder.endpointCode(this.path);
+        final long queuedAt = SystemClock.elapsedRealtime();
+        FlightRecorder.record(TraceEvent.PACKET_QUEUED, endpoint, seq, 0L, 0.0F, 0.0F);
         new ConnectionThread(new ConnectionThread.Callback() {
             @Override
             public void run(ConnectionThread.Response resp) {
@@ -86,6 +140,8 @@ public abstract class Packet {
                 // An exception may have occurred, but it cannot be thrown because this is a
                 // callback. Instead, the exception (if any) is stored in the response object.
                 Exception e = resp.getException();
+                long latency = SystemClock.elapsedRealtime() - queuedAt;
+                FlightRecorder.record(e == null ? TraceEvent.PACKET_ACKED : TraceEvent.PACKET_FAILED, endpoint, seq, latency, 0.0F, 0.0F);
                 if (e == null) {
                     try {
                         onSuccess(resp.getData(), resp.getServerVersion());
@@ -96,6 +152,6 @@ public abstract class Packet {
                     onFailure(e);
                 }
             }
-        }).execute(new ConnectionThread.Request(this.ctx, this.server + this.path, this.params, this.connParams));
+        }).executeOnExecutor(executor, new ConnectionThread.Request(this.ctx, this.endpoints, this.path, this.params, seq, endpoint, isIdempotent()));
     }
 }
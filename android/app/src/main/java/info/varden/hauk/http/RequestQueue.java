@@ -0,0 +1,45 @@
+package info.varden.hauk.http;
+
+import android.os.AsyncTask;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+/**
+ * An executor that sends packets one at a time in the order they were queued, like the default
+ * executor used by {@link Packet#send()}, but independently of it and of other queues. Packets to
+ * a backend that is slow to respond then only delay other packets in the same queue.
+ *
+ * @author Marius Lindvall
+ */
+public final class RequestQueue implements Executor {
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+
+    /**
+     * The task currently running on the thread pool, or null if the queue is idle.
+     */
+    private Runnable active = null;
+
+    @Override
+    public synchronized void execute(@NonNull final Runnable task) {
+        this.tasks.offer(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } finally {
+                    scheduleNext();
+                }
+            }
+        });
+        if (this.active == null) scheduleNext();
+    }
+
+    private synchronized void scheduleNext() {
+        this.active = this.tasks.poll();
+        if (this.active != null) AsyncTask.THREAD_POOL_EXECUTOR.execute(this.active);
+    }
+}
@@ -6,6 +6,9 @@ import android.util.Base64;
 import androidx.annotation.Nullable;
 
 import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import info.varden.hauk.Constants;
 import info.varden.hauk.R;
@@ -32,13 +35,8 @@ public class SessionInitiationPacket extends Packet {
      */
     private ShareMode mode;
 
-    /**
-     * A salt used if the session is end-to-end encrypted.
-     */
-    private final byte[] salt;
-
     private SessionInitiationPacket(Context ctx, InitParameters params, ResponseHandler handler) {
-        super(ctx, params.getServerURL(), params.getConnectionParameters(), Constants.URL_PATH_CREATE_SHARE);
+        super(ctx, params.getEndpoints(), Constants.URL_PATH_CREATE_SHARE);
         this.params = params;
         this.handler = handler;
         if (params.getUsername() != null) {
@@ -47,20 +45,14 @@ public class SessionInitiationPacket extends Packet {
         if (params.getCustomID() != null) {
             setParameter(Constants.PACKET_PARAM_SHARE_ID, params.getCustomID());
         }
-        // Generate a random salt key derivation if using end-to-end encryption.
-        if (params.getE2EPassword() != null) {
-            SecureRandom rand = new SecureRandom();
-            this.salt = new byte[Constants.E2E_AES_KEY_SIZE / 8];
-            rand.nextBytes(this.salt);
-            // The backend needs to know about the salt so the frontend can derive the key using it.
-            setParameter(Constants.PACKET_PARAM_SALT, Base64.encodeToString(this.salt, Base64.DEFAULT));
-        } else {
-            this.salt = null;
+        // The backend needs to know about the salt so the frontend can derive the key using it.
+        if (params.getKeyDerivable() != null) {
+            setParameter(Constants.PACKET_PARAM_SALT, Base64.encodeToString(params.getKeyDerivable().getSalt(), Base64.DEFAULT));
         }
         setParameter(Constants.PACKET_PARAM_PASSWORD, params.getPassword());
         setParameter(Constants.PACKET_PARAM_DURATION, String.valueOf(params.getDuration()));
         setParameter(Constants.PACKET_PARAM_INTERVAL, String.valueOf(params.getInterval()));
-        setParameter(Constants.PACKET_PARAM_E2E_FLAG, params.getE2EPassword() != null ? "1" : "0");
+        setParameter(Constants.PACKET_PARAM_E2E_FLAG, params.getKeyDerivable() != null ? "1" : "0");
     }
 
     /**
@@ -121,9 +113,9 @@ public class SessionInitiationPacket extends Packet {
 
         // Check if the server is out of date for end-to-end encryption, if applicable.
         KeyDerivable e2eParams = null;
-        if (this.params.getE2EPassword() != null) {
+        if (this.params.getKeyDerivable() != null) {
             if (backendVersion.isAtLeast(Constants.VERSION_COMPAT_E2E_ENCRYPTION)) {
-                e2eParams = new KeyDerivable(this.params.getE2EPassword(), this.salt);
+                e2eParams = this.params.getKeyDerivable();
             } else {
                 this.handler.onE2EUnavailable(backendVersion);
             }
@@ -155,9 +147,11 @@ public class SessionInitiationPacket extends Packet {
             }
 
             // Create a share and pass it upstream.
+            List<Endpoint> endpoints = this.params.getEndpoints();
             Session session = new Session(
                     this.params.getServerURL(),
-                    this.params.getConnectionParameters(),
+                    endpoints.get(0).getConnectionParameters(),
+                    endpoints.subList(1, endpoints.size()),
                     backendVersion,
                     sessionID,
                     this.params.getDuration() * TimeUtils.MILLIS_PER_SECOND + System.currentTimeMillis(),
@@ -230,7 +224,25 @@ public class SessionInitiationPacket extends Packet {
         private final int interval;
         private final float minDistance;
         private final String customID;
-        private final String e2ePass;
+
+        /**
+         * Base URLs of mirrors of the server that the session can also be reached through.
+         */
+        private List<String> mirrors = Collections.emptyList();
+
+        /**
+         * Whether location updates should be streamed to the backend over a WebSocket connection
+         * rather than sent as separate HTTP requests.
+         */
+        private boolean streaming = false;
+
+        /**
+         * The end-to-end encryption password and a random salt for key derivation, or null if end-
+         * to-end encryption is not used. The salt is generated up front so that the key can be
+         * derived while the session is being created.
+         */
+        @Nullable
+        private final KeyDerivable e2eParams;
 
         private ConnectionParameters connParams;
 
@@ -252,7 +264,91 @@ public class SessionInitiationPacket extends Packet {
             this.interval = interval;
             this.minDistance = minDistance;
             this.customID = customID == null || customID.isEmpty() ? null : customID;
-            this.e2ePass = e2ePass == null || e2ePass.isEmpty() ? null : e2ePass;
+            this.e2eParams = e2ePass == null || e2ePass.isEmpty() ? null : new KeyDerivable(e2ePass, newSalt());
+        }
+
+        /**
+         * Copies the given initialization parameters with a different duration. The copy shares
+         * the end-to-end encryption parameters and connection parameters of the original.
+         */
+        private InitParameters(InitParameters base, int duration) {
+            this.server = base.server;
+            this.connParams = base.connParams;
+            this.username = base.username;
+            this.password = base.password;
+            this.duration = duration;
+            this.interval = base.interval;
+            this.minDistance = base.minDistance;
+            this.customID = base.customID;
+            this.mirrors = base.mirrors;
+            this.streaming = base.streaming;
+            this.e2eParams = base.e2eParams;
+        }
+
+        /**
+         * Copies the given initialization parameters for a session on a different backend. The
+         * copy has no custom link ID or mirrors, and uses a new salt for end-to-end encryption.
+         */
+        private InitParameters(InitParameters base, String server, String username, String password) {
+            this.server = server;
+            this.connParams = base.connParams;
+            this.username = username == null || username.isEmpty() ? null : username;
+            this.password = password;
+            this.duration = base.duration;
+            this.interval = base.interval;
+            this.minDistance = base.minDistance;
+            this.customID = null;
+            this.streaming = base.streaming;
+            this.e2eParams = base.e2eParams == null ? null : base.e2eParams.withSalt(newSalt());
+        }
+
+        private static byte[] newSalt() {
+            byte[] salt = new byte[Constants.E2E_AES_KEY_SIZE / 8];
+            new SecureRandom().nextBytes(salt);
+            return salt;
+        }
+
+        /**
+         * Returns a copy of these parameters for a session with the same settings on another
+         * backend.
+         *
+         * @param server   The full URL to the server to create a session on.
+         * @param username The backend username, or empty string if not applicable.
+         * @param password The backend password.
+         */
+        public InitParameters forServer(String server, String username, String password) {
+            return new InitParameters(this, server, username, password);
+        }
+
+        /**
+         * Returns a copy of these parameters for a session that lasts the given number of seconds
+         * longer.
+         *
+         * @param seconds The number of seconds to add to the duration.
+         * @throws ArithmeticException if the duration would overflow.
+         */
+        public InitParameters extendedBy(int seconds) throws ArithmeticException {
+            if (Integer.MAX_VALUE - seconds < this.duration)
+                throw new ArithmeticException(String.format("Integer will overflow when extending %d seconds by %d seconds", this.duration, seconds));
+            return new InitParameters(this, this.duration + seconds);
+        }
+
+        /**
+         * Returns whether or not a session created with the given parameters would be identical
+         * to one created with these parameters. Connection parameters and the salt used for key
+         * derivation are not compared.
+         */
+        public boolean isEquivalentTo(InitParameters other) {
+            if (this.e2eParams == null ? other.e2eParams != null : other.e2eParams == null || !this.e2eParams.hasSamePassword(other.e2eParams)) return false;
+            return this.server.equals(other.server)
+                    && (this.username == null ? other.username == null : this.username.equals(other.username))
+                    && this.password.equals(other.password)
+                    && this.duration == other.duration
+                    && this.interval == other.interval
+                    && Float.compare(this.minDistance, other.minDistance) == 0
+                    && (this.customID == null ? other.customID == null : this.customID.equals(other.customID))
+                    && this.mirrors.equals(other.mirrors)
+                    && this.streaming == other.streaming;
         }
 
         String getServerURL() {
@@ -267,6 +363,53 @@ public class SessionInitiationPacket extends Packet {
             return this.connParams;
         }
 
+        /**
+         * Sets the mirrors of the server that the session can also be reached through, if the
+         * server is unavailable.
+         *
+         * @param mirrors A whitespace-separated list of mirror base URLs.
+         */
+        public void setMirrors(String mirrors) {
+            List<String> urls = new ArrayList<>();
+            for (String url : mirrors.trim().split("\\s+")) { //NON-NLS
+                if (url.isEmpty()) continue;
+                url = url.endsWith("/") ? url : url + "/";
+                if (!url.equals(this.server) && !urls.contains(url)) urls.add(url);
+            }
+            this.mirrors = Collections.unmodifiableList(urls);
+        }
+
+        /**
+         * Sets whether location updates should be streamed to the backend over a WebSocket
+         * connection. Updates are sent as HTTP requests while streaming is unavailable.
+         *
+         * @param streaming Whether to stream location updates.
+         */
+        public void setStreaming(boolean streaming) {
+            this.streaming = streaming;
+        }
+
+        /**
+         * Returns the server and its mirrors, each with the connection parameters to use for it.
+         * The proxy is meant for reaching onion services when the server is available both as an
+         * onion service and on the clearnet, so it is then only used for the onion services.
+         */
+        List<Endpoint> getEndpoints() {
+            List<String> urls = new ArrayList<>();
+            urls.add(this.server);
+            urls.addAll(this.mirrors);
+            boolean mixed = false;
+            for (String url : urls) mixed |= Endpoint.isOnion(url) != Endpoint.isOnion(this.server);
+
+            List<Endpoint> endpoints = new ArrayList<>();
+            for (String url : urls) {
+                ConnectionParameters params = mixed && !Endpoint.isOnion(url) ? this.connParams.withoutProxy() : this.connParams;
+                if (this.streaming) params = params.withTransport(new WebSocketTransport());
+                endpoints.add(new Endpoint(url, params));
+            }
+            return endpoints;
+        }
+
         @Nullable
         String getUsername() {
             return this.username;
@@ -293,9 +436,13 @@ public class SessionInitiationPacket extends Packet {
             return this.customID;
         }
 
+        /**
+         * Returns the end-to-end encryption parameters for the session, or null if end-to-end
+         * encryption is not used.
+         */
         @Nullable
-        String getE2EPassword() {
-            return this.e2ePass;
+        public KeyDerivable getKeyDerivable() {
+            return this.e2eParams;
         }
     }
 }
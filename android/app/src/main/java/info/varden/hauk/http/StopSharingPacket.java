@@ -2,6 +2,10 @@ package info.varden.hauk.http;
 
 import android.content.Context;
 
+import androidx.annotation.Nullable;
+
+import java.util.List;
+
 import info.varden.hauk.Constants;
 import info.varden.hauk.R;
 import info.varden.hauk.struct.Session;
@@ -19,6 +23,12 @@ public abstract class StopSharingPacket extends Packet {
      */
     protected abstract void onSuccess();
 
+    /**
+     * The servers of the session, if the entire session is stopped, or null if only a share is.
+     */
+    @Nullable
+    private final List<Endpoint> sessionEndpoints;
+
     /**
      * Creates a request to stop all shares for a given session.
      *
@@ -26,7 +36,8 @@ public abstract class StopSharingPacket extends Packet {
      * @param session The session to delete.
      */
     protected StopSharingPacket(Context ctx, Session session) {
-        super(ctx, session.getServerURL(), session.getConnectionParameters(), Constants.URL_PATH_STOP_SHARING);
+        super(ctx, session.getEndpoints(), Constants.URL_PATH_STOP_SHARING);
+        this.sessionEndpoints = session.getEndpoints();
         setParameter(Constants.PACKET_PARAM_SESSION_ID, session.getID());
     }
 
@@ -37,7 +48,8 @@ public abstract class StopSharingPacket extends Packet {
      * @param share The share to stop.
      */
     protected StopSharingPacket(Context ctx, Share share) {
-        super(ctx, share.getSession().getServerURL(), share.getSession().getConnectionParameters(), Constants.URL_PATH_STOP_SHARING);
+        super(ctx, share.getSession().getEndpoints(), Constants.URL_PATH_STOP_SHARING);
+        this.sessionEndpoints = null;
         setParameter(Constants.PACKET_PARAM_SESSION_ID, share.getSession().getID());
         setParameter(Constants.PACKET_PARAM_SHARE_ID, share.getID());
     }
@@ -51,6 +63,8 @@ public abstract class StopSharingPacket extends Packet {
 
         // All successful requests have OK as line 1.
         if (data[0].equals(Constants.PACKET_RESPONSE_OK)) {
+            // The health of the servers is no longer needed once the session has ended.
+            if (this.sessionEndpoints != null) EndpointSelector.forget(this.sessionEndpoints);
             onSuccess();
         } else {
             // If the first line of the response is not "OK", an error of some sort has occurred and
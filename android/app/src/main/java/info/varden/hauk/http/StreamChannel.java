@@ -0,0 +1,666 @@
+package info.varden.hauk.http;
+
+import android.os.SystemClock;
+
+import androidx.annotation.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+import info.varden.hauk.BuildConfig;
+import info.varden.hauk.Constants;
+import info.varden.hauk.diagnostics.FlightRecorder;
+import info.varden.hauk.diagnostics.TraceEvent;
+import info.varden.hauk.http.security.CertificateValidationPolicy;
+import info.varden.hauk.http.security.InsecureTrustManager;
+import info.varden.hauk.struct.Version;
+import info.varden.hauk.utils.Log;
+
+/**
+ * A WebSocket connection to the {@link Constants#URL_PATH_STREAM} endpoint of a backend, over
+ * which the location updates of one session are sent. Each update is sent as a text message
+ * {@code "P <seq>\n<fields>"}, where the fields are encoded as in a request to
+ * {@link Constants#URL_PATH_POST_LOCATION}, and the backend acknowledges it with
+ * {@code "A <seq>\n<response>"}, where the response holds the lines post.php would have returned.
+ * Acknowledgements are cumulative.
+ *
+ * <p>Each connection starts with {@code "H <channel> <acked>\n<session ID>"}, to which the
+ * backend answers {@code "W <received>\n<response>"} with the highest sequence number it has
+ * received on the channel. Updates that have not been acknowledged are sent again on every new
+ * connection, so that none are lost when the connection drops; the backend discards those it has
+ * already received. The backend may also push {@code "U 0\n<response>"} at any time when the
+ * share list or suggested interval changes.</p>
+ *
+ * @author Marius Lindvall
+ */
+@SuppressWarnings("HardCodedStringLiteral")
+final class StreamChannel {
+    /**
+     * How long to wait for data before pinging the backend, in milliseconds. The connection is
+     * considered dead if nothing is received for twice this long. Shorter than the idle timeouts
+     * of most NATs and reverse proxies.
+     */
+    private static final int HEARTBEAT_INTERVAL = 25000;
+
+    /**
+     * How long to keep the connection open without any updates being sent, in milliseconds.
+     */
+    private static final long IDLE_TIMEOUT = 15L * 60L * 1000L;
+
+    /**
+     * How long to wait for an acknowledgement when no connection timeout applies, in milliseconds.
+     */
+    private static final long ACK_TIMEOUT = 60000L;
+
+    /**
+     * How long to send updates over HTTP after a connection fails, in milliseconds.
+     */
+    private static final long RETRY_DELAY = 60000L;
+
+    /**
+     * How long to send updates over HTTP if the backend does not support streaming, in
+     * milliseconds.
+     */
+    private static final long UNSUPPORTED_RETRY_DELAY = 30L * 60L * 1000L;
+
+    /**
+     * The number of times to try delivering an update, including reconnects, before falling back.
+     */
+    private static final int MAX_ATTEMPTS = 2;
+
+    private static final String TYPE_HELLO = "H";
+    private static final String TYPE_POINT = "P";
+    private static final String TYPE_WELCOME = "W";
+    private static final String TYPE_ACK = "A";
+    private static final String TYPE_UPDATE = "U";
+
+    /**
+     * Open channels, by backend URL and session ID.
+     */
+    private static final Map<String, StreamChannel> CHANNELS = new HashMap<>();
+
+    private final Endpoint endpoint;
+    private final String sessionID;
+
+    /**
+     * Identifies this channel to the backend across reconnects, so that it can tell updates that
+     * are sent again apart from new ones.
+     */
+    private final String channelID;
+
+    private final Random random = new SecureRandom();
+    private final Object lock = new Object();
+
+    /**
+     * Updates that have not been acknowledged, by sequence number.
+     */
+    private final TreeMap<Long, Pending> pending = new TreeMap<>();
+
+    private long nextSeq = 1L;
+    private long lastAcked = 0L;
+
+    /**
+     * Incremented whenever a connection is opened or closed, so that threads waiting on one
+     * connection notice when it is replaced.
+     */
+    private int generation = 0;
+
+    @Nullable
+    private Socket socket = null;
+    @Nullable
+    private OutputStream out = null;
+
+    /**
+     * Whether a thread is currently opening a connection, which is done without holding the lock.
+     */
+    private boolean connecting = false;
+
+    /**
+     * Whether the channel has been closed for good, e.g. because sharing was stopped.
+     */
+    private boolean closed = false;
+
+    private Version backendVersion = new Version(null);
+    private long connectedAt = 0L;
+    private long lastSent = 0L;
+
+    /**
+     * Updates are sent over HTTP until this time on the monotonic clock.
+     */
+    private long unavailableUntil = 0L;
+
+    private StreamChannel(Endpoint endpoint, String sessionID) {
+        this.endpoint = endpoint;
+        this.sessionID = sessionID;
+        this.channelID = Long.toHexString(this.random.nextLong() & Long.MAX_VALUE);
+    }
+
+    /**
+     * Returns the channel for the given session on the given backend, creating it if necessary.
+     * The connection is opened when the first update is sent.
+     *
+     * @param endpoint  The backend to stream to.
+     * @param sessionID The ID of the session to send updates for.
+     */
+    static StreamChannel forSession(Endpoint endpoint, String sessionID) {
+        String key = endpoint.getURL() + " " + sessionID;
+        synchronized (CHANNELS) {
+            StreamChannel channel = CHANNELS.get(key);
+            if (channel == null) {
+                channel = new StreamChannel(endpoint, sessionID);
+                CHANNELS.put(key, channel);
+            }
+            return channel;
+        }
+    }
+
+    /**
+     * Closes and forgets the channels of the given session on all backends. The connections are
+     * closed on a background thread, since closing a TLS connection writes to the network.
+     *
+     * @param sessionID The ID of the session.
+     */
+    static void closeAll(String sessionID) {
+        final List<StreamChannel> closing = new ArrayList<>();
+        synchronized (CHANNELS) {
+            for (Iterator<StreamChannel> it = CHANNELS.values().iterator(); it.hasNext();) {
+                StreamChannel channel = it.next();
+                if (channel.sessionID.equals(sessionID)) {
+                    closing.add(channel);
+                    it.remove();
+                }
+            }
+        }
+        if (closing.isEmpty()) return;
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (StreamChannel channel : closing) {
+                    synchronized (channel.lock) {
+                        channel.closed = true;
+                        channel.disconnect(channel.generation, false);
+                    }
+                }
+            }
+        }).start();
+    }
+
+    /**
+     * Whether updates should currently be sent over this channel, rather than over HTTP because
+     * streaming recently failed.
+     */
+    boolean isAvailable() {
+        synchronized (this.lock) {
+            return SystemClock.elapsedRealtime() >= this.unavailableUntil;
+        }
+    }
+
+    /**
+     * Sends a location update and waits for the backend to acknowledge it. Connects first if
+     * necessary, and reconnects once if the connection drops before the update is acknowledged.
+     *
+     * @param request  The location update to send.
+     * @param failover Whether to give up after the connection timeout, as for HTTP requests.
+     * @return The response of the backend, as if the update had been posted over HTTP.
+     * @throws IOException If the update could not be delivered. Streaming is then unavailable for
+     *                     a while, and the update should be sent over HTTP instead.
+     */
+    ConnectionThread.Response send(ConnectionThread.Request request, boolean failover) throws IOException, InterruptedException {
+        int seq = request.getSequence();
+        long timeout = failover ? this.endpoint.getConnectionParameters().getTimeout() : ACK_TIMEOUT;
+        Pending update;
+        synchronized (this.lock) {
+            update = new Pending(this.nextSeq++, request);
+            this.pending.put(update.seq, update);
+        }
+
+        try {
+            for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+                int gen = -1;
+                synchronized (this.lock) {
+                    if (update.response != null) return update.response;
+                    if (this.closed) throw new EOFException("Stream was closed");
+                    if (SystemClock.elapsedRealtime() < this.unavailableUntil) throw new IOException("Streaming is unavailable");
+                    if (this.socket != null) {
+                        transmit(update);
+                        gen = this.generation;
+                    }
+                }
+                // Connecting sends all unacknowledged updates, including this one.
+                if (gen < 0) gen = connect();
+                Log.v("[seq:%s] Sent as update %s on stream %s, attempt %s", seq, update.seq, this.channelID, attempt);
+                if (await(update, gen, timeout)) return update.response;
+                Log.i("[seq:%s] Stream %s was lost before update %s was acknowledged", seq, this.channelID, update.seq);
+            }
+            throw new IOException("Stream was lost " + MAX_ATTEMPTS + " times");
+        } catch (IOException ex) {
+            giveUp(update, ex instanceof HandshakeException);
+            throw ex;
+        }
+    }
+
+    /**
+     * Waits until the given update is acknowledged or the connection it was sent on is lost.
+     *
+     * @return true if the update was acknowledged, false if the connection was lost.
+     * @throws SocketTimeoutException If the update was not acknowledged in time.
+     */
+    private boolean await(Pending update, int gen, long timeout) throws SocketTimeoutException, InterruptedException {
+        long deadline = SystemClock.elapsedRealtime() + timeout;
+        synchronized (this.lock) {
+            while (update.response == null) {
+                if (this.generation != gen) return false;
+                long remaining = deadline - SystemClock.elapsedRealtime();
+                if (remaining <= 0L) throw new SocketTimeoutException("Update " + update.seq + " was not acknowledged in time");
+                this.lock.wait(remaining);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Stops sending the given update over this channel, and makes streaming unavailable for a
+     * while. The connection is closed, since the backend did not answer on it in time.
+     */
+    private void giveUp(Pending update, boolean unsupported) {
+        long delay = unsupported ? UNSUPPORTED_RETRY_DELAY : RETRY_DELAY;
+        synchronized (this.lock) {
+            this.pending.remove(update.seq);
+            this.unavailableUntil = SystemClock.elapsedRealtime() + delay;
+            disconnect(this.generation, false);
+        }
+        Log.w("Streaming to %s is unavailable for %s ms", this.endpoint.getURL(), delay);
+        FlightRecorder.record(TraceEvent.STREAM_FALLBACK, unsupported ? 1 : 0, 0, delay, 0.0F, 0.0F);
+    }
+
+    /**
+     * Opens a connection, says hello and sends all unacknowledged updates, unless another thread
+     * opens one first. The connection is opened and the handshake performed without holding the
+     * lock, so that other threads are not blocked by a slow backend; it is then installed while
+     * holding the lock. Must be called without holding the lock.
+     *
+     * @return The generation of the connection that the unacknowledged updates were sent on.
+     */
+    private int connect() throws IOException, InterruptedException {
+        synchronized (this.lock) {
+            while (this.connecting) this.lock.wait();
+            if (this.closed) throw new EOFException("Stream was closed");
+            if (SystemClock.elapsedRealtime() < this.unavailableUntil) throw new IOException("Streaming is unavailable");
+            // Another thread opened a connection and sent all unacknowledged updates on it.
+            if (this.socket != null) return this.generation;
+            this.connecting = true;
+        }
+
+        long start = SystemClock.elapsedRealtime();
+        Socket connection = null;
+        Version version;
+        try {
+            connection = open();
+            connection.setSoTimeout(this.endpoint.getConnectionParameters().getTimeout());
+            version = handshake(connection);
+            connection.setSoTimeout(HEARTBEAT_INTERVAL);
+        } catch (IOException ex) {
+            closeQuietly(connection);
+            synchronized (this.lock) {
+                this.connecting = false;
+                this.lock.notifyAll();
+            }
+            throw ex;
+        }
+
+        synchronized (this.lock) {
+            this.connecting = false;
+            this.lock.notifyAll();
+            if (this.closed) {
+                closeQuietly(connection);
+                throw new EOFException("Stream was closed");
+            }
+            try {
+                this.backendVersion = version;
+                this.socket = connection;
+                this.out = new BufferedOutputStream(connection.getOutputStream());
+                this.generation++;
+                this.connectedAt = SystemClock.elapsedRealtime();
+                writeMessage(TYPE_HELLO + " " + this.channelID + " " + this.lastAcked + "\n" + this.sessionID);
+                for (Pending update : this.pending.values()) transmit(update);
+            } catch (IOException ex) {
+                disconnect(this.generation, false);
+                closeQuietly(connection);
+                throw ex;
+            }
+            Log.i("Opened stream %s to %s with %s unacknowledged updates", this.channelID, this.endpoint.getURL(), this.pending.size());
+            FlightRecorder.record(TraceEvent.STREAM_CONNECTED, this.pending.size(), 0, this.connectedAt - start, 0.0F, 0.0F);
+            new Reader(connection, this.generation).start();
+            return this.generation;
+        }
+    }
+
+    private static void closeQuietly(@Nullable Socket connection) {
+        if (connection == null) return;
+        try {
+            connection.close();
+        } catch (IOException ignored) {
+            // Already failed.
+        }
+    }
+
+    /**
+     * Opens a socket to the backend, through a SOCKS proxy and over TLS if configured.
+     */
+    private Socket open() throws IOException {
+        ConnectionParameters params = this.endpoint.getConnectionParameters();
+        URL url = new URL(this.endpoint.getURL() + Constants.URL_PATH_STREAM);
+        String host = url.getHost();
+        int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+
+        Proxy proxy = params.getProxy();
+        Socket raw;
+        if (proxy == null) {
+            raw = new Socket();
+            raw.connect(new InetSocketAddress(host, port), params.getTimeout());
+        } else if (proxy.type() == Proxy.Type.SOCKS) {
+            // Let the proxy resolve the host name, as required for onion services.
+            raw = new Socket(proxy);
+            raw.connect(InetSocketAddress.createUnresolved(host, port), params.getTimeout());
+        } else {
+            throw new IOException("Streaming through HTTP proxies is not supported");
+        }
+        if (!"https".equals(url.getProtocol())) return raw;
+
+        // Apply the same TLS policy for .onion addresses as HTTP requests do.
+        boolean onion = host.endsWith(".onion");
+        CertificateValidationPolicy policy = params.getTLSPolicy();
+        SSLSocketFactory factory;
+        try {
+            factory = onion && policy != CertificateValidationPolicy.VALIDATE_ALL
+                    ? InsecureTrustManager.getSocketFactory()
+                    : (SSLSocketFactory) SSLSocketFactory.getDefault();
+        } catch (GeneralSecurityException ex) {
+            raw.close();
+            throw new IOException(ex);
+        }
+        SSLSocket tls = (SSLSocket) factory.createSocket(raw, host, port, true);
+        tls.setSoTimeout(params.getTimeout());
+        tls.startHandshake();
+        if (!(onion && policy == CertificateValidationPolicy.DISABLE_ALL_ONION)
+                && !HttpsURLConnection.getDefaultHostnameVerifier().verify(host, tls.getSession())) {
+            tls.close();
+            throw new SSLPeerUnverifiedException("Certificate does not match " + host);
+        }
+        return tls;
+    }
+
+    /**
+     * Performs the opening handshake of the WebSocket protocol.
+     *
+     * @return The version of the backend.
+     * @throws HandshakeException If the backend does not support streaming.
+     */
+    private Version handshake(Socket connection) throws IOException {
+        URL url = new URL(this.endpoint.getURL() + Constants.URL_PATH_STREAM);
+        String key = WebSocketFrames.newKey(this.random);
+        String host = url.getPort() != -1 ? url.getHost() + ":" + url.getPort() : url.getHost();
+        String request = "GET " + url.getFile() + " HTTP/1.1\r\n"
+                + "Host: " + host + "\r\n"
+                + "Upgrade: websocket\r\n"
+                + "Connection: Upgrade\r\n"
+                + "Sec-WebSocket-Key: " + key + "\r\n"
+                + "Sec-WebSocket-Version: 13\r\n"
+                + "Accept-Language: " + Locale.getDefault().getLanguage() + "\r\n"
+                + "User-Agent: Hauk/" + BuildConfig.VERSION_NAME + " " + System.getProperty("http.agent") + "\r\n"
+                + "\r\n";
+        OutputStream os = connection.getOutputStream();
+        os.write(request.getBytes(StandardCharsets.UTF_8));
+        os.flush();
+
+        // Read the response headers byte by byte, so that no frames are consumed.
+        InputStream is = connection.getInputStream();
+        String status = readLine(is);
+        Log.v("Stream handshake response: %s", status);
+        String[] statusParts = status.split(" ");
+        if (statusParts.length < 2 || !statusParts[1].equals("101")) {
+            throw new HandshakeException("Backend does not support streaming: " + status);
+        }
+        String accept = null;
+        String version = null;
+        for (String line = readLine(is); !line.isEmpty(); line = readLine(is)) {
+            int colon = line.indexOf(':');
+            if (colon < 0) continue;
+            String name = line.substring(0, colon).trim();
+            String value = line.substring(colon + 1).trim();
+            if (name.equalsIgnoreCase("Sec-WebSocket-Accept")) accept = value;
+            if (name.equalsIgnoreCase(Constants.HTTP_HEADER_HAUK_VERSION)) version = value;
+        }
+        if (!WebSocketFrames.acceptKey(key).equals(accept)) {
+            throw new HandshakeException("Backend answered the stream handshake incorrectly");
+        }
+        return new Version(version);
+    }
+
+    private static String readLine(InputStream is) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        for (int b = is.read(); b != '\n'; b = is.read()) {
+            if (b < 0) throw new EOFException();
+            if (b != '\r') line.write(b);
+        }
+        return new String(line.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Sends an update on the current connection. Must be called while holding the lock.
+     */
+    private void transmit(Pending update) throws IOException {
+        writeMessage(TYPE_POINT + " " + update.seq + "\n" + update.body);
+        this.lastSent = SystemClock.elapsedRealtime();
+        FlightRecorder.record(TraceEvent.PACKET_SENT, update.request.getEndpoint(), update.request.getSequence(), 0L, 0.0F, 0.0F);
+    }
+
+    /**
+     * Sends a text message on the current connection. Must be called while holding the lock.
+     */
+    private void writeMessage(String message) throws IOException {
+        if (this.out == null) throw new EOFException("Stream is not connected");
+        WebSocketFrames.write(this.out, WebSocketFrames.OPCODE_TEXT, message.getBytes(StandardCharsets.UTF_8), this.random);
+    }
+
+    /**
+     * Closes the connection of the given generation, if it is still open, and wakes up all threads
+     * waiting for acknowledgements on it. Must be called while holding the lock.
+     *
+     * @param gen  The generation of the connection to close.
+     * @param lost Whether the connection was lost, rather than closed deliberately.
+     */
+    private void disconnect(int gen, boolean lost) {
+        if (gen != this.generation || this.socket == null) return;
+        if (!lost) {
+            try {
+                WebSocketFrames.write(this.out, WebSocketFrames.OPCODE_CLOSE, new byte[0], this.random);
+            } catch (IOException ignored) {
+                // The connection is closed anyway.
+            }
+        }
+        try {
+            this.socket.close();
+        } catch (IOException ignored) {
+            // Already closed.
+        }
+        this.socket = null;
+        this.out = null;
+        this.generation++;
+        this.lock.notifyAll();
+        FlightRecorder.record(TraceEvent.STREAM_LOST, this.pending.size(), 0, SystemClock.elapsedRealtime() - this.connectedAt, 0.0F, 0.0F);
+    }
+
+    /**
+     * Handles a complete text message received from the backend.
+     */
+    private void onMessage(String message, int gen) throws IOException {
+        int newline = message.indexOf('\n');
+        String[] header = (newline < 0 ? message : message.substring(0, newline)).split(" ");
+        String[] lines = newline < 0 ? new String[0] : message.substring(newline + 1).split("\n", -1);
+        if (lines.length > 0 && lines[lines.length - 1].isEmpty()) lines = Arrays.copyOf(lines, lines.length - 1);
+        long seq;
+        try {
+            seq = Long.parseLong(header.length > 1 ? header[1] : "");
+        } catch (NumberFormatException ex) {
+            throw new IOException("Invalid stream message header: " + header[0], ex);
+        }
+
+        switch (header[0]) {
+            case TYPE_WELCOME:
+            case TYPE_ACK:
+                synchronized (this.lock) {
+                    if (gen != this.generation) return;
+                    ConnectionThread.Response response = new ConnectionThread.Response(lines, this.backendVersion);
+                    for (Iterator<Pending> it = this.pending.headMap(seq, true).values().iterator(); it.hasNext();) {
+                        it.next().response = response;
+                        it.remove();
+                    }
+                    this.lastAcked = Math.max(this.lastAcked, seq);
+                    this.lock.notifyAll();
+                }
+                break;
+
+            case TYPE_UPDATE:
+                LocationUpdatePacket.StatusListener listener = WebSocketTransport.getStatusListener(this.sessionID);
+                if (listener != null && lines.length > 0 && lines[0].equals(Constants.PACKET_RESPONSE_OK)) {
+                    Log.v("Received status update on stream %s", this.channelID);
+                    LocationUpdatePacket.readStatus(lines, this.backendVersion, null, listener);
+                }
+                break;
+
+            default:
+                Log.w("Ignoring unknown stream message type %s", header[0]);
+                break;
+        }
+    }
+
+    /**
+     * Thrown if the backend does not accept the WebSocket handshake, which means that it does not
+     * support streaming.
+     */
+    private static final class HandshakeException extends IOException {
+        private static final long serialVersionUID = -3390462318851542718L;
+
+        private HandshakeException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * An update that has been sent but not yet acknowledged.
+     */
+    private static final class Pending {
+        private final long seq;
+        private final ConnectionThread.Request request;
+        private final String body;
+        @Nullable
+        private ConnectionThread.Response response = null;
+
+        private Pending(long seq, ConnectionThread.Request request) throws IOException {
+            this.seq = seq;
+            this.request = request;
+            this.body = request.getURLEncodedData();
+        }
+    }
+
+    /**
+     * Reads messages from one connection until it is closed, answering pings and pinging the
+     * backend when the connection has been quiet for a while.
+     */
+    private final class Reader extends Thread {
+        private final Socket connection;
+        private final int gen;
+
+        private Reader(Socket connection, int gen) {
+            super("StreamChannel-" + StreamChannel.this.channelID);
+            this.connection = connection;
+            this.gen = gen;
+        }
+
+        @Override
+        public void run() {
+            boolean lost = true;
+            try {
+                InputStream is = this.connection.getInputStream();
+                ByteArrayOutputStream message = new ByteArrayOutputStream();
+                boolean pinged = false;
+                while (true) {
+                    WebSocketFrames.Frame frame;
+                    try {
+                        frame = WebSocketFrames.read(is);
+                    } catch (SocketTimeoutException ex) {
+                        if (pinged) throw ex;
+                        synchronized (StreamChannel.this.lock) {
+                            if (this.gen != StreamChannel.this.generation) return;
+                            if (StreamChannel.this.pending.isEmpty() && SystemClock.elapsedRealtime() - StreamChannel.this.lastSent > IDLE_TIMEOUT) {
+                                Log.i("Closing idle stream %s", StreamChannel.this.channelID);
+                                lost = false;
+                                return;
+                            }
+                            WebSocketFrames.write(StreamChannel.this.out, WebSocketFrames.OPCODE_PING, new byte[0], StreamChannel.this.random);
+                        }
+                        pinged = true;
+                        continue;
+                    }
+                    pinged = false;
+
+                    switch (frame.getOpcode()) {
+                        case WebSocketFrames.OPCODE_PING:
+                            synchronized (StreamChannel.this.lock) {
+                                if (this.gen != StreamChannel.this.generation) return;
+                                WebSocketFrames.write(StreamChannel.this.out, WebSocketFrames.OPCODE_PONG, frame.getPayload(), StreamChannel.this.random);
+                            }
+                            break;
+                        case WebSocketFrames.OPCODE_PONG:
+                            break;
+                        case WebSocketFrames.OPCODE_CLOSE:
+                            throw new EOFException("Backend closed the stream");
+                        case WebSocketFrames.OPCODE_TEXT:
+                        case WebSocketFrames.OPCODE_CONTINUATION:
+                            message.write(frame.getPayload());
+                            if (frame.isFinal()) {
+                                onMessage(new String(message.toByteArray(), StandardCharsets.UTF_8), this.gen);
+                                message.reset();
+                            }
+                            break;
+                        default:
+                            throw new IOException("Unexpected WebSocket opcode " + frame.getOpcode());
+                    }
+                }
+            } catch (IOException ex) {
+                Log.i("Stream %s was closed: %s", StreamChannel.this.channelID, ex);
+            } finally {
+                synchronized (StreamChannel.this.lock) {
+                    StreamChannel.this.disconnect(this.gen, lost);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package info.varden.hauk.http;
+
+import java.io.Serializable;
+
+/**
+ * A way of delivering packets to a Hauk backend and receiving its responses. Packets are encoded
+ * into a {@link ConnectionThread.Request} holding the path to call and the fields to send, and the
+ * transport decodes the backend's reply into a {@link ConnectionThread.Response}. The transport
+ * used for a server is chosen in its {@link ConnectionParameters}.
+ *
+ * <p>Transports are implemented in this package. They are stored with the session, and must
+ * therefore be serializable.</p>
+ *
+ * @author Marius Lindvall
+ */
+public interface Transport extends Serializable {
+    /**
+     * Sends a request to a server and waits for its response. Called on a background thread.
+     *
+     * @param request  The request to send.
+     * @param endpoint The server to send the request to.
+     * @param failover Whether there are other servers to try if this one does not respond, in
+     *                 which case the transport should give up once the connection timeout has
+     *                 passed rather than wait for a response indefinitely.
+     *
+     * @return The response of the server.
+     * @throws Exception If the request could not be delivered or the server returned an error.
+     */
+    ConnectionThread.Response send(ConnectionThread.Request request, Endpoint endpoint, boolean failover) throws Exception;
+}
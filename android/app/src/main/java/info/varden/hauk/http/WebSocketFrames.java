@@ -0,0 +1,217 @@
+package info.varden.hauk.http;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+
+/**
+ * Reads and writes WebSocket frames as defined in RFC 6455, and computes the keys used in the
+ * opening handshake. Frames sent by clients are masked; frames sent by servers are not.
+ *
+ * @author Marius Lindvall
+ */
+final class WebSocketFrames {
+    static final int OPCODE_CONTINUATION = 0x0;
+    static final int OPCODE_TEXT = 0x1;
+    static final int OPCODE_CLOSE = 0x8;
+    static final int OPCODE_PING = 0x9;
+    static final int OPCODE_PONG = 0xA;
+
+    /**
+     * The largest payload accepted in a single frame. Hauk messages are at most a few kilobytes.
+     */
+    private static final int MAX_PAYLOAD = 1 << 20;
+
+    /**
+     * The GUID appended to the client key to compute the accept key, from RFC 6455 section 1.3.
+     */
+    private static final String ACCEPT_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11"; //NON-NLS
+
+    private static final char[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray(); //NON-NLS
+
+    private WebSocketFrames() {
+    }
+
+    /**
+     * A single frame read from a connection.
+     */
+    static final class Frame {
+        private final boolean fin;
+        private final int opcode;
+        private final byte[] payload;
+
+        private Frame(boolean fin, int opcode, byte[] payload) {
+            this.fin = fin;
+            this.opcode = opcode;
+            this.payload = payload;
+        }
+
+        /**
+         * Whether this is the last frame of a message.
+         */
+        boolean isFinal() {
+            return this.fin;
+        }
+
+        int getOpcode() {
+            return this.opcode;
+        }
+
+        /**
+         * Whether this is a control frame, which may arrive between the frames of a message.
+         */
+        boolean isControl() {
+            return (this.opcode & 0x8) != 0;
+        }
+
+        byte[] getPayload() {
+            return this.payload;
+        }
+
+        String getText() {
+            return new String(this.payload, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Writes a single final frame.
+     *
+     * @param os      The stream to write to.
+     * @param opcode  The opcode of the frame.
+     * @param payload The payload of the frame.
+     * @param random  A source of masking keys, or null to send the frame unmasked as a server.
+     * @return The number of bytes written.
+     */
+    static int write(OutputStream os, int opcode, byte[] payload, Random random) throws IOException {
+        int length = payload.length;
+        int header = headerLength(length, random != null);
+        byte[] frame = new byte[header + length];
+        frame[0] = (byte) (0x80 | opcode);
+        int maskBit = random != null ? 0x80 : 0;
+        int offset;
+        if (length < 126) {
+            frame[1] = (byte) (maskBit | length);
+            offset = 2;
+        } else if (length <= 0xFFFF) {
+            frame[1] = (byte) (maskBit | 126);
+            frame[2] = (byte) (length >>> 8);
+            frame[3] = (byte) length;
+            offset = 4;
+        } else {
+            frame[1] = (byte) (maskBit | 127);
+            for (int i = 0; i < 8; i++) frame[2 + i] = (byte) ((long) length >>> (56 - 8 * i));
+            offset = 10;
+        }
+        if (random != null) {
+            byte[] mask = new byte[4];
+            random.nextBytes(mask);
+            System.arraycopy(mask, 0, frame, offset, 4);
+            offset += 4;
+            for (int i = 0; i < length; i++) frame[offset + i] = (byte) (payload[i] ^ mask[i & 3]);
+        } else {
+            System.arraycopy(payload, 0, frame, offset, length);
+        }
+        os.write(frame);
+        os.flush();
+        return frame.length;
+    }
+
+    /**
+     * Reads a single frame, unmasking it if it is masked.
+     *
+     * @param is The stream to read from.
+     * @throws EOFException If the connection was closed.
+     * @throws IOException  If the frame is malformed or too large.
+     */
+    static Frame read(InputStream is) throws IOException {
+        int b0 = readByte(is);
+        int b1 = readByte(is);
+        boolean fin = (b0 & 0x80) != 0;
+        int opcode = b0 & 0x0F;
+        boolean masked = (b1 & 0x80) != 0;
+        long length = b1 & 0x7F;
+        if (length == 126) {
+            length = (readByte(is) << 8) | readByte(is);
+        } else if (length == 127) {
+            length = 0L;
+            for (int i = 0; i < 8; i++) length = (length << 8) | readByte(is);
+        }
+        if (length < 0 || length > MAX_PAYLOAD) throw new IOException("WebSocket frame too large: " + length); //NON-NLS
+        byte[] mask = masked ? readFully(is, 4) : null;
+        byte[] payload = readFully(is, (int) length);
+        if (mask != null) {
+            for (int i = 0; i < payload.length; i++) payload[i] ^= mask[i & 3];
+        }
+        return new Frame(fin, opcode, payload);
+    }
+
+    /**
+     * Returns the length of the header of a frame with a payload of the given length.
+     */
+    static int headerLength(int payloadLength, boolean masked) {
+        int header = payloadLength < 126 ? 2 : payloadLength <= 0xFFFF ? 4 : 10;
+        return masked ? header + 4 : header;
+    }
+
+    /**
+     * Returns a new random key for the Sec-WebSocket-Key header of the opening handshake.
+     */
+    static String newKey(Random random) {
+        byte[] nonce = new byte[16];
+        random.nextBytes(nonce);
+        return base64(nonce);
+    }
+
+    /**
+     * Returns the value the server must send in the Sec-WebSocket-Accept header in response to
+     * the given key.
+     */
+    static String acceptKey(String key) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1"); //NON-NLS
+            return base64(sha1.digest((key + ACCEPT_GUID).getBytes(StandardCharsets.US_ASCII)));
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static int readByte(InputStream is) throws IOException {
+        int b = is.read();
+        if (b < 0) throw new EOFException();
+        return b;
+    }
+
+    private static byte[] readFully(InputStream is, int length) throws IOException {
+        byte[] buffer = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int count = is.read(buffer, read, length - read);
+            if (count < 0) throw new EOFException();
+            read += count;
+        }
+        return buffer;
+    }
+
+    /**
+     * Encodes the given bytes in standard Base64 with padding. Used instead of the platform
+     * encoders so that the handshake does not depend on Android.
+     */
+    private static String base64(byte[] data) {
+        StringBuilder sb = new StringBuilder((data.length + 2) / 3 * 4);
+        for (int i = 0; i < data.length; i += 3) {
+            int chunk = (data[i] & 0xFF) << 16;
+            if (i + 1 < data.length) chunk |= (data[i + 1] & 0xFF) << 8;
+            if (i + 2 < data.length) chunk |= data[i + 2] & 0xFF;
+            sb.append(BASE64[(chunk >>> 18) & 0x3F]);
+            sb.append(BASE64[(chunk >>> 12) & 0x3F]);
+            sb.append(i + 1 < data.length ? BASE64[(chunk >>> 6) & 0x3F] : '=');
+            sb.append(i + 2 < data.length ? BASE64[chunk & 0x3F] : '=');
+        }
+        return sb.toString();
+    }
+}
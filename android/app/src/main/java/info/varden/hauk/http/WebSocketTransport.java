@@ -0,0 +1,113 @@
+package info.varden.hauk.http;
+
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import info.varden.hauk.Constants;
+import info.varden.hauk.struct.Session;
+import info.varden.hauk.utils.Log;
+
+/**
+ * A transport that streams location updates to the backend over a WebSocket connection per
+ * session, which saves the request headers and connection setup of an HTTP request per update
+ * and lets the backend push share list and interval changes as they happen. All other packets,
+ * and location updates while streaming is unavailable, are sent over HTTP.
+ *
+ * <p>Backends that support streaming say so in the {@code X-Hauk-Streaming} header of their HTTP
+ * responses. Location updates to a backend are only streamed once it has done so, so that
+ * backends without streaming support are never sent a handshake.</p>
+ *
+ * @see StreamChannel
+ * @author Marius Lindvall
+ */
+public final class WebSocketTransport implements Transport {
+    private static final long serialVersionUID = 5176203519418462931L;
+
+    private static final Transport FALLBACK = new HttpTransport();
+
+    /**
+     * The version of the streaming protocol that backends advertise.
+     */
+    private static final String STREAMING_VERSION = "1"; //NON-NLS
+
+    /**
+     * The base URLs of the backends that have said they support streaming.
+     */
+    private static final Set<String> STREAMING_BACKENDS = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * Listeners for status updates pushed by the backend, by session ID.
+     */
+    private static final Map<String, LocationUpdatePacket.StatusListener> LISTENERS = new ConcurrentHashMap<>();
+
+    /**
+     * Sets the listener that receives share list and interval changes that the backend pushes
+     * over the stream of the given session. Called on the thread that reads the stream.
+     *
+     * @param session  The session to listen to.
+     * @param listener The listener, or null to stop listening.
+     */
+    public static void setStatusListener(Session session, @Nullable LocationUpdatePacket.StatusListener listener) {
+        if (listener == null) {
+            LISTENERS.remove(session.getID());
+        } else {
+            LISTENERS.put(session.getID(), listener);
+        }
+    }
+
+    /**
+     * Closes the streams of the given session, e.g. when sharing is stopped.
+     *
+     * @param session The session whose streams to close.
+     */
+    public static void disconnect(Session session) {
+        LISTENERS.remove(session.getID());
+        StreamChannel.closeAll(session.getID());
+    }
+
+    /**
+     * Remembers whether a backend supports streaming. Called for each HTTP response from the
+     * backend.
+     *
+     * @param url       The base URL of the backend.
+     * @param streaming The X-Hauk-Streaming header of the response, or null if missing.
+     */
+    static void onResponse(String url, @Nullable String streaming) {
+        if (streaming != null && streaming.trim().equals(STREAMING_VERSION)) {
+            STREAMING_BACKENDS.add(url);
+        } else {
+            STREAMING_BACKENDS.remove(url);
+        }
+    }
+
+    @Nullable
+    static LocationUpdatePacket.StatusListener getStatusListener(String sessionID) {
+        return LISTENERS.get(sessionID);
+    }
+
+    @Override
+    public ConnectionThread.Response send(ConnectionThread.Request request, Endpoint endpoint, boolean failover) throws Exception {
+        String sessionID = request.getData().get(Constants.PACKET_PARAM_SESSION_ID);
+        if (request.getPath().equals(Constants.URL_PATH_POST_LOCATION) && sessionID != null && STREAMING_BACKENDS.contains(endpoint.getURL())) {
+            StreamChannel channel = StreamChannel.forSession(endpoint, sessionID);
+            if (channel.isAvailable()) {
+                try {
+                    return channel.send(request, failover);
+                } catch (IOException ex) {
+                    Log.w("[seq:%s] Streaming failed, posting over HTTP instead", ex, request.getSequence()); //NON-NLS
+                }
+            }
+        }
+        return FALLBACK.send(request, endpoint, failover);
+    }
+
+    @Override
+    public String toString() {
+        return "WebSocketTransport";
+    }
+}
@@ -0,0 +1,160 @@
+package info.varden.hauk.location;
+
+/**
+ * <p>Adapts the location update interval to how fast the user is moving. The interval is stretched
+ * while the user is stationary and tightened while moving, so that a parked vehicle does not report
+ * its location as often as one moving at highway speed.</p>
+ *
+ * <p>The movement speed is estimated from the speed reported with each fix and from the
+ * displacement since the previous fix. Displacements smaller than the accuracy radius of the fixes
+ * are treated as noise. While moving, the interval is chosen so that roughly
+ * {@value #TARGET_DISTANCE} meters are covered between each update. While stationary, the interval
+ * is doubled with each fix. The interval always stays within the bounds given at construction.</p>
+ *
+ * <p>Re-registering location listeners is not free, so a new interval is only reported when it
+ * differs from the current one by at least {@value #SIGNIFICANT_CHANGE} times the current
+ * interval.</p>
+ *
+ * @author Marius Lindvall
+ */
+public final class AdaptiveIntervalController {
+    /**
+     * Speeds below this, in meters per second, are considered stationary.
+     */
+    private static final float STATIONARY_SPEED = 0.5F;
+
+    /**
+     * The approximate distance in meters that should be covered between each update when moving.
+     */
+    private static final float TARGET_DISTANCE = 25.0F;
+
+    /**
+     * Fixes with an accuracy radius larger than this, in meters, are not used for estimating speed.
+     */
+    private static final float POOR_ACCURACY = 100.0F;
+
+    /**
+     * Smoothing factor for decreasing speed estimates. Increases in speed are applied immediately so
+     * that the interval tightens as soon as the user starts moving.
+     */
+    private static final float SPEED_SMOOTHING = 0.5F;
+
+    /**
+     * The relative change in interval required before a new interval is applied.
+     */
+    private static final float SIGNIFICANT_CHANGE = 0.25F;
+
+    private static final double EARTH_RADIUS = 6371008.8;
+
+    private final long minInterval;
+    private final long maxInterval;
+
+    /**
+     * The interval that is currently applied, in milliseconds.
+     */
+    private long interval;
+
+    /**
+     * The smoothed speed estimate in meters per second.
+     */
+    private float speed = 0.0F;
+
+    // The previous fix used for estimating displacement.
+    private boolean hasPrevious = false;
+    private long prevTime;
+    private double prevLatitude;
+    private double prevLongitude;
+    private float prevAccuracy;
+
+    /**
+     * Creates an interval controller. The initial interval is the minimum interval.
+     *
+     * @param minIntervalMillis The shortest allowed interval in milliseconds.
+     * @param maxIntervalMillis The longest allowed interval in milliseconds.
+     */
+    public AdaptiveIntervalController(long minIntervalMillis, long maxIntervalMillis) {
+        this.minInterval = minIntervalMillis;
+        this.maxInterval = Math.max(minIntervalMillis, maxIntervalMillis);
+        this.interval = minIntervalMillis;
+    }
+
+    /**
+     * Returns the location update interval that should currently be used, in milliseconds.
+     */
+    public long getIntervalMillis() {
+        return this.interval;
+    }
+
+    /**
+     * Returns the current speed estimate in meters per second.
+     */
+    public float getSpeedEstimate() {
+        return this.speed;
+    }
+
+    /**
+     * Updates the speed estimate with a new location fix and recalculates the interval.
+     *
+     * @param time      The time of the fix in milliseconds.
+     * @param latitude  The latitude of the fix.
+     * @param longitude The longitude of the fix.
+     * @param accuracy  The accuracy radius of the fix in meters.
+     * @param hasSpeed  Whether the fix has a reported speed.
+     * @param speed     The reported speed in meters per second, if available.
+     * @return true if the interval changed significantly and location updates should be requested
+     *         again with the new interval, false otherwise.
+     */
+    public boolean onFix(long time, double latitude, double longitude, float accuracy, boolean hasSpeed, float speed) {
+        if (accuracy > POOR_ACCURACY) return false;
+
+        float observed = hasSpeed ? speed : 0.0F;
+        if (this.hasPrevious && time > this.prevTime) {
+            double moved = distance(this.prevLatitude, this.prevLongitude, latitude, longitude);
+            if (moved > Math.max(accuracy, this.prevAccuracy)) {
+                observed = Math.max(observed, (float) (moved * 1000.0 / (time - this.prevTime)));
+            }
+        }
+        this.hasPrevious = true;
+        this.prevTime = time;
+        this.prevLatitude = latitude;
+        this.prevLongitude = longitude;
+        this.prevAccuracy = accuracy;
+
+        this.speed = observed >= this.speed ? observed : this.speed + SPEED_SMOOTHING * (observed - this.speed);
+
+        long target;
+        if (this.speed < STATIONARY_SPEED) {
+            target = this.interval * 2L;
+        } else {
+            target = (long) (TARGET_DISTANCE * 1000.0F / this.speed);
+        }
+        target = Math.max(this.minInterval, Math.min(this.maxInterval, target));
+
+        if (Math.abs(target - this.interval) >= this.interval * SIGNIFICANT_CHANGE) {
+            this.interval = target;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Calculates the great-circle distance between two coordinates in meters.
+     */
+    static double distance(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2.0) * Math.sin(dLat / 2.0)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * Math.sin(dLon / 2.0) * Math.sin(dLon / 2.0);
+        return 2.0 * EARTH_RADIUS * Math.asin(Math.min(1.0, Math.sqrt(a)));
+    }
+
+    @Override
+    public String toString() {
+        return "AdaptiveIntervalController{"
+                + "interval=" + this.interval
+                + ",speed=" + this.speed
+                + ",min=" + this.minInterval
+                + ",max=" + this.maxInterval
+                + "}";
+    }
+}
@@ -0,0 +1,98 @@
+package info.varden.hauk.location;
+
+/**
+ * Decodes messages in the compact binary point format produced by {@link CompactPointEncoder}.
+ * Points are read one at a time by calling {@link #next()} and then the getters.
+ *
+ * @author Marius Lindvall
+ */
+public final class CompactPointDecoder {
+    private static final float DECIMETERS_PER_METER = 10.0F;
+    private static final float CENTIMETERS_PER_METER = 100.0F;
+
+    private final byte[] data;
+    private final double scale;
+    private int offset;
+
+    private long time = 0L;
+    private long latitude = 0L;
+    private long longitude = 0L;
+    private long accuracy = 0L;
+    private long speed = 0L;
+
+    /**
+     * Creates a decoder for an encoded message.
+     *
+     * @param data The encoded message.
+     * @throws IllegalArgumentException if the message header is invalid.
+     */
+    public CompactPointDecoder(byte[] data) {
+        if (data.length < 1 || data[0] < 0 || data[0] > CompactPointEncoder.MAX_PRECISION) {
+            throw new IllegalArgumentException("Invalid compact point header"); //NON-NLS
+        }
+        this.data = data;
+        this.scale = Math.pow(10.0, data[0]);
+        this.offset = 1;
+    }
+
+    /**
+     * Reads the next point.
+     *
+     * @return true if a point was read, or false if the end of the message was reached.
+     * @throws IllegalArgumentException if the message is truncated or malformed.
+     */
+    public boolean next() {
+        if (this.offset >= this.data.length) return false;
+        this.time += readSigned();
+        this.latitude += readSigned();
+        this.longitude += readSigned();
+        this.accuracy = readUnsigned();
+        this.speed = readUnsigned();
+        return true;
+    }
+
+    /**
+     * Returns the UTC time of the current point in milliseconds.
+     */
+    public long getTime() {
+        return this.time;
+    }
+
+    public double getLatitude() {
+        return this.latitude / this.scale;
+    }
+
+    public double getLongitude() {
+        return this.longitude / this.scale;
+    }
+
+    /**
+     * Returns the accuracy radius of the current point in meters, or -1 if unknown.
+     */
+    public float getAccuracy() {
+        return this.accuracy == 0L ? -1.0F : (this.accuracy - 1L) / DECIMETERS_PER_METER;
+    }
+
+    /**
+     * Returns the speed of the current point in meters per second, or -1 if unknown.
+     */
+    public float getSpeed() {
+        return this.speed == 0L ? -1.0F : (this.speed - 1L) / CENTIMETERS_PER_METER;
+    }
+
+    private long readSigned() {
+        long value = readUnsigned();
+        return (value >>> 1) ^ -(value & 1L);
+    }
+
+    private long readUnsigned() {
+        long value = 0L;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            if (this.offset >= this.data.length) throw new IllegalArgumentException("Truncated compact point message"); //NON-NLS
+            byte b = this.data[this.offset++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IllegalArgumentException("Malformed variable-length integer"); //NON-NLS
+    }
+}
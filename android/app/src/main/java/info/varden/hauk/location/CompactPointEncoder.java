@@ -0,0 +1,132 @@
+package info.varden.hauk.location;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * <p>Encodes location points in the compact binary point format. Coordinates are quantized to a
+ * configurable number of decimal places, and each field of a point is stored as the difference
+ * from the same field of the previous point, packed as a variable-length integer. Consecutive
+ * points from a moving device thus take only a few bytes each.</p>
+ *
+ * <p>The format starts with a single byte giving the number of decimal places of the coordinates.
+ * Each point then consists of five unsigned LEB128 variable-length integers:</p>
+ * <ol>
+ *     <li>the zigzag-encoded difference in time from the previous point, in milliseconds;</li>
+ *     <li>the zigzag-encoded difference in quantized latitude from the previous point;</li>
+ *     <li>the zigzag-encoded difference in quantized longitude from the previous point;</li>
+ *     <li>the accuracy in decimeters plus one, or zero if unknown;</li>
+ *     <li>the speed in centimeters per second plus one, or zero if unknown.</li>
+ * </ol>
+ * <p>The first point is encoded as a difference from zero, i.e. as its UTC time in milliseconds
+ * and its absolute coordinates. See {@link CompactPointDecoder} for the decoder.</p>
+ *
+ * @author Marius Lindvall
+ */
+public final class CompactPointEncoder {
+    /**
+     * The largest supported number of decimal places of the coordinates.
+     */
+    public static final int MAX_PRECISION = 9;
+
+    private static final float DECIMETERS_PER_METER = 10.0F;
+    private static final float CENTIMETERS_PER_METER = 100.0F;
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final double scale;
+    private final int precision;
+
+    private long lastTime;
+    private long lastLatitude;
+    private long lastLongitude;
+    private int count;
+
+    /**
+     * Creates an encoder.
+     *
+     * @param precision The number of decimal places to keep of the coordinates, e.g. 6 to
+     *                  quantize them to millionths of a degree.
+     */
+    public CompactPointEncoder(int precision) {
+        if (precision < 0 || precision > MAX_PRECISION) throw new IllegalArgumentException("Unsupported precision " + precision); //NON-NLS
+        this.precision = precision;
+        this.scale = Math.pow(10.0, precision);
+        reset();
+    }
+
+    /**
+     * Discards all encoded points, so that the encoder can be reused for a new message.
+     */
+    public void reset() {
+        this.out.reset();
+        this.out.write(this.precision);
+        this.lastTime = 0L;
+        this.lastLatitude = 0L;
+        this.lastLongitude = 0L;
+        this.count = 0;
+    }
+
+    /**
+     * Appends a point.
+     *
+     * @param time      The UTC time of the point in milliseconds.
+     * @param latitude  The latitude of the point.
+     * @param longitude The longitude of the point.
+     * @param accuracy  The accuracy radius in meters, or a negative value if unknown.
+     * @param speed     The speed in meters per second, or a negative value if unknown.
+     */
+    public void add(long time, double latitude, double longitude, float accuracy, float speed) {
+        long lat = Math.round(latitude * this.scale);
+        long lon = Math.round(longitude * this.scale);
+        writeSigned(time - this.lastTime);
+        writeSigned(lat - this.lastLatitude);
+        writeSigned(lon - this.lastLongitude);
+        writeUnsigned(accuracy < 0.0F ? 0L : Math.round(accuracy * DECIMETERS_PER_METER) + 1L);
+        writeUnsigned(speed < 0.0F ? 0L : Math.round(speed * CENTIMETERS_PER_METER) + 1L);
+        this.lastTime = time;
+        this.lastLatitude = lat;
+        this.lastLongitude = lon;
+        this.count++;
+    }
+
+    /**
+     * Returns the number of points added since the last reset.
+     */
+    public int getCount() {
+        return this.count;
+    }
+
+    /**
+     * Returns the size of the encoded message in bytes.
+     */
+    public int size() {
+        return this.out.size();
+    }
+
+    /**
+     * Returns the encoded message.
+     */
+    public byte[] toByteArray() {
+        return this.out.toByteArray();
+    }
+
+    private void writeSigned(long value) {
+        writeUnsigned((value << 1) ^ (value >> 63));
+    }
+
+    private void writeUnsigned(long value) {
+        while ((value & ~0x7FL) != 0L) {
+            this.out.write((int) ((value & 0x7FL) | 0x80L));
+            value >>>= 7;
+        }
+        this.out.write((int) value);
+    }
+
+    @Override
+    public String toString() {
+        return "CompactPointEncoder{"
+                + "precision=" + this.precision
+                + ",count=" + this.count
+                + ",size=" + this.out.size()
+                + "}";
+    }
+}
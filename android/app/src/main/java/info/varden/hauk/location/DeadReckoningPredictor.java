@@ -0,0 +1,150 @@
+package info.varden.hauk.location;
+
+/**
+ * <p>Predicts the position of the user from the last posted locations, the same way the web
+ * frontend extrapolates the position of a share between updates, so that posts which would not
+ * move the marker noticeably can be skipped. A car driving straight at constant speed then only
+ * has to post when it turns or changes speed.</p>
+ *
+ * <p>The prediction starts at the last posted position and moves in the direction from the
+ * second-to-last to the last posted position, at the speed reported with the last posted location.
+ * A fix is posted if it is further than the tolerance from the prediction. Regardless of the
+ * prediction, a fix is posted at least every {@code refreshIntervals} intervals, and never more
+ * than {@value #MAX_SUPPRESSION} milliseconds after the last post so that the share is not shown
+ * as offline.</p>
+ *
+ * @author Marius Lindvall
+ */
+public final class DeadReckoningPredictor {
+    /**
+     * The longest time in milliseconds posts may be skipped. This matches how long the frontend
+     * extrapolates the position of a share, and is below the backend's default offline timeout of
+     * 30 seconds.
+     */
+    private static final long MAX_SUPPRESSION = 20000L;
+
+    private static final double EARTH_RADIUS = 6371008.8;
+
+    private final float tolerance;
+    private final int refreshIntervals;
+
+    // The last and second-to-last posted positions.
+    private int posted = 0;
+    private long lastTime;
+    private double lastLatitude;
+    private double lastLongitude;
+    private float lastSpeed;
+    private double prevLatitude;
+    private double prevLongitude;
+
+    /**
+     * The distance in meters between the prediction and the latest fix.
+     */
+    private float lastError = 0.0F;
+
+    /**
+     * Creates a dead-reckoning predictor.
+     *
+     * @param toleranceMeters  The largest distance in meters between the prediction and a fix for
+     *                         which the fix may be skipped.
+     * @param refreshIntervals The number of update intervals after which a fix is always posted.
+     */
+    public DeadReckoningPredictor(float toleranceMeters, int refreshIntervals) {
+        this.tolerance = toleranceMeters;
+        this.refreshIntervals = refreshIntervals;
+    }
+
+    /**
+     * Returns the distance in meters between the prediction and the latest fix given to
+     * {@link #shouldPost(long, double, double, long)}.
+     */
+    public float getLastError() {
+        return this.lastError;
+    }
+
+    /**
+     * Determines whether a fix should be posted or whether it is close enough to the prediction
+     * to be skipped.
+     *
+     * @param time           The current time in milliseconds, on the same clock as the times given
+     *                       to {@link #onPosted(long, double, double, float)}.
+     * @param latitude       The latitude of the fix.
+     * @param longitude      The longitude of the fix.
+     * @param intervalMillis The current update interval in milliseconds.
+     * @return true if the fix should be posted, false if it can be skipped.
+     */
+    public boolean shouldPost(long time, double latitude, double longitude, long intervalMillis) {
+        if (this.posted < 2) return true;
+        double[] predicted = predict(time);
+        this.lastError = (float) AdaptiveIntervalController.distance(predicted[0], predicted[1], latitude, longitude);
+        long refresh = Math.min(MAX_SUPPRESSION, this.refreshIntervals * intervalMillis);
+        return time - this.lastTime >= refresh || this.lastError > this.tolerance;
+    }
+
+    /**
+     * Records a location that was posted to the backend.
+     *
+     * @param time      The time of the post in milliseconds.
+     * @param latitude  The posted latitude.
+     * @param longitude The posted longitude.
+     * @param speed     The posted speed in meters per second, or 0 if no speed was posted.
+     */
+    public void onPosted(long time, double latitude, double longitude, float speed) {
+        this.prevLatitude = this.lastLatitude;
+        this.prevLongitude = this.lastLongitude;
+        this.lastTime = time;
+        this.lastLatitude = latitude;
+        this.lastLongitude = longitude;
+        this.lastSpeed = speed;
+        this.posted++;
+    }
+
+    /**
+     * Predicts the position at the given time.
+     *
+     * @param time The time in milliseconds.
+     * @return The predicted latitude and longitude.
+     */
+    public double[] predict(long time) {
+        double distance = this.lastSpeed * Math.max(0L, Math.min(MAX_SUPPRESSION, time - this.lastTime)) / 1000.0;
+        if (this.posted < 2 || distance <= 0.0) return new double[] {this.lastLatitude, this.lastLongitude};
+        return destination(this.lastLatitude, this.lastLongitude, bearing(this.prevLatitude, this.prevLongitude, this.lastLatitude, this.lastLongitude), distance);
+    }
+
+    /**
+     * Calculates the initial bearing from one coordinate to another in radians.
+     */
+    static double bearing(double lat1, double lon1, double lat2, double lon2) {
+        double phi1 = Math.toRadians(lat1);
+        double phi2 = Math.toRadians(lat2);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double x = Math.cos(phi1) * Math.sin(phi2) - Math.sin(phi1) * Math.cos(phi2) * Math.cos(dLon);
+        double y = Math.sin(dLon) * Math.cos(phi2);
+        return Math.atan2(y, x);
+    }
+
+    /**
+     * Calculates the coordinate reached by travelling the given distance along a great circle from
+     * a starting coordinate.
+     *
+     * @return The latitude and longitude of the destination.
+     */
+    static double[] destination(double latitude, double longitude, double bearing, double distance) {
+        double phi1 = Math.toRadians(latitude);
+        double lambda1 = Math.toRadians(longitude);
+        double delta = distance / EARTH_RADIUS;
+        double phi2 = Math.asin(Math.sin(phi1) * Math.cos(delta) + Math.cos(phi1) * Math.sin(delta) * Math.cos(bearing));
+        double lambda2 = lambda1 + Math.atan2(Math.sin(bearing) * Math.sin(delta) * Math.cos(phi1), Math.cos(delta) - Math.sin(phi1) * Math.sin(phi2));
+        return new double[] {Math.toDegrees(phi2), Math.toDegrees(lambda2)};
+    }
+
+    @Override
+    public String toString() {
+        return "DeadReckoningPredictor{"
+                + "tolerance=" + this.tolerance
+                + ",refreshIntervals=" + this.refreshIntervals
+                + ",lastSpeed=" + this.lastSpeed
+                + ",lastError=" + this.lastError
+                + "}";
+    }
+}
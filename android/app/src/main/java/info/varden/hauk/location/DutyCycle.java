@@ -0,0 +1,194 @@
+package info.varden.hauk.location;
+
+/**
+ * <p>Schedules duty-cycled GNSS acquisition for long update intervals. Rather than keeping GNSS
+ * active for the whole session, it is powered up in a window shortly before each update is due.
+ * The first fix in the window that meets the accuracy target is posted and the window is closed;
+ * if no such fix arrives before the window times out, the most accurate fix received in the window
+ * is posted instead.</p>
+ *
+ * <p>The window is opened ahead of time by a lead time derived from a smoothed estimate of how long
+ * it takes to get a fix, so that the fix is ready at about the time the update is due.</p>
+ *
+ * @author Marius Lindvall
+ */
+public final class DutyCycle {
+    /**
+     * The shortest update interval in milliseconds for which duty cycling is used. For shorter
+     * intervals, the time to get a fix after powering up GNSS is too large a part of the interval
+     * for duty cycling to save any power.
+     */
+    public static final long MIN_INTERVAL = 60000L;
+
+    /**
+     * The fix meets the accuracy target. It should be posted and the window closed.
+     */
+    public static final int FIX_ACCEPTED = 0;
+
+    /**
+     * The fix does not meet the accuracy target, but is the most accurate in the window so far. It
+     * should be kept in case the window times out.
+     */
+    public static final int FIX_CANDIDATE = 1;
+
+    /**
+     * The fix is less accurate than a previous fix in the window and should be discarded.
+     */
+    public static final int FIX_DISCARDED = 2;
+
+    /**
+     * The initial estimate of the time to get a fix, in milliseconds.
+     */
+    private static final long INITIAL_TIME_TO_FIX = 10000L;
+
+    /**
+     * The longest a window may stay open, in milliseconds.
+     */
+    private static final long MAX_WINDOW = 60000L;
+
+    /**
+     * Smoothing factor for the time to fix estimate.
+     */
+    private static final float SMOOTHING = 0.3F;
+
+    /**
+     * The lead time is the time to fix estimate multiplied by this margin.
+     */
+    private static final float LEAD_MARGIN = 1.5F;
+
+    private final float accuracyTarget;
+
+    /**
+     * The smoothed estimate of the time to get an accurate fix, in milliseconds.
+     */
+    private long timeToFix = INITIAL_TIME_TO_FIX;
+
+    // The state of the current window.
+    private boolean windowOpen = false;
+    private long windowStart;
+    private float bestAccuracy;
+    private boolean accepted;
+
+    /**
+     * The total time in milliseconds windows have been open.
+     */
+    private long activeTime = 0L;
+
+    /**
+     * Creates a duty cycle scheduler.
+     *
+     * @param accuracyTarget The accuracy radius in meters a fix must meet to close the window.
+     */
+    public DutyCycle(float accuracyTarget) {
+        this.accuracyTarget = accuracyTarget;
+    }
+
+    /**
+     * Whether or not duty cycling should be used for the given update interval.
+     *
+     * @param intervalMillis The update interval in milliseconds.
+     */
+    public static boolean appliesTo(long intervalMillis) {
+        return intervalMillis >= MIN_INTERVAL;
+    }
+
+    /**
+     * Returns how long before an update is due the window should be opened, in milliseconds.
+     */
+    public long getLeadTimeMillis() {
+        return (long) (this.timeToFix * LEAD_MARGIN);
+    }
+
+    /**
+     * Returns how long a window may stay open before the best fix so far is posted, in
+     * milliseconds.
+     *
+     * @param intervalMillis The update interval in milliseconds.
+     */
+    public long getTimeoutMillis(long intervalMillis) {
+        return Math.min(MAX_WINDOW, intervalMillis / 2L);
+    }
+
+    /**
+     * Returns the total time windows have been open, in milliseconds.
+     */
+    public long getActiveTimeMillis() {
+        return this.activeTime;
+    }
+
+    /**
+     * Whether or not a window is currently open, i.e. GNSS should be powered up.
+     */
+    public boolean isWindowOpen() {
+        return this.windowOpen;
+    }
+
+    /**
+     * Opens a new acquisition window.
+     *
+     * @param now The current time in milliseconds.
+     */
+    public void openWindow(long now) {
+        this.windowOpen = true;
+        this.windowStart = now;
+        this.bestAccuracy = Float.MAX_VALUE;
+        this.accepted = false;
+    }
+
+    /**
+     * Classifies a fix received while the window is open.
+     *
+     * @param now      The current time in milliseconds.
+     * @param accuracy The accuracy radius of the fix in meters.
+     * @return {@link #FIX_ACCEPTED}, {@link #FIX_CANDIDATE} or {@link #FIX_DISCARDED}.
+     */
+    public int onFix(long now, float accuracy) {
+        if (!this.windowOpen) return FIX_DISCARDED;
+        if (accuracy <= this.accuracyTarget) {
+            this.accepted = true;
+            return FIX_ACCEPTED;
+        }
+        if (accuracy < this.bestAccuracy) {
+            this.bestAccuracy = accuracy;
+            return FIX_CANDIDATE;
+        }
+        return FIX_DISCARDED;
+    }
+
+    /**
+     * Closes the window, either because a fix was accepted or because the window timed out, and
+     * updates the time to fix estimate.
+     *
+     * @param now            The current time in milliseconds.
+     * @param intervalMillis The update interval in milliseconds.
+     * @return The time in milliseconds from now until the next window should be opened.
+     */
+    public long closeWindow(long now, long intervalMillis) {
+        if (!this.windowOpen) return 0L;
+        this.windowOpen = false;
+        long active = now - this.windowStart;
+        this.activeTime += active;
+        // A window that timed out counts as taking the full window to get a fix, which increases
+        // the lead time for the next window.
+        this.timeToFix += (long) (SMOOTHING * (active - this.timeToFix));
+        // The next update is due one interval after this one.
+        return Math.max(0L, intervalMillis - getLeadTimeMillis());
+    }
+
+    /**
+     * Whether or not the last window was closed by an accepted fix rather than by timing out.
+     */
+    public boolean wasAccepted() {
+        return this.accepted;
+    }
+
+    @Override
+    public String toString() {
+        return "DutyCycle{"
+                + "windowOpen=" + this.windowOpen
+                + ",timeToFix=" + this.timeToFix
+                + ",activeTime=" + this.activeTime
+                + ",accuracyTarget=" + this.accuracyTarget
+                + "}";
+    }
+}
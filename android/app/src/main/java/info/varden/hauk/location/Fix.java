@@ -0,0 +1,129 @@
+package info.varden.hauk.location;
+
+/**
+ * <p>A mutable location fix passed through a {@link FixFilter}. One instance is reused for every
+ * fix, so that filtering does not allocate any objects per fix. Filters may change the position and
+ * accuracy of the fix in place.</p>
+ *
+ * @author Marius Lindvall
+ */
+public final class Fix {
+    /**
+     * The fix was not rejected.
+     */
+    public static final int ACCEPTED = 0;
+
+    /**
+     * The fix was rejected because it is much less accurate than recent fixes.
+     */
+    public static final int REJECTED_ACCURACY = 1;
+
+    /**
+     * The fix was rejected because it is too old.
+     */
+    public static final int REJECTED_AGE = 2;
+
+    /**
+     * The fix was rejected because a fix with the same or a later timestamp has already been
+     * received from the same provider.
+     */
+    public static final int REJECTED_DUPLICATE = 3;
+
+    private boolean coarse;
+    private long time;
+    private long elapsedMillis;
+    private long ageMillis;
+    private double latitude;
+    private double longitude;
+    private float accuracy;
+    private int rejection;
+
+    /**
+     * Sets all properties of the fix, replacing the previous fix.
+     *
+     * @param coarse        Whether the fix is from the coarse (network) location provider.
+     * @param time          The UTC time of the fix in milliseconds.
+     * @param elapsedMillis The time of the fix on the monotonic elapsed realtime clock.
+     * @param ageMillis     The time since the fix was taken, in milliseconds.
+     * @param latitude      The latitude of the fix.
+     * @param longitude     The longitude of the fix.
+     * @param accuracy      The accuracy radius of the fix in meters, or {@link Float#MAX_VALUE} if
+     *                      the fix has no accuracy.
+     */
+    public void set(boolean coarse, long time, long elapsedMillis, long ageMillis, double latitude, double longitude, float accuracy) {
+        this.coarse = coarse;
+        this.time = time;
+        this.elapsedMillis = elapsedMillis;
+        this.ageMillis = ageMillis;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.accuracy = accuracy;
+        this.rejection = ACCEPTED;
+    }
+
+    /**
+     * Replaces the position and accuracy of the fix.
+     */
+    public void setPosition(double latitude, double longitude, float accuracy) {
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.accuracy = accuracy;
+    }
+
+    /**
+     * Marks the fix as rejected.
+     *
+     * @param reason The reason for rejection, e.g. {@link #REJECTED_AGE}.
+     */
+    public void reject(int reason) {
+        this.rejection = reason;
+    }
+
+    public boolean isCoarse() {
+        return this.coarse;
+    }
+
+    public long getTime() {
+        return this.time;
+    }
+
+    public long getElapsedMillis() {
+        return this.elapsedMillis;
+    }
+
+    public long getAgeMillis() {
+        return this.ageMillis;
+    }
+
+    public double getLatitude() {
+        return this.latitude;
+    }
+
+    public double getLongitude() {
+        return this.longitude;
+    }
+
+    public float getAccuracy() {
+        return this.accuracy;
+    }
+
+    /**
+     * Returns the reason the fix was rejected, or {@link #ACCEPTED} if it was not.
+     */
+    public int getRejection() {
+        return this.rejection;
+    }
+
+    @Override
+    public String toString() {
+        return "Fix{"
+                + "coarse=" + this.coarse
+                + ",time=" + this.time
+                + ",age=" + this.ageMillis
+                + ",latitude=" + this.latitude
+                + ",longitude=" + this.longitude
+                + ",accuracy=" + this.accuracy
+                + ",rejection=" + this.rejection
+                + "}";
+    }
+}
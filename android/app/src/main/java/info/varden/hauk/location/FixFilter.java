@@ -0,0 +1,22 @@
+package info.varden.hauk.location;
+
+/**
+ * A stage in the processing of location fixes between the location listeners and the upload of
+ * each fix. Filters may reject a fix or change it in place, and must not allocate objects per fix.
+ *
+ * @author Marius Lindvall
+ */
+public interface FixFilter {
+    /**
+     * Processes a location fix.
+     *
+     * @param fix The fix to process. May be changed in place.
+     * @return true if the fix should be passed on, false if it was rejected.
+     */
+    boolean process(Fix fix);
+
+    /**
+     * Clears any state kept from previous fixes.
+     */
+    void reset();
+}
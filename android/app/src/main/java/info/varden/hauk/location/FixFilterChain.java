@@ -0,0 +1,35 @@
+package info.varden.hauk.location;
+
+import java.util.Arrays;
+
+/**
+ * A filter that passes fixes through a sequence of filters in order, stopping at the first filter
+ * that rejects the fix.
+ *
+ * @author Marius Lindvall
+ */
+public final class FixFilterChain implements FixFilter {
+    private final FixFilter[] filters;
+
+    public FixFilterChain(FixFilter... filters) {
+        this.filters = filters.clone();
+    }
+
+    @Override
+    public boolean process(Fix fix) {
+        for (FixFilter filter : this.filters) {
+            if (!filter.process(fix)) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void reset() {
+        for (FixFilter filter : this.filters) filter.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "FixFilterChain" + Arrays.toString(this.filters);
+    }
+}
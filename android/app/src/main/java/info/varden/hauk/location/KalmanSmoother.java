@@ -0,0 +1,170 @@
+package info.varden.hauk.location;
+
+/**
+ * <p>Smooths location fixes with a constant-velocity Kalman filter. The position is tracked in
+ * meters east and north of a local origin, with each axis filtered independently using position
+ * and velocity as state. The accuracy radius of each fix is used as the standard deviation of its
+ * measurement noise, and changes in velocity are modelled as random acceleration with a standard
+ * deviation of {@value #ACCELERATION_NOISE} meters per second squared.</p>
+ *
+ * <p>The filter restarts from the next fix after a gap of more than {@value #MAX_GAP}
+ * milliseconds, or when a fix is too far from the predicted position to be explained by noise,
+ * e.g. when leaving a tunnel. The smoothed position and its accuracy replace those of the fix.</p>
+ *
+ * @author Marius Lindvall
+ */
+public final class KalmanSmoother implements FixFilter {
+    /**
+     * The standard deviation of unmodelled acceleration in meters per second squared.
+     */
+    private static final double ACCELERATION_NOISE = 2.0;
+
+    /**
+     * The initial standard deviation of the velocity in meters per second.
+     */
+    private static final double INITIAL_VELOCITY_NOISE = 30.0;
+
+    /**
+     * The filter is restarted if the time between two fixes is longer than this, in milliseconds.
+     */
+    private static final long MAX_GAP = 60000L;
+
+    /**
+     * The filter is restarted if a fix is more than this many standard deviations from the
+     * predicted position on either axis.
+     */
+    private static final double GATE = 5.0;
+
+    /**
+     * The local origin is moved to the current position when the position is further than this
+     * from the origin, in meters, to keep the flat-earth approximation accurate.
+     */
+    private static final double RECENTER_DISTANCE = 5000.0;
+
+    private static final double METERS_PER_DEGREE = 6371008.8 * Math.PI / 180.0;
+
+    private boolean initialized = false;
+    private long lastElapsed;
+
+    // The local origin, and the scale of longitude degrees at the origin.
+    private double originLatitude;
+    private double originLongitude;
+    private double metersPerLongitude;
+
+    // The state and covariance of the east (x) and north (y) axes.
+    private double px;
+    private double vx;
+    private double x00;
+    private double x01;
+    private double x11;
+    private double py;
+    private double vy;
+    private double y00;
+    private double y01;
+    private double y11;
+
+    @Override
+    public boolean process(Fix fix) {
+        double r = (double) fix.getAccuracy() * fix.getAccuracy();
+        long dtMillis = fix.getElapsedMillis() - this.lastElapsed;
+        if (!this.initialized || dtMillis <= 0L || dtMillis > MAX_GAP) {
+            restart(fix, r);
+            return true;
+        }
+
+        double zx = (fix.getLongitude() - this.originLongitude) * this.metersPerLongitude;
+        double zy = (fix.getLatitude() - this.originLatitude) * METERS_PER_DEGREE;
+        double dt = dtMillis / 1000.0;
+        double q = ACCELERATION_NOISE * ACCELERATION_NOISE;
+        double dt2 = dt * dt;
+
+        // Predict both axes forward to the time of the fix.
+        this.px += this.vx * dt;
+        this.x00 += 2.0 * dt * this.x01 + dt2 * this.x11 + q * dt2 * dt2 / 4.0;
+        this.x01 += dt * this.x11 + q * dt2 * dt / 2.0;
+        this.x11 += q * dt2;
+        this.py += this.vy * dt;
+        this.y00 += 2.0 * dt * this.y01 + dt2 * this.y11 + q * dt2 * dt2 / 4.0;
+        this.y01 += dt * this.y11 + q * dt2 * dt / 2.0;
+        this.y11 += q * dt2;
+
+        // Restart if the fix is too far from the prediction to be noise.
+        double ix = zx - this.px;
+        double iy = zy - this.py;
+        double sx = this.x00 + r;
+        double sy = this.y00 + r;
+        if (ix * ix > GATE * GATE * sx || iy * iy > GATE * GATE * sy) {
+            restart(fix, r);
+            return true;
+        }
+
+        // Update both axes with the fix.
+        double k0 = this.x00 / sx;
+        double k1 = this.x01 / sx;
+        this.px += k0 * ix;
+        this.vx += k1 * ix;
+        this.x11 -= k1 * this.x01;
+        this.x00 *= 1.0 - k0;
+        this.x01 *= 1.0 - k0;
+        k0 = this.y00 / sy;
+        k1 = this.y01 / sy;
+        this.py += k0 * iy;
+        this.vy += k1 * iy;
+        this.y11 -= k1 * this.y01;
+        this.y00 *= 1.0 - k0;
+        this.y01 *= 1.0 - k0;
+        this.lastElapsed = fix.getElapsedMillis();
+
+        double latitude = this.originLatitude + this.py / METERS_PER_DEGREE;
+        double longitude = this.originLongitude + this.px / this.metersPerLongitude;
+        float accuracy = (float) Math.min(fix.getAccuracy(), Math.sqrt(Math.max(this.x00, this.y00)));
+        fix.setPosition(latitude, longitude, accuracy);
+
+        if (Math.abs(this.px) > RECENTER_DISTANCE || Math.abs(this.py) > RECENTER_DISTANCE) {
+            setOrigin(latitude, longitude);
+            this.px = 0.0;
+            this.py = 0.0;
+        }
+        return true;
+    }
+
+    /**
+     * Starts filtering over from the given fix, which is passed on unchanged.
+     */
+    private void restart(Fix fix, double r) {
+        this.initialized = true;
+        this.lastElapsed = fix.getElapsedMillis();
+        setOrigin(fix.getLatitude(), fix.getLongitude());
+        double v = INITIAL_VELOCITY_NOISE * INITIAL_VELOCITY_NOISE;
+        this.px = 0.0;
+        this.vx = 0.0;
+        this.x00 = r;
+        this.x01 = 0.0;
+        this.x11 = v;
+        this.py = 0.0;
+        this.vy = 0.0;
+        this.y00 = r;
+        this.y01 = 0.0;
+        this.y11 = v;
+    }
+
+    private void setOrigin(double latitude, double longitude) {
+        this.originLatitude = latitude;
+        this.originLongitude = longitude;
+        this.metersPerLongitude = METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude));
+    }
+
+    @Override
+    public void reset() {
+        this.initialized = false;
+    }
+
+    @Override
+    public String toString() {
+        return "KalmanSmoother{"
+                + "initialized=" + this.initialized
+                + ",vx=" + this.vx
+                + ",vy=" + this.vy
+                + "}";
+    }
+}
@@ -0,0 +1,219 @@
+package info.varden.hauk.location;
+
+/**
+ * <p>Buffers location points in memory for batched uploads in high-frequency mode. Points are
+ * stored in preallocated primitive arrays used as a ring buffer, so that adding a point does not
+ * allocate. Points stay in the buffer until the batch they were sent in has been acknowledged;
+ * if the upload fails, they are sent again in the next batch. If the buffer fills up because the
+ * backend cannot be reached, the oldest points are overwritten.</p>
+ *
+ * <p>Batches are encoded as points separated by semicolons. Each point has the comma-separated
+ * fields time offset from the first point of the batch in milliseconds, latitude and longitude in
+ * millionths of a degree, accuracy in decimeters and speed in centimeters per second. The accuracy
+ * and speed fields are empty if unknown.</p>
+ *
+ * <p>This class is not thread-safe.</p>
+ *
+ * @author Marius Lindvall
+ */
+public final class PointBuffer {
+    private static final double MICRODEGREES_PER_DEGREE = 1.0E6;
+    private static final float DECIMETERS_PER_METER = 10.0F;
+    private static final float CENTIMETERS_PER_METER = 100.0F;
+
+    private final long[] time;
+    private final int[] latitude;
+    private final int[] longitude;
+    private final int[] accuracy;
+    private final int[] speed;
+
+    /**
+     * The index of the oldest point in the buffer.
+     */
+    private int head = 0;
+
+    /**
+     * The number of points in the buffer, including those in flight.
+     */
+    private int size = 0;
+
+    /**
+     * The number of points at the head of the buffer that have been sent but not acknowledged.
+     */
+    private int inFlight = 0;
+
+    private long dropped = 0L;
+
+    /**
+     * Creates a point buffer.
+     *
+     * @param capacity The largest number of points that can be buffered.
+     */
+    public PointBuffer(int capacity) {
+        this.time = new long[capacity];
+        this.latitude = new int[capacity];
+        this.longitude = new int[capacity];
+        this.accuracy = new int[capacity];
+        this.speed = new int[capacity];
+    }
+
+    /**
+     * Adds a point to the buffer. If the buffer is full, the oldest point that is not in flight is
+     * overwritten.
+     *
+     * @param time      The UTC time of the point in milliseconds.
+     * @param latitude  The latitude of the point.
+     * @param longitude The longitude of the point.
+     * @param accuracy  The accuracy radius in meters, or a negative value if unknown.
+     * @param speed     The speed in meters per second, or a negative value if unknown.
+     */
+    public void add(long time, double latitude, double longitude, float accuracy, float speed) {
+        int capacity = this.time.length;
+        if (this.size == capacity && (this.inFlight == 0 || this.inFlight == capacity)) {
+            // Drop the oldest point.
+            this.head = (this.head + 1) % capacity;
+            if (this.inFlight > 0) this.inFlight--;
+            this.size--;
+            this.dropped++;
+        } else if (this.size == capacity) {
+            // Points in flight may be acknowledged and must stay in place; drop the oldest one
+            // after them by moving the newer points back.
+            int victim = this.inFlight;
+            for (int i = victim; i < this.size - 1; i++) {
+                int from = (this.head + i + 1) % capacity;
+                int to = (this.head + i) % capacity;
+                this.time[to] = this.time[from];
+                this.latitude[to] = this.latitude[from];
+                this.longitude[to] = this.longitude[from];
+                this.accuracy[to] = this.accuracy[from];
+                this.speed[to] = this.speed[from];
+            }
+            this.size--;
+            this.dropped++;
+        }
+        int index = (this.head + this.size) % capacity;
+        this.time[index] = time;
+        this.latitude[index] = (int) Math.round(latitude * MICRODEGREES_PER_DEGREE);
+        this.longitude[index] = (int) Math.round(longitude * MICRODEGREES_PER_DEGREE);
+        this.accuracy[index] = accuracy < 0.0F ? -1 : Math.round(accuracy * DECIMETERS_PER_METER);
+        this.speed[index] = speed < 0.0F ? -1 : Math.round(speed * CENTIMETERS_PER_METER);
+        this.size++;
+    }
+
+    /**
+     * Encodes the oldest points that are not in flight as a batch, and marks them as in flight.
+     *
+     * @param out       The builder to append the encoded batch to.
+     * @param maxPoints The largest number of points to include.
+     * @return The number of points in the batch, or 0 if a batch is already in flight or there are
+     *         no points to send.
+     */
+    public int drain(StringBuilder out, int maxPoints) {
+        int count = beginDrain(maxPoints);
+        int capacity = this.time.length;
+        long base = this.time[this.head];
+        for (int i = 0; i < count; i++) {
+            int index = (this.head + i) % capacity;
+            if (i > 0) out.append(';');
+            out.append(this.time[index] - base).append(',');
+            out.append(this.latitude[index]).append(',');
+            out.append(this.longitude[index]).append(',');
+            if (this.accuracy[index] >= 0) out.append(this.accuracy[index]);
+            out.append(',');
+            if (this.speed[index] >= 0) out.append(this.speed[index]);
+        }
+        return count;
+    }
+
+    /**
+     * Encodes the oldest points that are not in flight in the compact point format, and marks them
+     * as in flight.
+     *
+     * @param out       The encoder to add the points to.
+     * @param maxPoints The largest number of points to include.
+     * @return The number of points in the batch, or 0 if a batch is already in flight or there are
+     *         no points to send.
+     */
+    public int drain(CompactPointEncoder out, int maxPoints) {
+        int count = beginDrain(maxPoints);
+        int capacity = this.time.length;
+        for (int i = 0; i < count; i++) {
+            int index = (this.head + i) % capacity;
+            out.add(
+                    this.time[index],
+                    this.latitude[index] / MICRODEGREES_PER_DEGREE,
+                    this.longitude[index] / MICRODEGREES_PER_DEGREE,
+                    this.accuracy[index] < 0 ? -1.0F : this.accuracy[index] / DECIMETERS_PER_METER,
+                    this.speed[index] < 0 ? -1.0F : this.speed[index] / CENTIMETERS_PER_METER
+            );
+        }
+        return count;
+    }
+
+    /**
+     * Marks the oldest points that are not in flight as in flight.
+     *
+     * @return The number of points marked.
+     */
+    private int beginDrain(int maxPoints) {
+        if (this.inFlight > 0) return 0;
+        this.inFlight = Math.min(this.size, maxPoints);
+        return this.inFlight;
+    }
+
+    /**
+     * Returns the time of the first point of the batch in flight, or of the next batch if none is
+     * in flight. The time offsets of the batch are relative to this time.
+     */
+    public long getBaseTime() {
+        return this.time[this.head];
+    }
+
+    /**
+     * Removes the points in flight after the backend has acknowledged them.
+     */
+    public void acknowledge() {
+        this.head = (this.head + this.inFlight) % this.time.length;
+        this.size -= this.inFlight;
+        this.inFlight = 0;
+    }
+
+    /**
+     * Returns the points in flight to the buffer after an upload failed, so that they are sent
+     * again in the next batch.
+     */
+    public void retry() {
+        this.inFlight = 0;
+    }
+
+    /**
+     * Whether or not a batch is waiting to be acknowledged.
+     */
+    public boolean isInFlight() {
+        return this.inFlight > 0;
+    }
+
+    /**
+     * Returns the number of buffered points, including those in flight.
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Returns the number of points that were overwritten because the buffer was full.
+     */
+    public long getDropped() {
+        return this.dropped;
+    }
+
+    @Override
+    public String toString() {
+        return "PointBuffer{"
+                + "size=" + this.size
+                + ",inFlight=" + this.inFlight
+                + ",capacity=" + this.time.length
+                + ",dropped=" + this.dropped
+                + "}";
+    }
+}
@@ -0,0 +1,218 @@
+package info.varden.hauk.location;
+
+/**
+ * <p>Decides whether the coarse location provider should be used alongside GNSS. GNSS is always
+ * preferred; the coarse provider is bound while waiting for the first GNSS fix, and again when GNSS
+ * stops delivering fixes or only delivers very inaccurate fixes.</p>
+ *
+ * <p>Each provider is scored by a smoothed quality of its recent fixes, where a fix with an
+ * accuracy radius of {@value #GOOD_ACCURACY} meters or better has a quality of 1. Switching is
+ * subject to hysteresis, so that the providers do not flap in e.g. urban canyons where GNSS comes
+ * and goes: after falling back to the coarse provider, the GNSS score starts over from zero and
+ * must climb above {@value #RESTORE_QUALITY} before GNSS is used alone again, and no switch is made
+ * within {@value #MIN_DWELL} milliseconds of the previous switch unless GNSS has stopped delivering
+ * fixes altogether.</p>
+ *
+ * <p>All times are in milliseconds on a monotonic clock.</p>
+ *
+ * @author Marius Lindvall
+ */
+public final class ProviderArbiter {
+    /**
+     * Waiting for the first GNSS fix with both providers bound.
+     */
+    public static final int STATE_ACQUIRING = 0;
+
+    /**
+     * Using GNSS alone.
+     */
+    public static final int STATE_FINE = 1;
+
+    /**
+     * GNSS was lost or degraded; the coarse provider is bound as well.
+     */
+    public static final int STATE_COARSE = 2;
+
+    /**
+     * Fixes at least this accurate, in meters, have the highest quality.
+     */
+    private static final float GOOD_ACCURACY = 20.0F;
+
+    /**
+     * Smoothing factor for the quality scores.
+     */
+    private static final float SMOOTHING = 0.3F;
+
+    /**
+     * GNSS is considered degraded if its score drops below this.
+     */
+    private static final float DEGRADED_QUALITY = 0.25F;
+
+    /**
+     * GNSS is used alone again once its score rises above this.
+     */
+    private static final float RESTORE_QUALITY = 0.6F;
+
+    /**
+     * The shortest time in milliseconds between two switches based on fix quality.
+     */
+    private static final long MIN_DWELL = 30000L;
+
+    private static final long MILLIS_PER_HOUR = 3600000L;
+
+    /**
+     * The time in milliseconds without GNSS fixes, in addition to the update interval, after which
+     * GNSS is considered lost.
+     */
+    private final long fallbackMillis;
+    private final long created;
+
+    private int state = STATE_ACQUIRING;
+    private long stateSince;
+    private int switches = 0;
+
+    private float fineQuality = 0.0F;
+    private float coarseQuality = 0.0F;
+    private long lastFine = -1L;
+
+    /**
+     * Creates a provider arbiter in the acquiring state.
+     *
+     * @param now            The current time.
+     * @param fallbackMillis The time without GNSS fixes, in addition to the update interval, after
+     *                       which the coarse provider is bound.
+     */
+    public ProviderArbiter(long now, long fallbackMillis) {
+        this.fallbackMillis = fallbackMillis;
+        this.created = now;
+        this.stateSince = now;
+    }
+
+    /**
+     * Returns to the acquiring state after location updates were stopped and requested again, e.g.
+     * after stationary mode. The switch counter is kept.
+     *
+     * @param now The current time.
+     */
+    public void restart(long now) {
+        this.state = STATE_ACQUIRING;
+        this.stateSince = now;
+        this.fineQuality = 0.0F;
+        this.lastFine = -1L;
+    }
+
+    /**
+     * Records a fix from either provider.
+     *
+     * @param coarse   Whether the fix is from the coarse provider.
+     * @param now      The current time.
+     * @param accuracy The accuracy radius of the fix in meters.
+     * @return true if the state changed.
+     */
+    public boolean onFix(boolean coarse, long now, float accuracy) {
+        float quality = accuracy <= GOOD_ACCURACY ? 1.0F : GOOD_ACCURACY / accuracy;
+        if (coarse) {
+            this.coarseQuality += SMOOTHING * (quality - this.coarseQuality);
+            return false;
+        }
+        this.fineQuality = this.lastFine < 0L ? quality : this.fineQuality + SMOOTHING * (quality - this.fineQuality);
+        this.lastFine = now;
+        switch (this.state) {
+            case STATE_ACQUIRING:
+                return setState(STATE_FINE, now, false);
+            case STATE_FINE:
+                return this.fineQuality < DEGRADED_QUALITY && now - this.stateSince >= MIN_DWELL && setState(STATE_COARSE, now, true);
+            default:
+                return this.fineQuality > RESTORE_QUALITY && now - this.stateSince >= MIN_DWELL && setState(STATE_FINE, now, true);
+        }
+    }
+
+    /**
+     * Checks whether GNSS has stopped delivering fixes. Should be called periodically.
+     *
+     * @param now            The current time.
+     * @param intervalMillis The current update interval.
+     * @return true if the state changed.
+     */
+    public boolean tick(long now, long intervalMillis) {
+        if (!isFineLost(now, intervalMillis)) return false;
+        // Make GNSS earn its way back from scratch.
+        this.fineQuality = 0.0F;
+        return setState(STATE_COARSE, now, true);
+    }
+
+    /**
+     * Whether or not GNSS was in use but has not delivered a fix for longer than the fallback time.
+     *
+     * @param now            The current time.
+     * @param intervalMillis The current update interval.
+     */
+    public boolean isFineLost(long now, long intervalMillis) {
+        return this.state == STATE_FINE && now - this.lastFine > intervalMillis + this.fallbackMillis;
+    }
+
+    /**
+     * Determines whether a fix from the coarse provider should be posted. While both providers are
+     * bound, coarse fixes are only used if GNSS has not delivered a fix within the update interval,
+     * or if the coarse provider currently scores better.
+     *
+     * @param now            The current time.
+     * @param intervalMillis The current update interval.
+     */
+    public boolean shouldUseCoarse(long now, long intervalMillis) {
+        if (this.state == STATE_FINE) return false;
+        return this.lastFine < 0L || now - this.lastFine > intervalMillis || this.coarseQuality > this.fineQuality;
+    }
+
+    private boolean setState(int state, long now, boolean countSwitch) {
+        this.state = state;
+        this.stateSince = now;
+        if (countSwitch) this.switches++;
+        return true;
+    }
+
+    /**
+     * Returns the current state, e.g. {@link #STATE_FINE}.
+     */
+    public int getState() {
+        return this.state;
+    }
+
+    /**
+     * Whether or not the coarse provider should currently be bound.
+     */
+    public boolean wantsCoarse() {
+        return this.state != STATE_FINE;
+    }
+
+    /**
+     * Returns the number of switches between GNSS and the coarse provider since creation.
+     */
+    public int getSwitchCount() {
+        return this.switches;
+    }
+
+    /**
+     * Returns the rate of switches between GNSS and the coarse provider since creation.
+     *
+     * @param now The current time.
+     */
+    public float getSwitchesPerHour(long now) {
+        long elapsed = now - this.created;
+        return elapsed <= 0L ? 0.0F : (float) this.switches * MILLIS_PER_HOUR / elapsed;
+    }
+
+    public float getFineQuality() {
+        return this.fineQuality;
+    }
+
+    @Override
+    public String toString() {
+        return "ProviderArbiter{"
+                + "state=" + this.state
+                + ",fineQuality=" + this.fineQuality
+                + ",coarseQuality=" + this.coarseQuality
+                + ",switches=" + this.switches
+                + "}";
+    }
+}
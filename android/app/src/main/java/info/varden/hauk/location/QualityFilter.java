@@ -0,0 +1,85 @@
+package info.varden.hauk.location;
+
+/**
+ * <p>Rejects location fixes that should not be uploaded: fixes that are older than a maximum age,
+ * such as cached fixes delivered when a provider is bound, fixes that repeat the timestamp of an
+ * earlier fix from the same provider, and jittery fixes with an accuracy radius above
+ * {@value #MAX_ACCURACY} meters while a more accurate fix has been received recently.</p>
+ *
+ * <p>Inaccurate fixes are accepted if no accurate fix has been received recently, so that a rough
+ * location is still shared when nothing better is available.</p>
+ *
+ * @author Marius Lindvall
+ */
+public final class QualityFilter implements FixFilter {
+    /**
+     * Fixes with an accuracy radius above this, in meters, are rejected if a more accurate fix was
+     * accepted within the last {@value #ACCURATE_FIX_VALIDITY} milliseconds.
+     */
+    private static final float MAX_ACCURACY = 100.0F;
+
+    /**
+     * How long an accurate fix causes inaccurate fixes to be rejected, in milliseconds.
+     */
+    private static final long ACCURATE_FIX_VALIDITY = 30000L;
+
+    private final long maxAge;
+
+    // The latest timestamps accepted from the fine and coarse providers.
+    private long lastFineTime = Long.MIN_VALUE;
+    private long lastCoarseTime = Long.MIN_VALUE;
+
+    /**
+     * The elapsed realtime of the last accepted fix within {@link #MAX_ACCURACY}.
+     */
+    private long lastAccurateElapsed = Long.MIN_VALUE;
+
+    /**
+     * Creates a quality filter.
+     *
+     * @param maxAgeMillis The maximum age of a fix in milliseconds.
+     */
+    public QualityFilter(long maxAgeMillis) {
+        this.maxAge = maxAgeMillis;
+    }
+
+    @Override
+    public boolean process(Fix fix) {
+        if (fix.getAgeMillis() > this.maxAge) {
+            fix.reject(Fix.REJECTED_AGE);
+            return false;
+        }
+        long lastTime = fix.isCoarse() ? this.lastCoarseTime : this.lastFineTime;
+        if (fix.getTime() <= lastTime) {
+            fix.reject(Fix.REJECTED_DUPLICATE);
+            return false;
+        }
+        if (fix.getAccuracy() > MAX_ACCURACY) {
+            if (this.lastAccurateElapsed != Long.MIN_VALUE && fix.getElapsedMillis() - this.lastAccurateElapsed <= ACCURATE_FIX_VALIDITY) {
+                fix.reject(Fix.REJECTED_ACCURACY);
+                return false;
+            }
+        } else {
+            this.lastAccurateElapsed = fix.getElapsedMillis();
+        }
+
+        if (fix.isCoarse()) {
+            this.lastCoarseTime = fix.getTime();
+        } else {
+            this.lastFineTime = fix.getTime();
+        }
+        return true;
+    }
+
+    @Override
+    public void reset() {
+        this.lastFineTime = Long.MIN_VALUE;
+        this.lastCoarseTime = Long.MIN_VALUE;
+        this.lastAccurateElapsed = Long.MIN_VALUE;
+    }
+
+    @Override
+    public String toString() {
+        return "QualityFilter{maxAge=" + this.maxAge + "}";
+    }
+}
@@ -0,0 +1,108 @@
+package info.varden.hauk.location;
+
+/**
+ * <p>Detects when the user has stopped moving, so that GNSS can be turned off until the device
+ * moves again. The user is considered stationary after {@value #STATIONARY_FIX_COUNT} consecutive
+ * fixes that are all within the accuracy radius of the first of them, spanning at least
+ * {@value #STATIONARY_MIN_DURATION} milliseconds. The minimum duration avoids turning GNSS off at
+ * e.g. traffic lights.</p>
+ *
+ * @author Marius Lindvall
+ */
+public final class StationaryDetector {
+    /**
+     * The number of consecutive fixes within the accuracy radius required to be stationary.
+     */
+    private static final int STATIONARY_FIX_COUNT = 5;
+
+    /**
+     * The minimum time in milliseconds the fixes must span to be stationary.
+     */
+    private static final long STATIONARY_MIN_DURATION = 60000L;
+
+    /**
+     * The smallest radius in meters within which fixes are considered to be at the same place, for
+     * fixes that claim very good accuracy.
+     */
+    private static final float MIN_RADIUS = 10.0F;
+
+    // The first fix of the current run of fixes within the accuracy radius.
+    private boolean hasAnchor = false;
+    private long anchorTime;
+    private double anchorLatitude;
+    private double anchorLongitude;
+    private float anchorAccuracy;
+
+    /**
+     * The time of the latest fix.
+     */
+    private long lastTime;
+
+    /**
+     * The number of consecutive fixes, including the anchor, that have been within the accuracy
+     * radius of the anchor.
+     */
+    private int count = 0;
+
+    /**
+     * Updates the detector with a new location fix.
+     *
+     * @param time      The time of the fix in milliseconds.
+     * @param latitude  The latitude of the fix.
+     * @param longitude The longitude of the fix.
+     * @param accuracy  The accuracy radius of the fix in meters.
+     * @return true if the user has now become stationary, false if the user is moving or was
+     *         already stationary before this fix.
+     */
+    public boolean onFix(long time, double latitude, double longitude, float accuracy) {
+        boolean wasStationary = isStationary();
+        float radius = Math.max(MIN_RADIUS, Math.max(accuracy, this.anchorAccuracy));
+        if (this.hasAnchor && AdaptiveIntervalController.distance(this.anchorLatitude, this.anchorLongitude, latitude, longitude) <= radius) {
+            this.count++;
+        } else {
+            this.hasAnchor = true;
+            this.anchorTime = time;
+            this.anchorLatitude = latitude;
+            this.anchorLongitude = longitude;
+            this.anchorAccuracy = accuracy;
+            this.count = 1;
+        }
+        this.lastTime = time;
+        return !wasStationary && isStationary();
+    }
+
+    /**
+     * Whether or not the user is currently considered stationary.
+     */
+    public boolean isStationary() {
+        return this.count >= STATIONARY_FIX_COUNT && this.lastTime - this.anchorTime >= STATIONARY_MIN_DURATION;
+    }
+
+    /**
+     * Whether or not the latest fixes indicate that the user may be standing still, i.e. whether the
+     * latest fix was within the accuracy radius of the one before it. Used to tell a GNSS signal
+     * lost while standing still, such as when entering a building, apart from one lost on the move.
+     */
+    public boolean isSettling() {
+        return this.count > 1;
+    }
+
+    /**
+     * Resets the detector, e.g. after motion has been detected by other means.
+     */
+    public void reset() {
+        this.hasAnchor = false;
+        this.anchorAccuracy = 0.0F;
+        this.count = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "StationaryDetector{"
+                + "count=" + this.count
+                + ",anchorTime=" + this.anchorTime
+                + ",lastTime=" + this.lastTime
+                + ",anchorAccuracy=" + this.anchorAccuracy
+                + "}";
+    }
+}
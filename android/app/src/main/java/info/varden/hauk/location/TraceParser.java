@@ -0,0 +1,248 @@
+package info.varden.hauk.location;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+/**
+ * Reads recorded location traces in GPX or NMEA 0183 format, for replaying them through the
+ * location pipeline.
+ *
+ * @author Marius Lindvall
+ */
+public enum TraceParser {
+    ;
+
+    /**
+     * The accuracy in meters assumed for points without an HDOP value.
+     */
+    private static final float DEFAULT_ACCURACY = 5.0F;
+
+    /**
+     * Multiplied with the HDOP of a point to estimate its accuracy radius in meters.
+     */
+    private static final float METERS_PER_HDOP = 5.0F;
+
+    private static final float METERS_PER_SECOND_PER_KNOT = 0.514444F;
+
+    /**
+     * Reads a trace, detecting whether it is in GPX or NMEA format from its first character.
+     *
+     * @param in The stream to read the trace from.
+     * @return The points of the trace in the order they appear.
+     * @throws IOException if the trace could not be read or is malformed.
+     */
+    public static List<TracePoint> parse(InputStream in) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in);
+        int first;
+        do {
+            buffered.mark(1);
+            first = buffered.read();
+        } while (first != -1 && Character.isWhitespace(first));
+        buffered.reset();
+        return first == '$' ? parseNmea(buffered) : parseGpx(buffered);
+    }
+
+    /**
+     * Reads the track points of a GPX file.
+     *
+     * @param in The stream to read the GPX file from.
+     * @return The track points in the order they appear.
+     * @throws IOException if the file could not be read or is malformed.
+     */
+    public static List<TracePoint> parseGpx(InputStream in) throws IOException {
+        GpxHandler handler = new GpxHandler();
+        try {
+            SAXParserFactory factory = SAXParserFactory.newInstance();
+            factory.setNamespaceAware(true);
+            factory.newSAXParser().parse(in, handler);
+        } catch (ParserConfigurationException | SAXException ex) {
+            throw new IOException("Malformed GPX file", ex); //NON-NLS
+        }
+        return handler.points;
+    }
+
+    /**
+     * Reads the positions of an NMEA 0183 log. Positions are taken from RMC sentences, with the
+     * accuracy estimated from the HDOP of the GGA sentence for the same time, if any. Sentences
+     * with an invalid checksum are skipped.
+     *
+     * @param in The stream to read the NMEA log from.
+     * @return The positions in the order they appear.
+     * @throws IOException if the log could not be read or is malformed.
+     */
+    public static List<TracePoint> parseNmea(InputStream in) throws IOException {
+        List<TracePoint> points = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.US_ASCII));
+        String ggaTime = null;
+        float ggaAccuracy = DEFAULT_ACCURACY;
+        String rmcTime = null;
+        String line;
+        try {
+            while ((line = reader.readLine()) != null) {
+                String[] fields = splitSentence(line.trim());
+                if (fields == null || fields[0].length() < 5) continue;
+                String type = fields[0].substring(2);
+                if ("GGA".equals(type) && fields.length > 8) {
+                    ggaTime = fields[1];
+                    ggaAccuracy = fields[8].isEmpty() ? DEFAULT_ACCURACY : Float.parseFloat(fields[8]) * METERS_PER_HDOP;
+                    // GGA may follow the RMC sentence it belongs to.
+                    if (ggaTime.equals(rmcTime) && !points.isEmpty()) {
+                        TracePoint last = points.remove(points.size() - 1);
+                        points.add(new TracePoint(last.getTime(), last.getLatitude(), last.getLongitude(), ggaAccuracy, last.hasSpeed() ? last.getSpeed() : Float.NaN));
+                    }
+                } else if ("RMC".equals(type) && fields.length > 9 && "A".equals(fields[2])) {
+                    rmcTime = fields[1];
+                    double latitude = parseCoordinate(fields[3], 2, "S".equals(fields[4]));
+                    double longitude = parseCoordinate(fields[5], 3, "W".equals(fields[6]));
+                    float speed = fields[7].isEmpty() ? Float.NaN : Float.parseFloat(fields[7]) * METERS_PER_SECOND_PER_KNOT;
+                    float accuracy = rmcTime.equals(ggaTime) ? ggaAccuracy : DEFAULT_ACCURACY;
+                    points.add(new TracePoint(parseNmeaTime(fields[9], rmcTime), latitude, longitude, accuracy, speed));
+                }
+            }
+        } catch (NumberFormatException | StringIndexOutOfBoundsException ex) {
+            throw new IOException("Malformed NMEA sentence", ex); //NON-NLS
+        }
+        return points;
+    }
+
+    /**
+     * Splits an NMEA sentence into its fields after verifying its checksum.
+     *
+     * @return The fields of the sentence, or null if it is not a valid sentence.
+     */
+    private static String[] splitSentence(String line) {
+        int star = line.lastIndexOf('*');
+        if (!line.startsWith("$") || star < 0 || star + 3 > line.length()) return null;
+        int checksum = 0;
+        for (int i = 1; i < star; i++) checksum ^= line.charAt(i);
+        try {
+            if (Integer.parseInt(line.substring(star + 1, star + 3), 16) != checksum) return null;
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+        return line.substring(1, star).split(",", -1);
+    }
+
+    /**
+     * Converts an NMEA coordinate in degrees and decimal minutes to decimal degrees.
+     *
+     * @param value         The coordinate, e.g. 5954.834 for 59 degrees and 54.834 minutes.
+     * @param degreeDigits  The number of digits used for degrees.
+     * @param negative      Whether the coordinate is south or west.
+     */
+    private static double parseCoordinate(String value, int degreeDigits, boolean negative) {
+        double degrees = Integer.parseInt(value.substring(0, degreeDigits)) + Double.parseDouble(value.substring(degreeDigits)) / 60.0;
+        return negative ? -degrees : degrees;
+    }
+
+    /**
+     * Converts an NMEA date (ddmmyy) and time (hhmmss.sss) in UTC to milliseconds since the epoch.
+     */
+    private static long parseNmeaTime(String date, String time) {
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"), Locale.US); //NON-NLS
+        calendar.clear();
+        calendar.set(2000 + Integer.parseInt(date.substring(4, 6)), Integer.parseInt(date.substring(2, 4)) - 1, Integer.parseInt(date.substring(0, 2)),
+                Integer.parseInt(time.substring(0, 2)), Integer.parseInt(time.substring(2, 4)), Integer.parseInt(time.substring(4, 6)));
+        long millis = time.length() > 7 ? Math.round(Double.parseDouble("0" + time.substring(6)) * 1000.0) : 0L;
+        return calendar.getTimeInMillis() + millis;
+    }
+
+    /**
+     * Converts an ISO 8601 timestamp as used in GPX files, e.g. 2020-01-02T03:04:05.678Z or
+     * 2020-01-02T05:04:05+02:00, to milliseconds since the epoch.
+     */
+    static long parseIsoTime(String value) throws ParseException {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss", Locale.US); //NON-NLS
+        format.setTimeZone(TimeZone.getTimeZone("UTC")); //NON-NLS
+        long time = format.parse(value.substring(0, 19)).getTime();
+        int i = 19;
+        if (i < value.length() && value.charAt(i) == '.') {
+            int start = i;
+            do i++; while (i < value.length() && Character.isDigit(value.charAt(i)));
+            time += Math.round(Double.parseDouble("0" + value.substring(start, i)) * 1000.0);
+        }
+        if (i < value.length() && (value.charAt(i) == '+' || value.charAt(i) == '-')) {
+            int sign = value.charAt(i) == '+' ? 1 : -1;
+            int hours = Integer.parseInt(value.substring(i + 1, i + 3));
+            int minutes = Integer.parseInt(value.substring(i + 4, i + 6));
+            time -= sign * (hours * 60L + minutes) * 60000L;
+        }
+        return time;
+    }
+
+    /**
+     * Collects the track points of a GPX file. The speed is read from the GPX 1.0 speed element or
+     * from a speed element in the extensions of a point.
+     */
+    private static final class GpxHandler extends DefaultHandler {
+        private final List<TracePoint> points = new ArrayList<>();
+        private final StringBuilder text = new StringBuilder();
+        private boolean inPoint = false;
+        private double latitude;
+        private double longitude;
+        private long time;
+        private float accuracy;
+        private float speed;
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+            this.text.setLength(0);
+            if ("trkpt".equals(localName)) {
+                try {
+                    this.latitude = Double.parseDouble(attributes.getValue("lat"));
+                    this.longitude = Double.parseDouble(attributes.getValue("lon"));
+                } catch (NullPointerException | NumberFormatException ex) {
+                    throw new SAXException("Track point without valid coordinates", ex); //NON-NLS
+                }
+                this.inPoint = true;
+                this.time = Long.MIN_VALUE;
+                this.accuracy = DEFAULT_ACCURACY;
+                this.speed = Float.NaN;
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            this.text.append(ch, start, length);
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            if (!this.inPoint) return;
+            String value = this.text.toString().trim();
+            try {
+                if ("time".equals(localName)) {
+                    this.time = parseIsoTime(value);
+                } else if ("hdop".equals(localName)) {
+                    this.accuracy = Float.parseFloat(value) * METERS_PER_HDOP;
+                } else if ("speed".equals(localName)) {
+                    this.speed = Float.parseFloat(value);
+                } else if ("trkpt".equals(localName)) {
+                    this.inPoint = false;
+                    if (this.time == Long.MIN_VALUE) throw new SAXException("Track point without time"); //NON-NLS
+                    this.points.add(new TracePoint(this.time, this.latitude, this.longitude, this.accuracy, this.speed));
+                }
+            } catch (ParseException | NumberFormatException | IndexOutOfBoundsException ex) {
+                throw new SAXException("Invalid value " + value + " in " + localName, ex); //NON-NLS
+            }
+        }
+    }
+}
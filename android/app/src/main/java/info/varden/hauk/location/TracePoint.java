@@ -0,0 +1,69 @@
+package info.varden.hauk.location;
+
+/**
+ * A single point of a recorded location trace, as read by {@link TraceParser}.
+ *
+ * @author Marius Lindvall
+ */
+public final class TracePoint {
+    private final long time;
+    private final double latitude;
+    private final double longitude;
+    private final float accuracy;
+    private final float speed;
+    private final boolean hasSpeed;
+
+    /**
+     * Creates a trace point.
+     *
+     * @param time      The UTC time of the point in milliseconds.
+     * @param latitude  The latitude of the point.
+     * @param longitude The longitude of the point.
+     * @param accuracy  The accuracy radius of the point in meters.
+     * @param speed     The speed at the point in meters per second, or {@link Float#NaN} if the
+     *                  trace does not include speed.
+     */
+    public TracePoint(long time, double latitude, double longitude, float accuracy, float speed) {
+        this.time = time;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.accuracy = accuracy;
+        this.hasSpeed = !Float.isNaN(speed);
+        this.speed = this.hasSpeed ? speed : 0.0F;
+    }
+
+    public long getTime() {
+        return this.time;
+    }
+
+    public double getLatitude() {
+        return this.latitude;
+    }
+
+    public double getLongitude() {
+        return this.longitude;
+    }
+
+    public float getAccuracy() {
+        return this.accuracy;
+    }
+
+    public boolean hasSpeed() {
+        return this.hasSpeed;
+    }
+
+    public float getSpeed() {
+        return this.speed;
+    }
+
+    @Override
+    public String toString() {
+        return "TracePoint{"
+                + "time=" + this.time
+                + ",latitude=" + this.latitude
+                + ",longitude=" + this.longitude
+                + ",accuracy=" + this.accuracy
+                + ",speed=" + (this.hasSpeed ? this.speed : "none")
+                + "}";
+    }
+}
@@ -0,0 +1,69 @@
+package info.varden.hauk.location;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Steps through the points of a recorded trace with the original timing between points, scaled by
+ * a time scale factor. A time scale of 2 replays the trace twice as fast as it was recorded.
+ *
+ * @author Marius Lindvall
+ */
+public final class TraceReplay {
+    private final List<TracePoint> points;
+    private final double timeScale;
+    private int index = 0;
+
+    /**
+     * Creates a replay of a trace.
+     *
+     * @param points    The points of the trace.
+     * @param timeScale How many times faster than real time the trace should be replayed.
+     */
+    public TraceReplay(List<TracePoint> points, double timeScale) {
+        if (!(timeScale > 0.0)) throw new IllegalArgumentException("Time scale must be positive"); //NON-NLS
+        this.points = new ArrayList<>(points);
+        this.timeScale = timeScale;
+    }
+
+    /**
+     * Whether or not there are more points to replay.
+     */
+    public boolean hasNext() {
+        return this.index < this.points.size();
+    }
+
+    /**
+     * Returns the time in milliseconds to wait before the next point is delivered, relative to the
+     * delivery of the previous point.
+     */
+    public long getDelayMillis() {
+        if (this.index == 0 || !hasNext()) return 0L;
+        long gap = this.points.get(this.index).getTime() - this.points.get(this.index - 1).getTime();
+        return Math.max(0L, Math.round(gap / this.timeScale));
+    }
+
+    /**
+     * Returns the next point of the trace and advances the replay.
+     */
+    public TracePoint next() {
+        return this.points.get(this.index++);
+    }
+
+    /**
+     * Returns the time in milliseconds it takes to replay the whole trace.
+     */
+    public long getDurationMillis() {
+        if (this.points.size() < 2) return 0L;
+        return Math.round((this.points.get(this.points.size() - 1).getTime() - this.points.get(0).getTime()) / this.timeScale);
+    }
+
+    @Override
+    public String toString() {
+        return "TraceReplay{"
+                + "points=" + this.points.size()
+                + ",index=" + this.index
+                + ",timeScale=" + this.timeScale
+                + "}";
+    }
+}
@@ -2,6 +2,8 @@ package info.varden.hauk.manager;
 
 import android.content.Context;
 
+import java.util.List;
+
 import info.varden.hauk.caching.ResumableSessions;
 import info.varden.hauk.caching.ResumeHandler;
 import info.varden.hauk.caching.ResumePrompt;
@@ -69,10 +71,14 @@ public final class AutoResumptionPrompter implements ResumeHandler {
         public void accept() {
             // If yes, do continue the session.
             Log.i("Resuming shares..."); //NON-NLS
+            List<Share> fanOutShares = AutoResumptionPrompter.this.resumptionHandler.getFanOutShares();
             AutoResumptionPrompter.this.resumptionHandler.clearResumableSession();
             for (Share share : this.shares) {
                 AutoResumptionPrompter.this.manager.shareLocation(share, SessionInitiationReason.USER_RESUMED);
             }
+            for (Share share : fanOutShares) {
+                AutoResumptionPrompter.this.manager.addFanOutShare(share);
+            }
         }
 
         @Override
@@ -0,0 +1,174 @@
+package info.varden.hauk.manager;
+
+import android.content.Context;
+import android.os.AsyncTask;
+
+import androidx.annotation.Nullable;
+
+import java.util.List;
+
+import info.varden.hauk.Constants;
+import info.varden.hauk.http.SessionInitiationPacket;
+import info.varden.hauk.http.StopSharingPacket;
+import info.varden.hauk.struct.AdoptabilityPreference;
+import info.varden.hauk.struct.KeyDerivable;
+import info.varden.hauk.struct.Share;
+import info.varden.hauk.struct.ShareMode;
+import info.varden.hauk.struct.Version;
+import info.varden.hauk.system.preferences.PreferenceManager;
+import info.varden.hauk.utils.Log;
+
+/**
+ * Creates sessions on the additional backends configured in the preferences, so that the location
+ * push service can send locations to them alongside the main session. The sessions are created
+ * with the same settings as the main session, but as single-user shares that cannot be adopted,
+ * since the groups of the main session only exist on its own backend.
+ *
+ * @author Marius Lindvall
+ */
+final class FanOutSessions {
+    /**
+     * Called when a session on an additional backend is ready to receive locations.
+     */
+    interface Callback {
+        void onDestinationCreated(Share share);
+    }
+
+    private final Context ctx;
+
+    /**
+     * Incremented whenever the sessions being created are cancelled, so that sessions created for
+     * a main session that has since ended can be recognized and stopped.
+     */
+    private int generation = 0;
+
+    FanOutSessions(Context ctx) {
+        this.ctx = ctx;
+    }
+
+    /**
+     * Creates a session on each additional backend. Backends that cannot be reached are skipped.
+     *
+     * @param initParams The parameters that the main session was created with, including its
+     *                   connection parameters.
+     * @param callback   A callback that is called on the main thread for each session created.
+     */
+    void start(SessionInitiationPacket.InitParameters initParams, Callback callback) {
+        List<FanOutTarget> targets = FanOutTarget.parseAll(new PreferenceManager(this.ctx).get(Constants.PREF_FAN_OUT_SERVERS));
+        if (targets.isEmpty()) return;
+        int gen = this.generation;
+        for (FanOutTarget target : targets) {
+            Log.i("Creating session on additional backend %s", target); //NON-NLS
+            SessionInitiationPacket.InitParameters params = initParams.forServer(target.getServerURL(), target.getUsername(), target.getPassword());
+            new SessionInitiationPacket(this.ctx, params, new InitiationHandler(gen, target, callback), AdoptabilityPreference.DISALLOW_ADOPTION).send();
+        }
+    }
+
+    /**
+     * Stops any sessions that are still being created once they have been created.
+     */
+    void cancel() {
+        this.generation++;
+    }
+
+    private void stop(Share share) {
+        new StopSharingPacket(this.ctx, share.getSession()) {
+            @Override
+            protected void onSuccess() {
+                Log.v("Stopped session on additional backend that is no longer needed"); //NON-NLS
+            }
+
+            @Override
+            protected void onFailure(Exception ex) {
+                // The session expires on the backend by itself.
+                Log.w("Could not stop session on additional backend", ex); //NON-NLS
+            }
+        }.send();
+    }
+
+    /**
+     * Receives a session created on an additional backend.
+     */
+    private final class InitiationHandler implements SessionInitiationPacket.ResponseHandler {
+        private final int gen;
+        private final FanOutTarget target;
+        private final Callback callback;
+
+        /**
+         * Whether the backend dropped end-to-end encryption that was requested for the session.
+         */
+        private boolean unencrypted = false;
+
+        private InitiationHandler(int gen, FanOutTarget target, Callback callback) {
+            this.gen = gen;
+            this.target = target;
+            this.callback = callback;
+        }
+
+        @Override
+        public void onSessionInitiated(Share share) {
+            if (this.gen != FanOutSessions.this.generation || this.unencrypted) {
+                stop(share);
+                return;
+            }
+            Log.i("Session %s was created on additional backend", share.getSession()); //NON-NLS
+            // The key is derived before the session is handed to the location push service, so
+            // that the service does not have to derive it on its main thread.
+            new KeyDerivationTask(this.gen, share, this.callback).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        }
+
+        @Override
+        public void onShareModeIncompatible(ShareMode downgradeTo, Version backendVersion) {
+        }
+
+        @Override
+        public void onE2EUnavailable(Version backendVersion) {
+            // Locations must not be sent unencrypted to one backend when the user asked for
+            // end-to-end encryption.
+            Log.w("Backend %s does not support end-to-end encryption; not sharing to it", this.target); //NON-NLS
+            this.unencrypted = true;
+        }
+
+        @Override
+        public void onFailure(Exception ex) {
+            Log.w("Could not create session on additional backend %s", ex, this.target); //NON-NLS
+        }
+    }
+
+    /**
+     * Derives the end-to-end encryption key of a session in the background, if it has one.
+     */
+    private final class KeyDerivationTask extends AsyncTask<Void, Void, Void> {
+        private final int gen;
+        private final Share share;
+        private final Callback callback;
+
+        private KeyDerivationTask(int gen, Share share, Callback callback) {
+            this.gen = gen;
+            this.share = share;
+            this.callback = callback;
+        }
+
+        @Nullable
+        @Override
+        protected Void doInBackground(Void... params) {
+            KeyDerivable e2eParams = this.share.getSession().getDerivableE2EKey();
+            if (e2eParams == null) return null;
+            try {
+                e2eParams.deriveSpec();
+            } catch (Exception ex) {
+                Log.e("Could not derive end-to-end encryption key for additional backend", ex); //NON-NLS
+            }
+            return null;
+        }
+
+        @Override
+        protected void onPostExecute(Void result) {
+            if (this.gen != FanOutSessions.this.generation) {
+                stop(this.share);
+                return;
+            }
+            this.callback.onDestinationCreated(this.share);
+        }
+    }
+}
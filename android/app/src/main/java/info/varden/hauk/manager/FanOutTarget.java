@@ -0,0 +1,103 @@
+package info.varden.hauk.manager;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An additional backend that locations are shared to at the same time as the backend configured
+ * as the server. Targets are configured as a whitespace-separated list of server URLs. Credentials
+ * for a target are given in the user info part of its URL, either as {@code password@} for
+ * backends that only require a password, or as {@code username:password@}, percent-encoded as
+ * needed.
+ *
+ * @author Marius Lindvall
+ */
+final class FanOutTarget {
+    private final String server;
+    private final String username;
+    private final String password;
+
+    private FanOutTarget(String server, String username, String password) {
+        this.server = server;
+        this.username = username;
+        this.password = password;
+    }
+
+    /**
+     * Parses a list of targets. Entries that are not valid HTTP or HTTPS URLs are skipped.
+     *
+     * @param targets The whitespace-separated list of target URLs.
+     * @return The valid targets, in the order they were listed.
+     */
+    static List<FanOutTarget> parseAll(String targets) {
+        List<FanOutTarget> parsed = new ArrayList<>();
+        for (String entry : targets.trim().split("\\s+")) { //NON-NLS
+            if (entry.isEmpty()) continue;
+            FanOutTarget target = parse(entry);
+            if (target != null) parsed.add(target);
+        }
+        return parsed;
+    }
+
+    /**
+     * Parses a single target URL, or returns null if it is not a valid HTTP or HTTPS URL.
+     */
+    private static FanOutTarget parse(String entry) {
+        try {
+            URI uri = new URI(entry);
+            String scheme = uri.getScheme();
+            if (uri.getHost() == null || !("http".equalsIgnoreCase(scheme) || "https".equalsIgnoreCase(scheme))) return null; //NON-NLS
+            String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+            if (!path.endsWith("/")) path += "/";
+            String server = scheme.toLowerCase() + "://" + uri.getHost() + (uri.getPort() >= 0 ? ":" + uri.getPort() : "") + path; //NON-NLS
+
+            String username = "";
+            String password = "";
+            String userInfo = uri.getRawUserInfo();
+            if (userInfo != null) {
+                int colon = userInfo.indexOf(':');
+                if (colon >= 0) {
+                    username = decode(userInfo.substring(0, colon));
+                    password = decode(userInfo.substring(colon + 1));
+                } else {
+                    password = decode(userInfo);
+                }
+            }
+            return new FanOutTarget(server, username, password);
+        } catch (URISyntaxException | IllegalArgumentException | UnsupportedEncodingException ex) {
+            return null;
+        }
+    }
+
+    private static String decode(String component) throws UnsupportedEncodingException {
+        // URLDecoder decodes form data, where a plus sign is a space; in URLs it is a plus sign.
+        return URLDecoder.decode(component.replace("+", "%2B"), "UTF-8"); //NON-NLS
+    }
+
+    /**
+     * The base URL of the backend, including a trailing slash and without credentials.
+     */
+    String getServerURL() {
+        return this.server;
+    }
+
+    String getUsername() {
+        return this.username;
+    }
+
+    String getPassword() {
+        return this.password;
+    }
+
+    @Override
+    public String toString() {
+        return "FanOutTarget{server=" + this.server
+                + ",username=" + this.username
+                + ",password=<hidden>"
+                + "}";
+    }
+}
@@ -40,6 +40,12 @@ public interface GNSSStatusUpdateListener {
      */
     void onAccurateLocationReceived();
 
+    /**
+     * Called when the user has stopped moving and GNSS has been turned off to save battery. Sharing
+     * continues, and {@link #onAccurateLocationReceived()} is called again once the user moves.
+     */
+    void onStationary();
+
     /**
      * Called if the backend server is unreachable.
      */
@@ -0,0 +1,64 @@
+package info.varden.hauk.manager;
+
+import android.content.Context;
+import android.content.Intent;
+
+import java.util.List;
+
+import info.varden.hauk.caching.ResumableSessions;
+import info.varden.hauk.caching.ResumeHandler;
+import info.varden.hauk.struct.Session;
+import info.varden.hauk.struct.Share;
+import info.varden.hauk.utils.Log;
+
+/**
+ * {@link ResumeHandler} implementation used by {@link SessionManager} to take over sessions from a
+ * location push service that is still running. This happens if the main activity is terminated,
+ * but the share itself keeps running in the background.
+ *
+ * @author Marius Lindvall
+ */
+final class ServiceReattacher implements ResumeHandler {
+    /**
+     * The session manager to attach the shares to.
+     */
+    private final SessionManager manager;
+
+    /**
+     * The manager's resumption handler. This is used to clear the resumption data before the shares
+     * are attached by the session manager, as the session manager will re-flag the shares as
+     * resumable when it adds them to its internal share list.
+     */
+    private final ResumableSessions resumptionHandler;
+
+    /**
+     * An intent identifying the running location push service.
+     */
+    private final Intent pusher;
+
+    ServiceReattacher(SessionManager manager, ResumableSessions resumptionHandler, Intent pusher) {
+        this.manager = manager;
+        this.resumptionHandler = resumptionHandler;
+        this.pusher = pusher;
+    }
+
+    @Override
+    public void onSharesFetched(Context ctx, Session session, Share[] shares) {
+        Log.i("Reattaching %s share(s) found for running session %s", shares.length, session); //NON-NLS
+        List<Share> fanOutShares = this.resumptionHandler.getFanOutShares();
+        this.resumptionHandler.clearResumableSession();
+        for (Share share : shares) {
+            share.setSession(session);
+        }
+
+        // The session is taken over from the service first, so that shareLocation() only adds the
+        // shares to the manager rather than starting a new push service.
+        this.manager.reattachSession(this.pusher, shares[0]);
+        for (Share share : shares) {
+            this.manager.shareLocation(share, SessionInitiationReason.SERVICE_REATTACH);
+        }
+        for (Share share : fanOutShares) {
+            this.manager.addFanOutShare(share);
+        }
+    }
+}
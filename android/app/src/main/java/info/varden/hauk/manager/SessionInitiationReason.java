@@ -25,6 +25,12 @@ public enum SessionInitiationReason {
      */
     SERVICE_RELAUNCH,
 
+    /**
+     * The sharing session is automatically resumed by attaching a new user interface to an already
+     * running location sharing service.
+     */
+    SERVICE_REATTACH,
+
     /**
      * The session was created because a share was added to it. This should never be received by
      * {@link SessionListener#onSessionCreated(Session, Share, SessionInitiationReason)} under any
@@ -1,34 +1,50 @@
 package info.varden.hauk.manager;
 
 import android.Manifest;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
+import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
 import android.location.LocationManager;
 import android.os.Build;
 import android.os.Handler;
+import android.os.IBinder;
+import android.os.Message;
+import android.os.Messenger;
+import android.os.RemoteException;
 
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 
 import info.varden.hauk.Constants;
 import info.varden.hauk.caching.ResumableSessions;
 import info.varden.hauk.caching.ResumePrompt;
+import info.varden.hauk.diagnostics.FlightRecorder;
+import info.varden.hauk.diagnostics.TraceEvent;
+import info.varden.hauk.http.BulkStopSharingPacket;
+import info.varden.hauk.http.ServerException;
 import info.varden.hauk.http.SessionInitiationPacket;
 import info.varden.hauk.http.StopSharingPacket;
 import info.varden.hauk.service.GNSSActiveHandler;
 import info.varden.hauk.service.LocationPushService;
+import info.varden.hauk.service.RemoteLocationPushService;
+import info.varden.hauk.service.ServiceMessageHandler;
 import info.varden.hauk.struct.AdoptabilityPreference;
+import info.varden.hauk.struct.KeyDerivable;
 import info.varden.hauk.struct.Session;
 import info.varden.hauk.struct.Share;
 import info.varden.hauk.struct.ShareMode;
 import info.varden.hauk.struct.Version;
 import info.varden.hauk.system.LocationPermissionsNotGrantedException;
 import info.varden.hauk.system.LocationServicesDisabledException;
+import info.varden.hauk.system.preferences.PreferenceManager;
 import info.varden.hauk.utils.Log;
 import info.varden.hauk.utils.ReceiverDataRegistry;
 
@@ -49,7 +65,7 @@ public abstract class SessionManager {
     private final ResumableSessions resumable;
 
     /**
-     * A handler that cancels the share after expiry.
+     * A handler that resets the session manager after expiry.
      */
     private final Handler handler;
 
@@ -64,10 +80,10 @@ public abstract class SessionManager {
     private final StopSharingCallback stopCallback;
 
     /**
-     * Intent for the location pusher, so that it can be stopped if already running when launching
-     * the app.
+     * The connection to the location push service while a session is active, or null if not bound
+     * to the service.
      */
-    private static Intent pusher = null;
+    private ServiceConnection serviceConnection = null;
 
     /**
      * Android application context.
@@ -104,6 +120,34 @@ public abstract class SessionManager {
      */
     private Session activeSession = null;
 
+    /**
+     * Prepares the session that is currently being created, or null if no session is being
+     * created.
+     */
+    private SessionStartPipeline startPipeline = null;
+
+    /**
+     * A session kept ready on the backend for single-user shares with the default settings.
+     */
+    private final StandbySession standby;
+
+    /**
+     * Creates sessions on the additional backends that locations are shared to as well.
+     */
+    private final FanOutSessions fanOut;
+
+    /**
+     * The shares on additional backends that locations are currently shared to, by share link.
+     * These are kept apart from {@link #knownShares}, since the share list received from the main
+     * backend does not include them and share IDs are only unique per backend.
+     */
+    private final Map<String, Share> fanOutShares;
+
+    /**
+     * An intent identifying the location push service while a session is active.
+     */
+    private Intent pusher = null;
+
     /**
      * Creates a new session manager with the given parameters.
      *
@@ -113,14 +157,18 @@ public abstract class SessionManager {
     protected SessionManager(Context ctx, StopSharingCallback stopCallback) {
         this.ctx = ctx;
         this.stopCallback = stopCallback;
+        FlightRecorder.open(ctx);
 
         this.upstreamUpdateHandlers = new ArrayList<>();
         this.upstreamShareListeners = new ArrayList<>();
         this.upstreamSessionListeners = new ArrayList<>();
         this.knownShares = new HashMap<>();
+        this.fanOutShares = new HashMap<>();
 
         this.resumable = new ResumableSessions(ctx);
         this.handler = new Handler();
+        this.standby = new StandbySession(ctx);
+        this.fanOut = new FanOutSessions(ctx);
         this.stopTask = new StopSharingTask(this.ctx, this.stopCallback) {
             @Override
             public void cleanup() {
@@ -129,11 +177,17 @@ public abstract class SessionManager {
                 // session listeners.
                 Log.d("Performing stop task cleanup for task %s and stopping timed callback on handler %s", this, SessionManager.this.handler); //NON-NLS
                 SessionManager.this.activeSession = null;
+                SessionManager.this.pusher = null;
+                SessionManager.this.fanOut.cancel();
+                SessionManager.this.fanOutShares.clear();
                 SessionManager.this.handler.removeCallbacksAndMessages(null);
+                finishStartPipeline();
+                unbindFromService();
                 SessionManager.this.resumable.clearResumableSession();
                 for (GNSSStatusUpdateListener listener : SessionManager.this.upstreamUpdateHandlers) {
                     listener.onShutdown();
                 }
+                SessionManager.this.standby.update();
             }
         };
     }
@@ -149,9 +203,33 @@ public abstract class SessionManager {
      * Request that the current sharing session is stopped.
      */
     public final void stopSharing() {
+        // The location push service only stops the main session when it is stopped from here.
+        if (this.stopTask.canExecute()) {
+            for (Share share : this.fanOutShares.values()) {
+                stopFanOutSession(share, null);
+            }
+        }
         this.stopTask.run();
     }
 
+    /**
+     * Creates a standby session on the backend using the default share settings from the
+     * preferences, or replaces it if those settings have changed, so that a single-user share
+     * with those settings can start without waiting for the backend. Discards the standby session
+     * if the preference for it is disabled. Does nothing while a session is active, since the
+     * standby session is updated when the session ends.
+     */
+    public final void updateStandbySession() {
+        if (this.activeSession == null) this.standby.update();
+    }
+
+    /**
+     * Ends the standby session on the backend, if any.
+     */
+    public final void discardStandbySession() {
+        this.standby.discard();
+    }
+
     /**
      * Attaches a GNSS status listener to the session manager. This listener is called whenever the
      * GNSS/location status updates.
@@ -190,55 +268,163 @@ public abstract class SessionManager {
      */
     public final void resumeShares(ResumePrompt prompt) {
         // Check if the location push service is already running. This will happen if the main UI
-        // activity is killed/stopped, but the app itself and the pushing service keeps running in
-        // the background. If this happens, the push service should be silently restarted to ensure
-        // it behaves properly with new instances of GNSSActiveHandler and StopSharingTask that will
-        // be created and attached when creating a new SessionManager in MainActivity. There is
-        // probably a cleaner way to do this.
-        if (pusher != null) {
-            Log.d("Pusher is non-null (%s), stopping and nulling it and calling service relauncher", pusher); //NON-NLS
-            this.ctx.stopService(pusher);
-            pusher = null;
-            this.resumable.tryResumeShare(new ServiceRelauncher(this, this.resumable));
+        // activity is killed/stopped, or the app process itself is killed while the service keeps
+        // running in its own process. If this happens, attach to the running service so that it
+        // and its location listeners can keep running undisturbed.
+        ComponentName running = LocationPushService.findRunningService(this.ctx);
+        if (running != null) {
+            Log.d("Pusher %s is running, reattaching to it", running); //NON-NLS
+            Intent pusher = new Intent();
+            pusher.setComponent(running);
+            this.resumable.tryResumeShare(new ServiceReattacher(this, this.resumable, pusher));
         } else {
-            Log.d("Pusher is null, calling resumption prompter"); //NON-NLS
+            Log.d("Pusher is not running, calling resumption prompter"); //NON-NLS
             this.resumable.tryResumeShare(new AutoResumptionPrompter(this, this.resumable, prompt));
         }
     }
 
+    /**
+     * Takes over a session from an already running location push service. This session manager
+     * binds to the service to receive its status updates, and the service keeps pushing locations
+     * without being restarted.
+     *
+     * @param pusher An intent identifying the running location push service.
+     * @param share  The share that the service was originally started for.
+     */
+    final void reattachSession(Intent pusher, Share share) {
+        Session session = share.getSession();
+        Log.i("Reattaching to running session %s", session); //NON-NLS
+        this.activeSession = session;
+        this.resumable.setSessionResumable(session);
+        this.stopTask.setSession(session);
+        this.stopTask.updateTask(pusher);
+        this.pusher = pusher;
+        scheduleExpiry(session);
+
+        for (GNSSStatusUpdateListener listener : this.upstreamUpdateHandlers) {
+            listener.onStarted();
+        }
+        for (SessionListener listener : this.upstreamSessionListeners) {
+            listener.onSessionCreated(session, share, SessionInitiationReason.SERVICE_REATTACH);
+        }
+
+        // Attaching replays the current GNSS status, so the listeners must be started first.
+        bindToService(pusher, session);
+    }
+
+    /**
+     * Returns the class of the location push service that should be used for new sessions.
+     */
+    private Class<? extends LocationPushService> getServiceClass() {
+        boolean separate = new PreferenceManager(this.ctx).get(Constants.PREF_SEPARATE_PROCESS);
+        return separate ? RemoteLocationPushService.class : LocationPushService.class;
+    }
+
+    /**
+     * Puts a session in an intent for the location push service. The end-to-end encryption key
+     * derived for the session, e.g. by the {@link SessionStartPipeline}, is not serialized with
+     * it. If the service runs in this process, the derived key is instead handed over through the
+     * {@link ReceiverDataRegistry}, so that the service does not have to derive it again.
+     *
+     * @param intent  An intent for the location push service.
+     * @param session The session to put in the intent.
+     */
+    private static void putSession(Intent intent, Session session) {
+        intent.putExtra(Constants.EXTRA_SESSION, session);
+        intent.removeExtra(Constants.EXTRA_E2E_KEY);
+        KeyDerivable e2eKey = session.getDerivableE2EKey();
+        ComponentName service = intent.getComponent();
+        if (e2eKey != null && e2eKey.isDerived() && service != null && service.getClassName().equals(LocationPushService.class.getName())) {
+            intent.putExtra(Constants.EXTRA_E2E_KEY, ReceiverDataRegistry.register(e2eKey));
+        }
+    }
+
+    /**
+     * Binds to the location push service to receive status updates for the given session. The
+     * binding does not create the service; it connects once the service has been started.
+     *
+     * @param pusher  An intent identifying the location push service.
+     * @param session The session that the service is pushing locations for.
+     */
+    private void bindToService(Intent pusher, Session session) {
+        unbindFromService();
+        ServiceConnection conn = new PushServiceConnection(new GNSSStatusUpdateTask(session));
+        if (this.ctx.getApplicationContext().bindService(pusher, conn, 0)) {
+            this.serviceConnection = conn;
+        } else {
+            Log.e("Could not bind to location push service %s", pusher); //NON-NLS
+        }
+    }
+
+    /**
+     * Unbinds from the location push service, if bound.
+     */
+    private void unbindFromService() {
+        if (this.serviceConnection != null) {
+            Log.d("Unbinding from location push service"); //NON-NLS
+            this.ctx.getApplicationContext().unbindService(this.serviceConnection);
+            this.serviceConnection = null;
+        }
+    }
+
+    /**
+     * Schedules this session manager to be reset when the session expires. The location push
+     * service ends the session on the backend by itself; this only ensures that the user interface
+     * is reset even if the service is no longer around to report the expiry.
+     *
+     * @param session The session to schedule expiry for.
+     */
+    private void scheduleExpiry(Session session) {
+        long expireIn = session.getRemainingMillis();
+        Log.i("Scheduling session expiry for task %s in %s milliseconds on handler %s", this.stopTask, expireIn, this.handler); //NON-NLS
+        this.handler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                SessionManager.this.stopTask.onStoppedExternally();
+            }
+        }, expireIn);
+    }
+
     /**
      * A preparation step for initiating sessions. Checks location services status and instantiates
      * a response handler for the session initiation packet.
      *
+     * @param initParams       The parameters the session is being created with.
      * @param upstreamCallback An upstream callback to receive initiation progress updates.
      * @return A response handler for use with the {@link SessionInitiationPacket}.
      * @throws LocationServicesDisabledException if location services are disabled.
      * @throws LocationPermissionsNotGrantedException if location permissions have not been granted.
      */
-    private SessionInitiationPacket.ResponseHandler preSessionInitiation(final SessionInitiationResponseHandler upstreamCallback, final SessionInitiationReason reason) throws LocationServicesDisabledException, LocationPermissionsNotGrantedException {
-        // Check for location permission and prompt the user if missing. This returns because the
-        // checking function creates async dialogs here - the user is prompted to press the button
-        // again instead.
-        if (!hasLocationPermission()) throw new LocationPermissionsNotGrantedException();
-        LocationManager locMan = (LocationManager) this.ctx.getSystemService(Context.LOCATION_SERVICE);
-        boolean gpsDisabled = locMan != null && !locMan.isProviderEnabled(LocationManager.GPS_PROVIDER);
-        if (gpsDisabled) throw new LocationServicesDisabledException();
+    private SessionInitiationPacket.ResponseHandler preSessionInitiation(final SessionInitiationPacket.InitParameters initParams, final SessionInitiationResponseHandler upstreamCallback, final SessionInitiationReason reason) throws LocationServicesDisabledException, LocationPermissionsNotGrantedException {
+        checkLocationAccess();
 
         // Tell the upstream listener that we are now initiating the packet.
         upstreamCallback.onInitiating();
 
+        // Start warming up GNSS and deriving the encryption key, unless this was already done
+        // when the user requested the share.
+        if (this.startPipeline == null || !this.startPipeline.isFor(initParams)) startPreparing(initParams);
+        final SessionStartPipeline pipeline = this.startPipeline;
+
         // Create a handler for our request to initiate a new session. This is declared separately
         // from the SessionInitiationPackets below to avoid code duplication.
         Log.i("Creating session initiation response handler"); //NON-NLS
         return new SessionInitiationPacket.ResponseHandler() {
             @Override
-            public void onSessionInitiated(Share share) {
+            public void onSessionInitiated(final Share share) {
                 Log.i("Session was initiated for share %s; setting session resumable", share); //NON-NLS
 
-                // Proceed with the location share.
-                shareLocation(share, reason);
-
-                upstreamCallback.onSuccess();
+                // Proceed with the location share once the encryption key is ready, so that the
+                // location push service does not have to derive it again.
+                pipeline.whenKeyDerived(new Runnable() {
+                    @Override
+                    public void run() {
+                        boolean newSession = SessionManager.this.activeSession == null;
+                        shareLocation(share, reason);
+                        upstreamCallback.onSuccess();
+                        if (newSession) startFanOut(initParams);
+                    }
+                });
             }
 
             @Override
@@ -256,11 +442,76 @@ public abstract class SessionManager {
             @Override
             public void onFailure(Exception ex) {
                 Log.e("Share could not be initiated", ex); //NON-NLS
+                if (SessionManager.this.startPipeline == pipeline) finishStartPipeline();
                 upstreamCallback.onFailure(ex);
             }
         };
     }
 
+    /**
+     * Checks that the app may use location services before a share is started.
+     *
+     * @throws LocationServicesDisabledException if location services are disabled.
+     * @throws LocationPermissionsNotGrantedException if location permissions have not been granted.
+     */
+    private void checkLocationAccess() throws LocationServicesDisabledException, LocationPermissionsNotGrantedException {
+        // Check for location permission and prompt the user if missing. This returns because the
+        // checking function creates async dialogs here - the user is prompted to press the button
+        // again instead.
+        if (!hasLocationPermission()) {
+            finishStartPipeline();
+            throw new LocationPermissionsNotGrantedException();
+        }
+        LocationManager locMan = (LocationManager) this.ctx.getSystemService(Context.LOCATION_SERVICE);
+        boolean gpsDisabled = locMan != null && !locMan.isProviderEnabled(LocationManager.GPS_PROVIDER);
+        if (gpsDisabled) {
+            finishStartPipeline();
+            throw new LocationServicesDisabledException();
+        }
+    }
+
+    /**
+     * Starts preparing a session that is about to be created, before its connection parameters
+     * are known. GNSS is warmed up and the end-to-end encryption key is derived while the proxy
+     * hostname is resolved and the session is created on the backend. Nothing is prepared if the
+     * share can claim the standby session instead. Calling this is optional; the preparations are
+     * otherwise started when the session initiation request is sent.
+     *
+     * @param initParams    The parameters that the session will be created with.
+     * @param mode          The sharing mode of the requested share.
+     * @param allowAdoption Whether or not the requested share should be adoptable.
+     */
+    public final void prepareSession(SessionInitiationPacket.InitParameters initParams, ShareMode mode, AdoptabilityPreference allowAdoption) {
+        if (mode == ShareMode.CREATE_ALONE && this.activeSession == null && this.standby.canClaim(initParams, allowAdoption)) {
+            Log.i("Share can use the standby session; not preparing a new session"); //NON-NLS
+            finishStartPipeline();
+            return;
+        }
+        startPreparing(initParams);
+    }
+
+    /**
+     * Starts warming up GNSS and deriving the end-to-end encryption key for a session that is
+     * about to be created, ending any preparations for another session.
+     *
+     * @param initParams The parameters that the session will be created with.
+     */
+    private void startPreparing(SessionInitiationPacket.InitParameters initParams) {
+        finishStartPipeline();
+        this.startPipeline = new SessionStartPipeline(this.ctx, initParams);
+        this.startPipeline.start();
+    }
+
+    /**
+     * Ends the preparations for the session being created, if any.
+     */
+    private void finishStartPipeline() {
+        if (this.startPipeline != null) {
+            this.startPipeline.finish();
+            this.startPipeline = null;
+        }
+    }
+
     /**
      * Starts a single-user sharing session.
      *
@@ -271,7 +522,20 @@ public abstract class SessionManager {
      * @throws LocationPermissionsNotGrantedException if location permissions have not been granted.
      */
     public final void shareLocation(SessionInitiationPacket.InitParameters initParams, SessionInitiationResponseHandler upstreamCallback, AdoptabilityPreference allowAdoption) throws LocationPermissionsNotGrantedException, LocationServicesDisabledException {
-        SessionInitiationPacket.ResponseHandler handler = preSessionInitiation(upstreamCallback, SessionInitiationReason.USER_STARTED);
+        // If a session with the same settings is on standby, bind the share to it right away
+        // instead of waiting for the backend to create one. This is done before initiation starts,
+        // so that no progress is shown and GNSS warm-up and key derivation are not started.
+        checkLocationAccess();
+        Share standbyShare = this.activeSession == null ? this.standby.claim(initParams, allowAdoption) : null;
+        if (standbyShare != null) {
+            finishStartPipeline();
+            shareLocation(standbyShare, SessionInitiationReason.USER_STARTED);
+            upstreamCallback.onSuccess();
+            startFanOut(initParams);
+            return;
+        }
+
+        SessionInitiationPacket.ResponseHandler handler = preSessionInitiation(initParams, upstreamCallback, SessionInitiationReason.USER_STARTED);
 
         // Create a handshake request and handle the response. The handshake transmits the duration
         // and interval to the server and waits for the server to return a session ID to confirm
@@ -290,7 +554,7 @@ public abstract class SessionManager {
      * @throws LocationPermissionsNotGrantedException if location permissions have not been granted.
      */
     public final void shareLocation(SessionInitiationPacket.InitParameters initParams, SessionInitiationResponseHandler upstreamCallback, String nickname) throws LocationPermissionsNotGrantedException, LocationServicesDisabledException {
-        SessionInitiationPacket.ResponseHandler handler = preSessionInitiation(upstreamCallback, SessionInitiationReason.USER_STARTED);
+        SessionInitiationPacket.ResponseHandler handler = preSessionInitiation(initParams, upstreamCallback, SessionInitiationReason.USER_STARTED);
 
         // Create a handshake request and handle the response. The handshake transmits the duration
         // and interval to the server and waits for the server to return a session ID to confirm
@@ -310,7 +574,7 @@ public abstract class SessionManager {
      * @throws LocationPermissionsNotGrantedException if location permissions have not been granted.
      */
     public final void shareLocation(SessionInitiationPacket.InitParameters initParams, SessionInitiationResponseHandler upstreamCallback, String nickname, String groupPin) throws LocationPermissionsNotGrantedException, LocationServicesDisabledException {
-        SessionInitiationPacket.ResponseHandler handler = preSessionInitiation(upstreamCallback, SessionInitiationReason.USER_STARTED);
+        SessionInitiationPacket.ResponseHandler handler = preSessionInitiation(initParams, upstreamCallback, SessionInitiationReason.USER_STARTED);
 
         // Create a handshake request and handle the response. The handshake transmits the duration
         // and interval to the server and waits for the server to return a session ID to confirm
@@ -341,29 +605,196 @@ public abstract class SessionManager {
     }
 
     /**
-     * Requests that a single share is stopped.
+     * Starts creating sessions on the additional backends configured in the preferences, if any,
+     * for the session that was just started.
+     *
+     * @param initParams The parameters that the session was created with.
+     */
+    private void startFanOut(SessionInitiationPacket.InitParameters initParams) {
+        this.fanOut.start(initParams, new FanOutSessions.Callback() {
+            @Override
+            public void onDestinationCreated(Share share) {
+                addFanOutShare(share);
+            }
+        });
+    }
+
+    /**
+     * Starts sharing to a session on an additional backend alongside the active session, or
+     * attaches to it if the location push service is already sharing to it.
+     *
+     * @param share The share on the additional backend, with its session attached.
+     */
+    final void addFanOutShare(Share share) {
+        if (this.pusher == null) {
+            Log.w("No session is active; not sharing to %s", share); //NON-NLS
+            return;
+        }
+        Log.i("Sharing to additional backend, share=%s", share); //NON-NLS
+        this.fanOutShares.put(share.getViewURL(), share);
+        this.resumable.addFanOutShare(share);
+        sendDestinationChange(LocationPushService.ACTION_ADD_DESTINATION, share.getSession());
+        for (ShareListener listener : this.upstreamShareListeners) {
+            listener.onShareJoined(share);
+        }
+    }
+
+    /**
+     * Tells the location push service to start or stop sending locations to a session on an
+     * additional backend.
+     *
+     * @param action  {@link LocationPushService#ACTION_ADD_DESTINATION} or
+     *                {@link LocationPushService#ACTION_REMOVE_DESTINATION}.
+     * @param session The session on the additional backend.
+     */
+    private void sendDestinationChange(String action, Session session) {
+        Intent intent = new Intent(this.pusher);
+        intent.setAction(action);
+        intent.removeExtra(Constants.EXTRA_SHARE);
+        putSession(intent, session);
+        try {
+            this.ctx.startService(intent);
+        } catch (IllegalStateException ex) {
+            Log.e("Could not update destinations of location push service", ex); //NON-NLS
+        }
+    }
+
+    /**
+     * Stops the session of a share on an additional backend.
+     *
+     * @param share    The share whose session to stop.
+     * @param callback Called once the backend has stopped the session, or null.
+     */
+    private void stopFanOutSession(final Share share, @Nullable final Runnable callback) {
+        new StopSharingPacket(this.ctx, share.getSession()) {
+            @Override
+            public void onSuccess() {
+                Log.i("Stopped session on additional backend for share %s", share); //NON-NLS
+                if (callback != null) callback.run();
+            }
+
+            @Override
+            protected void onFailure(Exception ex) {
+                Log.e("Session on additional backend for share %s could not be stopped", ex, share); //NON-NLS
+            }
+        }.send();
+    }
+
+    /**
+     * Requests that a single share is stopped. A share on an additional backend is stopped by
+     * stopping its whole session, since it is the only share of that session.
      *
      * @param share The share to stop.
      */
     public final void stopSharing(final Share share) {
+        if (this.fanOutShares.containsKey(share.getViewURL())) {
+            sendDestinationChange(LocationPushService.ACTION_REMOVE_DESTINATION, share.getSession());
+            stopFanOutSession(share, new Runnable() {
+                @Override
+                public void run() {
+                    SessionManager.this.fanOutShares.remove(share.getViewURL());
+                    SessionManager.this.resumable.clearFanOutShare(share.getViewURL());
+                    for (ShareListener listener : SessionManager.this.upstreamShareListeners) {
+                        listener.onShareParted(share);
+                    }
+                }
+            });
+            return;
+        }
         new StopSharingPacket(this.ctx, share) {
             @Override
             public void onSuccess() {
-                Log.i("Share %s was successfully stopped", share); //NON-NLS
-                SessionManager.this.resumable.clearResumableShare(share.getID());
-                SessionManager.this.knownShares.remove(share.getID());
-                for (ShareListener listener : SessionManager.this.upstreamShareListeners) {
-                    listener.onShareParted(share);
+                onShareStopped(share);
+            }
+
+            @Override
+            protected void onFailure(Exception ex) {
+                Log.e("Share %s could not be stopped", ex, share); //NON-NLS
+            }
+        }.send();
+    }
+
+    /**
+     * Requests that several shares of the same session are stopped, while leaving the session
+     * itself running. The shares are stopped in a single request if the backend supports it, and
+     * otherwise one at a time.
+     *
+     * @param allShares The shares to stop.
+     */
+    public final void stopSharing(List<Share> allShares) {
+        // Shares on additional backends belong to sessions of their own.
+        List<Share> shares = new ArrayList<>();
+        for (Share share : allShares) {
+            if (this.fanOutShares.containsKey(share.getViewURL())) {
+                stopSharing(share);
+            } else {
+                shares.add(share);
+            }
+        }
+        if (shares.isEmpty()) return;
+        Session session = shares.get(0).getSession();
+        if (session.getBackendVersion().isAtLeast(Constants.VERSION_COMPAT_BULK_SHARE_MANAGEMENT)) {
+            Log.i("Stopping %s shares in one request", shares.size()); //NON-NLS
+            new BulkStopSharingPacket(this.ctx, session, shares) {
+                @Override
+                protected void onShareStopped(Share share) {
+                    SessionManager.this.onShareStopped(share);
+                }
+
+                @Override
+                protected void onShareNotStopped(Share share, ServerException ex) {
+                    Log.e("Share %s could not be stopped", ex, share); //NON-NLS
                 }
+
+                @Override
+                protected void onFailure(Exception ex) {
+                    Log.e("Shares could not be stopped", ex); //NON-NLS
+                }
+            }.send();
+        } else {
+            Log.i("Backend does not support bulk requests; stopping %s shares one at a time", shares.size()); //NON-NLS
+            stopSequentially(new ArrayDeque<>(shares));
+        }
+    }
+
+    /**
+     * Stops the given shares one at a time, sending the next request when the previous one has
+     * completed so that older backends are not flooded with parallel requests.
+     *
+     * @param remaining The shares that have not been stopped yet.
+     */
+    private void stopSequentially(final Queue<Share> remaining) {
+        final Share share = remaining.poll();
+        if (share == null) return;
+        new StopSharingPacket(this.ctx, share) {
+            @Override
+            public void onSuccess() {
+                onShareStopped(share);
+                stopSequentially(remaining);
             }
 
             @Override
             protected void onFailure(Exception ex) {
                 Log.e("Share %s could not be stopped", ex, share); //NON-NLS
+                stopSequentially(remaining);
             }
         }.send();
     }
 
+    /**
+     * Called when the backend has confirmed that a share has been stopped.
+     *
+     * @param share The share that was stopped.
+     */
+    private void onShareStopped(Share share) {
+        Log.i("Share %s was successfully stopped", share); //NON-NLS
+        this.resumable.clearResumableShare(share.getID());
+        this.knownShares.remove(share.getID());
+        for (ShareListener listener : this.upstreamShareListeners) {
+            listener.onShareParted(share);
+        }
+    }
+
     /**
      * For internal use only. Spawns a new location push service that actually sends location data
      * to the backend.
@@ -378,17 +809,15 @@ public abstract class SessionManager {
         // when we actually use the location API (user could have disabled it while connecting).
         if (this.ctx.checkSelfPermission(Manifest.permission.ACCESS_FINE_LOCATION) == PackageManager.PERMISSION_GRANTED) {
             Log.i("Location permission has been granted; sharing will commence"); //NON-NLS
-            GNSSActiveHandler statusUpdateHandler = new GNSSStatusUpdateTask(share.getSession());
 
             // Create a client that receives location updates and pushes these to
-            // the Hauk backend.
+            // the Hauk backend. The share is serialized into the intent so that the service can
+            // run in a separate process. Its session is transient and must be passed separately.
             Log.d("Creating location push service intent"); //NON-NLS
-            Intent pusher = new Intent(this.ctx, LocationPushService.class);
+            Intent pusher = new Intent(this.ctx, getServiceClass());
             pusher.setAction(LocationPushService.ACTION_ID);
-            pusher.putExtra(Constants.EXTRA_SHARE, ReceiverDataRegistry.register(share));
-            pusher.putExtra(Constants.EXTRA_STOP_TASK, ReceiverDataRegistry.register(this.stopTask));
-            pusher.putExtra(Constants.EXTRA_HANDLER, ReceiverDataRegistry.register(this.handler));
-            pusher.putExtra(Constants.EXTRA_GNSS_ACTIVE_TASK, ReceiverDataRegistry.register(statusUpdateHandler));
+            pusher.putExtra(Constants.EXTRA_SHARE, share);
+            putSession(pusher, share.getSession());
 
             // Android O and higher require the service to be started as a foreground service for it
             // not to be killed.
@@ -400,20 +829,13 @@ public abstract class SessionManager {
                 this.ctx.startService(pusher);
             }
 
-            // When both the notification and pusher are created, we can update the stop task with
-            // these so that they can be canceled when the location share ends.
+            // When the pusher is created, we can update the stop task with it so that it can be
+            // stopped when the location share ends.
+            this.stopTask.setSession(share.getSession());
             this.stopTask.updateTask(pusher);
-
-            // Required for session relaunches
-            Log.d("Setting static pusher %s (was %s)", pusher, SessionManager.pusher); //NON-NLS
-            //noinspection AssignmentToStaticFieldFromInstanceMethod
-            SessionManager.pusher = pusher;
-
-            // stopTask is scheduled for expiration, but it could also be called if the user
-            // manually stops the share, or if the app is destroyed.
-            long expireIn = share.getSession().getRemainingMillis();
-            Log.i("Scheduling session task %s for expiration in %s milliseconds on handler %s", this.stopTask, expireIn, this.handler); //NON-NLS
-            this.handler.postDelayed(this.stopTask, expireIn);
+            this.pusher = pusher;
+            scheduleExpiry(share.getSession());
+            FlightRecorder.record(TraceEvent.SESSION_STARTED, reason.ordinal(), 0, share.getSession().getExpiryTime(), 0.0F, 0.0F);
 
             // Push the start event to upstream listeners.
             for (GNSSStatusUpdateListener listener : this.upstreamUpdateHandlers) {
@@ -422,6 +844,8 @@ public abstract class SessionManager {
             for (SessionListener listener : this.upstreamSessionListeners) {
                 listener.onSessionCreated(share.getSession(), share, reason);
             }
+
+            bindToService(pusher, share.getSession());
         } else {
             Log.w("Location permission has not been granted; sharing will not commence"); //NON-NLS
             for (SessionListener listener : this.upstreamSessionListeners) {
@@ -448,6 +872,49 @@ public abstract class SessionManager {
         }
     }
 
+    /**
+     * Connection to the location push service. Attaches to the service when connected so that its
+     * status updates are delivered to this session manager, whether the service runs in this
+     * process or in a separate one.
+     */
+    private final class PushServiceConnection implements ServiceConnection {
+        private final Messenger replyTo;
+
+        private PushServiceConnection(GNSSActiveHandler statusHandler) {
+            this.replyTo = new Messenger(new ServiceMessageHandler(statusHandler) {
+                @Override
+                protected void onSessionStopped() {
+                    SessionManager.this.stopTask.onStoppedExternally();
+                }
+
+                @Override
+                protected void onDetached() {
+                    if (SessionManager.this.serviceConnection == PushServiceConnection.this) {
+                        unbindFromService();
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            Log.i("Connected to location push service %s", name); //NON-NLS
+            Message msg = Message.obtain(null, Constants.SERVICE_MSG_ATTACH);
+            msg.replyTo = this.replyTo;
+            try {
+                new Messenger(service).send(msg);
+            } catch (RemoteException ex) {
+                Log.e("Could not attach to location push service", ex); //NON-NLS
+            }
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            // If the service is restarted, the binding reconnects and attaches again by itself.
+            Log.w("Location push service %s disconnected", name); //NON-NLS
+        }
+    }
+
     /**
      * The GNSS status handler that the {@link SessionManager} itself uses to receive status updates
      * from the GNSS listeners. Used to propagate events further upstream.
@@ -471,6 +938,7 @@ public abstract class SessionManager {
 
         @Override
         public void onCoarseLocationReceived() {
+            finishStartPipeline();
             for (GNSSStatusUpdateListener listener : SessionManager.this.upstreamUpdateHandlers) {
                 listener.onCoarseLocationReceived();
             }
@@ -478,11 +946,19 @@ public abstract class SessionManager {
 
         @Override
         public void onAccurateLocationReceived() {
+            finishStartPipeline();
             for (GNSSStatusUpdateListener listener : SessionManager.this.upstreamUpdateHandlers) {
                 listener.onAccurateLocationReceived();
             }
         }
 
+        @Override
+        public void onStationary() {
+            for (GNSSStatusUpdateListener listener : SessionManager.this.upstreamUpdateHandlers) {
+                listener.onStationary();
+            }
+        }
+
         @Override
         public void onServerConnectionLost() {
             for (GNSSStatusUpdateListener listener : SessionManager.this.upstreamUpdateHandlers) {
@@ -499,28 +975,24 @@ public abstract class SessionManager {
 
         @Override
         public void onShareListReceived(String linkFormat, String[] shareIDs) {
-            List<String> currentShares = Arrays.asList(shareIDs);
-            for (int i = 0; i < currentShares.size(); i++) {
-                String shareID = currentShares.get(i);
-                if (!SessionManager.this.knownShares.containsKey(shareID)) {
-                    // A new share has been added. If the client is suddenly informed of a new
-                    // share, it is always a group share because that is the only type of shares
-                    // that can be initiated by a remote user (through adoption).
-                    Share newShare = new Share(this.session, String.format(linkFormat, shareID), shareID, ShareMode.JOIN_GROUP);
-                    Log.i("Received unknown share %s from server", newShare); //NON-NLS
-                    shareLocation(newShare, SessionInitiationReason.SHARE_ADDED);
-                }
+            ShareListDiff diff = new ShareListDiff(SessionManager.this.knownShares.keySet(), shareIDs);
+            if (diff.isEmpty()) return;
+            Log.v("Share list changed: %s", diff); //NON-NLS
+            for (String shareID : diff.getAdded()) {
+                // A new share has been added. If the client is suddenly informed of a new share,
+                // it is always a group share because that is the only type of shares that can be
+                // initiated by a remote user (through adoption).
+                Share newShare = new Share(this.session, String.format(linkFormat, shareID), shareID, ShareMode.JOIN_GROUP);
+                Log.i("Received unknown share %s from server", newShare); //NON-NLS
+                shareLocation(newShare, SessionInitiationReason.SHARE_ADDED);
             }
-            for (Iterator<Map.Entry<String, Share>> it = SessionManager.this.knownShares.entrySet().iterator(); it.hasNext();) {
-                Map.Entry<String, Share> entry = it.next();
-                if (!currentShares.contains(entry.getKey())) {
-                    // A share has been removed.
-                    Log.i("Share %s was terminated on server, removing", entry.getKey()); //NON-NLS
-                    it.remove();
-                    SessionManager.this.resumable.clearResumableShare(entry.getKey());
-                    for (ShareListener listener : SessionManager.this.upstreamShareListeners) {
-                        listener.onShareParted(entry.getValue());
-                    }
+            for (String shareID : diff.getRemoved()) {
+                // A share has been removed.
+                Log.i("Share %s was terminated on server, removing", shareID); //NON-NLS
+                Share share = SessionManager.this.knownShares.remove(shareID);
+                SessionManager.this.resumable.clearResumableShare(shareID);
+                for (ShareListener listener : SessionManager.this.upstreamShareListeners) {
+                    listener.onShareParted(share);
                 }
             }
         }
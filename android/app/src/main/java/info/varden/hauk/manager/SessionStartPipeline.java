@@ -0,0 +1,214 @@
+package info.varden.hauk.manager;
+
+import android.Manifest;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.location.Location;
+import android.location.LocationListener;
+import android.location.LocationManager;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import info.varden.hauk.http.SessionInitiationPacket;
+import info.varden.hauk.struct.KeyDerivable;
+import info.varden.hauk.utils.Log;
+import info.varden.hauk.utils.TimeUtils;
+
+/**
+ * Runs the slow preparations for a new session in parallel with creating it on the backend,
+ * instead of after it. When started, GNSS is warmed up by listening for location updates, and the
+ * end-to-end encryption key is derived on a background thread. The location push service is only
+ * started once the key has been derived, so that it does not have to derive it again; GNSS
+ * warm-up ends when the service reports its first location.
+ *
+ * @author Marius Lindvall
+ */
+final class SessionStartPipeline {
+    /**
+     * The longest time to keep GNSS warm if the service never reports a location.
+     */
+    private static final long WARMUP_TIMEOUT = 120L * TimeUtils.MILLIS_PER_SECOND;
+
+    private final Context ctx;
+    private final SessionInitiationPacket.InitParameters initParams;
+    private final Handler handler;
+
+    /**
+     * Tasks waiting for the end-to-end encryption key to be derived.
+     */
+    private final List<Runnable> keyWaiters = new ArrayList<>();
+    private boolean keyDerived;
+
+    /**
+     * The location listener keeping GNSS warm, or null if GNSS is not being warmed up.
+     */
+    @Nullable
+    private WarmupListener warmup = null;
+
+    private long startTime;
+
+    /**
+     * Creates a pipeline for a session that is about to be created.
+     *
+     * @param ctx        Android application context.
+     * @param initParams The parameters the session will be created with.
+     */
+    SessionStartPipeline(Context ctx, SessionInitiationPacket.InitParameters initParams) {
+        this.ctx = ctx;
+        this.initParams = initParams;
+        this.handler = new Handler(Looper.getMainLooper());
+        this.keyDerived = initParams.getKeyDerivable() == null;
+    }
+
+    /**
+     * Returns whether or not this pipeline was started for a session with the given parameters.
+     */
+    boolean isFor(SessionInitiationPacket.InitParameters initParams) {
+        return this.initParams == initParams;
+    }
+
+    /**
+     * Starts GNSS warm-up and key derivation. Must be called on the main thread.
+     */
+    void start() {
+        this.startTime = SystemClock.elapsedRealtime();
+        startWarmup();
+        KeyDerivable e2eParams = this.initParams.getKeyDerivable();
+        if (e2eParams != null) {
+            Log.i("Deriving end-to-end encryption key while the session is being created"); //NON-NLS
+            // Use the thread pool, since the default serial executor is shared with the
+            // connection threads that send the session initiation request.
+            new KeyDerivationTask(this, e2eParams).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        }
+    }
+
+    /**
+     * Runs the given task once the end-to-end encryption key has been derived, or immediately if
+     * it already has been or if end-to-end encryption is not used. Must be called on the main
+     * thread.
+     *
+     * @param task The task to run.
+     */
+    void whenKeyDerived(Runnable task) {
+        if (this.keyDerived) {
+            task.run();
+        } else {
+            Log.i("Session was created before the end-to-end encryption key was derived; waiting"); //NON-NLS
+            this.keyWaiters.add(task);
+        }
+    }
+
+    /**
+     * Stops GNSS warm-up. Called when the location push service has found its first location, or
+     * if the session could not be started.
+     */
+    void finish() {
+        this.keyWaiters.clear();
+        stopWarmup();
+    }
+
+    private void stopWarmup() {
+        this.handler.removeCallbacksAndMessages(null);
+        if (this.warmup != null) {
+            Log.i("Ending GNSS warm-up after %s ms", SystemClock.elapsedRealtime() - this.startTime); //NON-NLS
+            LocationManager locMan = (LocationManager) this.ctx.getSystemService(Context.LOCATION_SERVICE);
+            if (locMan != null) locMan.removeUpdates(this.warmup);
+            this.warmup = null;
+        }
+    }
+
+    private void startWarmup() {
+        if (this.ctx.checkSelfPermission(Manifest.permission.ACCESS_FINE_LOCATION) != PackageManager.PERMISSION_GRANTED) return;
+        LocationManager locMan = (LocationManager) this.ctx.getSystemService(Context.LOCATION_SERVICE);
+        if (locMan == null || !locMan.isProviderEnabled(LocationManager.GPS_PROVIDER)) return;
+        try {
+            WarmupListener listener = new WarmupListener();
+            locMan.requestLocationUpdates(LocationManager.GPS_PROVIDER, 0L, 0.0F, listener, Looper.getMainLooper());
+            this.warmup = listener;
+            Log.i("Warming up GNSS while the session is being created"); //NON-NLS
+            this.handler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    Log.w("Location push service did not report a location in time"); //NON-NLS
+                    stopWarmup();
+                }
+            }, WARMUP_TIMEOUT);
+        } catch (SecurityException | IllegalArgumentException ex) {
+            Log.w("Could not warm up GNSS", ex); //NON-NLS
+        }
+    }
+
+    private void onKeyDerived() {
+        Log.i("End-to-end encryption key derived after %s ms", SystemClock.elapsedRealtime() - this.startTime); //NON-NLS
+        this.keyDerived = true;
+        List<Runnable> waiters = new ArrayList<>(this.keyWaiters);
+        this.keyWaiters.clear();
+        for (Runnable task : waiters) {
+            task.run();
+        }
+    }
+
+    /**
+     * A location listener that keeps GNSS running. The locations themselves are not used here;
+     * the location push service picks up the most recent one as the last known location.
+     */
+    private static final class WarmupListener implements LocationListener {
+        @Override
+        public void onLocationChanged(Location location) {
+            Log.v("Received location during GNSS warm-up"); //NON-NLS
+        }
+
+        // Never called on Android Q and above, but still required on older versions.
+        @SuppressWarnings("deprecation")
+        @Override
+        public void onStatusChanged(String provider, int status, Bundle bundle) {
+        }
+
+        @Override
+        public void onProviderEnabled(String provider) {
+        }
+
+        @Override
+        public void onProviderDisabled(String provider) {
+        }
+    }
+
+    /**
+     * Derives the end-to-end encryption key in the background. The derived key is cached in the
+     * {@link KeyDerivable} instance, which the session is created with.
+     */
+    private static final class KeyDerivationTask extends AsyncTask<Void, Void, Void> {
+        private final SessionStartPipeline pipeline;
+        private final KeyDerivable e2eParams;
+
+        private KeyDerivationTask(SessionStartPipeline pipeline, KeyDerivable e2eParams) {
+            this.pipeline = pipeline;
+            this.e2eParams = e2eParams;
+        }
+
+        @Nullable
+        @Override
+        protected Void doInBackground(Void... params) {
+            try {
+                this.e2eParams.deriveSpec();
+            } catch (Exception ex) {
+                // The push service will try again and report the failure when encrypting.
+                Log.e("Could not derive end-to-end encryption key", ex); //NON-NLS
+            }
+            return null;
+        }
+
+        @Override
+        protected void onPostExecute(Void result) {
+            this.pipeline.onKeyDerived();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package info.varden.hauk.manager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Compares the list of shares received from the backend with the shares known to the client, to
+ * find shares the user has been adopted into and shares that have ended. Runs in time linear in
+ * the number of shares.
+ *
+ * @author Marius Lindvall
+ */
+final class ShareListDiff {
+    private final List<String> added = new ArrayList<>();
+    private final List<String> removed = new ArrayList<>();
+
+    /**
+     * Computes the difference between two lists of shares.
+     *
+     * @param known   The IDs of the shares known to the client. Should support constant-time
+     *                lookups, e.g. the key set of a hash map.
+     * @param current The IDs of the shares received from the backend.
+     */
+    ShareListDiff(Collection<String> known, String[] current) {
+        Set<String> currentSet = new HashSet<>(current.length * 2);
+        for (String shareID : current) {
+            if (currentSet.add(shareID) && !known.contains(shareID)) this.added.add(shareID);
+        }
+        for (String shareID : known) {
+            if (!currentSet.contains(shareID)) this.removed.add(shareID);
+        }
+    }
+
+    /**
+     * Returns the IDs of shares received from the backend that are not known to the client, in
+     * the order they were received.
+     */
+    List<String> getAdded() {
+        return Collections.unmodifiableList(this.added);
+    }
+
+    /**
+     * Returns the IDs of shares known to the client that were not received from the backend.
+     */
+    List<String> getRemoved() {
+        return Collections.unmodifiableList(this.removed);
+    }
+
+    /**
+     * Whether or not the lists contain the same shares.
+     */
+    boolean isEmpty() {
+        return this.added.isEmpty() && this.removed.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "ShareListDiff{"
+                + "added=" + this.added
+                + ",removed=" + this.removed
+                + "}";
+    }
+}
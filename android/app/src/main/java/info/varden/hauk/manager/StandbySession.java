@@ -0,0 +1,433 @@
+package info.varden.hauk.manager;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.annotation.Nullable;
+
+import java.net.Proxy;
+
+import info.varden.hauk.Constants;
+import info.varden.hauk.http.ConnectionParameters;
+import info.varden.hauk.http.SessionInitiationPacket;
+import info.varden.hauk.http.StopSharingPacket;
+import info.varden.hauk.http.proxy.NameResolverTask;
+import info.varden.hauk.http.security.CertificateValidationPolicy;
+import info.varden.hauk.struct.AdoptabilityPreference;
+import info.varden.hauk.struct.KeyDerivable;
+import info.varden.hauk.struct.Session;
+import info.varden.hauk.struct.Share;
+import info.varden.hauk.struct.ShareMode;
+import info.varden.hauk.struct.Version;
+import info.varden.hauk.system.preferences.PreferenceManager;
+import info.varden.hauk.utils.Log;
+import info.varden.hauk.utils.TimeUtils;
+
+/**
+ * Keeps a single-user session created on the backend ahead of time, using the default duration
+ * and interval from the preferences, so that a share with those settings can start without
+ * waiting for the backend. The link to the session is not shown to anyone until the session is
+ * claimed.
+ * <p>
+ * The standby session is created with a duration that is {@link #LIFETIME} longer than the
+ * default, and is replaced by a new one well before that extra time runs out. When claimed, the
+ * client-side expiry is set to the default duration from the time it was claimed; the location
+ * push service stops the share on the backend when that time is reached, like any other share.
+ *
+ * @author Marius Lindvall
+ */
+final class StandbySession {
+    /**
+     * The number of seconds a standby session is kept on the backend beyond its nominal duration.
+     */
+    private static final int LIFETIME = 15 * 60;
+
+    /**
+     * How often the standby session is replaced with a new one.
+     */
+    private static final long REFRESH_INTERVAL = 10L * 60L * TimeUtils.MILLIS_PER_SECOND;
+
+    /**
+     * How long to wait before trying again if a standby session could not be created.
+     */
+    private static final long RETRY_INTERVAL = 60L * TimeUtils.MILLIS_PER_SECOND;
+
+    private final Context ctx;
+    private final Handler handler;
+
+    /**
+     * The parameters that the standby session currently being created or last created was
+     * requested with, or null if a new standby session should be created on the next update.
+     */
+    @Nullable
+    private SessionInitiationPacket.InitParameters requested = null;
+    private AdoptabilityPreference requestedAdoption = null;
+
+    /**
+     * The session on standby, or null if none is ready.
+     */
+    @Nullable
+    private Share share = null;
+
+    /**
+     * The parameters that a share must be requested with to be able to claim the standby session.
+     */
+    private SessionInitiationPacket.InitParameters initParams = null;
+    private AdoptabilityPreference allowAdoption = null;
+
+    /**
+     * The duration in seconds of shares that can claim the standby session.
+     */
+    private int duration = 0;
+
+    /**
+     * The time on the monotonic clock at which the standby session was created.
+     */
+    private long createdAt = 0L;
+
+    /**
+     * Incremented whenever the standby session is replaced, claimed or discarded, so that
+     * responses to outdated requests can be recognized.
+     */
+    private int generation = 0;
+
+    StandbySession(Context ctx) {
+        this.ctx = ctx;
+        this.handler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * Creates a standby session if none exists, or replaces it if the preferences it was created
+     * from have changed. Discards the standby session if the feature is disabled. Must be called
+     * on the main thread.
+     */
+    void update() {
+        update(false);
+    }
+
+    /**
+     * Creates a new standby session from the current preferences.
+     *
+     * @param force Whether to replace the standby session even if the preferences are unchanged.
+     */
+    private void update(boolean force) {
+        PreferenceManager prefs = new PreferenceManager(this.ctx);
+        int defaultDuration;
+        try {
+            defaultDuration = TimeUtils.timeUnitsToSeconds(prefs.get(Constants.PREF_DURATION), prefs.get(Constants.PREF_DURATION_UNIT));
+        } catch (ArithmeticException ex) {
+            Log.e("Illegal default duration value", ex); //NON-NLS
+            discard();
+            return;
+        }
+        SessionInitiationPacket.InitParameters params = prefs.get(Constants.PREF_STANDBY_SESSION) ? createInitParameters(prefs, defaultDuration) : null;
+        if (params == null) {
+            discard();
+            return;
+        }
+        AdoptabilityPreference adoption = prefs.get(Constants.PREF_ALLOW_ADOPTION) ? AdoptabilityPreference.ALLOW_ADOPTION : AdoptabilityPreference.DISALLOW_ADOPTION;
+        if (!force && this.requested != null && this.requested.isEquivalentTo(params) && this.requestedAdoption == adoption) {
+            Log.v("Standby session is up to date"); //NON-NLS
+            return;
+        }
+        replace(prefs, params, adoption, defaultDuration);
+    }
+
+    /**
+     * Claims the standby session for a share with the given parameters, if it was created for the
+     * same parameters. The standby session is not replaced until {@link #update()} is called.
+     *
+     * @param initParams    The parameters that the share was requested with.
+     * @param allowAdoption Whether or not the share should be adoptable.
+     * @return A share for the standby session, expiring after the requested duration, or null if
+     *         the standby session cannot be used for the share.
+     */
+    @Nullable
+    Share claim(SessionInitiationPacket.InitParameters initParams, AdoptabilityPreference allowAdoption) {
+        if (!canClaim(initParams, allowAdoption)) return null;
+
+        Share standby = this.share;
+        this.share = null;
+        this.requested = null;
+        this.generation++;
+        this.handler.removeCallbacksAndMessages(null);
+
+        Session session = standby.getSession();
+        Log.i("Claiming standby session %s", session); //NON-NLS
+        Session claimed = new Session(
+                session.getServerURL(),
+                session.getConnectionParameters(),
+                session.getMirrors(),
+                session.getBackendVersion(),
+                session.getID(),
+                System.currentTimeMillis() + this.duration * TimeUtils.MILLIS_PER_SECOND,
+                session.getIntervalSeconds(),
+                session.getMinimumDistance(),
+                session.getDerivableE2EKey()
+        );
+        return new Share(claimed, standby.getViewURL(), standby.getID(), standby.getShareMode());
+    }
+
+    /**
+     * Checks whether a share with the given parameters can claim the standby session, without
+     * claiming it.
+     *
+     * @param initParams    The parameters that the share is requested with.
+     * @param allowAdoption Whether or not the share should be adoptable.
+     */
+    boolean canClaim(SessionInitiationPacket.InitParameters initParams, AdoptabilityPreference allowAdoption) {
+        if (this.share == null) return false;
+        if (SystemClock.elapsedRealtime() - this.createdAt > LIFETIME * TimeUtils.MILLIS_PER_SECOND) {
+            // The standby session could not be refreshed in time and may expire on the backend
+            // before the share does.
+            Log.w("Standby session is too old to be claimed"); //NON-NLS
+            return false;
+        }
+        if (!this.initParams.isEquivalentTo(initParams) || this.allowAdoption != allowAdoption) {
+            Log.i("Standby session was created with different parameters; creating a new session"); //NON-NLS
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Stops the standby session on the backend, if any, and stops refreshing it.
+     */
+    void discard() {
+        this.generation++;
+        this.handler.removeCallbacksAndMessages(null);
+        this.requested = null;
+        if (this.share != null) {
+            Log.i("Discarding standby session"); //NON-NLS
+            stop(this.share);
+            this.share = null;
+        }
+    }
+
+    /**
+     * Creates a new standby session, and stops the current one once the new one is ready.
+     */
+    private void replace(PreferenceManager prefs, final SessionInitiationPacket.InitParameters params, final AdoptabilityPreference adoption, final int duration) {
+        final int gen = ++this.generation;
+        this.handler.removeCallbacksAndMessages(null);
+        this.requested = params;
+        this.requestedAdoption = adoption;
+        Log.i("Creating standby session"); //NON-NLS
+
+        final SessionInitiationPacket.InitParameters extended;
+        try {
+            extended = params.extendedBy(LIFETIME);
+        } catch (ArithmeticException ex) {
+            Log.e("Default duration is too long for a standby session", ex); //NON-NLS
+            return;
+        }
+
+        new StandbyResolver(prefs, gen) {
+            @Override
+            protected void onConnectionParametersReady(ConnectionParameters connParams) {
+                if (gen != StandbySession.this.generation) return;
+                extended.setConnectionParameters(connParams);
+                new SessionInitiationPacket(StandbySession.this.ctx, extended, new InitiationHandler(gen, params, adoption, duration), adoption).send();
+            }
+        }.resolve();
+    }
+
+    /**
+     * Schedules the standby session to be replaced before it expires. The replacement uses a new
+     * salt for end-to-end encryption.
+     */
+    private void scheduleRefresh() {
+        this.handler.removeCallbacksAndMessages(null);
+        this.handler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                update(true);
+            }
+        }, REFRESH_INTERVAL);
+    }
+
+    /**
+     * Tries to create the standby session again later, e.g. when the device is back online. Any
+     * older standby session is kept until it is too old to be claimed. May be called from any
+     * thread.
+     *
+     * @param gen The generation of the standby session that could not be created.
+     */
+    private void scheduleRetry(final int gen) {
+        this.handler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                if (gen == StandbySession.this.generation) update(true);
+            }
+        }, RETRY_INTERVAL);
+    }
+
+    private void stop(Share share) {
+        new StopSharingPacket(this.ctx, share) {
+            @Override
+            protected void onSuccess() {
+                Log.v("Stopped old standby session"); //NON-NLS
+            }
+
+            @Override
+            protected void onFailure(Exception ex) {
+                // The session expires on the backend by itself.
+                Log.w("Could not stop old standby session", ex); //NON-NLS
+            }
+        }.send();
+    }
+
+    /**
+     * Reads the default share settings from the preferences the same way as the main activity.
+     *
+     * @return Initialization parameters for a single-user share, or null if sharing is not set up
+     *         or uses a custom link ID, which cannot be claimed ahead of time.
+     */
+    @Nullable
+    private static SessionInitiationPacket.InitParameters createInitParameters(PreferenceManager prefs, int duration) {
+        String server = prefs.get(Constants.PREF_SERVER_ENCRYPTED).trim();
+        String customID = prefs.get(Constants.PREF_CUSTOM_ID).trim();
+        if (server.isEmpty() || !customID.isEmpty()) return null;
+        server = server.endsWith("/") ? server : server + "/";
+
+        String e2ePass = prefs.get(Constants.PREF_ENABLE_E2E) ? prefs.get(Constants.PREF_E2E_PASSWORD) : "";
+        SessionInitiationPacket.InitParameters params = new SessionInitiationPacket.InitParameters(
+                server,
+                prefs.get(Constants.PREF_USERNAME_ENCRYPTED).trim(),
+                prefs.get(Constants.PREF_PASSWORD_ENCRYPTED),
+                duration,
+                prefs.get(Constants.PREF_INTERVAL),
+                prefs.get(Constants.PREF_UPDATE_DISTANCE),
+                customID,
+                e2ePass
+        );
+        params.setMirrors(prefs.get(Constants.PREF_SERVER_MIRRORS));
+        params.setStreaming(prefs.get(Constants.PREF_STREAM_UPDATES));
+        return params;
+    }
+
+    /**
+     * Receives the standby session from the backend.
+     */
+    private final class InitiationHandler implements SessionInitiationPacket.ResponseHandler {
+        private final int gen;
+        private final SessionInitiationPacket.InitParameters params;
+        private final AdoptabilityPreference adoption;
+        private final int duration;
+
+        private InitiationHandler(int gen, SessionInitiationPacket.InitParameters params, AdoptabilityPreference adoption, int duration) {
+            this.gen = gen;
+            this.params = params;
+            this.adoption = adoption;
+            this.duration = duration;
+        }
+
+        @Override
+        public void onSessionInitiated(Share share) {
+            if (this.gen != StandbySession.this.generation) {
+                // The standby session was discarded or replaced while it was being created.
+                stop(share);
+                return;
+            }
+            Log.i("Standby session %s is ready", share.getSession()); //NON-NLS
+            Share old = StandbySession.this.share;
+            StandbySession.this.share = share;
+            StandbySession.this.initParams = this.params;
+            StandbySession.this.allowAdoption = this.adoption;
+            StandbySession.this.duration = this.duration;
+            StandbySession.this.createdAt = SystemClock.elapsedRealtime();
+            if (old != null) stop(old);
+            scheduleRefresh();
+
+            KeyDerivable e2eParams = share.getSession().getDerivableE2EKey();
+            if (e2eParams != null) new KeyDerivationTask(e2eParams).executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        }
+
+        @Override
+        public void onShareModeIncompatible(ShareMode downgradeTo, Version backendVersion) {
+        }
+
+        @Override
+        public void onE2EUnavailable(Version backendVersion) {
+            // A share requested with end-to-end encryption must not be bound to this session.
+            Log.w("Backend does not support end-to-end encryption; not keeping a standby session"); //NON-NLS
+            StandbySession.this.generation++;
+        }
+
+        @Override
+        public void onFailure(Exception ex) {
+            Log.w("Could not create standby session", ex); //NON-NLS
+            scheduleRetry(this.gen);
+        }
+    }
+
+    /**
+     * Resolves the proxy and builds connection parameters the same way as for user-started
+     * shares. Resolution failures are retried later, since nobody is waiting for the standby session.
+     */
+    private abstract class StandbyResolver extends NameResolverTask {
+        private final PreferenceManager prefs;
+        private final int gen;
+
+        private StandbyResolver(PreferenceManager prefs, int gen) {
+            super(prefs);
+            this.prefs = prefs;
+            this.gen = gen;
+        }
+
+        protected abstract void onConnectionParametersReady(ConnectionParameters connParams);
+
+        @Override
+        protected void onResolutionStarted(String hostname) {
+        }
+
+        @Override
+        protected void onHostUnresolved(String hostname) {
+            Log.w("Could not resolve proxy %s for standby session", hostname); //NON-NLS
+            scheduleRetry(this.gen);
+        }
+
+        @Override
+        protected void onSuccess(@Nullable Proxy proxy) {
+            int timeout = this.prefs.get(Constants.PREF_CONNECTION_TIMEOUT) * (int) TimeUtils.MILLIS_PER_SECOND;
+            CertificateValidationPolicy tlsPolicy = this.prefs.get(Constants.PREF_CERTIFICATE_VALIDATION);
+            if (proxy == null) {
+                onConnectionParametersReady(new ConnectionParameters(null, null, timeout, tlsPolicy));
+            } else {
+                onConnectionParametersReady(new ConnectionParameters(proxy.type(), proxy.address(), timeout, tlsPolicy));
+            }
+        }
+
+        @Override
+        public void onFailure(Exception ex) {
+            Log.w("Proxy setup failed for standby session", ex); //NON-NLS
+            scheduleRetry(this.gen);
+        }
+    }
+
+    /**
+     * Derives the end-to-end encryption key of the standby session in the background, so that it
+     * is cached when the session is claimed.
+     */
+    private static final class KeyDerivationTask extends AsyncTask<Void, Void, Void> {
+        private final KeyDerivable e2eParams;
+
+        private KeyDerivationTask(KeyDerivable e2eParams) {
+            this.e2eParams = e2eParams;
+        }
+
+        @Nullable
+        @Override
+        protected Void doInBackground(Void... params) {
+            try {
+                this.e2eParams.deriveSpec();
+            } catch (Exception ex) {
+                Log.e("Could not derive end-to-end encryption key for standby session", ex); //NON-NLS
+            }
+            return null;
+        }
+    }
+}
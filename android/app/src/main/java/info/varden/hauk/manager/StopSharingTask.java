@@ -3,6 +3,8 @@ package info.varden.hauk.manager;
 import android.content.Context;
 import android.content.Intent;
 
+import info.varden.hauk.diagnostics.FlightRecorder;
+import info.varden.hauk.diagnostics.TraceEvent;
 import info.varden.hauk.http.StopSharingPacket;
 import info.varden.hauk.struct.Session;
 import info.varden.hauk.utils.Log;
@@ -86,6 +88,20 @@ public abstract class StopSharingTask implements Runnable {
         return this.canExecute;
     }
 
+    /**
+     * Resets the session manager after the location push service has ended the session by itself,
+     * e.g. on expiry or because the user stopped sharing from the notification. The service takes
+     * care of informing the backend, so no stop packet is sent.
+     */
+    final void onStoppedExternally() {
+        Log.d("Stop sharing task %s was notified of external stop", this); //NON-NLS
+        if (!this.canExecute) return;
+        this.canExecute = false;
+        Log.i("Location push service stopped sharing; cleaning up"); //NON-NLS
+        cleanup();
+        this.callback.onSuccess();
+    }
+
     /**
      * Executes the stop task. When run, this will unregister the location handler, clear Hauk's
      * persistent notification, reset the UI to a fresh state and inform the user that sharing has
@@ -97,6 +113,7 @@ public abstract class StopSharingTask implements Runnable {
         if (!this.canExecute) return;
         Log.i("Executing share stop task"); //NON-NLS
         this.canExecute = false;
+        FlightRecorder.record(TraceEvent.SESSION_STOPPED);
         Log.i("Stopping location push service"); //NON-NLS
         this.ctx.stopService(this.pusher);
 
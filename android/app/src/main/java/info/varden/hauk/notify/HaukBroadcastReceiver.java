@@ -4,9 +4,10 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 
+import java.io.Serializable;
+
 import info.varden.hauk.Constants;
 import info.varden.hauk.utils.Log;
-import info.varden.hauk.utils.ReceiverDataRegistry;
 
 /**
  * A superclass for broadcast receivers, used together with the Receiver class to handle callbacks
@@ -16,7 +17,7 @@ import info.varden.hauk.utils.ReceiverDataRegistry;
  * @author Marius Lindvall
  * @param <T> The type of data this broadcast receiver is capable of processing.
  */
-public abstract class HaukBroadcastReceiver<T> extends BroadcastReceiver {
+public abstract class HaukBroadcastReceiver<T extends Serializable> extends BroadcastReceiver {
     private final String actionID;
 
     /**
@@ -42,11 +43,13 @@ public abstract class HaukBroadcastReceiver<T> extends BroadcastReceiver {
 
     @Override
     public final void onReceive(Context context, Intent intent) {
-        // Retrieve the registry index of the data stored for this receiver, then pass that data on
-        // to the subclass.
-        int index = intent.getIntExtra(Constants.EXTRA_BROADCAST_RECEIVER_REGISTRY_INDEX, -1);
+        // Retrieve the data stored for this receiver, then pass that data on to the subclass.
         //noinspection unchecked
-        T data = (T) ReceiverDataRegistry.retrieve(index, true);
+        T data = (T) intent.getSerializableExtra(Constants.EXTRA_BROADCAST_RECEIVER_DATA);
+        if (data == null) {
+            Log.w("Received broadcast for class %s without any stored data", getClass().getName()); //NON-NLS
+            return;
+        }
         Log.v("Received broadcast for class %s; fetched stored data of type %s; calling handler", getClass().getName(), data.getClass().getName()); //NON-NLS
         handle(context, data);
     }
@@ -4,20 +4,21 @@ import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
 
+import java.io.Serializable;
 import java.lang.reflect.InvocationTargetException;
 
 import info.varden.hauk.Constants;
-import info.varden.hauk.utils.ReceiverDataRegistry;
 
 /**
  * This class is used to create intents for use in notification buttons that can store an object for
- * retrieval by the associated receiver class. The class maintains a registry of objects for each
- * receiver registered; these objects are returned to the receiver when it is called.
+ * retrieval by the associated receiver class. The object is serialized into the intent itself, so
+ * that the receiver can retrieve it even if it runs in a different process than the one that
+ * created the notification.
  *
  * @author Marius Lindvall
  * @param <T> The type of data to be passed to the receiving listener.
  */
-final class Receiver<T> {
+final class Receiver<T extends Serializable> {
     private final Class<? extends HaukBroadcastReceiver<T>> receiver;
     private final Context ctx;
     private final T data;
@@ -52,9 +53,8 @@ final class Receiver<T> {
         // Retrieve the action ID from the broadcast receiver class.
         intent.setAction(this.receiver.getConstructor().newInstance().getActionID());
 
-        // Store the provided data in the registry for later retrieval, and pass the data index to
-        // the intent.
-        intent.putExtra(Constants.EXTRA_BROADCAST_RECEIVER_REGISTRY_INDEX, ReceiverDataRegistry.register(this.data));
+        // Pass the provided data to the receiver through the intent.
+        intent.putExtra(Constants.EXTRA_BROADCAST_RECEIVER_DATA, this.data);
 
         return PendingIntent.getBroadcast(this.ctx, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
     }
@@ -1,6 +1,5 @@
 package info.varden.hauk.notify;
 
-import android.app.Activity;
 import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
@@ -12,17 +11,16 @@ import android.content.Intent;
  */
 final class ReopenIntent {
     private final Context ctx;
-    private final Class<? extends Activity> activity;
 
     /**
-     * Creates an intent that can be used to return to the app when the notification is tapped.
+     * Creates an intent that can be used to return to the app when the notification is tapped. The
+     * app's launcher activity is looked up by the package manager rather than by class, so that the
+     * UI classes do not have to be loaded in the location push service process.
      *
-     * @param ctx      Android application context.
-     * @param activity The class of the activity to return to.
+     * @param ctx Android application context.
      */
-    ReopenIntent(Context ctx, @SuppressWarnings("SameParameterValue") Class <? extends Activity> activity) {
+    ReopenIntent(Context ctx) {
         this.ctx = ctx;
-        this.activity = activity;
     }
 
     /**
@@ -30,7 +28,8 @@ final class ReopenIntent {
      * notification builders.
      */
     PendingIntent toPending() {
-        Intent intent = new Intent(this.ctx, this.activity);
+        Intent intent = this.ctx.getPackageManager().getLaunchIntentForPackage(this.ctx.getPackageName());
+        if (intent == null) intent = new Intent();
         intent.setFlags(Intent.FLAG_ACTIVITY_REORDER_TO_FRONT);
         return PendingIntent.getActivity(this.ctx, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
     }
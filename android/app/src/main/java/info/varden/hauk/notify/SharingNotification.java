@@ -1,14 +1,13 @@
 package info.varden.hauk.notify;
 
+import android.app.PendingIntent;
 import android.content.Context;
 
 import androidx.core.app.NotificationCompat;
 
 import info.varden.hauk.R;
-import info.varden.hauk.manager.StopSharingTask;
 import info.varden.hauk.service.GNSSActiveHandler;
 import info.varden.hauk.struct.Share;
-import info.varden.hauk.ui.MainActivity;
 import info.varden.hauk.utils.Log;
 
 /**
@@ -23,10 +22,9 @@ public final class SharingNotification extends HaukNotification implements GNSSA
     private final Share share;
 
     /**
-     * A task to be executed when sharing stops. In the case of this notification, it is executed if
-     * the user taps the "Stop sharing" button on the notification.
+     * An intent that is sent if the user taps the "Stop sharing" button on the notification.
      */
-    private final StopSharingTask stopSharingTask;
+    private final PendingIntent stopIntent;
 
     /**
      * A string resource representing the title currently displayed in the notification.
@@ -38,17 +36,23 @@ public final class SharingNotification extends HaukNotification implements GNSSA
      */
     private int lastTitle;
 
+    /**
+     * Intent for the "Copy link" button. This is created once rather than every time the
+     * notification is rebuilt.
+     */
+    private PendingIntent copyIntent = null;
+
     /**
      * Creates a persistent notification.
      *
-     * @param ctx             Android application context.
-     * @param share           The share represented by this notification.
-     * @param stopSharingTask A task to run if the user stops sharing their location.
+     * @param ctx        Android application context.
+     * @param share      The share represented by this notification.
+     * @param stopIntent An intent to send if the user stops sharing their location.
      */
-    public SharingNotification(Context ctx, Share share, StopSharingTask stopSharingTask) {
+    public SharingNotification(Context ctx, Share share, PendingIntent stopIntent) {
         super(ctx);
         this.share = share;
-        this.stopSharingTask = stopSharingTask;
+        this.stopIntent = stopIntent;
         this.notifyTitle = R.string.label_status_wait;
         this.lastTitle = R.string.label_status_wait;
     }
@@ -62,9 +66,12 @@ public final class SharingNotification extends HaukNotification implements GNSSA
         builder.setPriority(NotificationCompat.PRIORITY_DEFAULT);
 
         // Add "Copy link" and "Stop sharing" buttons to the notification.
-        builder.addAction(R.drawable.ic_button_copy, getContext().getString(R.string.action_copy), new Receiver<>(getContext(), CopyLinkReceiver.class, this.share.getViewURL()).toPending());
-        builder.addAction(R.drawable.ic_button_stop, getContext().getString(R.string.action_stop), new Receiver<>(getContext(), StopSharingReceiver.class, this.stopSharingTask).toPending());
-        builder.setContentIntent(new ReopenIntent(getContext(), MainActivity.class).toPending());
+        if (this.copyIntent == null) {
+            this.copyIntent = new Receiver<>(getContext(), CopyLinkReceiver.class, this.share.getViewURL()).toPending();
+        }
+        builder.addAction(R.drawable.ic_button_copy, getContext().getString(R.string.action_copy), this.copyIntent);
+        builder.addAction(R.drawable.ic_button_stop, getContext().getString(R.string.action_stop), this.stopIntent);
+        builder.setContentIntent(new ReopenIntent(getContext()).toPending());
 
         builder.setOngoing(true);
     }
@@ -90,6 +97,13 @@ public final class SharingNotification extends HaukNotification implements GNSSA
         push();
     }
 
+    @Override
+    public void onStationary() {
+        this.notifyTitle = R.string.label_status_stationary;
+        this.lastTitle = this.notifyTitle;
+        push();
+    }
+
     @Override
     public void onServerConnectionLost() {
         this.notifyTitle = R.string.label_status_disconnected;
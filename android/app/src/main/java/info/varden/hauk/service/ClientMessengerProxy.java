@@ -0,0 +1,106 @@
+package info.varden.hauk.service;
+
+import android.os.Bundle;
+import android.os.Message;
+import android.os.Messenger;
+import android.os.RemoteException;
+
+import androidx.annotation.Nullable;
+
+import info.varden.hauk.Constants;
+import info.varden.hauk.utils.Log;
+
+/**
+ * Proxy class that forwards GNSS activity events from {@link LocationPushService} to the user
+ * interface that is currently attached to the service. Events are sent as {@link Message}s so that
+ * they can be delivered across process boundaries. If no user interface is attached, events are
+ * dropped.
+ *
+ * @author Marius Lindvall
+ */
+final class ClientMessengerProxy implements GNSSActiveHandler {
+    /**
+     * The messenger of the attached client, or null if no client is attached.
+     */
+    @Nullable
+    private Messenger client = null;
+
+    /**
+     * Attaches a new client. Any previously attached client is told that it has been detached.
+     *
+     * @param client The messenger of the new client.
+     */
+    void attach(Messenger client) {
+        if (this.client != null && !this.client.equals(client)) {
+            Log.i("Detaching previous service client %s", this.client); //NON-NLS
+            send(Message.obtain(null, Constants.SERVICE_MSG_DETACHED));
+        }
+        this.client = client;
+    }
+
+    /**
+     * Informs the attached client that the sharing session has ended.
+     */
+    void onSessionStopped() {
+        send(Message.obtain(null, Constants.SERVICE_MSG_STOPPED));
+    }
+
+    @Override
+    public void onCoarseRebound() {
+        sendStatus(Constants.SERVICE_STATUS_COARSE_REBOUND);
+    }
+
+    @Override
+    public void onCoarseLocationReceived() {
+        sendStatus(Constants.SERVICE_STATUS_COARSE_RECEIVED);
+    }
+
+    @Override
+    public void onAccurateLocationReceived() {
+        sendStatus(Constants.SERVICE_STATUS_ACCURATE_RECEIVED);
+    }
+
+    @Override
+    public void onStationary() {
+        sendStatus(Constants.SERVICE_STATUS_STATIONARY);
+    }
+
+    @Override
+    public void onServerConnectionLost() {
+        sendStatus(Constants.SERVICE_STATUS_CONNECTION_LOST);
+    }
+
+    @Override
+    public void onServerConnectionRestored() {
+        sendStatus(Constants.SERVICE_STATUS_CONNECTION_RESTORED);
+    }
+
+    @Override
+    public void onShareListReceived(String linkFormat, String[] shareIDs) {
+        Message msg = Message.obtain(null, Constants.SERVICE_MSG_SHARE_LIST);
+        Bundle data = new Bundle();
+        data.putString(Constants.EXTRA_LINK_FORMAT, linkFormat);
+        data.putStringArray(Constants.EXTRA_SHARE_IDS, shareIDs);
+        msg.setData(data);
+        send(msg);
+    }
+
+    private void sendStatus(int status) {
+        send(Message.obtain(null, Constants.SERVICE_MSG_STATUS, status, 0));
+    }
+
+    /**
+     * Sends a message to the attached client. If the client has died, it is detached.
+     *
+     * @param msg The message to send.
+     */
+    private void send(Message msg) {
+        if (this.client == null) return;
+        try {
+            this.client.send(msg);
+        } catch (RemoteException ex) {
+            Log.w("Service client %s is gone; detaching it", ex, this.client); //NON-NLS
+            this.client = null;
+        }
+    }
+}
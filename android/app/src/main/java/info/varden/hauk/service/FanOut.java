@@ -0,0 +1,201 @@
+package info.varden.hauk.service;
+
+import android.content.Context;
+import android.location.Location;
+import android.os.SystemClock;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import info.varden.hauk.diagnostics.FlightRecorder;
+import info.varden.hauk.diagnostics.TraceEvent;
+import info.varden.hauk.http.LocationUpdatePacket;
+import info.varden.hauk.http.RequestQueue;
+import info.varden.hauk.http.ServerException;
+import info.varden.hauk.http.StopSharingPacket;
+import info.varden.hauk.http.parameter.LocationProvider;
+import info.varden.hauk.struct.Session;
+import info.varden.hauk.struct.Version;
+import info.varden.hauk.utils.Log;
+
+/**
+ * Sends the location updates of the session that the location push service is running for to the
+ * sessions on additional backends as well. Each destination has its own request queue, so that a
+ * backend that is slow or unreachable only delays its own updates, and not those of the main
+ * session or of the other destinations. Must only be used on the main thread.
+ *
+ * @author Marius Lindvall
+ */
+final class FanOut {
+    /**
+     * The number of updates to a destination that may be waiting for a response before further
+     * updates to it are dropped. Only the latest location matters to viewers, so a backend that
+     * cannot keep up should not build up a backlog of outdated ones.
+     */
+    private static final int MAX_PENDING = 2;
+
+    private final Context ctx;
+    private final List<Destination> destinations = new ArrayList<>();
+
+    /**
+     * The index given to the next destination that is added, used to tell destinations apart in
+     * the flight recorder.
+     */
+    private int nextIndex = 0;
+
+    FanOut(Context ctx) {
+        this.ctx = ctx;
+    }
+
+    /**
+     * Starts sending location updates to the given session, unless they are already sent to it.
+     *
+     * @param session A session on an additional backend.
+     */
+    void add(Session session) {
+        if (find(session) != null) {
+            Log.v("Already sharing to destination %s", session); //NON-NLS
+            return;
+        }
+        Destination dest = new Destination(this.nextIndex++, session);
+        Log.i("Adding destination %s as #%s", session, dest.index); //NON-NLS
+        this.destinations.add(dest);
+    }
+
+    /**
+     * Stops sending location updates to the given session. The session itself is not stopped.
+     *
+     * @param session A session that was previously added.
+     */
+    void remove(Session session) {
+        Destination dest = find(session);
+        if (dest == null) return;
+        Log.i("Removing destination #%s", dest.index); //NON-NLS
+        this.destinations.remove(dest);
+    }
+
+    /**
+     * Sends a location update to all destinations.
+     *
+     * @param location  The location to send.
+     * @param accuracy  The provider of the location.
+     * @param time      The UTC time of the location in milliseconds.
+     * @param precision The number of decimal places to send in the compact point format, or -1.
+     */
+    void post(Location location, LocationProvider accuracy, long time, int precision) {
+        for (Destination dest : this.destinations) {
+            if (dest.pending >= MAX_PENDING) {
+                Log.w("Destination #%s has %s updates waiting for a response; dropping update", dest.index, dest.pending); //NON-NLS
+                FlightRecorder.record(TraceEvent.FAN_OUT_DROPPED, dest.index, 0, dest.pending, 0.0F, 0.0F);
+                continue;
+            }
+            dest.pending++;
+            new UpdatePacket(dest, location, accuracy, time, precision).send(dest.queue);
+        }
+    }
+
+    /**
+     * Stops the sessions on all destinations on their backends and removes the destinations.
+     * Calling this again does nothing until destinations are added.
+     */
+    void stop() {
+        for (Iterator<Destination> it = this.destinations.iterator(); it.hasNext();) {
+            final Destination dest = it.next();
+            it.remove();
+            Log.i("Stopping session on destination #%s", dest.index); //NON-NLS
+            new StopSharingPacket(this.ctx, dest.session) {
+                @Override
+                protected void onSuccess() {
+                    Log.i("Stopped session on destination #%s", dest.index); //NON-NLS
+                }
+
+                @Override
+                protected void onFailure(Exception ex) {
+                    // The session expires on the backend by itself.
+                    Log.w("Could not stop session on destination #%s", ex, dest.index); //NON-NLS
+                }
+            }.send(dest.queue);
+        }
+    }
+
+    @Nullable
+    private Destination find(Session session) {
+        for (Destination dest : this.destinations) {
+            if (dest.session.getServerURL().equals(session.getServerURL()) && dest.session.getID().equals(session.getID())) {
+                return dest;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A session on an additional backend, and the state of the updates sent to it.
+     */
+    private static final class Destination {
+        private final int index;
+        private final Session session;
+        private final RequestQueue queue = new RequestQueue();
+
+        /**
+         * The number of updates sent to this destination that have not received a response yet.
+         */
+        private int pending = 0;
+
+        /**
+         * The version of the last share list received from this destination, so that the backend
+         * does not have to send the list with every response.
+         */
+        @Nullable
+        private String shareListVersion = null;
+
+        private Destination(int index, Session session) {
+            this.index = index;
+            this.session = session;
+        }
+    }
+
+    /**
+     * A location update to a destination. Interval suggestions and share lists from destinations
+     * are ignored; the update interval and the shares shown to the user follow the main session.
+     */
+    private final class UpdatePacket extends LocationUpdatePacket {
+        private final Destination dest;
+        private final long queuedAt;
+
+        private UpdatePacket(Destination dest, Location location, LocationProvider accuracy, long time, int precision) {
+            super(FanOut.this.ctx, dest.session, location, accuracy, time, precision);
+            setShareListVersion(dest.shareListVersion);
+            this.dest = dest;
+            this.queuedAt = SystemClock.elapsedRealtime();
+        }
+
+        @Override
+        protected void onShareListReceived(String linkFormat, String[] shares) {
+        }
+
+        @Override
+        protected void onShareListVersionReceived(String version) {
+            this.dest.shareListVersion = version;
+        }
+
+        @Override
+        protected void onSuccess(String[] data, Version backendVersion) throws ServerException {
+            super.onSuccess(data, backendVersion);
+            this.dest.pending--;
+            long latency = SystemClock.elapsedRealtime() - this.queuedAt;
+            Log.v("Destination #%s accepted location update after %s ms", this.dest.index, latency); //NON-NLS
+            FlightRecorder.record(TraceEvent.FAN_OUT_ACKED, this.dest.index, 0, latency, 0.0F, 0.0F);
+        }
+
+        @Override
+        protected void onFailure(Exception ex) {
+            this.dest.pending--;
+            long latency = SystemClock.elapsedRealtime() - this.queuedAt;
+            Log.w("Failed to push location update to destination #%s after %s ms", ex, this.dest.index, latency); //NON-NLS
+            FlightRecorder.record(TraceEvent.FAN_OUT_FAILED, this.dest.index, 0, latency, 0.0F, 0.0F);
+        }
+    }
+}
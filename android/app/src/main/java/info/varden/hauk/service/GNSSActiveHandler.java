@@ -21,6 +21,12 @@ public interface GNSSActiveHandler {
      */
     void onAccurateLocationReceived();
 
+    /**
+     * Called when the user has stopped moving and GNSS has been turned off until motion is
+     * detected. Location data may be received again afterwards.
+     */
+    void onStationary();
+
     /**
      * Called if the backend server is unreachable.
      */
@@ -0,0 +1,292 @@
+package info.varden.hauk.service;
+
+import android.content.Context;
+import android.location.Location;
+import android.location.LocationManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+
+import androidx.annotation.Nullable;
+
+import info.varden.hauk.Constants;
+import info.varden.hauk.http.LocationUpdatePacket;
+import info.varden.hauk.http.ServerException;
+import info.varden.hauk.http.parameter.LocationProvider;
+import info.varden.hauk.location.CompactPointEncoder;
+import info.varden.hauk.location.PointBuffer;
+import info.varden.hauk.struct.Session;
+import info.varden.hauk.struct.Version;
+import info.varden.hauk.utils.Log;
+import info.varden.hauk.utils.TimeUtils;
+
+/**
+ * <p>Shares location at sub-second intervals for high-frequency mode. GNSS fixes are received on
+ * a dedicated background thread and stored in a {@link PointBuffer} without allocating, and the
+ * buffered points are uploaded in batches once per session interval. A batch that fails to upload
+ * is sent again as part of the next batch, so that no points are lost while the backend is briefly
+ * unreachable.</p>
+ *
+ * <p>Batches require backend support and cannot be end-to-end encrypted; see
+ * {@link #isSupported(Session)}.</p>
+ *
+ * @author Marius Lindvall
+ */
+final class HighFrequencyUploader extends LocationListenerBase {
+    /**
+     * The duration of points that can be buffered while the backend is unreachable, in
+     * milliseconds. Older points are dropped.
+     */
+    private static final long BUFFER_DURATION = 5L * 60L * TimeUtils.MILLIS_PER_SECOND;
+
+    /**
+     * The largest number of points sent in one batch.
+     */
+    private static final int MAX_BATCH_POINTS = 600;
+
+    /**
+     * Callbacks from the uploader to the location push service. All callbacks are invoked on the
+     * main thread.
+     */
+    interface Callback {
+        /**
+         * Called when the first fix has been received.
+         */
+        void onFirstFix();
+
+        /**
+         * Called when a batch was uploaded.
+         */
+        void onBatchSent();
+
+        /**
+         * Called when the list of shares the session is part of was received with a batch.
+         *
+         * @param linkFormat The format of share links, as given to
+         *                   {@link LocationUpdatePacket#onShareListReceived(String, String[])}.
+         * @param shares     The shares the session is part of.
+         */
+        void onShareListReceived(String linkFormat, String[] shares);
+
+        /**
+         * Called when a batch failed to upload.
+         *
+         * @param ex The reason for the failure.
+         */
+        void onBatchFailed(Exception ex);
+    }
+
+    private final Context ctx;
+    private final Session session;
+    private final long sampleInterval;
+    private final Callback callback;
+
+    private final HandlerThread thread;
+    private final Handler worker;
+    private final Handler main = new Handler(Looper.getMainLooper());
+    private final PointBuffer buffer;
+
+    /**
+     * Reused for encoding batches. Only touched on the worker thread.
+     */
+    private final StringBuilder batch = new StringBuilder();
+
+    /**
+     * Encodes batches in the compact point format, or null if batches are sent as text.
+     */
+    @Nullable
+    private final CompactPointEncoder compactBatch;
+
+    private final Runnable flushTask = new FlushTask();
+    private final Runnable acknowledgeTask = new AcknowledgeTask();
+    private final Runnable retryTask = new RetryTask();
+    private final Runnable firstFixTask = new FirstFixTask();
+    private boolean hasFix = false;
+
+    /**
+     * The version of the last share list received. Batches are created on the worker thread and
+     * their responses handled on the main thread.
+     */
+    @Nullable
+    private volatile String shareListVersion = null;
+
+    /**
+     * Creates an uploader and starts its background thread.
+     *
+     * @param ctx            Android application context.
+     * @param session        The session to upload points to.
+     * @param sampleInterval The interval in milliseconds at which fixes are requested.
+     * @param precision      The number of decimal places of coordinates sent in the compact point
+     *                       format, or -1 to send batches as text.
+     * @param callback       Receives events from the uploader on the main thread.
+     */
+    HighFrequencyUploader(Context ctx, Session session, long sampleInterval, int precision, Callback callback) {
+        this.ctx = ctx;
+        this.session = session;
+        this.sampleInterval = sampleInterval;
+        this.callback = callback;
+        this.compactBatch = precision >= 0 && LocationUpdatePacket.supportsCompactPoints(session) ? new CompactPointEncoder(precision) : null;
+        this.buffer = new PointBuffer((int) Math.max(MAX_BATCH_POINTS, BUFFER_DURATION / Math.max(1L, sampleInterval)));
+        this.thread = new HandlerThread("HighFrequencyUploader", Process.THREAD_PRIORITY_FOREGROUND); //NON-NLS
+        this.thread.start();
+        this.worker = new Handler(this.thread.getLooper());
+    }
+
+    /**
+     * Whether or not high-frequency mode can be used for a session. Requires a backend that
+     * accepts batches, and a session without end-to-end encryption.
+     */
+    static boolean isSupported(Session session) {
+        return session.getBackendVersion().isAtLeast(Constants.VERSION_COMPAT_BATCH_POST) && session.getDerivableE2EKey() == null;
+    }
+
+    @Override
+    boolean request(LocationSource source) throws SecurityException {
+        Log.i("Requesting high-frequency location updates every %s ms", this.sampleInterval); //NON-NLS
+        if (!source.requestUpdates(LocationManager.GPS_PROVIDER, this.sampleInterval, 0.0F, this, this.thread.getLooper())) return false;
+        this.worker.postDelayed(this.flushTask, this.session.getIntervalMillis());
+        return true;
+    }
+
+    /**
+     * Stops uploading and ends the background thread. Location updates must be removed from this
+     * listener separately. Points that have not been uploaded yet are discarded.
+     */
+    void stop() {
+        Log.i("Stopping high-frequency uploader with %s", this.buffer); //NON-NLS
+        this.worker.removeCallbacksAndMessages(null);
+        this.thread.quitSafely();
+    }
+
+    /**
+     * Buffers a fix. Runs on the worker thread and does not allocate.
+     */
+    @Override
+    public void onLocationChanged(Location location) {
+        long age = SystemClock.elapsedRealtime() - location.getElapsedRealtimeNanos() / TimeUtils.NANOS_PER_MILLI;
+        this.buffer.add(
+                System.currentTimeMillis() - age,
+                location.getLatitude(),
+                location.getLongitude(),
+                location.hasAccuracy() ? location.getAccuracy() : -1.0F,
+                location.hasSpeed() ? location.getSpeed() : -1.0F
+        );
+        if (!this.hasFix) {
+            this.hasFix = true;
+            this.main.post(this.firstFixTask);
+        }
+    }
+
+    /**
+     * Uploads the buffered points that are not already in flight.
+     */
+    private void flush() {
+        final LocationUpdatePacket packet;
+        if (this.compactBatch != null) {
+            this.compactBatch.reset();
+            if (this.buffer.drain(this.compactBatch, MAX_BATCH_POINTS) == 0) return;
+            Log.v("Uploading compact batch %s", this.compactBatch); //NON-NLS
+            packet = new BatchPacket(this.compactBatch);
+        } else {
+            this.batch.setLength(0);
+            int count = this.buffer.drain(this.batch, MAX_BATCH_POINTS);
+            if (count == 0) return;
+            Log.v("Uploading batch of %s points", count); //NON-NLS
+            packet = new BatchPacket(this.buffer.getBaseTime(), this.batch);
+        }
+        // Packets are sent from the main thread, which also receives the response.
+        this.main.post(new Runnable() {
+            @Override
+            public void run() {
+                packet.send();
+            }
+        });
+    }
+
+    @Override
+    public String toString() {
+        return "HighFrequencyUploader{"
+                + "sampleInterval=" + this.sampleInterval
+                + ",buffer=" + this.buffer
+                + "}";
+    }
+
+    /**
+     * Uploads points once per session interval.
+     */
+    private final class FlushTask implements Runnable {
+        @Override
+        public void run() {
+            flush();
+            HighFrequencyUploader.this.worker.postDelayed(this, HighFrequencyUploader.this.session.getIntervalMillis());
+        }
+    }
+
+    /**
+     * Removes acknowledged points from the buffer, and uploads the next batch straight away if
+     * points have backed up while the backend was unreachable.
+     */
+    private final class AcknowledgeTask implements Runnable {
+        @Override
+        public void run() {
+            PointBuffer buffer = HighFrequencyUploader.this.buffer;
+            buffer.acknowledge();
+            if (buffer.size() >= MAX_BATCH_POINTS) flush();
+        }
+    }
+
+    /**
+     * Returns failed points to the buffer so that they are sent in the next batch.
+     */
+    private final class RetryTask implements Runnable {
+        @Override
+        public void run() {
+            HighFrequencyUploader.this.buffer.retry();
+        }
+    }
+
+    private final class FirstFixTask implements Runnable {
+        @Override
+        public void run() {
+            HighFrequencyUploader.this.callback.onFirstFix();
+        }
+    }
+
+    private final class BatchPacket extends LocationUpdatePacket {
+        private BatchPacket(long baseTime, CharSequence points) {
+            super(HighFrequencyUploader.this.ctx, HighFrequencyUploader.this.session, baseTime, points);
+            setShareListVersion(HighFrequencyUploader.this.shareListVersion);
+        }
+
+        private BatchPacket(CompactPointEncoder points) {
+            super(HighFrequencyUploader.this.ctx, HighFrequencyUploader.this.session, LocationProvider.FINE, points);
+            setShareListVersion(HighFrequencyUploader.this.shareListVersion);
+        }
+
+        @Override
+        protected void onSuccess(String[] data, Version backendVersion) throws ServerException {
+            // Throws if the backend rejected the batch, in which case it is retried.
+            super.onSuccess(data, backendVersion);
+            HighFrequencyUploader.this.worker.post(HighFrequencyUploader.this.acknowledgeTask);
+            HighFrequencyUploader.this.callback.onBatchSent();
+        }
+
+        @Override
+        protected void onShareListReceived(String linkFormat, String[] shares) {
+            HighFrequencyUploader.this.callback.onShareListReceived(linkFormat, shares);
+        }
+
+        @Override
+        protected void onShareListVersionReceived(String version) {
+            HighFrequencyUploader.this.shareListVersion = version;
+        }
+
+        @Override
+        protected void onFailure(Exception ex) {
+            HighFrequencyUploader.this.worker.post(HighFrequencyUploader.this.retryTask);
+            HighFrequencyUploader.this.callback.onBatchFailed(ex);
+        }
+    }
+}
@@ -1,9 +1,10 @@
 package info.varden.hauk.service;
 
 import android.location.LocationListener;
-import android.location.LocationManager;
 import android.os.Bundle;
 
+import info.varden.hauk.diagnostics.FlightRecorder;
+import info.varden.hauk.diagnostics.TraceEvent;
 import info.varden.hauk.utils.Log;
 
 /**
@@ -21,19 +22,21 @@ abstract class LocationListenerBase implements LocationListener {
     @Override
     public final void onProviderEnabled(String provider) {
         Log.i("Location provider %s was enabled", provider); //NON-NLS
+        FlightRecorder.record(TraceEvent.PROVIDER_ENABLED, FlightRecorder.providerCode(provider), 0, 0L, 0.0F, 0.0F);
     }
 
     @Override
     public final void onProviderDisabled(String provider) {
         Log.w("Location provider %s was disabled", provider); //NON-NLS
+        FlightRecorder.record(TraceEvent.PROVIDER_DISABLED, FlightRecorder.providerCode(provider), 0, 0L, 0.0F, 0.0F);
     }
 
     /**
-     * Request location updates from the given location manager.
+     * Request location updates from the given location source.
      *
-     * @param manager The location manager to request location updates from.
+     * @param source The location source to request location updates from.
      * @return true if successful, false otherwise.
      * @throws SecurityException if location permission has not been granted.
      */
-    abstract boolean request(LocationManager manager) throws SecurityException;
+    abstract boolean request(LocationSource source) throws SecurityException;
 }
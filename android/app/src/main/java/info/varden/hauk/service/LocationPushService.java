@@ -1,23 +1,52 @@
 package info.varden.hauk.service;
 
 import android.Manifest;
+import android.app.ActivityManager;
+import android.app.PendingIntent;
 import android.app.Service;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.location.Location;
 import android.location.LocationManager;
+import android.os.Debug;
 import android.os.Handler;
 import android.os.IBinder;
+import android.os.Message;
+import android.os.Messenger;
+import android.os.SystemClock;
 
 import androidx.annotation.Nullable;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import info.varden.hauk.BuildConfig;
 import info.varden.hauk.Constants;
+import info.varden.hauk.caching.ResumableSessions;
+import info.varden.hauk.caching.ResumeHandler;
+import info.varden.hauk.diagnostics.FlightRecorder;
+import info.varden.hauk.diagnostics.TraceEvent;
 import info.varden.hauk.http.LocationUpdatePacket;
 import info.varden.hauk.http.ServerException;
+import info.varden.hauk.http.StopSharingPacket;
+import info.varden.hauk.http.WebSocketTransport;
 import info.varden.hauk.http.parameter.LocationProvider;
-import info.varden.hauk.manager.StopSharingTask;
+import info.varden.hauk.location.AdaptiveIntervalController;
+import info.varden.hauk.location.DeadReckoningPredictor;
+import info.varden.hauk.location.DutyCycle;
+import info.varden.hauk.location.Fix;
+import info.varden.hauk.location.FixFilter;
+import info.varden.hauk.location.FixFilterChain;
+import info.varden.hauk.location.KalmanSmoother;
+import info.varden.hauk.location.ProviderArbiter;
+import info.varden.hauk.location.QualityFilter;
+import info.varden.hauk.location.StationaryDetector;
 import info.varden.hauk.notify.SharingNotification;
+import info.varden.hauk.struct.KeyDerivable;
+import info.varden.hauk.struct.Session;
 import info.varden.hauk.struct.Share;
 import info.varden.hauk.struct.Version;
 import info.varden.hauk.system.preferences.PreferenceManager;
@@ -26,23 +55,112 @@ import info.varden.hauk.utils.ReceiverDataRegistry;
 import info.varden.hauk.utils.TimeUtils;
 
 /**
- * This class is a location listener that POSTs all location updates to Hauk as it receives them. It
- * creates a persistent notification when it launches in order to stay running while the app is
- * minimized.
+ * <p>This class is a location listener that POSTs all location updates to Hauk as it receives them.
+ * It creates a persistent notification when it launches in order to stay running while the app is
+ * minimized.</p>
+ *
+ * <p>The service only communicates with the rest of the app through intents and its
+ * {@link Messenger} interface, so that it can run in a separate process (see
+ * {@link RemoteLocationPushService}). It is started with the share to push locations for as a
+ * serialized intent extra, and ends the session by itself on expiry or when the user taps the stop
+ * button on the notification. User interfaces bind to the service and send
+ * {@link Constants#SERVICE_MSG_ATTACH} to receive status updates.</p>
+ *
+ * <p>The service is sticky. If Android kills its process while a session is active, the service
+ * is restarted without an intent and resumes the session by itself from the data saved by
+ * {@link ResumableSessions}, including the end-to-end encryption key and the last location fix
+ * sent to the backend, without involving the user interface.</p>
+ *
+ * <p>Locations can be sent to sessions on additional backends at the same time, see
+ * {@link #ACTION_ADD_DESTINATION}. These are sent through separate request queues, so that a slow
+ * backend does not delay the others.</p>
  *
  * @author Marius Lindvall
  */
-public final class LocationPushService extends Service {
+public class LocationPushService extends Service {
 
     @SuppressWarnings("HardCodedStringLiteral")
     public static final String ACTION_ID = "info.varden.hauk.LOCATION_SERVICE";
 
+    @SuppressWarnings("HardCodedStringLiteral")
+    private static final String ACTION_STOP = "info.varden.hauk.STOP_LOCATION_SERVICE";
+
+    /**
+     * Starts sending locations to the session given in {@link Constants#EXTRA_SESSION} as well, for
+     * sharing to several backends at once.
+     */
+    @SuppressWarnings("HardCodedStringLiteral")
+    public static final String ACTION_ADD_DESTINATION = "info.varden.hauk.ADD_LOCATION_DESTINATION";
+
+    /**
+     * Stops sending locations to the session given in {@link Constants#EXTRA_SESSION}.
+     */
+    @SuppressWarnings("HardCodedStringLiteral")
+    public static final String ACTION_REMOVE_DESTINATION = "info.varden.hauk.REMOVE_LOCATION_DESTINATION";
+
+    /**
+     * How often the memory usage of the service process is written to the flight recorder.
+     */
+    private static final long MEMORY_SAMPLE_INTERVAL = 5L * 60L * TimeUtils.MILLIS_PER_SECOND;
+
+    /**
+     * How often the last location is sent again while stationary, so that the share is not shown
+     * as offline on the map. This is below the backend's default offline timeout of 30 seconds.
+     */
+    private static final long STATIONARY_HEARTBEAT_INTERVAL = 20L * TimeUtils.MILLIS_PER_SECOND;
+
+    /**
+     * The accuracy radius in meters a fix must meet to end a duty-cycled acquisition window early.
+     */
+    private static final float DUTY_CYCLE_ACCURACY = 20.0F;
+
+    /**
+     * The shortest maximum age of fixes accepted by the location filter, in milliseconds. The
+     * maximum age is otherwise two update intervals.
+     */
+    private static final long MIN_MAX_FIX_AGE = 30L * TimeUtils.MILLIS_PER_SECOND;
+
+    /**
+     * When skipping predictable posts, a fix is always posted after this many update intervals.
+     */
+    private static final int PREDICTION_REFRESH_INTERVALS = 10;
+
+    // Reasons for entering stationary mode, as recorded in the flight recorder.
+    private static final int STATIONARY_BY_FIXES = 1;
+    private static final int STATIONARY_BY_SIGNAL_LOSS = 2;
+
+    /**
+     * The oldest last known location, in milliseconds, that is sent when sharing starts.
+     */
+    private static final long MAX_LAST_KNOWN_AGE = 10L * 60L * TimeUtils.MILLIS_PER_SECOND;
+
+    /**
+     * The largest accuracy radius, in meters, of a last known location that is sent when sharing
+     * starts.
+     */
+    private static final float MAX_LAST_KNOWN_ACCURACY = 2000.0F;
+
+    /**
+     * How often the provider arbiter checks whether GNSS has stopped delivering fixes.
+     */
+    private static final long PROVIDER_WATCHDOG_INTERVAL = 5L * TimeUtils.MILLIS_PER_SECOND;
+
     /**
      * A task that should be run when locations start registering. Used further upstream to change a
      * label on the main activity.
      */
     private GNSSActiveHandler gnssActiveTask;
 
+    /**
+     * Forwards status updates to the user interface attached to this service, if any.
+     */
+    private final ClientMessengerProxy client = new ClientMessengerProxy();
+
+    /**
+     * The messenger that user interfaces use to communicate with this service.
+     */
+    private final Messenger messenger = new Messenger(new IncomingHandler());
+
     /**
      * An indicator of whether or the upstream GNSS handler's {@code onCoarseLocationReceived()}
      * callback has been run. This call back should only run once to inform the upstream of the
@@ -65,9 +183,9 @@ public final class LocationPushService extends Service {
     private Share share;
 
     /**
-     * Android location manager instance.
+     * The source of location updates; the Android location manager unless a trace is replayed.
      */
-    private LocationManager locMan;
+    private LocationSource locations;
 
     /**
      * The service's location listener for fine (GNSS, high-accuracy) location updates.
@@ -80,9 +198,7 @@ public final class LocationPushService extends Service {
     private CoarseLocationListener listenCoarse;
 
     /**
-     * The handler that has scheduled the stop task. This is needed so that the callback can be
-     * cancelled if the service is relaunched because of a {@link info.varden.hauk.ui.MainActivity}
-     * reset/recreation.
+     * A handler for the session expiry and memory sampling tasks.
      */
     private Handler handler;
 
@@ -92,46 +208,376 @@ public final class LocationPushService extends Service {
      */
     private boolean connected = true;
 
+    /**
+     * Whether or not the service is in the process of stopping the session.
+     */
+    private boolean stopping = false;
+
+    /**
+     * The time, in {@link SystemClock#elapsedRealtime()}, at which the service started waiting for
+     * an accurate location fix. Used to measure GNSS acquisition time.
+     */
+    private long acquisitionStart;
+
+    /**
+     * Saved session state, used to persist the last sent location fix.
+     */
+    private ResumableSessions resumable;
+
+    /**
+     * The last location fix sent before the service was restarted, if the session was restored
+     * after the process was killed. Used to continue minimum distance filtering.
+     */
+    @Nullable
+    private Location restoredFix = null;
+
+    /**
+     * Adapts the location update interval to the user's movement, or null if the update interval is
+     * fixed.
+     */
+    @Nullable
+    private AdaptiveIntervalController intervalController = null;
+
+    /**
+     * Detects when the user stops moving, or null if stationary mode is disabled or the device has
+     * no sensor that can detect when the user starts moving again.
+     */
+    @Nullable
+    private StationaryDetector stationaryDetector = null;
+
+    /**
+     * Watches for motion while in stationary mode. Non-null if {@link #stationaryDetector} is.
+     */
+    @Nullable
+    private MotionWatcher motionWatcher = null;
+
+    /**
+     * The time, in {@link SystemClock#elapsedRealtime()}, at which stationary mode was entered, or 0
+     * if not in stationary mode. GNSS is turned off while in stationary mode.
+     */
+    private long stationarySince = 0L;
+
+    /**
+     * Re-sends the last location while in stationary mode.
+     */
+    private final Runnable heartbeatTask = new StationaryHeartbeatTask();
+
+    /**
+     * Decides when the coarse location provider is bound alongside GNSS.
+     */
+    private ProviderArbiter arbiter;
+    private final Runnable providerWatchdogTask = new ProviderWatchdogTask();
+
+    /**
+     * The number of decimal places of coordinates sent in the compact point format, or -1 to send
+     * coordinates as decimal strings. Read from the preferences when sharing starts.
+     */
+    private int compactPrecision = -1;
+
+    /**
+     * The interval suggested by the backend because nobody is viewing the share, or 0 if none.
+     */
+    private long suggestedInterval = 0L;
+
+    /**
+     * The longest suggested interval to honor, or 0 to ignore suggestions from the backend.
+     */
+    private long maxSuggestedInterval = 0L;
+
+    /**
+     * The version of the last share list received from the backend, or null if none.
+     */
+    @Nullable
+    private String shareListVersion = null;
+
+    /**
+     * The last share list received from the backend, so that it can be given to user interfaces
+     * that attach later, or null if none.
+     */
+    @Nullable
+    private String[] shareIDs = null;
+    @Nullable
+    private String shareLinkFormat = null;
+
+    /**
+     * Uploads batches of sub-second fixes in high-frequency mode, or null if not in that mode.
+     */
+    @Nullable
+    private HighFrequencyUploader highFrequency = null;
+
+    /**
+     * Receives fixes requested by other apps, or null if passive locations are disabled.
+     */
+    @Nullable
+    private PassiveLocationListener listenPassive = null;
+
+    /**
+     * Rejects and smooths fixes before they are used, or null if location filtering is disabled.
+     */
+    @Nullable
+    private FixFilter fixFilter = null;
+
+    /**
+     * Holds the fix currently being filtered. Reused so that filtering does not allocate per fix.
+     */
+    private final Fix filteredFix = new Fix();
+
+    /**
+     * Predicts the position the frontend extrapolates between posts, or null if predictable posts
+     * should not be skipped.
+     */
+    @Nullable
+    private DeadReckoningPredictor predictor = null;
+
+    /**
+     * The last location that was sent to the backend, and the provider it came from.
+     */
+    @Nullable
+    private Location lastPosted = null;
+    private LocationProvider lastPostedAccuracy = LocationProvider.FINE;
+
+    /**
+     * The sessions on additional backends that locations are sent to as well.
+     */
+    private FanOut fanOut;
+
+    /**
+     * Finds the location push service if it is currently running, in any process.
+     *
+     * @param ctx Android application context.
+     * @return The component of the running service, or null if it is not running.
+     */
+    @Nullable
+    public static ComponentName findRunningService(Context ctx) {
+        ActivityManager am = (ActivityManager) ctx.getSystemService(Context.ACTIVITY_SERVICE);
+        if (am == null) return null;
+        // getRunningServices() is deprecated for third-party use, but still returns the caller's
+        // own services, which is all that is needed here.
+        @SuppressWarnings("deprecation")
+        List<ActivityManager.RunningServiceInfo> services = am.getRunningServices(Integer.MAX_VALUE);
+        for (ActivityManager.RunningServiceInfo info : services) {
+            String name = info.service.getClassName();
+            if (info.started && (name.equals(LocationPushService.class.getName()) || name.equals(RemoteLocationPushService.class.getName()))) {
+                return info.service;
+            }
+        }
+        return null;
+    }
+
     @Override
     public void onCreate() {
         Log.d("Fetching location service"); //NON-NLS
-        this.locMan = (LocationManager) getSystemService(Context.LOCATION_SERVICE);
+        this.locations = new ManagerLocationSource((LocationManager) getSystemService(Context.LOCATION_SERVICE));
+        this.handler = new Handler();
+        this.resumable = new ResumableSessions(this);
+        this.fanOut = new FanOut(this);
+        FlightRecorder.open(this);
     }
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         Log.i("Location push service %s was started, flags=%s, startId=%s", this, flags, startId); //NON-NLS
+        FlightRecorder.record(TraceEvent.SERVICE_STARTED, flags, 0, startId, 0.0F, 0.0F);
+
+        if (intent == null) {
+            // The service was restarted by Android after its process was killed.
+            return restoreSession(startId) ? START_STICKY : START_NOT_STICKY;
+        }
 
-        // A task that should be run when sharing ends, either automatically or by user request.
-        StopSharingTask stopTask = (StopSharingTask) ReceiverDataRegistry.retrieve(intent.getIntExtra(Constants.EXTRA_STOP_TASK, -1));
-        this.share = (Share) ReceiverDataRegistry.retrieve(intent.getIntExtra(Constants.EXTRA_SHARE, -1));
-        GNSSActiveHandler parentHandler = (GNSSActiveHandler) ReceiverDataRegistry.retrieve(intent.getIntExtra(Constants.EXTRA_GNSS_ACTIVE_TASK, -1));
-        this.handler = (Handler) ReceiverDataRegistry.retrieve(intent.getIntExtra(Constants.EXTRA_HANDLER, -1));
+        if (ACTION_STOP.equals(intent.getAction())) {
+            Log.i("User requested to stop sharing via notification"); //NON-NLS
+            stopSharing();
+            return START_NOT_STICKY;
+        }
 
-        Log.d("Pusher %s was given extras stopTask=%s, share=%s, parentHandler=%s, handler=%s", this, stopTask, this.share, parentHandler, this.handler); //NON-NLS
+        if (ACTION_ADD_DESTINATION.equals(intent.getAction()) || ACTION_REMOVE_DESTINATION.equals(intent.getAction())) {
+            Session destination = readSession(intent);
+            if (this.share == null || this.stopping || destination == null) {
+                Log.w("Pusher %s is not sharing; ignoring destination change", this); //NON-NLS
+                if (this.share == null) stopSelf(startId);
+                return this.share == null ? START_NOT_STICKY : START_STICKY;
+            }
+            if (ACTION_ADD_DESTINATION.equals(intent.getAction())) {
+                this.fanOut.add(destination);
+            } else {
+                this.fanOut.remove(destination);
+            }
+            return START_STICKY;
+        }
+
+        if (this.share != null) {
+            Log.w("Pusher %s is already running for share %s; ignoring start request", this, this.share); //NON-NLS
+            return START_STICKY;
+        }
+
+        this.share = (Share) intent.getSerializableExtra(Constants.EXTRA_SHARE);
+        Session session = readSession(intent);
+        Log.d("Pusher %s was given share=%s, session=%s", this, this.share, session); //NON-NLS
+        if (this.share == null || session == null) {
+            Log.e("Pusher %s was started without a share - sharing aborted", this); //NON-NLS
+            this.share = null;
+            stopSelf(startId);
+            return START_NOT_STICKY;
+        }
+        this.share.setSession(session);
+        this.resumable.clearLastSentFix();
+
+        // Debug builds can replay a recorded trace instead of using location services, for
+        // deterministic testing and benchmarking.
+        if (BuildConfig.DEBUG && intent.hasExtra(Constants.EXTRA_REPLAY_TRACE)) {
+            String trace = intent.getStringExtra(Constants.EXTRA_REPLAY_TRACE);
+            double timeScale = intent.getDoubleExtra(Constants.EXTRA_REPLAY_TIME_SCALE, 1.0);
+            try {
+                this.locations = ReplayLocationSource.fromFile(new File(trace), timeScale);
+                Log.i("Replaying trace %s at %sx speed instead of using location services", trace, timeScale); //NON-NLS
+            } catch (IOException ex) {
+                Log.e("Could not read trace %s for replay", ex, trace); //NON-NLS
+            }
+        }
+        return startSharing() ? START_STICKY : START_NOT_STICKY;
+    }
+
+    /**
+     * Reads the session from a start intent. If the session's end-to-end encryption key was
+     * already derived in this process, the derived key is picked up from the
+     * {@link ReceiverDataRegistry}, since it is not serialized with the session.
+     *
+     * @param intent The intent the service was started with.
+     * @return The session, or null if the intent does not contain one.
+     */
+    @Nullable
+    private static Session readSession(Intent intent) {
+        Session session = (Session) intent.getSerializableExtra(Constants.EXTRA_SESSION);
+        int index = intent.getIntExtra(Constants.EXTRA_E2E_KEY, -1);
+        if (session != null && session.getDerivableE2EKey() != null && index >= 0) {
+            KeyDerivable derived = ReceiverDataRegistry.retrieve(index, KeyDerivable.class);
+            if (derived != null) session.getDerivableE2EKey().copyDerivedSpec(derived);
+        }
+        return session;
+    }
+
+    /**
+     * Resumes the session saved in {@link ResumableSessions} after the service was restarted by
+     * Android.
+     *
+     * @param startId The start ID of the restart request.
+     * @return true if the session was resumed, false if there was nothing to resume.
+     */
+    private boolean restoreSession(int startId) {
+        Log.i("Pusher %s was restarted; restoring session from resumption data", this); //NON-NLS
+        this.resumable.tryResumeShare(new ResumeHandler() {
+            @Override
+            public void onSharesFetched(Context ctx, Session session, Share[] shares) {
+                // All shares belong to the same session; the first is shown in the notification.
+                shares[0].setSession(session);
+                LocationPushService.this.share = shares[0];
+            }
+        });
+        if (this.share == null) {
+            Log.w("No active session to restore; stopping service"); //NON-NLS
+            stopSelf(startId);
+            return false;
+        }
+
+        this.restoredFix = this.resumable.getLastSentFix();
+        long lastSent = this.resumable.getLastSentTime();
+        long gap = lastSent > 0L ? System.currentTimeMillis() - lastSent : -1L;
+        for (Share destination : this.resumable.getFanOutShares()) {
+            this.fanOut.add(destination.getSession());
+        }
+        Log.i("Restored share %s, last location sent %s ms ago", this.share, gap); //NON-NLS
+        FlightRecorder.record(TraceEvent.SESSION_RECOVERED, 0, 0, gap, 0.0F, 0.0F);
+        return startSharing();
+    }
 
+    /**
+     * Starts the foreground notification, the session expiry timer and the location listeners for
+     * the current share.
+     *
+     * @return true if sharing started, false if location permission has been revoked or an error
+     *         occurred.
+     */
+    private boolean startSharing() {
         try {
             // Even though we previously requested location permission, we still have to check for
             // it when we actually use the location API.
             if (checkSelfPermission(Manifest.permission.ACCESS_FINE_LOCATION) == PackageManager.PERMISSION_GRANTED) {
                 Log.v("Location permission has been granted"); //NON-NLS
-                stopTask.setSession(this.share.getSession());
 
                 // Create a persistent notification for Hauk. This notification does have some
                 // buttons that let the user interact with Hauk while in the background, but the
                 // real reason we need a notification is so that Android does not kill our app while
                 // it is in the background. Having an active notification stops this from happening.
-                SharingNotification notify = new SharingNotification(this, this.share, stopTask);
+                Intent stopIntent = new Intent(this, getClass());
+                stopIntent.setAction(ACTION_STOP);
+                SharingNotification notify = new SharingNotification(this, this.share, PendingIntent.getService(this, 0, stopIntent, PendingIntent.FLAG_UPDATE_CURRENT));
                 startForeground(notify.getID(), notify.create());
 
-                // Send status changes both to the parent handler and the notification.
-                this.gnssActiveTask = new MultiTargetGNSSHandlerProxy(parentHandler, notify);
+                // Send status changes both to the attached user interface and the notification.
+                this.gnssActiveTask = new MultiTargetGNSSHandlerProxy(this.client, notify);
+
+                // The session is stopped by the service itself when it expires.
+                long expireIn = this.share.getSession().getRemainingMillis();
+                Log.i("Scheduling session expiry in %s milliseconds", expireIn); //NON-NLS
+                this.handler.postDelayed(new ExpiryTask(), expireIn);
+                this.handler.post(new MemorySampleTask());
+
+                // Status changes pushed over a streaming connection are handled like those in
+                // responses to location updates.
+                WebSocketTransport.setStatusListener(this.share.getSession(), new StreamStatusListener());
+
+                PreferenceManager prefs = new PreferenceManager(this);
+                if (prefs.get(Constants.PREF_COMPACT_POINTS)) {
+                    this.compactPrecision = prefs.get(Constants.PREF_COMPACT_PRECISION);
+                }
+                if (prefs.get(Constants.PREF_THROTTLE_UNWATCHED)) {
+                    this.maxSuggestedInterval = prefs.get(Constants.PREF_UNWATCHED_MAX_INTERVAL) * TimeUtils.MILLIS_PER_SECOND;
+                }
+                if (prefs.get(Constants.PREF_HIGH_FREQUENCY)) {
+                    if (HighFrequencyUploader.isSupported(this.share.getSession())) {
+                        return startHighFrequency(prefs.get(Constants.PREF_HIGH_FREQUENCY_INTERVAL));
+                    }
+                    Log.w("High-frequency mode requires backend %s and no end-to-end encryption; using normal interval", Constants.VERSION_COMPAT_BATCH_POST); //NON-NLS
+                }
+
+                // The user-set interval is the lower bound for the adaptive interval.
+                if (prefs.get(Constants.PREF_ADAPTIVE_INTERVAL)) {
+                    long maxInterval = prefs.get(Constants.PREF_MAX_INTERVAL) * TimeUtils.MILLIS_PER_SECOND;
+                    this.intervalController = new AdaptiveIntervalController(this.share.getSession().getIntervalMillis(), maxInterval);
+                }
+                if (prefs.get(Constants.PREF_FILTER_LOCATIONS)) {
+                    long maxAge = Math.max(MIN_MAX_FIX_AGE, 2L * this.share.getSession().getIntervalMillis());
+                    this.fixFilter = new FixFilterChain(new QualityFilter(maxAge), new KalmanSmoother());
+                }
+                if (prefs.get(Constants.PREF_PREDICTIVE_POSTING)) {
+                    this.predictor = new DeadReckoningPredictor(prefs.get(Constants.PREF_PREDICTION_TOLERANCE), PREDICTION_REFRESH_INTERVALS);
+                }
+                if (prefs.get(Constants.PREF_STATIONARY_MODE)) {
+                    MotionWatcher watcher = new MotionWatcher(this);
+                    if (watcher.isAvailable()) {
+                        this.motionWatcher = watcher;
+                        this.stationaryDetector = new StationaryDetector();
+                    } else {
+                        Log.w("No motion sensors available; stationary mode disabled"); //NON-NLS
+                    }
+                }
 
                 // Create and bind location listeners.
-                this.listenCoarse = new CoarseLocationListener();
+                this.acquisitionStart = SystemClock.elapsedRealtime();
+                this.arbiter = new ProviderArbiter(this.acquisitionStart, prefs.get(Constants.PREF_NO_GNSS_FALLBACK) * TimeUtils.MILLIS_PER_SECOND);
+                bindCoarse();
                 this.listenFine = new FineLocationListener();
-                if (!this.listenCoarse.request(this.locMan)) this.listenCoarse = null;
-                if (!this.listenFine.request(this.locMan)) this.listenFine = null;
+                if (!this.listenFine.request(this.locations)) this.listenFine = null;
+                this.handler.postDelayed(this.providerWatchdogTask, PROVIDER_WATCHDOG_INTERVAL);
+                if (prefs.get(Constants.PREF_PASSIVE_LOCATIONS)) {
+                    this.listenPassive = new PassiveLocationListener();
+                    if (!this.listenPassive.request(this.locations)) this.listenPassive = null;
+                }
+
+                // Show viewers where the user was last seen while waiting for the first fix. Not
+                // needed when resuming, since viewers already have the location sent before.
+                if (this.restoredFix == null && prefs.get(Constants.PREF_INSTANT_FIRST_FIX)) postLastKnownLocation();
+                return true;
 
             } else {
                 Log.e("Location permission that was granted earlier has been rejected - sharing aborted"); //NON-NLS
@@ -139,18 +585,17 @@ public final class LocationPushService extends Service {
         } catch (Exception e) {
             Log.e("An exception occurred when starting the location push service", e); //NON-NLS
         }
-        return START_NOT_STICKY;
+        return false;
     }
 
     @Override
     public void onDestroy() {
-        if (this.listenCoarse != null) {
-            Log.i("Service %s destroyed; removing updates from coarse location provider", this); //NON-NLS
-            this.locMan.removeUpdates(this.listenCoarse);
-        }
-        Log.i("Service %s destroyed; removing updates from fine location provider", this); //NON-NLS
-        this.listenFine.onStopped();
-        this.locMan.removeUpdates(this.listenFine);
+        removeUpdates();
+
+        // The service may be destroyed without the share being stopped, e.g. when the user
+        // interface stops it directly. Neither does anything if the share was already stopped.
+        this.fanOut.stop();
+        if (this.share != null) WebSocketTransport.disconnect(this.share.getSession());
 
         Log.i("Removing callbacks from handler %s", this.handler); //NON-NLS
         this.handler.removeCallbacksAndMessages(null);
@@ -158,10 +603,297 @@ public final class LocationPushService extends Service {
 
         Log.i("Stopping foreground service"); //NON-NLS
         stopForeground(true);
+        FlightRecorder.record(TraceEvent.SERVICE_STOPPED);
 
         super.onDestroy();
     }
 
+    /**
+     * Unregisters the location listeners from the location manager and stops stationary mode.
+     */
+    private void removeUpdates() {
+        if (this.motionWatcher != null) this.motionWatcher.disarm();
+        this.handler.removeCallbacks(this.heartbeatTask);
+        this.handler.removeCallbacks(this.providerWatchdogTask);
+        this.stationarySince = 0L;
+        if (this.listenCoarse != null) {
+            Log.i("Service %s stopping; removing updates from coarse location provider", this); //NON-NLS
+            unbindCoarse();
+        }
+        if (this.listenPassive != null) {
+            this.locations.removeUpdates(this.listenPassive);
+            this.listenPassive = null;
+        }
+        if (this.highFrequency != null) {
+            this.locations.removeUpdates(this.highFrequency);
+            this.highFrequency.stop();
+            this.highFrequency = null;
+        }
+        if (this.listenFine != null) {
+            Log.i("Service %s stopping; removing updates from fine location provider", this); //NON-NLS
+            this.listenFine.onStopped();
+            this.locations.removeUpdates(this.listenFine);
+            this.listenFine = null;
+        }
+    }
+
+    /**
+     * Ends the sharing session. The backend is told to remove the session, the attached user
+     * interface is informed, and the service stops itself once the backend has responded.
+     */
+    private void stopSharing() {
+        if (this.share == null) {
+            Log.w("Session is null, cannot stop"); //NON-NLS
+            stopSelf();
+            return;
+        }
+        if (this.stopping) return;
+        this.stopping = true;
+
+        FlightRecorder.record(TraceEvent.SESSION_STOPPED);
+        removeUpdates();
+        this.fanOut.stop();
+        WebSocketTransport.disconnect(this.share.getSession());
+        this.resumable.clearResumableSession();
+        this.resumable.clearLastSentFix();
+        this.client.onSessionStopped();
+
+        Log.i("Sending stop packet to server for session %s", this.share.getSession()); //NON-NLS
+        new StopSharingPacket(this, this.share.getSession()) {
+            @Override
+            public void onSuccess() {
+                Log.i("Successfully stopped session"); //NON-NLS
+                stopSelf();
+            }
+
+            @Override
+            protected void onFailure(Exception ex) {
+                Log.e("Failed to stop session", ex); //NON-NLS
+                stopSelf();
+            }
+        }.send();
+    }
+
+    /**
+     * Returns the interval at which location updates should currently be requested.
+     */
+    private long getUpdateIntervalMillis() {
+        long interval = this.intervalController != null ? this.intervalController.getIntervalMillis() : this.share.getSession().getIntervalMillis();
+        // Back off while nobody is viewing the share, but not beyond the user's bound.
+        if (this.suggestedInterval > interval) interval = Math.max(interval, Math.min(this.suggestedInterval, this.maxSuggestedInterval));
+        return interval;
+    }
+
+    /**
+     * Requests location updates again after the update interval has changed.
+     */
+    private void onUpdateIntervalChanged() {
+        if (this.stationarySince != 0L) return;
+        if (this.listenCoarse != null) this.listenCoarse.request(this.locations);
+        // While duty cycling, the new interval is used when the next window is scheduled.
+        if (this.listenFine != null && !this.listenFine.isDutyCycling()) this.listenFine.request(this.locations);
+    }
+
+    /**
+     * Called when the backend has accepted a location update, with the interval it suggests. The
+     * suggestion is honored if enabled in settings, up to the maximum interval set by the user.
+     *
+     * @param intervalMillis The suggested interval in milliseconds, or 0 to use the normal
+     *                       interval.
+     */
+    private void onIntervalSuggested(long intervalMillis) {
+        if (this.maxSuggestedInterval <= 0L || intervalMillis == this.suggestedInterval) return;
+        long before = getUpdateIntervalMillis();
+        this.suggestedInterval = intervalMillis;
+        long after = getUpdateIntervalMillis();
+        if (after == before) return;
+        if (intervalMillis > 0L) {
+            Log.i("Nobody is viewing the share; backing off to an interval of %s ms", after); //NON-NLS
+        } else {
+            Log.i("The share is being viewed; returning to an interval of %s ms", after); //NON-NLS
+        }
+        FlightRecorder.record(TraceEvent.INTERVAL_SUGGESTED, intervalMillis > 0L ? 1 : 0, 0, after, 0.0F, 0.0F);
+        onUpdateIntervalChanged();
+    }
+
+    /**
+     * Feeds a location fix to the adaptive interval controller, if enabled, and requests location
+     * updates again if the interval changed. Called for every fix, including those that are not
+     * posted because of the minimum distance setting.
+     *
+     * @param location The location received from the device's location services.
+     */
+    private void adaptInterval(Location location) {
+        if (this.intervalController == null) return;
+        float accuracy = location.hasAccuracy() ? location.getAccuracy() : Float.MAX_VALUE;
+        if (this.intervalController.onFix(location.getTime(), location.getLatitude(), location.getLongitude(), accuracy, location.hasSpeed(), location.getSpeed())) {
+            long interval = this.intervalController.getIntervalMillis();
+            Log.i("Changing location update interval to %s ms using %s", interval, this.intervalController); //NON-NLS
+            FlightRecorder.record(TraceEvent.INTERVAL_CHANGED, FlightRecorder.providerCode(location.getProvider()), 0, interval, this.intervalController.getSpeedEstimate(), 0.0F);
+            onUpdateIntervalChanged();
+        }
+    }
+
+    /**
+     * Turns off GNSS because the user is standing still, and starts watching for motion instead.
+     * While stationary, the last location is sent periodically as a heartbeat.
+     *
+     * @param reason The reason for entering stationary mode, e.g. {@link #STATIONARY_BY_FIXES}.
+     */
+    private void enterStationaryMode(int reason) {
+        if (this.stationarySince != 0L || this.motionWatcher == null) return;
+        if (!this.motionWatcher.arm(new MotionWatcher.Callback() {
+            @Override
+            public void onMotion(int source) {
+                exitStationaryMode(source);
+            }
+        })) return;
+
+        Log.i("User is stationary; turning off location providers until motion is detected"); //NON-NLS
+        this.stationarySince = SystemClock.elapsedRealtime();
+        FlightRecorder.record(TraceEvent.STATIONARY_ENTERED, reason, 0, 0L, 0.0F, 0.0F);
+        this.handler.removeCallbacks(this.providerWatchdogTask);
+        unbindCoarse();
+        if (this.listenFine != null) {
+            // The listener is kept so that it can be registered again on motion.
+            this.listenFine.onStopped();
+            this.locations.removeUpdates(this.listenFine);
+        }
+        this.handler.postDelayed(this.heartbeatTask, getHeartbeatIntervalMillis());
+        this.gnssActiveTask.onStationary();
+    }
+
+    /**
+     * Turns GNSS back on after motion has been detected in stationary mode. The coarse provider is
+     * bound as well to get a location quickly while waiting for a GNSS fix.
+     *
+     * @param source The sensor that detected the motion.
+     */
+    private void exitStationaryMode(int source) {
+        if (this.stationarySince == 0L || this.stopping) return;
+        long duration = SystemClock.elapsedRealtime() - this.stationarySince;
+        Log.i("Motion detected after %s ms stationary; turning location providers back on", duration); //NON-NLS
+        FlightRecorder.record(TraceEvent.STATIONARY_EXITED, source, 0, duration, 0.0F, 0.0F);
+        this.stationarySince = 0L;
+        this.handler.removeCallbacks(this.heartbeatTask);
+        if (this.stationaryDetector != null) this.stationaryDetector.reset();
+
+        this.acquisitionStart = SystemClock.elapsedRealtime();
+        this.hasRunCoarseTask = false;
+        this.hasRunAccurateTask = false;
+        this.arbiter.restart(this.acquisitionStart);
+        bindCoarse();
+        if (this.listenFine != null) this.listenFine.request(this.locations);
+        this.handler.postDelayed(this.providerWatchdogTask, PROVIDER_WATCHDOG_INTERVAL);
+    }
+
+    /**
+     * Sends the most recent location known to any provider, if it is recent and accurate enough.
+     * It is sent as a coarse location with its original timestamp, so that viewers show it as
+     * approximate, and as outdated if it is older than their offline timeout. It is replaced by the
+     * first live location, and is not used for distance filtering or dead reckoning.
+     */
+    private void postLastKnownLocation() {
+        Location best = null;
+        for (String provider : new String[] {LocationManager.GPS_PROVIDER, LocationManager.NETWORK_PROVIDER, LocationManager.PASSIVE_PROVIDER}) {
+            Location location = this.locations.getLastKnownLocation(provider);
+            if (location == null || !location.hasAccuracy() || location.getAccuracy() > MAX_LAST_KNOWN_ACCURACY) continue;
+            if (best == null || location.getElapsedRealtimeNanos() > best.getElapsedRealtimeNanos()) best = location;
+        }
+        if (best == null) {
+            Log.i("No accurate last known location to send"); //NON-NLS
+            return;
+        }
+        long age = SystemClock.elapsedRealtime() - best.getElapsedRealtimeNanos() / TimeUtils.NANOS_PER_MILLI;
+        if (age > MAX_LAST_KNOWN_AGE) {
+            Log.i("Last known location is %s ms old; not sending it", age); //NON-NLS
+            return;
+        }
+        Log.i("Sending last known location from %s, %s ms old", best.getProvider(), age); //NON-NLS
+        FlightRecorder.record(TraceEvent.FIX_LAST_KNOWN, FlightRecorder.providerCode(best.getProvider()), 0, age, best.getAccuracy(), 0.0F);
+        // Timestamp the location by its age on the monotonic clock, since the wall clock time of
+        // the fix may come from a different time source.
+        long time = System.currentTimeMillis() - age;
+        new LocationUpdatePacketImpl(best, LocationProvider.COARSE, time).send();
+        this.fanOut.post(best, LocationProvider.COARSE, time, this.compactPrecision);
+    }
+
+    /**
+     * Binds the coarse location provider, unless it is already bound.
+     */
+    private void bindCoarse() {
+        if (this.listenCoarse != null) return;
+        this.listenCoarse = new CoarseLocationListener();
+        if (!this.listenCoarse.request(this.locations)) this.listenCoarse = null;
+    }
+
+    /**
+     * Unbinds the coarse location provider, if bound.
+     */
+    private void unbindCoarse() {
+        if (this.listenCoarse == null) return;
+        this.locations.removeUpdates(this.listenCoarse);
+        this.listenCoarse = null;
+    }
+
+    /**
+     * Binds or unbinds the coarse location provider after the provider arbiter has switched
+     * between GNSS and the coarse provider.
+     */
+    private void onProviderStateChanged() {
+        long now = SystemClock.elapsedRealtime();
+        float rate = this.arbiter.getSwitchesPerHour(now);
+        if (this.arbiter.wantsCoarse()) {
+            // Rebind the coarse location listener while we wait for the fine listener to become
+            // functional again.
+            Log.w("Location fix lost or degraded. Rebinding coarse location provider; %s", this.arbiter); //NON-NLS
+            FlightRecorder.record(TraceEvent.PROVIDER_FALLBACK, this.arbiter.getSwitchCount(), 0, 0L, rate, this.arbiter.getFineQuality());
+            this.acquisitionStart = now;
+            this.gnssActiveTask.onCoarseRebound();
+            this.hasRunCoarseTask = false;
+            this.hasRunAccurateTask = false;
+            bindCoarse();
+        } else {
+            // Unregister the coarse location listener, since we are now receiving accurate
+            // location data.
+            Log.i("Accurate location found; removing updates from coarse location provider; %s", this.arbiter); //NON-NLS
+            if (this.arbiter.getSwitchCount() > 0) {
+                FlightRecorder.record(TraceEvent.PROVIDER_RESTORED, this.arbiter.getSwitchCount(), 0, 0L, rate, this.arbiter.getFineQuality());
+            }
+            unbindCoarse();
+        }
+    }
+
+    /**
+     * Returns the interval at which the last location is re-sent while stationary.
+     */
+    private long getHeartbeatIntervalMillis() {
+        return Math.max(STATIONARY_HEARTBEAT_INTERVAL, this.share.getSession().getIntervalMillis());
+    }
+
+    /**
+     * Passes a fix through the location filter, if enabled. The position and accuracy of the fix
+     * are replaced with the smoothed values.
+     *
+     * @param location The fix to filter.
+     * @param coarse   Whether the fix is from the coarse location provider.
+     * @return true if the fix should be used, false if it was rejected.
+     */
+    private boolean filterFix(Location location, boolean coarse) {
+        if (this.fixFilter == null) return true;
+        long elapsed = location.getElapsedRealtimeNanos() / TimeUtils.NANOS_PER_MILLI;
+        long age = SystemClock.elapsedRealtime() - elapsed;
+        this.filteredFix.set(coarse, location.getTime(), elapsed, age, location.getLatitude(), location.getLongitude(), location.hasAccuracy() ? location.getAccuracy() : Float.MAX_VALUE);
+        if (!this.fixFilter.process(this.filteredFix)) {
+            FlightRecorder.record(TraceEvent.FIX_REJECTED, this.filteredFix.getRejection(), 0, age, location.getAccuracy(), 0.0F);
+            return false;
+        }
+        location.setLatitude(this.filteredFix.getLatitude());
+        location.setLongitude(this.filteredFix.getLongitude());
+        if (location.hasAccuracy()) location.setAccuracy(this.filteredFix.getAccuracy());
+        return true;
+    }
+
     /**
      * Called when either the coarse or the fine location provider has received a location update.
      * Pushes the location update to the session backend.
@@ -170,13 +902,196 @@ public final class LocationPushService extends Service {
      */
     private void onLocationChanged(Location location, LocationProvider accuracy) {
         Log.v("Sending location update packet"); //NON-NLS
+        this.lastPosted = location;
+        this.lastPostedAccuracy = accuracy;
+        if (this.predictor != null) {
+            this.predictor.onPosted(System.currentTimeMillis(), location.getLatitude(), location.getLongitude(), location.hasSpeed() ? location.getSpeed() : 0.0F);
+        }
         new LocationUpdatePacketImpl(location, accuracy).send();
+        this.fanOut.post(location, accuracy, System.currentTimeMillis(), this.compactPrecision);
+    }
+
+    /**
+     * Called when the list of shares the session is part of was received from the backend, which
+     * is only the case when it has changed if the backend supports share list versions.
+     *
+     * @param linkFormat The format of share links.
+     * @param shares     The IDs of the shares.
+     */
+    private void onShareListReceived(String linkFormat, String[] shares) {
+        Log.v("Received list of %s shares from server", shares.length); //NON-NLS
+        this.shareLinkFormat = linkFormat;
+        this.shareIDs = shares;
+        this.gnssActiveTask.onShareListReceived(linkFormat, shares);
+    }
+
+    /**
+     * Called when a location update was received by the backend.
+     */
+    private void onServerReachable() {
+        // Check if connection was lost previously, and notify upstream if that's the case.
+        if (!this.connected) {
+            this.connected = true;
+            Log.i("Connection to the backend was restored."); //NON-NLS
+            FlightRecorder.record(TraceEvent.CONNECTIVITY_RESTORED);
+            this.gnssActiveTask.onServerConnectionRestored();
+        }
+    }
+
+    /**
+     * Called when a location update could not be sent to the backend.
+     */
+    private void onServerUnreachable() {
+        // Notify upstream about connectivity loss.
+        if (this.connected) {
+            this.connected = false;
+            Log.i("Connection to the backend was lost."); //NON-NLS
+            FlightRecorder.record(TraceEvent.CONNECTIVITY_LOST);
+            this.gnssActiveTask.onServerConnectionLost();
+        }
+    }
+
+    /**
+     * Starts high-frequency mode, where GNSS fixes are requested at sub-second intervals and
+     * uploaded in batches. The adaptive and power saving features are not used in this mode.
+     *
+     * @param interval The interval in milliseconds at which to request fixes.
+     * @return true if location updates were requested.
+     */
+    private boolean startHighFrequency(long interval) {
+        Log.i("Starting high-frequency sharing every %s ms", interval); //NON-NLS
+        this.highFrequency = new HighFrequencyUploader(this, this.share.getSession(), interval, this.compactPrecision, new HighFrequencyUploader.Callback() {
+            @Override
+            public void onFirstFix() {
+                if (LocationPushService.this.hasRunAccurateTask) return;
+                LocationPushService.this.hasRunAccurateTask = true;
+                long acquisitionTime = SystemClock.elapsedRealtime() - LocationPushService.this.acquisitionStart;
+                FlightRecorder.record(TraceEvent.GNSS_ACQUIRED, 0, 0, acquisitionTime, 0.0F, 0.0F);
+                LocationPushService.this.gnssActiveTask.onAccurateLocationReceived();
+            }
+
+            @Override
+            public void onBatchSent() {
+                onServerReachable();
+            }
+
+            @Override
+            public void onShareListReceived(String linkFormat, String[] shares) {
+                LocationPushService.this.onShareListReceived(linkFormat, shares);
+            }
+
+            @Override
+            public void onBatchFailed(Exception ex) {
+                Log.w("Failed to push location batch to server", ex); //NON-NLS
+                onServerUnreachable();
+            }
+        });
+        this.acquisitionStart = SystemClock.elapsedRealtime();
+        if (this.highFrequency.request(this.locations)) return true;
+        this.highFrequency.stop();
+        this.highFrequency = null;
+        return false;
     }
 
     @Nullable
     @Override
     public IBinder onBind(Intent intent) {
-        return null;
+        Log.i("Service %s was bound by intent %s", this, intent); //NON-NLS
+        return this.messenger.getBinder();
+    }
+
+    /**
+     * Handles messages sent by user interfaces bound to this service.
+     */
+    private final class IncomingHandler extends Handler {
+        @Override
+        public void handleMessage(Message msg) {
+            if (msg.what == Constants.SERVICE_MSG_ATTACH) {
+                LocationPushService svc = LocationPushService.this;
+                Log.i("Attaching service %s to client %s", svc, msg.replyTo); //NON-NLS
+                FlightRecorder.record(TraceEvent.SESSION_REATTACHED);
+                svc.client.attach(msg.replyTo);
+
+                // Bring the new client up to date with the current status.
+                if (svc.stationarySince != 0L) {
+                    svc.client.onStationary();
+                } else if (svc.hasRunAccurateTask) {
+                    svc.client.onAccurateLocationReceived();
+                } else if (svc.hasRunCoarseTask) {
+                    svc.client.onCoarseLocationReceived();
+                }
+                if (!svc.connected) svc.client.onServerConnectionLost();
+                // The backend only sends the share list when it changes.
+                if (svc.shareIDs != null) svc.client.onShareListReceived(svc.shareLinkFormat, svc.shareIDs);
+            } else {
+                super.handleMessage(msg);
+            }
+        }
+    }
+
+    /**
+     * Stops the session when it expires.
+     */
+    private final class ExpiryTask implements Runnable {
+        @Override
+        public void run() {
+            Log.i("Session has expired"); //NON-NLS
+            stopSharing();
+        }
+    }
+
+    /**
+     * Re-sends the last location while stationary, so that viewers can see that the share is still
+     * alive without turning GNSS on.
+     */
+    private final class StationaryHeartbeatTask implements Runnable {
+        @Override
+        public void run() {
+            LocationPushService svc = LocationPushService.this;
+            if (svc.lastPosted != null) {
+                Log.v("Sending stationary heartbeat"); //NON-NLS
+                svc.new LocationUpdatePacketImpl(svc.lastPosted, svc.lastPostedAccuracy).send();
+                svc.fanOut.post(svc.lastPosted, svc.lastPostedAccuracy, System.currentTimeMillis(), svc.compactPrecision);
+            }
+            svc.handler.postDelayed(this, svc.getHeartbeatIntervalMillis());
+        }
+    }
+
+    /**
+     * Periodically records the memory usage of the process running this service, so that the
+     * footprint of the separate process mode can be compared to running in the main app process.
+     */
+    private final class MemorySampleTask implements Runnable {
+        @Override
+        public void run() {
+            boolean separate = LocationPushService.this instanceof RemoteLocationPushService;
+            FlightRecorder.record(TraceEvent.MEMORY_SAMPLE, separate ? 1 : 0, 0, Debug.getPss(), 0.0F, 0.0F);
+            LocationPushService.this.handler.postDelayed(this, MEMORY_SAMPLE_INTERVAL);
+        }
+    }
+
+    /**
+     * Periodically checks whether GNSS has stopped delivering fixes, and if so, falls back to the
+     * coarse location provider.
+     */
+    private final class ProviderWatchdogTask implements Runnable {
+        @Override
+        public void run() {
+            long now = SystemClock.elapsedRealtime();
+            long interval = getUpdateIntervalMillis();
+            if (LocationPushService.this.arbiter.isFineLost(now, interval)) {
+                // If the signal was lost while standing still, e.g. after walking into a building,
+                // report the user as stationary rather than searching for a location.
+                StationaryDetector detector = LocationPushService.this.stationaryDetector;
+                if (detector != null && detector.isSettling()) {
+                    Log.i("Location fix lost while standing still. Entering stationary mode."); //NON-NLS
+                    enterStationaryMode(STATIONARY_BY_SIGNAL_LOSS);
+                    if (LocationPushService.this.stationarySince != 0L) return;
+                }
+                if (LocationPushService.this.arbiter.tick(now, interval)) onProviderStateChanged();
+            }
+            LocationPushService.this.handler.postDelayed(this, PROVIDER_WATCHDOG_INTERVAL);
+        }
     }
 
     /**
@@ -185,6 +1100,15 @@ public final class LocationPushService extends Service {
     private final class CoarseLocationListener extends LocationListenerBase {
         @Override
         public void onLocationChanged(Location location) {
+            FlightRecorder.record(TraceEvent.FIX_RECEIVED, FlightRecorder.providerCode(location.getProvider()), 0, location.getTime(), location.getAccuracy(), location.getSpeed());
+            if (!LocationPushService.this.filterFix(location, true)) return;
+            long now = SystemClock.elapsedRealtime();
+            ProviderArbiter arbiter = LocationPushService.this.arbiter;
+            arbiter.onFix(true, now, location.hasAccuracy() ? location.getAccuracy() : Float.MAX_VALUE);
+            if (!arbiter.shouldUseCoarse(now, LocationPushService.this.getUpdateIntervalMillis())) {
+                Log.v("Ignoring coarse location in favor of recent fine location; %s", arbiter); //NON-NLS
+                return;
+            }
             if (!LocationPushService.this.hasRunCoarseTask) {
                 // Notify the main activity that coarse GPS data is now being received,
                 // such that the UI can be updated.
@@ -192,24 +1116,42 @@ public final class LocationPushService extends Service {
                 LocationPushService.this.gnssActiveTask.onCoarseLocationReceived();
             }
             Log.v("Location was received on coarse location provider"); //NON-NLS
+            LocationPushService.this.adaptInterval(location);
             LocationPushService.this.onLocationChanged(location, LocationProvider.COARSE);
         }
 
         @Override
-        boolean request(LocationManager manager) throws SecurityException {
+        boolean request(LocationSource source) throws SecurityException {
             Log.i("Requesting location updates from device location services"); //NON-NLS
-            try {
-                manager.requestLocationUpdates(
-                        LocationManager.NETWORK_PROVIDER,
-                        LocationPushService.this.share.getSession().getIntervalMillis(),
-                        LocationPushService.this.share.getSession().getMinimumDistance(),
-                        this
-                );
-                return true;
-            } catch (IllegalArgumentException ex) {
-                Log.w("Coarse location provider does not exist!", ex); //NON-NLS
-                return false;
-            }
+            return source.requestUpdates(
+                    LocationManager.NETWORK_PROVIDER,
+                    LocationPushService.this.getUpdateIntervalMillis(),
+                    LocationPushService.this.share.getSession().getMinimumDistance(),
+                    this
+            );
+        }
+    }
+
+    /**
+     * Passive location provider implementation. Receives fixes that other apps have requested,
+     * which cost nothing extra to use.
+     */
+    private final class PassiveLocationListener extends LocationListenerBase {
+        @Override
+        public void onLocationChanged(Location location) {
+            FlightRecorder.record(TraceEvent.FIX_RECEIVED, FlightRecorder.providerCode(location.getProvider()), 0, location.getTime(), location.getAccuracy(), location.getSpeed());
+            // Only GNSS fixes are useful, and only while GNSS is powered down between duty-cycled
+            // acquisition windows; at other times, the fine listener receives the same fixes.
+            FineLocationListener fine = LocationPushService.this.listenFine;
+            if (fine == null || !fine.isIdle() || LocationPushService.this.stationarySince != 0L) return;
+            if (!LocationManager.GPS_PROVIDER.equals(location.getProvider())) return;
+            Log.v("Received location from another app while GNSS is powered down"); //NON-NLS
+            fine.onPassiveLocation(location);
+        }
+
+        @Override
+        boolean request(LocationSource source) throws SecurityException {
+            return source.requestUpdates(LocationManager.PASSIVE_PROVIDER, 0L, 0.0F, this);
         }
     }
 
@@ -217,120 +1159,281 @@ public final class LocationPushService extends Service {
      * Fine location provider implementation (GNSS-based location).
      */
     private final class FineLocationListener extends LocationListenerBase {
-        private final Handler noGnssTimer;
         private final PreferenceManager prefs;
         private Location locationOfLastUpdate;
         private float minDistance;
 
+        /**
+         * Schedules acquisition windows if duty cycling is enabled in settings, otherwise null.
+         */
+        @Nullable
+        private final DutyCycle dutyCycle;
+        private final Handler dutyTimer;
+
+        /**
+         * Whether or not GNSS is currently being duty cycled rather than kept active.
+         */
+        private boolean dutyCycling = false;
+
+        /**
+         * The most accurate fix in the current window that did not meet the accuracy target.
+         */
+        @Nullable
+        private Location candidate = null;
+
         private FineLocationListener() {
-            this.noGnssTimer = new Handler();
+            this.dutyTimer = new Handler();
             this.prefs = new PreferenceManager(LocationPushService.this);
-            this.locationOfLastUpdate = null;
+            // Continue filtering from the last location sent before a restart, if any.
+            this.locationOfLastUpdate = LocationPushService.this.restoredFix;
             this.minDistance = LocationPushService.this.share.getSession().getMinimumDistance();
+            this.dutyCycle = this.prefs.get(Constants.PREF_DUTY_CYCLE) ? new DutyCycle(DUTY_CYCLE_ACCURACY) : null;
+        }
+
+        /**
+         * Whether or not GNSS is currently being duty cycled. Location updates are then requested
+         * and removed by the listener itself.
+         */
+        private boolean isDutyCycling() {
+            return this.dutyCycling;
+        }
+
+        /**
+         * Whether or not GNSS is currently powered down between duty-cycled acquisition windows.
+         */
+        private boolean isIdle() {
+            return this.dutyCycling && !this.dutyCycle.isWindowOpen();
+        }
+
+        /**
+         * Handles a GNSS fix requested by another app while GNSS is powered down.
+         */
+        private void onPassiveLocation(Location location) {
+            if (!LocationPushService.this.filterFix(location, false)) return;
+            onFix(location);
         }
 
         @Override
         public void onLocationChanged(Location location) {
-            if (LocationPushService.this.listenCoarse != null) {
-                // Unregister the coarse location listener, since we are now receiving
-                // accurate location data.
-                Log.i("Accurate location found; removing updates from coarse location provider"); //NON-NLS
-                LocationPushService.this.locMan.removeUpdates(LocationPushService.this.listenCoarse);
-                LocationPushService.this.listenCoarse = null;
+            FlightRecorder.record(TraceEvent.FIX_RECEIVED, FlightRecorder.providerCode(location.getProvider()), 0, location.getTime(), location.getAccuracy(), location.getSpeed());
+            if (!LocationPushService.this.filterFix(location, false)) return;
+            Log.v("Location was received on fine location provider"); //NON-NLS
+            LocationPushService.this.adaptInterval(location);
+
+            if (this.dutyCycling) {
+                // Only post the first fix in the window that is accurate enough, then power GNSS
+                // down until the next window.
+                float accuracy = location.hasAccuracy() ? location.getAccuracy() : Float.MAX_VALUE;
+                int result = this.dutyCycle.onFix(SystemClock.elapsedRealtime(), accuracy);
+                if (result == DutyCycle.FIX_CANDIDATE) this.candidate = location;
+                if (result != DutyCycle.FIX_ACCEPTED) return;
+                closeWindow();
             }
-            if (!LocationPushService.this.hasRunAccurateTask) {
+            onFix(location);
+        }
+
+        /**
+         * Posts a fix from the fine location provider if it is far enough from the last one.
+         */
+        private void onFix(Location location) {
+            // Score the fix; the provider arbiter decides whether the coarse provider is needed.
+            ProviderArbiter arbiter = LocationPushService.this.arbiter;
+            if (arbiter.onFix(false, SystemClock.elapsedRealtime(), location.hasAccuracy() ? location.getAccuracy() : Float.MAX_VALUE)) {
+                LocationPushService.this.onProviderStateChanged();
+            }
+            if (!LocationPushService.this.hasRunAccurateTask && arbiter.getState() == ProviderArbiter.STATE_FINE) {
                 // Notify the main activity that accurate GPS data is now being
                 // received, such that the UI can be updated.
                 LocationPushService.this.hasRunAccurateTask = true;
+                long acquisitionTime = SystemClock.elapsedRealtime() - LocationPushService.this.acquisitionStart;
+                FlightRecorder.record(TraceEvent.GNSS_ACQUIRED, 0, 0, acquisitionTime, location.getAccuracy(), 0.0F);
                 LocationPushService.this.gnssActiveTask.onAccurateLocationReceived();
             }
-            Log.v("Location was received on fine location provider"); //NON-NLS
-
-            // Set a timeout for the location updates to detect if the provider stops working. If
-            // that happens, fall back to the coarse location provider.
-            this.noGnssTimer.removeCallbacksAndMessages(null);
-            this.noGnssTimer.postDelayed(new CoarseLocationFallbackTask(), LocationPushService.this.share.getSession().getIntervalMillis() + this.prefs.get(Constants.PREF_NO_GNSS_FALLBACK) * TimeUtils.MILLIS_PER_SECOND);
 
             // Only update the location if it is more than the minimum distance specified in
             // settings. Done manually rather than delegating to
             // LocationManager.requestLocationUpdates; see issue #124
             float distance = this.locationOfLastUpdate == null ? -1 : this.locationOfLastUpdate.distanceTo(location);
+            DeadReckoningPredictor predictor = LocationPushService.this.predictor;
             if (this.locationOfLastUpdate == null || distance >= this.minDistance) {
                 Log.v("Received distance %s, more than minimum distance %s", distance, this.minDistance); //NON-NLS
-                this.locationOfLastUpdate = location;
-                LocationPushService.this.onLocationChanged(location, LocationProvider.FINE);
+                if (predictor != null && !predictor.shouldPost(System.currentTimeMillis(), location.getLatitude(), location.getLongitude(), LocationPushService.this.getUpdateIntervalMillis())) {
+                    // The frontend extrapolates the position close enough to this fix.
+                    Log.v("Location is close enough to prediction of %s; skipping update", predictor); //NON-NLS
+                    FlightRecorder.record(TraceEvent.FIX_PREDICTED, FlightRecorder.providerCode(location.getProvider()), 0, location.getTime(), predictor.getLastError(), location.getAccuracy());
+                } else {
+                    this.locationOfLastUpdate = location;
+                    LocationPushService.this.onLocationChanged(location, LocationProvider.FINE);
+                }
             } else {
                 Log.v("Received distance %s, less than minimum distance %s", distance, this.minDistance); //NON-NLS
+                FlightRecorder.record(TraceEvent.FIX_SUPPRESSED, FlightRecorder.providerCode(location.getProvider()), 0, location.getTime(), distance, location.getAccuracy());
+            }
+
+            // Turn GNSS off if the user has stopped moving.
+            StationaryDetector detector = LocationPushService.this.stationaryDetector;
+            if (detector != null && location.hasAccuracy() && detector.onFix(location.getTime(), location.getLatitude(), location.getLongitude(), location.getAccuracy())) {
+                LocationPushService.this.enterStationaryMode(STATIONARY_BY_FIXES);
             }
         }
 
         /**
          * Should be called when the session is stopped and updates removed from this listener. This
-         * prevents the timeout from activating after the session has been stopped.
+         * prevents the next acquisition window from opening after the session has been stopped.
          */
         private void onStopped() {
-            this.noGnssTimer.removeCallbacksAndMessages(false);
+            this.dutyTimer.removeCallbacksAndMessages(null);
         }
 
         @Override
-        boolean request(LocationManager manager) throws SecurityException {
-            manager.requestLocationUpdates(
+        boolean request(LocationSource source) throws SecurityException {
+            this.dutyTimer.removeCallbacksAndMessages(null);
+            long interval = LocationPushService.this.getUpdateIntervalMillis();
+            this.dutyCycling = this.dutyCycle != null && DutyCycle.appliesTo(interval);
+            if (this.dutyCycling) {
+                // Get a fix as quickly as possible while the window is open.
+                Log.v("Opening GNSS acquisition window using %s", this.dutyCycle); //NON-NLS
+                this.candidate = null;
+                this.dutyCycle.openWindow(SystemClock.elapsedRealtime());
+                this.dutyTimer.postDelayed(new WindowTimeoutTask(), this.dutyCycle.getTimeoutMillis(interval));
+                interval = 0L;
+            }
+            return source.requestUpdates(
                     LocationManager.GPS_PROVIDER,
-                    LocationPushService.this.share.getSession().getIntervalMillis(),
+                    interval,
                     0.0F, // See https://github.com/bilde2910/Hauk/issues/124
                     this
             );
-            return true;
         }
 
-        private final class CoarseLocationFallbackTask implements Runnable {
+        /**
+         * Powers GNSS down after a fix was accepted or the window timed out, and schedules the next
+         * acquisition window.
+         */
+        private void closeWindow() {
+            this.dutyTimer.removeCallbacksAndMessages(null);
+            LocationPushService.this.locations.removeUpdates(this);
+            long delay = this.dutyCycle.closeWindow(SystemClock.elapsedRealtime(), LocationPushService.this.getUpdateIntervalMillis());
+            Log.v("Closed GNSS acquisition window; opening the next in %s ms", delay); //NON-NLS
+            FlightRecorder.record(TraceEvent.DUTY_WINDOW_CLOSED, this.dutyCycle.wasAccepted() ? 1 : 0, 0, this.dutyCycle.getActiveTimeMillis(), 0.0F, 0.0F);
+            this.dutyTimer.postDelayed(new WindowOpenTask(), delay);
+        }
+
+        /**
+         * Opens the next acquisition window when duty cycling.
+         */
+        private final class WindowOpenTask implements Runnable {
             @Override
             public void run() {
-                // No location updates have been received for the timeout period. Rebind the coarse
-                // location listener while we wait for the fine listener to become functional again.
-                Log.w("Location fix lost. Rebinding coarse location provider."); //NON-NLS
-                LocationPushService.this.gnssActiveTask.onCoarseRebound();
-                LocationPushService.this.hasRunCoarseTask = false;
-                LocationPushService.this.hasRunAccurateTask = false;
-                LocationPushService.this.listenCoarse = new CoarseLocationListener();
-                if (!LocationPushService.this.listenCoarse.request(LocationPushService.this.locMan)) {
-                    LocationPushService.this.listenCoarse = null;
+                try {
+                    request(LocationPushService.this.locations);
+                } catch (SecurityException ex) {
+                    Log.e("Location permission was revoked while sharing", ex); //NON-NLS
                 }
             }
         }
+
+        /**
+         * Closes an acquisition window in which no fix met the accuracy target, and posts the best
+         * fix received in it, if any. If no fix was received at all, the provider watchdog will fall
+         * back to the coarse location provider as usual.
+         */
+        private final class WindowTimeoutTask implements Runnable {
+            @Override
+            public void run() {
+                Log.i("No sufficiently accurate fix within GNSS acquisition window"); //NON-NLS
+                Location best = FineLocationListener.this.candidate;
+                FineLocationListener.this.candidate = null;
+                closeWindow();
+                if (best != null) onFix(best);
+            }
+        }
+    }
+
+    /**
+     * Receives status changes that the backend pushes over a streaming connection, and handles
+     * them on the main thread.
+     */
+    private final class StreamStatusListener implements LocationUpdatePacket.StatusListener {
+        @Override
+        public void onShareListReceived(final String linkFormat, final String[] shares) {
+            LocationPushService.this.handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!LocationPushService.this.stopping) LocationPushService.this.onShareListReceived(linkFormat, shares);
+                }
+            });
+        }
+
+        @Override
+        public void onShareListVersionReceived(final String version) {
+            LocationPushService.this.handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    LocationPushService.this.shareListVersion = version;
+                }
+            });
+        }
+
+        @Override
+        public void onIntervalSuggested(final long intervalMillis) {
+            LocationPushService.this.handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!LocationPushService.this.stopping) LocationPushService.this.onIntervalSuggested(intervalMillis);
+                }
+            });
+        }
     }
 
     private final class LocationUpdatePacketImpl extends LocationUpdatePacket {
+        /**
+         * The location to save as the last sent location on success, or null for the last known
+         * location sent when sharing starts.
+         */
+        @Nullable
+        private final Location location;
+
         private LocationUpdatePacketImpl(Location location, LocationProvider accuracy) {
-            super(LocationPushService.this, LocationPushService.this.share.getSession(), location, accuracy);
+            super(LocationPushService.this, LocationPushService.this.share.getSession(), location, accuracy, System.currentTimeMillis(), LocationPushService.this.compactPrecision);
+            setShareListVersion(LocationPushService.this.shareListVersion);
+            this.location = location;
+        }
+
+        private LocationUpdatePacketImpl(Location lastKnown, LocationProvider accuracy, long time) {
+            super(LocationPushService.this, LocationPushService.this.share.getSession(), lastKnown, accuracy, time, LocationPushService.this.compactPrecision);
+            setShareListVersion(LocationPushService.this.shareListVersion);
+            this.location = null;
+        }
+
+        @Override
+        protected void onIntervalSuggested(long intervalMillis) {
+            LocationPushService.this.onIntervalSuggested(intervalMillis);
         }
 
         @Override
         public void onShareListReceived(String linkFormat, String[] shares) {
-            Log.v("Received list of shares from server"); //NON-NLS
-            LocationPushService.this.gnssActiveTask.onShareListReceived(linkFormat, shares);
+            LocationPushService.this.onShareListReceived(linkFormat, shares);
+        }
+
+        @Override
+        protected void onShareListVersionReceived(String version) {
+            LocationPushService.this.shareListVersion = version;
         }
 
         @Override
         protected void onSuccess(String[] data, Version backendVersion) throws ServerException {
-            // Check if connection was lost previously, and notify upstream if that's the case.
-            if (!LocationPushService.this.connected) {
-                LocationPushService.this.connected = true;
-                Log.i("Connection to the backend was restored."); //NON-NLS
-                LocationPushService.this.gnssActiveTask.onServerConnectionRestored();
-            }
+            LocationPushService.this.onServerReachable();
             super.onSuccess(data, backendVersion);
+            if (!LocationPushService.this.stopping && this.location != null) {
+                LocationPushService.this.resumable.setLastSentFix(this.location);
+            }
         }
 
         @Override
         protected void onFailure(Exception ex) {
             Log.w("Failed to push location update to server", ex); //NON-NLS
-            // Notify upstream about connectivity loss.
-            if (LocationPushService.this.connected) {
-                LocationPushService.this.connected = false;
-                Log.i("Connection to the backend was lost."); //NON-NLS
-                LocationPushService.this.gnssActiveTask.onServerConnectionLost();
-            }
+            LocationPushService.this.onServerUnreachable();
         }
     }
 }
@@ -0,0 +1,60 @@
+package info.varden.hauk.service;
+
+import android.location.Location;
+import android.location.LocationListener;
+import android.os.Looper;
+
+import androidx.annotation.Nullable;
+
+/**
+ * A source of location updates for the location push service. Abstracts the Android location
+ * manager so that recorded traces can be replayed through the location pipeline instead.
+ *
+ * @author Marius Lindvall
+ */
+interface LocationSource {
+    /**
+     * Requests location updates from a provider. Requesting updates again for the same listener
+     * replaces the previous request.
+     *
+     * @param provider    The name of the location provider, e.g.
+     *                    {@link android.location.LocationManager#GPS_PROVIDER}.
+     * @param minTime     The minimum time between updates in milliseconds.
+     * @param minDistance The minimum distance between updates in meters.
+     * @param listener    The listener to deliver updates to.
+     * @return true if updates were requested, false if the provider does not exist.
+     * @throws SecurityException if location permission has not been granted.
+     */
+    boolean requestUpdates(String provider, long minTime, float minDistance, LocationListener listener) throws SecurityException;
+
+    /**
+     * Requests location updates from a provider, delivered on the thread of the given looper
+     * rather than on the calling thread.
+     *
+     * @param provider    The name of the location provider.
+     * @param minTime     The minimum time between updates in milliseconds.
+     * @param minDistance The minimum distance between updates in meters.
+     * @param listener    The listener to deliver updates to.
+     * @param looper      The looper of the thread to deliver updates on.
+     * @return true if updates were requested, false if the provider does not exist.
+     * @throws SecurityException if location permission has not been granted.
+     */
+    boolean requestUpdates(String provider, long minTime, float minDistance, LocationListener listener, Looper looper) throws SecurityException;
+
+    /**
+     * Stops delivering location updates to a listener.
+     *
+     * @param listener The listener to remove.
+     */
+    void removeUpdates(LocationListener listener);
+
+    /**
+     * Returns the last location known to a provider without waiting for a new fix.
+     *
+     * @param provider The name of the location provider.
+     * @return The last known location, or null if there is none or the provider does not exist.
+     * @throws SecurityException if location permission has not been granted.
+     */
+    @Nullable
+    Location getLastKnownLocation(String provider) throws SecurityException;
+}
@@ -0,0 +1,65 @@
+package info.varden.hauk.service;
+
+import android.location.Location;
+import android.location.LocationListener;
+import android.location.LocationManager;
+import android.os.Looper;
+
+import androidx.annotation.Nullable;
+
+import info.varden.hauk.utils.Log;
+
+/**
+ * Location source that delivers location updates from the Android location manager.
+ *
+ * @author Marius Lindvall
+ */
+final class ManagerLocationSource implements LocationSource {
+    private final LocationManager manager;
+
+    ManagerLocationSource(LocationManager manager) {
+        this.manager = manager;
+    }
+
+    @Override
+    public boolean requestUpdates(String provider, long minTime, float minDistance, LocationListener listener) throws SecurityException {
+        try {
+            this.manager.requestLocationUpdates(provider, minTime, minDistance, listener);
+            return true;
+        } catch (IllegalArgumentException ex) {
+            Log.w("Location provider %s does not exist", ex, provider); //NON-NLS
+            return false;
+        }
+    }
+
+    @Override
+    public boolean requestUpdates(String provider, long minTime, float minDistance, LocationListener listener, Looper looper) throws SecurityException {
+        try {
+            this.manager.requestLocationUpdates(provider, minTime, minDistance, listener, looper);
+            return true;
+        } catch (IllegalArgumentException ex) {
+            Log.w("Location provider %s does not exist", ex, provider); //NON-NLS
+            return false;
+        }
+    }
+
+    @Override
+    public void removeUpdates(LocationListener listener) {
+        this.manager.removeUpdates(listener);
+    }
+
+    @Nullable
+    @Override
+    public Location getLastKnownLocation(String provider) throws SecurityException {
+        try {
+            return this.manager.getLastKnownLocation(provider);
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ManagerLocationSource{manager=" + this.manager + "}";
+    }
+}
@@ -0,0 +1,163 @@
+package info.varden.hauk.service;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.hardware.TriggerEvent;
+import android.hardware.TriggerEventListener;
+
+import androidx.annotation.Nullable;
+
+import info.varden.hauk.utils.Log;
+
+/**
+ * <p>Watches for device movement using low-power sensors while GNSS is turned off in stationary
+ * mode. The significant motion sensor is used if the device has one, as it runs in the sensor hub
+ * without waking the application processor. Otherwise, the accelerometer is sampled with batching
+ * enabled, and motion is reported when several consecutive samples deviate from gravity.</p>
+ *
+ * <p>The watcher is one-shot: it reports motion once and must then be armed again.</p>
+ *
+ * @author Marius Lindvall
+ */
+final class MotionWatcher {
+    /**
+     * Motion was detected by the significant motion sensor.
+     */
+    static final int SOURCE_SIGNIFICANT_MOTION = 1;
+
+    /**
+     * Motion was detected by the accelerometer.
+     */
+    static final int SOURCE_ACCELEROMETER = 2;
+
+    /**
+     * The deviation from gravity, in meters per second squared, above which an accelerometer sample indicates motion.
+     */
+    private static final float ACCELERATION_THRESHOLD = 1.5F;
+
+    /**
+     * The number of consecutive accelerometer samples above the threshold required to report motion.
+     */
+    private static final int ACCELERATION_SAMPLES = 3;
+
+    /**
+     * Accelerometer sampling period and maximum batching latency in microseconds.
+     */
+    private static final int ACCELEROMETER_PERIOD_US = 200000;
+    private static final int ACCELEROMETER_LATENCY_US = 10000000;
+
+    /**
+     * Called when motion is detected.
+     */
+    interface Callback {
+        /**
+         * @param source The sensor that detected the motion, e.g. {@link #SOURCE_ACCELEROMETER}.
+         */
+        void onMotion(int source);
+    }
+
+    @Nullable
+    private final SensorManager sensors;
+    @Nullable
+    private final Sensor significantMotion;
+    @Nullable
+    private final Sensor accelerometer;
+
+    private final TriggerListener triggerListener = new TriggerListener();
+    private final AccelerometerListener accelerometerListener = new AccelerometerListener();
+
+    @Nullable
+    private Callback callback = null;
+
+    MotionWatcher(Context ctx) {
+        this.sensors = (SensorManager) ctx.getSystemService(Context.SENSOR_SERVICE);
+        this.significantMotion = this.sensors == null ? null : this.sensors.getDefaultSensor(Sensor.TYPE_SIGNIFICANT_MOTION);
+        this.accelerometer = this.sensors == null ? null : this.sensors.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+    }
+
+    /**
+     * Whether or not the device has a sensor that can be used to detect motion.
+     */
+    boolean isAvailable() {
+        return this.significantMotion != null || this.accelerometer != null;
+    }
+
+    /**
+     * Starts watching for motion.
+     *
+     * @param callback A callback that is called once when motion is detected.
+     * @return true if watching started, false if no suitable sensor is available.
+     */
+    boolean arm(Callback callback) {
+        disarm();
+        if (this.sensors == null) return false;
+        this.callback = callback;
+        if (this.significantMotion != null && this.sensors.requestTriggerSensor(this.triggerListener, this.significantMotion)) {
+            Log.i("Watching for motion using significant motion sensor"); //NON-NLS
+            return true;
+        }
+        if (this.accelerometer != null && this.sensors.registerListener(this.accelerometerListener, this.accelerometer, ACCELEROMETER_PERIOD_US, ACCELEROMETER_LATENCY_US)) {
+            Log.i("Watching for motion using accelerometer"); //NON-NLS
+            return true;
+        }
+        Log.w("No sensor available for motion detection"); //NON-NLS
+        this.callback = null;
+        return false;
+    }
+
+    /**
+     * Stops watching for motion.
+     */
+    void disarm() {
+        if (this.sensors == null || this.callback == null) return;
+        if (this.significantMotion != null) this.sensors.cancelTriggerSensor(this.triggerListener, this.significantMotion);
+        this.sensors.unregisterListener(this.accelerometerListener);
+        this.accelerometerListener.consecutive = 0;
+        this.callback = null;
+    }
+
+    /**
+     * Reports motion to the callback and disarms the watcher.
+     */
+    private void onMotion(int source) {
+        Callback cb = this.callback;
+        disarm();
+        if (cb != null) cb.onMotion(source);
+    }
+
+    private final class TriggerListener extends TriggerEventListener {
+        @Override
+        public void onTrigger(TriggerEvent event) {
+            Log.i("Significant motion detected"); //NON-NLS
+            onMotion(SOURCE_SIGNIFICANT_MOTION);
+        }
+    }
+
+    private final class AccelerometerListener implements SensorEventListener {
+        private int consecutive = 0;
+
+        @Override
+        public void onSensorChanged(SensorEvent event) {
+            float x = event.values[0];
+            float y = event.values[1];
+            float z = event.values[2];
+            double magnitude = Math.sqrt(x * x + y * y + z * z);
+            if (Math.abs(magnitude - SensorManager.GRAVITY_EARTH) > ACCELERATION_THRESHOLD) {
+                this.consecutive++;
+                if (this.consecutive >= ACCELERATION_SAMPLES) {
+                    Log.i("Motion detected by accelerometer"); //NON-NLS
+                    onMotion(SOURCE_ACCELEROMETER);
+                }
+            } else {
+                this.consecutive = 0;
+            }
+        }
+
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int accuracy) {
+        }
+    }
+}
@@ -27,6 +27,11 @@ final class MultiTargetGNSSHandlerProxy implements GNSSActiveHandler {
         for (GNSSActiveHandler up : this.upstream) up.onAccurateLocationReceived();
     }
 
+    @Override
+    public void onStationary() {
+        for (GNSSActiveHandler up : this.upstream) up.onStationary();
+    }
+
     @Override
     public void onServerConnectionLost() {
         for (GNSSActiveHandler up : this.upstream) up.onServerConnectionLost();
@@ -0,0 +1,12 @@
+package info.varden.hauk.service;
+
+/**
+ * The location push service, declared in the manifest to run in its own {@code :location} process.
+ * Running the service in a separate process lets Android reclaim the memory used by the user
+ * interface while sharing in the background, as only the classes required to push locations are
+ * loaded in that process. Used instead of {@link LocationPushService} when enabled in settings.
+ *
+ * @author Marius Lindvall
+ */
+public final class RemoteLocationPushService extends LocationPushService {
+}
@@ -0,0 +1,132 @@
+package info.varden.hauk.service;
+
+import android.location.Location;
+import android.location.LocationListener;
+import android.location.LocationManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import info.varden.hauk.location.TraceParser;
+import info.varden.hauk.location.TracePoint;
+import info.varden.hauk.location.TraceReplay;
+import info.varden.hauk.utils.Log;
+
+/**
+ * <p>Location source that replays a recorded GPX or NMEA trace as if it came from the GNSS
+ * provider. The replay starts when GNSS updates are first requested and follows the timing of the
+ * trace, scaled by a time scale factor. It keeps running while updates are removed, e.g. between
+ * duty-cycled acquisition windows, so that points recorded in that time are missed just as they
+ * would be on a real device. Other providers are reported as unavailable.</p>
+ *
+ * @author Marius Lindvall
+ */
+final class ReplayLocationSource implements LocationSource {
+    @Nullable
+    private Handler handler = null;
+    private final List<TracePoint> points;
+    private final double timeScale;
+    private final Runnable deliverTask = new DeliverTask();
+
+    @Nullable
+    private TraceReplay replay = null;
+    @Nullable
+    private LocationListener listener = null;
+
+    private ReplayLocationSource(List<TracePoint> points, double timeScale) {
+        this.points = points;
+        this.timeScale = timeScale;
+    }
+
+    /**
+     * Reads a trace file for replay.
+     *
+     * @param file      The GPX or NMEA file to replay.
+     * @param timeScale How many times faster than real time the trace should be replayed.
+     * @throws IOException if the trace could not be read.
+     */
+    static ReplayLocationSource fromFile(File file, double timeScale) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            List<TracePoint> points = TraceParser.parse(in);
+            Log.i("Read %s points for replay from %s", points.size(), file); //NON-NLS
+            return new ReplayLocationSource(points, timeScale);
+        }
+    }
+
+    @Override
+    public boolean requestUpdates(String provider, long minTime, float minDistance, LocationListener listener) {
+        return requestUpdates(provider, minTime, minDistance, listener, Looper.getMainLooper());
+    }
+
+    /**
+     * Requests updates from the replay. The replay is delivered on the thread of the looper given
+     * in the first request.
+     */
+    @Override
+    public boolean requestUpdates(String provider, long minTime, float minDistance, LocationListener listener, Looper looper) {
+        if (!LocationManager.GPS_PROVIDER.equals(provider)) return false;
+        this.listener = listener;
+        if (this.replay == null) {
+            this.replay = new TraceReplay(this.points, this.timeScale);
+            this.handler = new Handler(looper);
+            Log.i("Starting replay %s lasting %s ms", this.replay, this.replay.getDurationMillis()); //NON-NLS
+            this.handler.post(this.deliverTask);
+        }
+        return true;
+    }
+
+    @Override
+    public void removeUpdates(LocationListener listener) {
+        if (this.listener == listener) this.listener = null;
+    }
+
+    @Nullable
+    @Override
+    public Location getLastKnownLocation(String provider) {
+        // A replayed trace has no history before its first point.
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "ReplayLocationSource{replay=" + this.replay + "}";
+    }
+
+    /**
+     * Delivers the next point of the trace to the listener, if any, and schedules the one after.
+     */
+    private final class DeliverTask implements Runnable {
+        @Override
+        public void run() {
+            TraceReplay replay = ReplayLocationSource.this.replay;
+            if (replay == null || !replay.hasNext()) return;
+            TracePoint point = replay.next();
+            LocationListener listener = ReplayLocationSource.this.listener;
+            if (listener != null) {
+                // Replayed fixes are delivered as fresh fixes so that they pass age checks.
+                Location location = new Location(LocationManager.GPS_PROVIDER);
+                location.setLatitude(point.getLatitude());
+                location.setLongitude(point.getLongitude());
+                location.setAccuracy(point.getAccuracy());
+                if (point.hasSpeed()) location.setSpeed(point.getSpeed());
+                location.setTime(System.currentTimeMillis());
+                location.setElapsedRealtimeNanos(SystemClock.elapsedRealtimeNanos());
+                listener.onLocationChanged(location);
+            }
+            if (replay.hasNext()) {
+                //noinspection ConstantConditions
+                ReplayLocationSource.this.handler.postDelayed(this, replay.getDelayMillis());
+            } else {
+                Log.i("Replay of %s finished", replay); //NON-NLS
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package info.varden.hauk.service;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Message;
+
+import info.varden.hauk.Constants;
+import info.varden.hauk.utils.Log;
+
+/**
+ * Handler for messages sent from {@link LocationPushService} to an attached user interface. Status
+ * messages are converted back into calls on a {@link GNSSActiveHandler}.
+ *
+ * @author Marius Lindvall
+ */
+public abstract class ServiceMessageHandler extends Handler {
+    /**
+     * The handler that should receive status updates from the service.
+     */
+    private final GNSSActiveHandler upstream;
+
+    /**
+     * Called when the service ends the sharing session, either because it expired or because the
+     * user stopped it from the notification.
+     */
+    protected abstract void onSessionStopped();
+
+    /**
+     * Called when another user interface has attached to the service in place of this one.
+     */
+    protected abstract void onDetached();
+
+    protected ServiceMessageHandler(GNSSActiveHandler upstream) {
+        this.upstream = upstream;
+    }
+
+    @Override
+    public final void handleMessage(Message msg) {
+        switch (msg.what) {
+            case Constants.SERVICE_MSG_STATUS:
+                handleStatus(msg.arg1);
+                break;
+
+            case Constants.SERVICE_MSG_SHARE_LIST:
+                Bundle data = msg.getData();
+                this.upstream.onShareListReceived(data.getString(Constants.EXTRA_LINK_FORMAT), data.getStringArray(Constants.EXTRA_SHARE_IDS));
+                break;
+
+            case Constants.SERVICE_MSG_STOPPED:
+                Log.i("Location push service reported that sharing has stopped"); //NON-NLS
+                onSessionStopped();
+                break;
+
+            case Constants.SERVICE_MSG_DETACHED:
+                Log.i("Detached from location push service"); //NON-NLS
+                onDetached();
+                break;
+
+            default:
+                Log.w("Received unknown message %s from location push service", msg.what); //NON-NLS
+                super.handleMessage(msg);
+        }
+    }
+
+    private void handleStatus(int status) {
+        switch (status) {
+            case Constants.SERVICE_STATUS_COARSE_REBOUND:
+                this.upstream.onCoarseRebound();
+                break;
+            case Constants.SERVICE_STATUS_COARSE_RECEIVED:
+                this.upstream.onCoarseLocationReceived();
+                break;
+            case Constants.SERVICE_STATUS_ACCURATE_RECEIVED:
+                this.upstream.onAccurateLocationReceived();
+                break;
+            case Constants.SERVICE_STATUS_STATIONARY:
+                this.upstream.onStationary();
+                break;
+            case Constants.SERVICE_STATUS_CONNECTION_LOST:
+                this.upstream.onServerConnectionLost();
+                break;
+            case Constants.SERVICE_STATUS_CONNECTION_RESTORED:
+                this.upstream.onServerConnectionRestored();
+                break;
+            default:
+                Log.w("Received unknown status %s from location push service", status); //NON-NLS
+        }
+    }
+}
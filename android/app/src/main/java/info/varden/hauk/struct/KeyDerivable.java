@@ -4,6 +4,7 @@ import java.io.Serializable;
 import java.security.NoSuchAlgorithmException;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.KeySpec;
+import java.util.Arrays;
 
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.PBEKeySpec;
@@ -49,7 +50,7 @@ public final class KeyDerivable implements Serializable {
      * @throws InvalidKeySpecException if the key spec doesn't exist.
      * @throws NoSuchAlgorithmException if the algorithm doesn't exist.
      */
-    public SecretKeySpec deriveSpec() throws InvalidKeySpecException, NoSuchAlgorithmException {
+    public synchronized SecretKeySpec deriveSpec() throws InvalidKeySpecException, NoSuchAlgorithmException {
         if (this.keySpec == null) {
             // E2E encryption is used, but the key spec hasn't been cached yet. Generate and cache
             // it, then return the spec.
@@ -61,6 +62,53 @@ public final class KeyDerivable implements Serializable {
         return this.keySpec;
     }
 
+    /**
+     * Returns whether or not the key spec has already been derived and cached.
+     */
+    public synchronized boolean isDerived() {
+        return this.keySpec != null;
+    }
+
+    /**
+     * Caches the key spec already derived by another instance with the same password and salt, so
+     * that it does not have to be derived again. Does nothing if the other instance has not
+     * derived its key spec or does not match this one.
+     *
+     * @param other A derivable key that has been deserialized from the same instance as this one.
+     */
+    public void copyDerivedSpec(KeyDerivable other) {
+        SecretKeySpec spec;
+        synchronized (other) {
+            spec = other.keySpec;
+        }
+        if (spec == null || !hasSamePassword(other) || !Arrays.equals(this.salt, other.salt)) return;
+        synchronized (this) {
+            if (this.keySpec == null) this.keySpec = spec;
+        }
+    }
+
+    /**
+     * Returns the salt used for key derivation.
+     */
+    public byte[] getSalt() {
+        return this.salt.clone();
+    }
+
+    /**
+     * Returns a derivable key with the same password as this one and the given salt.
+     */
+    public KeyDerivable withSalt(byte[] salt) {
+        return new KeyDerivable(this.password, salt);
+    }
+
+    /**
+     * Returns whether or not the given derivable key was created from the same password as this
+     * one. The salts may differ.
+     */
+    public boolean hasSamePassword(KeyDerivable other) {
+        return this.password.equals(other.password);
+    }
+
     @Override
     public String toString() {
         return "KeyDerivable{password=<hidden>"
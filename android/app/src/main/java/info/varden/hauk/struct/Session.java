@@ -4,11 +4,15 @@ import androidx.annotation.Nullable;
 
 import java.io.Serializable;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import java.util.Locale;
 
 import info.varden.hauk.Constants;
 import info.varden.hauk.http.ConnectionParameters;
+import info.varden.hauk.http.Endpoint;
 import info.varden.hauk.utils.TimeUtils;
 
 /**
@@ -29,6 +33,13 @@ public final class Session implements Serializable {
      */
     private final ConnectionParameters connParams;
 
+    /**
+     * Mirrors of the backend server that the session can also be reached through, each with its
+     * own connection parameters. Null for sessions saved by versions without mirror support.
+     */
+    @Nullable
+    private final ArrayList<Endpoint> mirrors;
+
     /**
      * The version the backend is running.
      */
@@ -63,7 +74,12 @@ public final class Session implements Serializable {
     private final KeyDerivable e2eParams;
 
     public Session(String serverURL, ConnectionParameters connParams, Version backendVersion, String sessionID, long expiry, int interval, float minDistance, @Nullable KeyDerivable e2eParams) {
+        this(serverURL, connParams, Collections.<Endpoint>emptyList(), backendVersion, sessionID, expiry, interval, minDistance, e2eParams);
+    }
+
+    public Session(String serverURL, ConnectionParameters connParams, List<Endpoint> mirrors, Version backendVersion, String sessionID, long expiry, int interval, float minDistance, @Nullable KeyDerivable e2eParams) {
         this.serverURL = serverURL;
+        this.mirrors = new ArrayList<>(mirrors);
         this.backendVersion = backendVersion;
         this.sessionID = sessionID;
         this.expiry = expiry;
@@ -77,6 +93,7 @@ public final class Session implements Serializable {
     public String toString() {
         return "Session{serverURL=" + this.serverURL
                 + ",connParams=" + this.connParams
+                + ",mirrors=" + this.mirrors
                 + ",backendVersion=" + this.backendVersion
                 + ",sessionID=" + this.sessionID
                 + ",expiry=" + this.expiry
@@ -93,6 +110,24 @@ public final class Session implements Serializable {
         return this.connParams;
     }
 
+    /**
+     * Returns the mirrors of the backend server that the session can also be reached through.
+     */
+    public List<Endpoint> getMirrors() {
+        return this.mirrors == null ? Collections.<Endpoint>emptyList() : Collections.unmodifiableList(this.mirrors);
+    }
+
+    /**
+     * Returns all servers that the session can be reached through, starting with its own server
+     * and followed by its mirrors.
+     */
+    public List<Endpoint> getEndpoints() {
+        List<Endpoint> endpoints = new ArrayList<>();
+        endpoints.add(new Endpoint(this.serverURL, this.connParams));
+        endpoints.addAll(getMirrors());
+        return endpoints;
+    }
+
     public Version getBackendVersion() {
         return this.backendVersion;
     }
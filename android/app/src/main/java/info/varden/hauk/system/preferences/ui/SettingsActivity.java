@@ -65,11 +65,18 @@ public final class SettingsActivity extends AppCompatActivity {
 
             // Set InputType and other attributes for text edit boxes.
             setTextEditParams(manager, Constants.PREF_SERVER_ENCRYPTED, new InputTypeBindListener(InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_VARIATION_URI), new HintBindListener(R.string.pref_cryptServer_hint));
+            setTextEditParams(manager, Constants.PREF_SERVER_MIRRORS, new InputTypeBindListener(InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_VARIATION_URI | InputType.TYPE_TEXT_FLAG_MULTI_LINE), new HintBindListener(R.string.pref_cryptServerMirrors_hint));
             setTextEditParams(manager, Constants.PREF_USERNAME_ENCRYPTED, new InputTypeBindListener(InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_VARIATION_PERSON_NAME), new HintBindListener(R.string.pref_cryptUsername_hint));
             setTextEditParams(manager, Constants.PREF_PASSWORD_ENCRYPTED, new InputTypeBindListener(InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_VARIATION_PASSWORD));
+            setTextEditParams(manager, Constants.PREF_FAN_OUT_SERVERS, new InputTypeBindListener(InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_VARIATION_URI | InputType.TYPE_TEXT_FLAG_MULTI_LINE), new HintBindListener(R.string.pref_cryptFanOutServers_hint));
             setTextEditParams(manager, Constants.PREF_E2E_PASSWORD, new InputTypeBindListener(InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_VARIATION_PASSWORD));
             setTextEditParams(manager, Constants.PREF_INTERVAL, new InputTypeBindListener(InputType.TYPE_CLASS_NUMBER));
+            setTextEditParams(manager, Constants.PREF_MAX_INTERVAL, new InputTypeBindListener(InputType.TYPE_CLASS_NUMBER));
             setTextEditParams(manager, Constants.PREF_UPDATE_DISTANCE, new InputTypeBindListener(InputType.TYPE_CLASS_NUMBER | InputType.TYPE_NUMBER_FLAG_DECIMAL));
+            setTextEditParams(manager, Constants.PREF_PREDICTION_TOLERANCE, new InputTypeBindListener(InputType.TYPE_CLASS_NUMBER));
+            setTextEditParams(manager, Constants.PREF_HIGH_FREQUENCY_INTERVAL, new InputTypeBindListener(InputType.TYPE_CLASS_NUMBER));
+            setTextEditParams(manager, Constants.PREF_COMPACT_PRECISION, new InputTypeBindListener(InputType.TYPE_CLASS_NUMBER));
+            setTextEditParams(manager, Constants.PREF_UNWATCHED_MAX_INTERVAL, new InputTypeBindListener(InputType.TYPE_CLASS_NUMBER));
             setTextEditParams(manager, Constants.PREF_CUSTOM_ID, new InputTypeBindListener(InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_VARIATION_SHORT_MESSAGE), new HintBindListener(R.string.pref_requestLink_hint));
             setTextEditParams(manager, Constants.PREF_PROXY_HOST, new InputTypeBindListener(InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_VARIATION_URI));
             setTextEditParams(manager, Constants.PREF_PROXY_PORT, new InputTypeBindListener(InputType.TYPE_CLASS_NUMBER));
@@ -77,7 +84,12 @@ public final class SettingsActivity extends AppCompatActivity {
 
             // Set value bounds checks.
             setChangeListeners(manager, Constants.PREF_INTERVAL, new IntegerBoundChangeListener(1, Integer.MAX_VALUE));
+            setChangeListeners(manager, Constants.PREF_MAX_INTERVAL, new IntegerBoundChangeListener(1, Integer.MAX_VALUE));
             setChangeListeners(manager, Constants.PREF_UPDATE_DISTANCE, new FloatBoundChangeListener(0.0F, Float.MAX_VALUE));
+            setChangeListeners(manager, Constants.PREF_PREDICTION_TOLERANCE, new IntegerBoundChangeListener(1, Integer.MAX_VALUE));
+            setChangeListeners(manager, Constants.PREF_HIGH_FREQUENCY_INTERVAL, new IntegerBoundChangeListener(Constants.HIGH_FREQUENCY_INTERVAL_MIN, Constants.HIGH_FREQUENCY_INTERVAL_MAX));
+            setChangeListeners(manager, Constants.PREF_COMPACT_PRECISION, new IntegerBoundChangeListener(Constants.COMPACT_PRECISION_MIN, Constants.COMPACT_PRECISION_MAX));
+            setChangeListeners(manager, Constants.PREF_UNWATCHED_MAX_INTERVAL, new IntegerBoundChangeListener(1, Integer.MAX_VALUE));
             setChangeListeners(manager, Constants.PREF_PROXY_PORT, new IntegerBoundChangeListener(Constants.PORT_MIN, Constants.PORT_MAX));
             setChangeListeners(manager, Constants.PREF_CONNECTION_TIMEOUT, new IntegerBoundChangeListener(1, Integer.MAX_VALUE));
 
@@ -81,6 +81,16 @@ final class GNSSStatusLabelUpdater implements GNSSStatusUpdateListener {
         this.lastColor = R.color.statusOn;
     }
 
+    @Override
+    public void onStationary() {
+        // Indicate to the user that GNSS is paused because they are not moving, rather than lost.
+        Log.i("User is stationary; GNSS location provider paused until motion is detected"); //NON-NLS
+        this.statusLabel.setText(R.string.label_status_stationary);
+        this.statusLabel.setTextColor(this.ctx.getColor(R.color.statusOn));
+        this.lastStatus = R.string.label_status_stationary;
+        this.lastColor = R.color.statusOn;
+    }
+
     @Override
     public void onServerConnectionLost() {
         // Indicate to the user that the backend connection was lost.
@@ -5,6 +5,7 @@ import android.app.ProgressDialog;
 import android.content.Context;
 import android.content.Intent;
 import android.graphics.Paint;
+import android.net.Uri;
 import android.os.Bundle;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -21,10 +22,16 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.app.AppCompatDelegate;
 import androidx.appcompat.widget.Toolbar;
 import androidx.core.app.ActivityCompat;
+import androidx.core.content.FileProvider;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 
 import info.varden.hauk.Constants;
 import info.varden.hauk.R;
 import info.varden.hauk.caching.ResumePrompt;
+import info.varden.hauk.diagnostics.FlightRecorder;
 import info.varden.hauk.dialog.Buttons;
 import info.varden.hauk.dialog.CustomDialogBuilder;
 import info.varden.hauk.dialog.DialogService;
@@ -36,6 +43,7 @@ import info.varden.hauk.manager.SessionInitiationResponseHandler;
 import info.varden.hauk.manager.SessionListener;
 import info.varden.hauk.manager.SessionManager;
 import info.varden.hauk.manager.ShareListener;
+import info.varden.hauk.struct.AdoptabilityPreference;
 import info.varden.hauk.struct.Session;
 import info.varden.hauk.struct.Share;
 import info.varden.hauk.struct.ShareMode;
@@ -145,6 +153,28 @@ public final class MainActivity extends AppCompatActivity {
         return true;
     }
 
+    /**
+     * Takes a snapshot of the flight recorder traces and opens a share sheet that lets the user
+     * send them somewhere for decoding.
+     */
+    private void exportTrace() {
+        try {
+            ArrayList<Uri> uris = new ArrayList<>();
+            for (File trace : FlightRecorder.snapshot(this)) {
+                uris.add(FileProvider.getUriForFile(this, Constants.FILE_PROVIDER_AUTHORITY, trace));
+            }
+            Log.i("Exporting flight recorder traces as %s", uris); //NON-NLS
+            Intent intent = new Intent(Intent.ACTION_SEND_MULTIPLE);
+            intent.setType(Constants.INTENT_TYPE_EXPORT_TRACE);
+            intent.putParcelableArrayListExtra(Intent.EXTRA_STREAM, uris);
+            intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+            startActivity(Intent.createChooser(intent, getString(R.string.export_trace_title)));
+        } catch (IOException ex) {
+            Log.e("Could not export flight recorder trace", ex); //NON-NLS
+            Toast.makeText(this, R.string.err_export_trace, Toast.LENGTH_LONG).show();
+        }
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         switch (item.getItemId()) {
@@ -152,6 +182,10 @@ public final class MainActivity extends AppCompatActivity {
                 startActivity(new Intent(this, SettingsActivity.class));
                 return true;
 
+            case R.id.action_export_trace:
+                exportTrace();
+                return true;
+
             default:
                 return super.onOptionsItemSelected(item);
         }
@@ -160,6 +194,7 @@ public final class MainActivity extends AppCompatActivity {
     @Override
     protected void onDestroy() {
         this.uiStopTask.setActivityDestroyed();
+        this.manager.discardStandbySession();
         super.onDestroy();
     }
 
@@ -170,6 +205,9 @@ public final class MainActivity extends AppCompatActivity {
         // Set app logo visibility.
         PreferenceManager prefs = new PreferenceManager(this);
         findViewById(R.id.imgLogo).setVisibility(prefs.get(Constants.PREF_HIDE_LOGO) ? View.GONE : View.VISIBLE);
+
+        // Settings may have changed, so the standby session may have to be replaced.
+        this.manager.updateStandbySession();
     }
 
     /**
@@ -244,6 +282,9 @@ public final class MainActivity extends AppCompatActivity {
         }
 
         SessionInitiationPacket.InitParameters initParams = new SessionInitiationPacket.InitParameters(server, username, password, duration, interval, minDistance, customID, e2ePass);
+        initParams.setMirrors(prefs.get(Constants.PREF_SERVER_MIRRORS));
+        initParams.setStreaming(prefs.get(Constants.PREF_STREAM_UPDATES));
+        this.manager.prepareSession(initParams, mode, allowAdoption ? AdoptabilityPreference.ALLOW_ADOPTION : AdoptabilityPreference.DISALLOW_ADOPTION);
         new ProxyHostnameResolverImpl(this, this.manager, this.uiResetTask, prefs, new SessionInitiationResponseHandlerImpl(), initParams, mode, allowAdoption, nickname, groupPin).resolve();
     }
 
@@ -373,7 +414,8 @@ public final class MainActivity extends AppCompatActivity {
 
         @Override
         public void onSuccess() {
-            this.progress.dismiss();
+            // No progress is shown if the share was started on the standby session.
+            if (this.progress != null) this.progress.dismiss();
         }
 
         @Override
@@ -7,11 +7,18 @@ import android.content.Context;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.widget.CheckBox;
+import android.widget.EditText;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import info.varden.hauk.Constants;
 
 import info.varden.hauk.R;
 import info.varden.hauk.dialog.Buttons;
 import info.varden.hauk.dialog.CustomDialogBuilder;
 import info.varden.hauk.dialog.DialogService;
+import info.varden.hauk.http.BulkNewLinkPacket;
 import info.varden.hauk.http.NewLinkPacket;
 import info.varden.hauk.struct.Session;
 import info.varden.hauk.struct.Share;
@@ -65,6 +72,7 @@ public abstract class AddLinkClickListener implements View.OnClickListener {
         this.dialogSvc.showDialog(R.string.create_link_title, R.string.create_link_body, Buttons.Two.CREATE_CANCEL, new CustomDialogBuilder() {
 
             private CheckBox chkAdopt;
+            private EditText txtCount;
 
             @Override
             public void onPositive() {
@@ -74,15 +82,39 @@ public abstract class AddLinkClickListener implements View.OnClickListener {
                 // taking a while (e.g. if the host is unreachable, it will eventually time
                 // out), and having a progress bar makes for better UX since it visually
                 // shows that something is actually happening in the background.
+                int count = getLinkCount();
                 ProgressDialog progress = new ProgressDialog(AddLinkClickListener.this.act);
                 progress.setProgressStyle(ProgressDialog.STYLE_SPINNER);
                 progress.setTitle(R.string.progress_new_link_title);
-                progress.setMessage(AddLinkClickListener.this.act.getString(R.string.progress_new_link_body));
+                if (count == 1) {
+                    progress.setMessage(AddLinkClickListener.this.act.getString(R.string.progress_new_link_body));
+                } else {
+                    progress.setMessage(String.format(AddLinkClickListener.this.act.getString(R.string.progress_new_links_body), count));
+                }
                 progress.setIndeterminate(true);
                 progress.setCancelable(false);
                 progress.show();
 
-                new AssociatedPacket(progress, this.chkAdopt.isChecked()).send();
+                if (count == 1) {
+                    new AssociatedPacket(progress, this.chkAdopt.isChecked()).send();
+                } else if (AddLinkClickListener.this.session.getBackendVersion().isAtLeast(Constants.VERSION_COMPAT_BULK_SHARE_MANAGEMENT)) {
+                    new AssociatedBulkPacket(progress, count, this.chkAdopt.isChecked()).send();
+                } else {
+                    Log.i("Backend does not support bulk requests; creating %s links one at a time", count); //NON-NLS
+                    new SequentialPacket(progress, count, this.chkAdopt.isChecked(), new ArrayList<Share>()).send();
+                }
+            }
+
+            /**
+             * Returns the number of links entered by the user, within the allowed bounds.
+             */
+            private int getLinkCount() {
+                try {
+                    int count = Integer.parseInt(this.txtCount.getText().toString());
+                    return Math.max(Constants.LINK_COUNT_MIN, Math.min(Constants.LINK_COUNT_MAX, count));
+                } catch (NumberFormatException ex) {
+                    return Constants.LINK_COUNT_MIN;
+                }
             }
 
             @Override
@@ -102,6 +134,7 @@ public abstract class AddLinkClickListener implements View.OnClickListener {
                 // Inherit the adoption state from the main share/saved preference.
                 this.chkAdopt = dialogView.findViewById(R.id.dialogNewLinkChkAdopt);
                 this.chkAdopt.setChecked(AddLinkClickListener.this.defaultAllowAdoption);
+                this.txtCount = dialogView.findViewById(R.id.dialogNewLinkTxtCount);
 
                 return dialogView;
             }
@@ -147,6 +180,110 @@ public abstract class AddLinkClickListener implements View.OnClickListener {
         }
     }
 
+    /**
+     * The packet sent to the server to request the addition of several new links in one request.
+     */
+    private final class AssociatedBulkPacket extends BulkNewLinkPacket {
+        /**
+         * A progress dialog to dismiss when a response has been received for the packet.
+         */
+        private final ProgressDialog progress;
+
+        /**
+         * Creates the packet.
+         *
+         * @param progress      A progress dialog to dismiss after a response has been received.
+         * @param count         The number of links to create.
+         * @param allowAdoption Whether or not the shares should be adoptable.
+         */
+        private AssociatedBulkPacket(ProgressDialog progress, int count, boolean allowAdoption) {
+            super(AddLinkClickListener.this.act, AddLinkClickListener.this.session, count, allowAdoption);
+            this.progress = progress;
+        }
+
+        @Override
+        public void onSharesCreated(List<Share> shares) {
+            Log.i("%s shares created, showing dialog and sending upstream", shares.size()); //NON-NLS
+            this.progress.dismiss();
+            onLinksAdded(shares);
+        }
+
+        @Override
+        protected void onFailure(Exception ex) {
+            Log.w("Bulk share creation failed", ex); // NON-NLS
+            this.progress.dismiss();
+            DialogPacketFailureHandler handler = new LinkAdditionFailureHandler(AddLinkClickListener.this.dialogSvc);
+            handler.onFailure(ex);
+        }
+    }
+
+    /**
+     * The packet sent to the server to request the addition of one of several new links, for
+     * backends that cannot create several links in one request. Each packet sends the next one
+     * when it receives a response, so that links are created one at a time.
+     */
+    private final class SequentialPacket extends NewLinkPacket {
+        /**
+         * A progress dialog to dismiss when all links have been created.
+         */
+        private final ProgressDialog progress;
+
+        /**
+         * The number of links that remain to be created, including this one.
+         */
+        private final int remaining;
+
+        private final boolean allowAdoption;
+
+        /**
+         * The shares created by the previous packets.
+         */
+        private final List<Share> created;
+
+        private SequentialPacket(ProgressDialog progress, int remaining, boolean allowAdoption, List<Share> created) {
+            super(AddLinkClickListener.this.act, AddLinkClickListener.this.session, allowAdoption);
+            this.progress = progress;
+            this.remaining = remaining;
+            this.allowAdoption = allowAdoption;
+            this.created = created;
+        }
+
+        @Override
+        public void onShareCreated(Share share) {
+            this.created.add(share);
+            if (this.remaining > 1) {
+                new SequentialPacket(this.progress, this.remaining - 1, this.allowAdoption, this.created).send();
+            } else {
+                Log.i("%s shares created, showing dialog and sending upstream", this.created.size()); //NON-NLS
+                this.progress.dismiss();
+                onLinksAdded(this.created);
+            }
+        }
+
+        @Override
+        protected void onFailure(Exception ex) {
+            Log.w("Share creation failed after %s of %s shares", ex, this.created.size(), this.created.size() + this.remaining); // NON-NLS
+            this.progress.dismiss();
+            for (Share share : this.created) {
+                AddLinkClickListener.this.onShareCreated(share);
+            }
+            DialogPacketFailureHandler handler = new LinkAdditionFailureHandler(AddLinkClickListener.this.dialogSvc);
+            handler.onFailure(ex);
+        }
+    }
+
+    /**
+     * Sends several newly created shares upstream and tells the user that they were added.
+     *
+     * @param shares The shares that were created.
+     */
+    private void onLinksAdded(List<Share> shares) {
+        for (Share share : shares) {
+            onShareCreated(share);
+        }
+        this.dialogSvc.showDialog(R.string.links_added_title, String.format(this.act.getString(R.string.links_added_body), shares.size()));
+    }
+
     /**
      * A callback that is called if link creation failed for an additional share. The superclass
      * displays a dialog indicating the failure state to the user.
@@ -1,35 +1,90 @@
 package info.varden.hauk.utils;
 
+import android.os.SystemClock;
 import android.util.SparseArray;
 
-import java.util.Random;
-
 /**
- * Receiver classes and services are instantiated by Android itself, and we cannot pass arbitrary
+ * <p>Receiver classes and services are instantiated by Android itself, and we cannot pass arbitrary
  * objects to them during construction. They receive Intents, where we can put some basic data, but
  * for transferring custom objects, the receivers must retrieve the objects themselves from
  * elsewhere. The purpose of this class is to act as a registry where objects can be placed and
  * substituted with an index, which can be set in the Intent data. The receiver then uses that index
  * to retrieve the object itself from the registry, allowing transfers of complex objects to
- * receiver classes.
+ * receiver classes.</p>
+ *
+ * <p>Intents are not guaranteed to ever be delivered, so every entry has a limited lifetime after
+ * which it is dropped from the registry, and the registry holds at most {@value #MAX_ENTRIES}
+ * entries at any time. Weak references are not used, since the registry is frequently the only
+ * holder of an object between the time an Intent is sent and the time it is received.</p>
  *
  * @author Marius Lindvall
  */
 public enum ReceiverDataRegistry {
     ;
 
-    private static final SparseArray<Object> data = new SparseArray<>();
-    private static final Random random = new Random();
+    /**
+     * The default lifetime of registered objects. This is long enough for any Intent sent directly
+     * to a service or receiver to be delivered.
+     */
+    private static final long DEFAULT_LIFETIME_MILLIS = 60L * TimeUtils.MILLIS_PER_SECOND;
 
     /**
-     * Registers the given object in the registry.
+     * The maximum number of objects that can be stored in the registry. When this is exceeded, the
+     * oldest entries are evicted.
+     */
+    private static final int MAX_ENTRIES = 256;
+
+    private static final SparseArray<Entry> data = new SparseArray<>();
+
+    /**
+     * The next index to hand out. Indices are handed out sequentially and are never negative, so
+     * that they never collide with each other or with the -1 default used when reading Intents.
+     */
+    private static int nextIndex = 0;
+
+    // Metrics.
+    private static long registeredCount = 0;
+    private static long retrievedCount = 0;
+    private static long expiredCount = 0;
+    private static long evictedCount = 0;
+
+    /**
+     * Registers the given object in the registry with the default lifetime.
      *
      * @param obj The object to register.
      * @return An index which can be used to retrieve the object later using retrieve().
      */
     public static int register(Object obj) {
-        int index = random.nextInt();
-        data.put(index, obj);
+        return register(obj, DEFAULT_LIFETIME_MILLIS);
+    }
+
+    /**
+     * Registers the given object in the registry.
+     *
+     * @param obj            The object to register.
+     * @param lifetimeMillis The number of milliseconds after which the object is dropped from the
+     *                       registry if it has not been retrieved.
+     * @return An index which can be used to retrieve the object later using retrieve().
+     */
+    public static synchronized int register(Object obj, long lifetimeMillis) {
+        long now = SystemClock.elapsedRealtime();
+        purgeExpired(now);
+        while (data.size() >= MAX_ENTRIES) {
+            // Indices are sequential, so the lowest key is the oldest entry unless the index
+            // counter has wrapped around, which is good enough for eviction purposes.
+            Log.w("Receiver data registry is full; evicting entry %s", data.keyAt(0)); //NON-NLS
+            data.removeAt(0);
+            evictedCount++;
+        }
+
+        int index;
+        do {
+            index = nextIndex;
+            nextIndex = (nextIndex + 1) & Integer.MAX_VALUE;
+        } while (data.indexOfKey(index) >= 0);
+
+        data.put(index, new Entry(obj, now + Math.max(0L, lifetimeMillis)));
+        registeredCount++;
         return index;
     }
 
@@ -37,7 +92,8 @@ public enum ReceiverDataRegistry {
      * Retrieves an object from the registry given its index and deletes the object.
      *
      * @param index The index obtained when registering the object using register().
-     * @return The object that was stored in the registry.
+     * @return The object that was stored in the registry, or null if it does not exist or has
+     *         expired.
      */
     public static Object retrieve(int index) {
         return retrieve(index, false);
@@ -48,11 +104,81 @@ public enum ReceiverDataRegistry {
      *
      * @param index The index obtained when registering the object using register().
      * @param keep  Whether or not to keep the object in the registry after retrieval.
-     * @return The object that was stored in the registry.
+     * @return The object that was stored in the registry, or null if it does not exist or has
+     *         expired.
      */
-    public static Object retrieve(int index, boolean keep) {
-        Object obj = data.get(index);
+    public static synchronized Object retrieve(int index, boolean keep) {
+        purgeExpired(SystemClock.elapsedRealtime());
+        Entry entry = data.get(index);
+        if (entry == null) return null;
         if (!keep) data.remove(index);
-        return obj;
+        retrievedCount++;
+        return entry.obj;
+    }
+
+    /**
+     * Retrieves an object of the given type from the registry given its index and deletes the
+     * object.
+     *
+     * @param index The index obtained when registering the object using register().
+     * @param type  The expected type of the object.
+     * @param <T>   The expected type of the object.
+     * @return The object that was stored in the registry, or null if it does not exist, has expired
+     *         or is not of the expected type.
+     */
+    public static <T> T retrieve(int index, Class<T> type) {
+        Object obj = retrieve(index, false);
+        if (type.isInstance(obj)) return type.cast(obj);
+        if (obj != null) Log.e("Registry entry %s is of type %s, expected %s", index, obj.getClass().getName(), type.getName()); //NON-NLS
+        return null;
+    }
+
+    /**
+     * Returns the number of objects currently stored in the registry, including any that have
+     * expired but not yet been purged.
+     */
+    public static synchronized int size() {
+        return data.size();
+    }
+
+    /**
+     * Returns a summary of the registry's usage metrics for diagnostic purposes.
+     */
+    public static synchronized String getMetrics() {
+        return "ReceiverDataRegistry{"
+                + "size=" + data.size()
+                + ",registered=" + registeredCount
+                + ",retrieved=" + retrievedCount
+                + ",expired=" + expiredCount
+                + ",evicted=" + evictedCount
+                + "}";
+    }
+
+    /**
+     * Removes all expired entries from the registry. Must be called while holding the lock.
+     *
+     * @param now The current {@link SystemClock#elapsedRealtime()}.
+     */
+    private static void purgeExpired(long now) {
+        for (int i = data.size() - 1; i >= 0; i--) {
+            if (data.valueAt(i).expiry <= now) {
+                Log.v("Receiver data registry entry %s expired", data.keyAt(i)); //NON-NLS
+                data.removeAt(i);
+                expiredCount++;
+            }
+        }
+    }
+
+    /**
+     * An object stored in the registry along with its expiry time.
+     */
+    private static final class Entry {
+        private final Object obj;
+        private final long expiry;
+
+        private Entry(Object obj, long expiry) {
+            this.obj = obj;
+            this.expiry = expiry;
+        }
     }
 }
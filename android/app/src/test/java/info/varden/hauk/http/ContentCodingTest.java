@@ -0,0 +1,131 @@
+package info.varden.hauk.http;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+import java.util.zip.InflaterInputStream;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+public final class ContentCodingTest {
+
+    private static final String URL = "https://example.com/";
+    private static final int GROUP_SIZE = 100;
+
+    @After
+    public void tearDown() {
+        ContentCoding.onResponse(URL, null);
+    }
+
+    @Test
+    public void negotiatesAdvertisedCodingAboveThreshold() {
+        assertThat("Coding negotiated before the backend advertised any", ContentCoding.negotiate(URL, 4096), is(nullValue()));
+        ContentCoding.onResponse(URL, "gzip");
+        assertThat("Coding for a backend accepting gzip", ContentCoding.negotiate(URL, 4096), is(ContentCoding.GZIP));
+        assertThat("Coding negotiated for a body below the threshold", ContentCoding.negotiate(URL, ContentCoding.THRESHOLD - 1), is(nullValue()));
+        ContentCoding.onResponse(URL, "gzip, Deflate");
+        assertThat("Coding for a backend accepting gzip and deflate", ContentCoding.negotiate(URL, 4096), is(ContentCoding.DEFLATE));
+        ContentCoding.onResponse(URL, "deflate;q=0, gzip;q=0.5");
+        assertThat("Coding for a backend refusing deflate with q=0", ContentCoding.negotiate(URL, 4096), is(ContentCoding.GZIP));
+        ContentCoding.onResponse(URL, "identity");
+        assertThat("Coding negotiated for a backend accepting only identity", ContentCoding.negotiate(URL, 4096), is(nullValue()));
+    }
+
+    @Test
+    public void roundTripsBodies() throws IOException {
+        byte[] body = createBulkBody().getBytes(StandardCharsets.UTF_8);
+        assertThat("Body after a gzip round trip", ContentCoding.decode(ContentCoding.encode(body, ContentCoding.GZIP), "gzip"), is(body));
+        byte[] deflated = ContentCoding.encode(body, ContentCoding.DEFLATE);
+        assertThat("Body inflated from its deflate encoding", ContentCoding.readFully(new InflaterInputStream(new ByteArrayInputStream(deflated)), body.length), is(body));
+        assertThat("Response without a coding was not passed through", ContentCoding.decode(body, null), is(sameInstance(body)));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsUnknownResponseCoding() throws IOException {
+        ContentCoding.decode(new byte[10], "br");
+    }
+
+    @Test
+    public void measuresCompressionOfLargePayloads() throws IOException {
+        // The largest compressed size of each payload with deflate, in percent of the original.
+        Object[][] payloads = {
+                {"E2E location update", createE2EBody(), 80},
+                {"Stop " + GROUP_SIZE + " shares", createBulkBody(), 45},
+                {"Share list of " + GROUP_SIZE + " shares", createShareListResponse(), 70},
+        };
+        for (Object[] payload : payloads) {
+            byte[] body = ((String) payload[1]).getBytes(StandardCharsets.UTF_8);
+            int deflate = ContentCoding.encode(body, ContentCoding.DEFLATE).length;
+            int gzip = ContentCoding.encode(body, ContentCoding.GZIP).length;
+            assertTrue(payload[0] + " compressed to " + deflate + " of " + body.length + " bytes", deflate * 100 <= body.length * (Integer) payload[2]);
+            // gzip only adds a longer header and trailer to the same compressed data.
+            assertTrue(payload[0] + " is " + gzip + " bytes with gzip, " + deflate + " with deflate", gzip > deflate && gzip <= deflate + 16);
+        }
+
+        byte[] e2e = createE2EBody().getBytes(StandardCharsets.UTF_8);
+        assertThat("Coding negotiated before the backend advertised any", ContentCoding.negotiate(URL, e2e.length), is(nullValue()));
+        ContentCoding.onResponse(URL, "gzip, deflate");
+        assertThat("Coding for an E2E location update", ContentCoding.negotiate(URL, e2e.length), is(ContentCoding.DEFLATE));
+        int deflated = ContentCoding.encode(e2e, ContentCoding.DEFLATE).length;
+        assertTrue("E2E location update grew from " + e2e.length + " to " + deflated + " bytes", deflated < e2e.length);
+    }
+
+    /**
+     * Returns the body of an end-to-end encrypted location update, where each field is encrypted
+     * separately and Base64-encoded with a trailing newline.
+     */
+    private static String createE2EBody() throws IOException {
+        Random random = new Random(1L);
+        StringBuilder sb = new StringBuilder("sid=" + hex(random, 32));
+        for (String field : new String[] {"iv", "lat", "lon", "prv", "time", "spd", "acc"}) {
+            byte[] cipher = new byte[16];
+            random.nextBytes(cipher);
+            sb.append('&').append(field).append('=').append(URLEncoder.encode(Base64.getEncoder().encodeToString(cipher) + "\n", "UTF-8"));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns the body of a request to stop sharing to all shares of a large group.
+     */
+    private static String createBulkBody() throws IOException {
+        Random random = new Random(2L);
+        StringBuilder sb = new StringBuilder("sid=" + hex(random, 32));
+        for (int i = 0; i < GROUP_SIZE; i++) {
+            sb.append('&').append(URLEncoder.encode("lid[]", "UTF-8")).append('=').append(linkID(random));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns the response of post.php for a session that shares to many groups.
+     */
+    private static String createShareListResponse() {
+        Random random = new Random(3L);
+        StringBuilder shares = new StringBuilder();
+        for (int i = 0; i < GROUP_SIZE; i++) {
+            if (i > 0) shares.append(',');
+            shares.append(linkID(random));
+        }
+        return "OK\n" + URL + "?%s\n" + shares + "\n\n1\n";
+    }
+
+    private static String linkID(Random random) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 9; i++) sb.append(i == 4 ? '-' : (char) ('A' + random.nextInt(26)));
+        return sb.toString();
+    }
+
+    private static String hex(Random random, int bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < bytes; i++) sb.append(String.format("%02x", random.nextInt(256)));
+        return sb.toString();
+    }
+}
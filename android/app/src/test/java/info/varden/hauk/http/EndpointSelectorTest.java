@@ -0,0 +1,70 @@
+package info.varden.hauk.http;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import info.varden.hauk.http.security.CertificateValidationPolicy;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+public final class EndpointSelectorTest {
+
+    @Test
+    public void failsOverAfterRepeatedFailures() {
+        EndpointSelector selector = new EndpointSelector(2);
+        assertThat("Primary not tried first", selector.order(0L).get(0), is(0));
+        selector.onFailure(0, 0L);
+        assertThat("Failed over after a single failure", selector.order(0L).get(0), is(0));
+        selector.onFailure(0, 1000L);
+        assertThat("Mirror not tried first after repeated failures", selector.order(1000L).get(0), is(1));
+        assertThat("Failing primary not tried after mirror", selector.order(1000L).get(1), is(0));
+        assertThat("Switch to mirror not reported", selector.onSuccess(1, 200L, 1500L), is(0));
+        assertThat("Switch reported again for same server", selector.onSuccess(1, 200L, 2500L), is(-1));
+    }
+
+    @Test
+    public void failsBackWhenPrimaryRecovers() {
+        EndpointSelector selector = new EndpointSelector(2);
+        assertThat("Switch reported for first success on primary", selector.onSuccess(0, 100L, 0L), is(-1));
+        selector.onFailure(0, 1000L);
+        selector.onFailure(0, 2000L);
+        assertThat("Switch to mirror not reported", selector.onSuccess(1, 200L, 3000L), is(0));
+        assertThat("Primary retried before its errors expired", selector.order(20000L).get(0), is(1));
+        assertThat("Primary not retried after its errors expired", selector.order(35000L).get(0), is(0));
+        assertThat("Switch back to primary not reported", selector.onSuccess(0, 100L, 35500L), is(1));
+    }
+
+    @Test
+    public void prefersPrimaryUnlessMirrorIsMuchFaster() {
+        EndpointSelector selector = new EndpointSelector(2);
+        selector.onSuccess(0, 120L, 0L);
+        selector.onSuccess(1, 100L, 0L);
+        assertThat("Slightly faster mirror preferred over primary", selector.order(0L).get(0), is(0));
+
+        selector = new EndpointSelector(2);
+        selector.onSuccess(0, 1000L, 0L);
+        selector.onSuccess(1, 100L, 0L);
+        assertThat("Much faster mirror not preferred over primary", selector.order(0L).get(0), is(1));
+    }
+
+    @Test
+    public void forgetsSelectorsOfEndedSessions() {
+        List<Endpoint> endpoints = createEndpoints(0);
+        EndpointSelector selector = EndpointSelector.forEndpoints(endpoints);
+        assertThat("Selector not shared by equal endpoint lists", EndpointSelector.forEndpoints(createEndpoints(0)), is(sameInstance(selector)));
+        EndpointSelector.forget(endpoints);
+        assertThat("Forgotten selector reused", EndpointSelector.forEndpoints(endpoints), is(not(sameInstance(selector))));
+        EndpointSelector.forget(endpoints);
+
+        for (int i = 0; i < 100; i++) EndpointSelector.forEndpoints(createEndpoints(i));
+        assertTrue(EndpointSelector.count() + " selectors are kept", EndpointSelector.count() <= 16);
+    }
+
+    private static List<Endpoint> createEndpoints(int index) {
+        ConnectionParameters params = new ConnectionParameters(null, null, 10000, CertificateValidationPolicy.VALIDATE_ALL);
+        return Arrays.asList(new Endpoint("https://" + index + ".example.com/", params), new Endpoint("https://mirror.example.com/", params));
+    }
+}
@@ -0,0 +1,66 @@
+package info.varden.hauk.http;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import info.varden.hauk.http.security.CertificateValidationPolicy;
+import info.varden.hauk.struct.Version;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+public final class LoopbackTransportTest {
+
+    private static final String URL = "loopback://test/";
+
+    @After
+    public void tearDown() {
+        LoopbackTransport.unregister(URL);
+    }
+
+    @Test
+    public void deliversPacketToRegisteredBackend() throws Exception {
+        LoopbackTransport.register(URL, new Version("1.7"), new LoopbackTransport.Backend() {
+            @Override
+            public String[] handle(String path, Map<String, String> data) {
+                return new String[] {"OK", path, data.get("sid")};
+            }
+        });
+        Endpoint endpoint = createEndpoint();
+        Map<String, String> data = new HashMap<>();
+        data.put("sid", "abc");
+        ConnectionThread.Response resp = endpoint.getConnectionParameters().getTransport().send(createRequest(endpoint, data), endpoint, false);
+        assertThat("Packet delivery failed", resp.getException(), is(nullValue()));
+        assertThat("Path and data not passed to the backend", resp.getData(), is(new String[] {"OK", "api/post.php", "abc"}));
+        assertTrue("Backend version not returned", resp.getServerVersion().isAtLeast(new Version("1.7")));
+    }
+
+    @Test(expected = IOException.class)
+    public void failsWithoutBackend() throws Exception {
+        Endpoint endpoint = createEndpoint();
+        endpoint.getConnectionParameters().getTransport().send(createRequest(endpoint, Collections.<String, String>emptyMap()), endpoint, false);
+    }
+
+    @Test
+    public void defaultsToHttp() {
+        ConnectionParameters params = new ConnectionParameters(null, null, 10000, CertificateValidationPolicy.VALIDATE_ALL);
+        assertThat("Transport does not default to HTTP", params.getTransport(), is(instanceOf(HttpTransport.class)));
+        assertThat("Transport lost when copying parameters", params.withTransport(new LoopbackTransport()).withoutProxy().getTransport(), is(instanceOf(LoopbackTransport.class)));
+    }
+
+    private static Endpoint createEndpoint() {
+        ConnectionParameters params = new ConnectionParameters(null, null, 10000, CertificateValidationPolicy.VALIDATE_ALL);
+        return new Endpoint(URL, params.withTransport(new LoopbackTransport()));
+    }
+
+    private static ConnectionThread.Request createRequest(Endpoint endpoint, Map<String, String> data) {
+        List<Endpoint> endpoints = Collections.singletonList(endpoint);
+        return new ConnectionThread.Request(null, endpoints, "api/post.php", data, 1, (short) 0, true);
+    }
+}
@@ -0,0 +1,61 @@
+package info.varden.hauk.http;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+public final class WebSocketFramesTest {
+
+    @Test
+    public void roundTripsMaskedAndUnmaskedFrames() throws IOException {
+        for (Random random : Arrays.asList(new Random(1L), null)) {
+            for (int length : new int[] {0, 1, 125, 126, 127, 65535, 65536}) {
+                byte[] payload = new byte[length];
+                new Random(length).nextBytes(payload);
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                int written = WebSocketFrames.write(out, WebSocketFrames.OPCODE_TEXT, payload, random);
+                assertThat("Wrong number of bytes reported for length " + length, written, is(out.size()));
+                assertThat("Header length mismatch for length " + length, written, is(WebSocketFrames.headerLength(length, random != null) + length));
+
+                WebSocketFrames.Frame frame = WebSocketFrames.read(new ByteArrayInputStream(out.toByteArray()));
+                assertTrue("Frame not final", frame.isFinal());
+                assertFalse("Text frame read as control frame", frame.isControl());
+                assertThat("Opcode not preserved", frame.getOpcode(), is(WebSocketFrames.OPCODE_TEXT));
+                assertThat("Payload of length " + length + " not preserved", frame.getPayload(), is(payload));
+            }
+        }
+    }
+
+    @Test
+    public void masksClientFrames() throws IOException {
+        byte[] payload = "P 1\nsid=abc".getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WebSocketFrames.write(out, WebSocketFrames.OPCODE_TEXT, payload, new Random(1L));
+        byte[] frame = out.toByteArray();
+        assertThat("Mask bit not set", frame[1] & 0x80, is(0x80));
+        assertThat("Payload sent in clear text", new String(frame, StandardCharsets.UTF_8).contains("sid=abc"), is(false));
+    }
+
+    @Test(expected = EOFException.class)
+    public void failsOnTruncatedFrame() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WebSocketFrames.write(out, WebSocketFrames.OPCODE_PING, new byte[10], null);
+        WebSocketFrames.read(new ByteArrayInputStream(Arrays.copyOf(out.toByteArray(), 8)));
+    }
+
+    @Test
+    public void computesAcceptKey() {
+        // Example from RFC 6455 section 1.3.
+        assertThat("Accept key does not match RFC 6455", WebSocketFrames.acceptKey("dGhlIHNhbXBsZSBub25jZQ=="), is("s3pPLMBiTxaQ9kYGzzhZRbK+xOo="));
+        assertThat("Handshake key is not 16 bytes in Base64", WebSocketFrames.newKey(new Random(1L)).length(), is(24));
+    }
+}
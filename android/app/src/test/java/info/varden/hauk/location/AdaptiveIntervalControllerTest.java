@@ -0,0 +1,138 @@
+package info.varden.hauk.location;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+public final class AdaptiveIntervalControllerTest {
+
+    private static final long MIN_INTERVAL = 1000L;
+    private static final long MAX_INTERVAL = 60000L;
+    private static final long HOUR = 3600000L;
+    private static final double LATITUDE = 59.9139;
+    private static final double LONGITUDE = 10.7522;
+
+    @Test
+    public void stretchesWhenStationary() {
+        AdaptiveIntervalController controller = new AdaptiveIntervalController(MIN_INTERVAL, MAX_INTERVAL);
+        long time = 0L;
+        for (int i = 0; i < 20; i++) {
+            controller.onFix(time, LATITUDE, LONGITUDE, 5.0F, true, 0.0F);
+            time += controller.getIntervalMillis();
+        }
+        assertThat("Interval not stretched to maximum", controller.getIntervalMillis(), is(MAX_INTERVAL));
+    }
+
+    @Test
+    public void tightensImmediatelyWhenMoving() {
+        AdaptiveIntervalController controller = new AdaptiveIntervalController(MIN_INTERVAL, MAX_INTERVAL);
+        long time = 0L;
+        for (int i = 0; i < 20; i++) {
+            controller.onFix(time, LATITUDE, LONGITUDE, 5.0F, true, 0.0F);
+            time += controller.getIntervalMillis();
+        }
+        assertThat("Interval change not reported", controller.onFix(time, LATITUDE, LONGITUDE, 5.0F, true, 30.0F), is(true));
+        assertThat("Interval not tightened to minimum", controller.getIntervalMillis(), is(MIN_INTERVAL));
+    }
+
+    @Test
+    public void ignoresInsignificantChanges() {
+        AdaptiveIntervalController controller = new AdaptiveIntervalController(MIN_INTERVAL, MAX_INTERVAL);
+        // 25 m at 2.5 m/s gives a 10 second interval; 2.3 m/s gives 10.9 seconds.
+        assertThat("Initial change not reported", controller.onFix(0L, LATITUDE, LONGITUDE, 5.0F, true, 2.5F), is(true));
+        assertThat("Unexpected interval", controller.getIntervalMillis(), is(10000L));
+        assertThat("Insignificant change reported", controller.onFix(10000L, LATITUDE, LONGITUDE, 5.0F, true, 2.3F), is(false));
+        assertThat("Interval changed", controller.getIntervalMillis(), is(10000L));
+    }
+
+    @Test
+    public void ignoresPoorAccuracyDisplacement() {
+        AdaptiveIntervalController controller = new AdaptiveIntervalController(MIN_INTERVAL, MAX_INTERVAL);
+        controller.onFix(0L, LATITUDE, LONGITUDE, 50.0F, false, 0.0F);
+        // Moving 40 m within a 50 m accuracy radius is noise, not movement.
+        controller.onFix(1000L, LATITUDE, offsetLongitude(40.0), 50.0F, false, 0.0F);
+        assertThat("Noise treated as movement", controller.getSpeedEstimate(), is(0.0F));
+        // Fixes with very poor accuracy are ignored altogether.
+        assertThat("Poor fix changed interval", controller.onFix(2000L, LATITUDE, offsetLongitude(5000.0), 1500.0F, false, 0.0F), is(false));
+    }
+
+    /**
+     * Replays an hour of movement (parked, driving, walking, parked again) where the location
+     * provider delivers a fix at each requested interval, and compares the number of fixes and
+     * posts to a fixed one-second interval.
+     */
+    @Test
+    public void traceReplaySavesFixes() {
+        int[] fixed = replay(null);
+        int[] adaptive = replay(new AdaptiveIntervalController(MIN_INTERVAL, MAX_INTERVAL));
+        assertThat("Unexpected number of fixes at a fixed interval", fixed[0], is(3600));
+        assertTrue("Fewer than half of the fixes saved: " + adaptive[0] + " of " + fixed[0], adaptive[0] < fixed[0] / 2);
+        assertTrue("No posts saved: " + adaptive[1] + " of " + fixed[1], adaptive[1] < fixed[1]);
+        // Posts are still needed while moving, so slowing down must not lose much of the track.
+        assertTrue("Too many posts lost: " + adaptive[1] + " of " + fixed[1], adaptive[1] > fixed[1] * 9 / 10);
+        assertTrue("More than one re-registration per minute: " + adaptive[2], adaptive[2] <= 60);
+    }
+
+    /**
+     * Replays the test trace with the given controller, or with a fixed minimum interval if null.
+     * Posts are fixes that pass a 10 meter minimum distance filter.
+     *
+     * @return The number of fixes, posts and interval changes.
+     */
+    private static int[] replay(AdaptiveIntervalController controller) {
+        Random noise = new Random(42L);
+        double minDistance = 10.0;
+        int fixes = 0;
+        int posts = 0;
+        int reregistrations = 0;
+        double position = 0.0;
+        double lastPosted = Double.NaN;
+        long time = 0L;
+        long lastTime = 0L;
+
+        while (time < HOUR) {
+            position += speedAt(time) * (time - lastTime) / 1000.0;
+            double measured = position + noise.nextGaussian() * 3.0;
+            float speed = (float) Math.max(0.0, speedAt(time) + noise.nextGaussian() * 0.2);
+            fixes++;
+            if (Double.isNaN(lastPosted) || Math.abs(measured - lastPosted) >= minDistance) {
+                lastPosted = measured;
+                posts++;
+            }
+
+            long interval = MIN_INTERVAL;
+            if (controller != null) {
+                if (controller.onFix(time, LATITUDE, offsetLongitude(measured), 8.0F, true, speed)) reregistrations++;
+                interval = controller.getIntervalMillis();
+                assertTrue("Interval " + interval + " out of bounds", interval >= MIN_INTERVAL && interval <= MAX_INTERVAL);
+                if (speedAt(time) > 20.0 && speedAt(time - 5000L) > 20.0) {
+                    assertThat("Interval not at minimum while driving", interval, is(MIN_INTERVAL));
+                }
+            }
+            lastTime = time;
+            time += interval;
+        }
+        return new int[] {fixes, posts, reregistrations};
+    }
+
+    /**
+     * The speed in meters per second at the given time of the replayed trace.
+     */
+    private static double speedAt(long time) {
+        long minute = time / 60000L;
+        if (minute < 15L) return 0.0;  // Parked
+        if (minute < 35L) return 25.0; // Driving on the highway
+        if (minute < 45L) return 1.4;  // Walking
+        return 0.0;                    // Parked again
+    }
+
+    /**
+     * Returns the longitude that is the given number of meters east of the test location.
+     */
+    private static double offsetLongitude(double meters) {
+        return LONGITUDE + Math.toDegrees(meters / (6371008.8 * Math.cos(Math.toRadians(LATITUDE))));
+    }
+}
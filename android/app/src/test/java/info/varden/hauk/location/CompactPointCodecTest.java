@@ -0,0 +1,112 @@
+package info.varden.hauk.location;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+public final class CompactPointCodecTest {
+
+    private static final long START = 1572000000000L;
+
+    @Test
+    public void roundTripsWithinPrecision() {
+        Random random = new Random(11L);
+        for (int precision = 4; precision <= 7; precision++) {
+            double tolerance = 0.5 / Math.pow(10.0, precision) + 1.0E-12;
+            CompactPointEncoder encoder = new CompactPointEncoder(precision);
+            double[][] points = new double[200][];
+            long time = START;
+            for (int i = 0; i < points.length; i++) {
+                time += random.nextInt(10000) - 1000;
+                points[i] = new double[] {time, random.nextDouble() * 180.0 - 90.0, random.nextDouble() * 360.0 - 180.0, i % 3 == 0 ? -1.0 : random.nextInt(5000) / 10.0, i % 4 == 0 ? -1.0 : random.nextInt(10000) / 100.0};
+                encoder.add((long) points[i][0], points[i][1], points[i][2], (float) points[i][3], (float) points[i][4]);
+            }
+            assertThat("Points not counted by the encoder", encoder.getCount(), is(points.length));
+
+            CompactPointDecoder decoder = new CompactPointDecoder(encoder.toByteArray());
+            for (double[] point : points) {
+                assertThat("Point missing from decoded message", decoder.next(), is(true));
+                assertThat("Time not decoded exactly", decoder.getTime(), is((long) point[0]));
+                assertEquals("Latitude not decoded within precision " + precision, point[1], decoder.getLatitude(), tolerance);
+                assertEquals("Longitude not decoded within precision " + precision, point[2], decoder.getLongitude(), tolerance);
+                assertEquals("Accuracy not decoded to a tenth of a meter", point[3], decoder.getAccuracy(), 0.05);
+                assertEquals("Speed not decoded to a hundredth of a meter per second", point[4], decoder.getSpeed(), 0.005);
+            }
+            assertThat("Decoder returned more points than were encoded", decoder.next(), is(false));
+        }
+    }
+
+    @Test
+    public void encodesPointBufferBatch() {
+        PointBuffer buffer = new PointBuffer(10);
+        buffer.add(START, 59.9139, 10.7522, 4.5F, 1.5F);
+        buffer.add(START + 100L, 59.913901, 10.752203, -1.0F, -1.0F);
+        CompactPointEncoder encoder = new CompactPointEncoder(6);
+        assertThat("Buffered points not drained into the encoder", buffer.drain(encoder, 10), is(2));
+        assertThat("Drained batch not marked as in flight", buffer.isInFlight(), is(true));
+
+        CompactPointDecoder decoder = new CompactPointDecoder(encoder.toByteArray());
+        assertThat("First point missing from batch", decoder.next(), is(true));
+        assertThat("First point time not preserved", decoder.getTime(), is(START));
+        assertEquals("First point accuracy not preserved", 4.5F, decoder.getAccuracy(), 0.0F);
+        assertThat("Second point missing from batch", decoder.next(), is(true));
+        assertThat("Second point time not preserved", decoder.getTime(), is(START + 100L));
+        assertEquals("Second point longitude not preserved", 10.752203, decoder.getLongitude(), 1.0E-9);
+        assertEquals("Missing speed not preserved", -1.0F, decoder.getSpeed(), 0.0F);
+        assertThat("Batch contains more than two points", decoder.next(), is(false));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTruncatedMessage() {
+        CompactPointEncoder encoder = new CompactPointEncoder(6);
+        encoder.add(START, 1.0, 1.0, 1.0F, 1.0F);
+        byte[] data = encoder.toByteArray();
+        byte[] truncated = new byte[data.length - 3];
+        System.arraycopy(data, 0, truncated, 0, truncated.length);
+        CompactPointDecoder decoder = new CompactPointDecoder(truncated);
+        //noinspection StatementWithEmptyBody
+        while (decoder.next()) ;
+    }
+
+    /**
+     * Compares the size of a single post and of a ten-minute batch of 1 Hz points from a walk in
+     * the compact point format with the form-encoded decimal parameters and the batch text format.
+     */
+    @Test
+    public void isSmallerThanDecimalFormats() {
+        Random random = new Random(5L);
+        double lat = 59.9139;
+        double lon = 10.7522;
+        long time = START;
+
+        String decimal = "lat=" + lat + "&lon=" + lon + "&time=" + time / 1000.0 + "&acc=" + 4.8F + "&spd=" + 1.42F + "&prv=0";
+        CompactPointEncoder single = new CompactPointEncoder(6);
+        single.add(time, lat, lon, 4.8F, 1.42F);
+        int singleCompact = "cpt=".length() + base64Length(single.size()) + "&prv=0".length();
+
+        PointBuffer buffer = new PointBuffer(600);
+        for (int i = 0; i < 600; i++) {
+            lat += (random.nextDouble() - 0.3) * 1.0E-5;
+            lon += (random.nextDouble() - 0.3) * 2.0E-5;
+            buffer.add(time += 1000L, lat, lon, 3.0F + random.nextInt(50) / 10.0F, 1.0F + random.nextInt(100) / 100.0F);
+        }
+        StringBuilder text = new StringBuilder();
+        buffer.drain(text, 600);
+        buffer.retry();
+        CompactPointEncoder batch = new CompactPointEncoder(6);
+        buffer.drain(batch, 600);
+
+        int batchCompact = base64Length(batch.size());
+        assertThat("Batch not fully drained into the encoder", batch.getCount(), is(600));
+        assertTrue("Single point " + singleCompact + " bytes, " + decimal.length() + " in decimal", singleCompact * 3 < decimal.length() * 2);
+        assertTrue("Batch " + batchCompact + " bytes, " + text.length() + " as text", batchCompact * 3 < text.length());
+        assertTrue("More than 10 bytes per point in a batch: " + batchCompact, batchCompact <= 10 * batch.getCount());
+    }
+
+    private static int base64Length(int bytes) {
+        return (bytes + 2) / 3 * 4;
+    }
+}
@@ -0,0 +1,181 @@
+package info.varden.hauk.location;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+public final class DeadReckoningPredictorTest {
+
+    private static final double LATITUDE = 59.9139;
+    private static final double LONGITUDE = 10.7522;
+    private static final double METERS_PER_DEGREE = 6371008.8 * Math.PI / 180.0;
+    private static final long INTERVAL = 1000L;
+    private static final int REFRESH_INTERVALS = 10;
+
+    @Test
+    public void predictsAlongDirectionOfMovement() {
+        DeadReckoningPredictor predictor = new DeadReckoningPredictor(10.0F, REFRESH_INTERVALS);
+        predictor.onPosted(0L, LATITUDE, LONGITUDE, 10.0F);
+        predictor.onPosted(1000L, LATITUDE, east(10.0), 10.0F);
+        double[] predicted = predictor.predict(3000L);
+        assertThat("Latitude drifted", Math.abs(predicted[0] - LATITUDE) < 1.0E-6, is(true));
+        assertThat("Wrong distance travelled", Math.round(AdaptiveIntervalController.distance(LATITUDE, east(10.0), predicted[0], predicted[1])), is(20L));
+    }
+
+    @Test
+    public void skipsOnlyWithinTolerance() {
+        DeadReckoningPredictor predictor = new DeadReckoningPredictor(10.0F, REFRESH_INTERVALS);
+        assertThat("First fix skipped", predictor.shouldPost(0L, LATITUDE, LONGITUDE, INTERVAL), is(true));
+        predictor.onPosted(0L, LATITUDE, LONGITUDE, 10.0F);
+        predictor.onPosted(1000L, LATITUDE, east(10.0), 10.0F);
+        assertThat("Predicted fix posted", predictor.shouldPost(2000L, LATITUDE, east(25.0), INTERVAL), is(false));
+        assertThat("Fix off prediction skipped", predictor.shouldPost(2000L, LATITUDE, east(5.0), INTERVAL), is(true));
+    }
+
+    @Test
+    public void forcesRefresh() {
+        DeadReckoningPredictor predictor = new DeadReckoningPredictor(10.0F, REFRESH_INTERVALS);
+        predictor.onPosted(0L, LATITUDE, LONGITUDE, 0.0F);
+        predictor.onPosted(1000L, LATITUDE, LONGITUDE, 0.0F);
+        assertThat("Fix posted before refresh", predictor.shouldPost(10000L, LATITUDE, LONGITUDE, INTERVAL), is(false));
+        assertThat("Fix skipped after K intervals", predictor.shouldPost(11000L, LATITUDE, LONGITUDE, INTERVAL), is(true));
+        // The refresh never waits longer than the offline timeout allows.
+        assertThat("Fix skipped for too long", predictor.shouldPost(21000L, LATITUDE, LONGITUDE, 5000L), is(true));
+    }
+
+    /**
+     * Replays recorded-style tracks with correlated GNSS noise, and checks the upload reduction and
+     * the largest distance between the position shown in the frontend (the last post, extrapolated)
+     * and the true position for a range of tolerances.
+     */
+    @Test
+    public void traceReplayReducesUploads() {
+        String[] names = {"highway", "city", "walk"};
+        List<List<double[]>> tracks = Arrays.asList(highway(), city(), walk());
+        for (float tolerance : new float[] {10.0F, 25.0F, 50.0F}) {
+            for (int i = 0; i < tracks.size(); i++) {
+                double[] result = replay(tracks.get(i), tolerance);
+                String label = names[i] + " at " + tolerance + " m tolerance";
+                assertTrue("Error beyond tolerance on " + label + ": " + result[1] + " m", result[1] <= tolerance + 15.0);
+                assertTrue("Fewer than 80% of uploads saved on " + label + ": " + result[0] + " posted", result[0] < 0.2);
+                if (i == 0 && tolerance >= 25.0F) assertTrue("Too few highway uploads saved", result[0] < 0.5);
+                if (i < 2) {
+                    // Vehicles move far between posts, so extrapolation must at least halve the
+                    // error compared to showing the last post.
+                    assertTrue("Prediction did not halve the error on " + label + ": " + result[1] + " m vs " + result[2] + " m", result[1] < result[2] / 2.0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Replays a track of true positions in meters east and north of the test location, one per
+     * interval.
+     *
+     * @return The fraction of fixes posted, the largest error of the frontend position with the
+     *         predictor and the largest error if the frontend did not extrapolate.
+     */
+    private static double[] replay(List<double[]> track, float tolerance) {
+        Random random = new Random(7L);
+        DeadReckoningPredictor predictor = new DeadReckoningPredictor(tolerance, REFRESH_INTERVALS);
+        double noiseX = 0.0;
+        double noiseY = 0.0;
+        int posts = 0;
+        double maxError = 0.0;
+        double maxStaticError = 0.0;
+        double[] lastPosted = null;
+
+        for (int i = 0; i < track.size(); i++) {
+            long time = i * INTERVAL;
+            double[] truth = track.get(i);
+            // GNSS error drifts slowly rather than jumping between fixes.
+            noiseX = 0.9 * noiseX + random.nextGaussian();
+            noiseY = 0.9 * noiseY + random.nextGaussian();
+            double x = truth[0] + noiseX;
+            double y = truth[1] + noiseY;
+            double latitude = LATITUDE + y / METERS_PER_DEGREE;
+            double longitude = east(x);
+
+            if (predictor.shouldPost(time, latitude, longitude, INTERVAL)) {
+                predictor.onPosted(time, latitude, longitude, (float) Math.max(0.0, truth[2] + random.nextGaussian() * 0.3));
+                lastPosted = new double[] {latitude, longitude};
+                posts++;
+            }
+            double[] shown = predictor.predict(time);
+            double truthLatitude = LATITUDE + truth[1] / METERS_PER_DEGREE;
+            maxError = Math.max(maxError, AdaptiveIntervalController.distance(shown[0], shown[1], truthLatitude, east(truth[0])));
+            maxStaticError = Math.max(maxStaticError, AdaptiveIntervalController.distance(lastPosted[0], lastPosted[1], truthLatitude, east(truth[0])));
+        }
+        return new double[] {(double) posts / track.size(), maxError, maxStaticError};
+    }
+
+    /**
+     * Ten minutes at 30 m/s, mostly straight with a long curve and a lane change.
+     */
+    private static List<double[]> highway() {
+        TrackBuilder track = new TrackBuilder();
+        track.drive(240, 30.0, 0.0);
+        track.drive(120, 30.0, 0.5);
+        track.drive(200, 28.0, 0.0);
+        track.drive(40, 25.0, -0.3);
+        return track.points;
+    }
+
+    /**
+     * Ten minutes of city driving with turns at each block and stops at traffic lights.
+     */
+    private static List<double[]> city() {
+        TrackBuilder track = new TrackBuilder();
+        for (int block = 0; block < 12; block++) {
+            track.drive(20, 12.0, 0.0);
+            track.drive(6, 6.0, block % 2 == 0 ? 15.0 : -15.0);
+            track.drive(10, 10.0, 0.0);
+            if (block % 3 == 0) track.drive(15, 0.0, 0.0);
+        }
+        return track.points;
+    }
+
+    /**
+     * Ten minutes of walking along streets.
+     */
+    private static List<double[]> walk() {
+        TrackBuilder track = new TrackBuilder();
+        for (int street = 0; street < 5; street++) {
+            track.drive(100, 1.4, 0.0);
+            track.drive(20, 1.4, 4.5);
+        }
+        return track.points;
+    }
+
+    /**
+     * Returns the longitude that is the given number of meters east of the test location.
+     */
+    private static double east(double meters) {
+        return LONGITUDE + meters / (METERS_PER_DEGREE * Math.cos(Math.toRadians(LATITUDE)));
+    }
+
+    /**
+     * Builds a track of true positions, one per second, as meters east, meters north and speed.
+     */
+    private static final class TrackBuilder {
+        private final List<double[]> points = new ArrayList<>();
+        private double x = 0.0;
+        private double y = 0.0;
+        private double heading = 0.0;
+
+        private void drive(int seconds, double speed, double turnDegreesPerSecond) {
+            for (int i = 0; i < seconds; i++) {
+                this.heading += Math.toRadians(turnDegreesPerSecond);
+                this.x += speed * Math.sin(this.heading);
+                this.y += speed * Math.cos(this.heading);
+                this.points.add(new double[] {this.x, this.y, speed});
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package info.varden.hauk.location;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+public final class DutyCycleTest {
+
+    private static final long HOUR = 3600000L;
+    private static final float ACCURACY_TARGET = 20.0F;
+
+    /**
+     * Nominal current draw of an active GNSS receiver in milliamperes, used to estimate the battery
+     * cost of the provider active time.
+     */
+    private static final double GNSS_CURRENT_MA = 25.0;
+
+    @Test
+    public void appliesOnlyToLongIntervals() {
+        assertThat("Applied to short interval", DutyCycle.appliesTo(1000L), is(false));
+        assertThat("Not applied to long interval", DutyCycle.appliesTo(300000L), is(true));
+    }
+
+    @Test
+    public void keepsMostAccurateCandidate() {
+        DutyCycle duty = new DutyCycle(ACCURACY_TARGET);
+        duty.openWindow(0L);
+        assertThat(duty.onFix(1000L, 50.0F), is(DutyCycle.FIX_CANDIDATE));
+        assertThat(duty.onFix(2000L, 60.0F), is(DutyCycle.FIX_DISCARDED));
+        assertThat(duty.onFix(3000L, 30.0F), is(DutyCycle.FIX_CANDIDATE));
+        assertThat(duty.onFix(4000L, 15.0F), is(DutyCycle.FIX_ACCEPTED));
+        duty.closeWindow(4000L, 300000L);
+        assertThat("Window still open", duty.isWindowOpen(), is(false));
+        assertThat("Fix not accepted", duty.wasAccepted(), is(true));
+        assertThat("Fix accepted with window closed", duty.onFix(5000L, 5.0F), is(DutyCycle.FIX_DISCARDED));
+    }
+
+    @Test
+    public void leadTimeFollowsTimeToFix() {
+        DutyCycle duty = new DutyCycle(ACCURACY_TARGET);
+        long initial = duty.getLeadTimeMillis();
+        // Windows that time out push the next window earlier.
+        duty.openWindow(0L);
+        long delay = duty.closeWindow(duty.getTimeoutMillis(300000L), 300000L);
+        assertTrue("Lead time did not grow after timeout", duty.getLeadTimeMillis() > initial);
+        assertThat("Next window not scheduled ahead of the update", delay, is(300000L - duty.getLeadTimeMillis()));
+        // Quick fixes shrink it again.
+        for (int i = 0; i < 20; i++) {
+            duty.openWindow(0L);
+            duty.onFix(2000L, 5.0F);
+            duty.closeWindow(2000L, 300000L);
+        }
+        assertTrue("Lead time did not shrink after quick fixes", duty.getLeadTimeMillis() < initial);
+    }
+
+    /**
+     * Replays an hour of sharing with a simulated GNSS receiver and estimates the battery cost of
+     * the provider active time compared to keeping GNSS active for the whole hour.
+     */
+    @Test
+    public void replayEstimatesBatterySavings() {
+        for (long interval : new long[] {60000L, 300000L}) {
+            long[] result = replay(interval);
+            long active = result[0];
+            long reports = result[1];
+            double dutyCost = GNSS_CURRENT_MA * active / HOUR;
+            assertTrue("Too few reports at interval " + interval, reports >= HOUR / interval - 1L);
+            assertTrue("GNSS active too long at interval " + interval, active < (interval >= 300000L ? HOUR / 10L : HOUR / 2L));
+            // Duty cycling should cost at most a quarter of continuous GNSS at a one-minute
+            // interval, and at most a twentieth at five minutes.
+            double maxCost = GNSS_CURRENT_MA / (interval >= 300000L ? 20.0 : 4.0);
+            assertTrue("Estimated " + dutyCost + " mAh/h at interval " + interval + ", expected below " + maxCost, dutyCost < maxCost);
+        }
+    }
+
+    /**
+     * Simulates duty-cycled acquisition for an hour. After powering up, the receiver delivers its
+     * first fix after 3 to 8 seconds and one fix per second after that, with the accuracy improving
+     * as it settles. In one window out of ten, the sky is obstructed and no fix meets the target.
+     *
+     * @return The provider active time in milliseconds and the number of reports.
+     */
+    private static long[] replay(long interval) {
+        Random random = new Random(42L);
+        DutyCycle duty = new DutyCycle(ACCURACY_TARGET);
+        long time = 0L;
+        long lastReport = -1L;
+        long reports = 0L;
+
+        while (time < HOUR) {
+            duty.openWindow(time);
+            long timeout = time + duty.getTimeoutMillis(interval);
+            long firstFix = time + 3000L + (long) (random.nextDouble() * 5000.0);
+            boolean obstructed = random.nextDouble() < 0.1;
+            long reportAt = timeout;
+            for (long t = firstFix; t < timeout; t += 1000L) {
+                float accuracy = obstructed ? 35.0F : Math.max(5.0F, 40.0F - 4.0F * (t - firstFix) / 1000.0F);
+                if (duty.onFix(t, accuracy) == DutyCycle.FIX_ACCEPTED) {
+                    reportAt = t;
+                    break;
+                }
+            }
+            if (lastReport >= 0L) {
+                long gap = reportAt - lastReport;
+                assertTrue("Gap of " + gap + " ms between reports", gap <= interval + duty.getTimeoutMillis(interval));
+            }
+            lastReport = reportAt;
+            reports++;
+            time = reportAt + duty.closeWindow(reportAt, interval);
+        }
+        return new long[] {duty.getActiveTimeMillis(), reports};
+    }
+}
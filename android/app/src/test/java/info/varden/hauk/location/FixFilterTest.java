@@ -0,0 +1,163 @@
+package info.varden.hauk.location;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+public final class FixFilterTest {
+
+    private static final double LATITUDE = 59.9139;
+    private static final double LONGITUDE = 10.7522;
+    private static final double METERS_PER_DEGREE = 6371008.8 * Math.PI / 180.0;
+    private static final long MAX_AGE = 30000L;
+
+    @Test
+    public void rejectsStaleAndDuplicateFixes() {
+        QualityFilter filter = new QualityFilter(MAX_AGE);
+        Fix fix = new Fix();
+        fix.set(false, 1000L, 1000L, 60000L, LATITUDE, LONGITUDE, 5.0F);
+        assertThat("Stale fix accepted", filter.process(fix), is(false));
+        assertThat(fix.getRejection(), is(Fix.REJECTED_AGE));
+        fix.set(false, 2000L, 2000L, 0L, LATITUDE, LONGITUDE, 5.0F);
+        assertThat("Fresh fix rejected", filter.process(fix), is(true));
+        fix.set(false, 2000L, 3000L, 0L, LATITUDE, LONGITUDE, 5.0F);
+        assertThat("Duplicate fix accepted", filter.process(fix), is(false));
+        assertThat(fix.getRejection(), is(Fix.REJECTED_DUPLICATE));
+        // Timestamps are tracked separately for each provider.
+        fix.set(true, 2000L, 3000L, 0L, LATITUDE, LONGITUDE, 50.0F);
+        assertThat("Coarse fix rejected as duplicate", filter.process(fix), is(true));
+    }
+
+    @Test
+    public void rejectsInaccurateFixesOnlyWhenBetterAreAvailable() {
+        QualityFilter filter = new QualityFilter(MAX_AGE);
+        Fix fix = new Fix();
+        fix.set(true, 1000L, 1000L, 0L, LATITUDE, LONGITUDE, 800.0F);
+        assertThat("Only available fix rejected", filter.process(fix), is(true));
+        fix.set(false, 2000L, 2000L, 0L, LATITUDE, LONGITUDE, 8.0F);
+        filter.process(fix);
+        fix.set(true, 3000L, 3000L, 0L, LATITUDE, LONGITUDE, 800.0F);
+        assertThat("Jittery fix accepted", filter.process(fix), is(false));
+        assertThat(fix.getRejection(), is(Fix.REJECTED_ACCURACY));
+        fix.set(true, 60000L, 60000L, 0L, LATITUDE, LONGITUDE, 800.0F);
+        assertThat("Fix rejected after accurate fixes stopped", filter.process(fix), is(true));
+    }
+
+    /**
+     * Replays noisy synthetic tracks through the filter chain and compares the number of posts
+     * after a 10 meter minimum distance filter, and the error against the true position, with the
+     * raw fixes.
+     */
+    @Test
+    public void smoothingReducesPostsAndError() {
+        double[] still = replay(0.0);
+        double[] walking = replay(1.4);
+        double[] driving = replay(15.0);
+        assertTrue("Posts not reduced when standing still: " + still[1] + " of " + still[0], still[1] < still[0] / 2.0);
+        assertTrue("Posts not reduced when walking: " + walking[1] + " of " + walking[0], walking[1] < walking[0]);
+        // At driving speed, nearly every fix is far enough from the last to be posted. Raw noise
+        // hides some of that movement, which smoothing reveals, so allow a small increase.
+        assertTrue("Posts increased by more than 5% when driving: " + driving[1] + " of " + driving[0], driving[1] <= driving[0] * 1.05);
+        for (double[] result : new double[][] {still, walking, driving}) {
+            assertTrue("Error not reduced: " + result[3] + " m vs " + result[2] + " m", result[3] < result[2]);
+            assertTrue("Filtered RMS error of " + result[3] + " m exceeds the GNSS noise", result[3] < 6.0);
+        }
+    }
+
+    @Test
+    public void doesNotAllocatePerFix() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        FixFilter chain = new FixFilterChain(new QualityFilter(MAX_AGE), new KalmanSmoother());
+        Fix fix = new Fix();
+        long thread = Thread.currentThread().getId();
+        // Warm up first so that JIT compilation does not count.
+        feed(chain, fix, 0, 50000);
+        long before = threads.getThreadAllocatedBytes(thread);
+        feed(chain, fix, 50000, 100000);
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+        assertTrue("Allocated " + allocated + " bytes for 100000 fixes", allocated < 1024L);
+    }
+
+    private static void feed(FixFilter chain, Fix fix, int from, int to) {
+        for (int i = from; i < to; i++) {
+            long time = i * 1000L;
+            fix.set(false, time, time, 0L, LATITUDE + (i % 7) * 1.0E-5, LONGITUDE + (i % 5) * 1.0E-5, 5.0F + i % 3);
+            chain.process(fix);
+        }
+    }
+
+    /**
+     * Replays ten minutes of fixes, one per second, moving east at the given speed with Gaussian
+     * noise. One in twenty fixes is a repeat of the previous fix, and one in fifty is an inaccurate
+     * network fix.
+     *
+     * @return The number of raw and filtered posts, and the RMS error of raw and filtered fixes.
+     */
+    private static double[] replay(double speed) {
+        Random random = new Random(11L);
+        FixFilter chain = new FixFilterChain(new QualityFilter(MAX_AGE), new KalmanSmoother());
+        Fix fix = new Fix();
+        double metersPerLongitude = METERS_PER_DEGREE * Math.cos(Math.toRadians(LATITUDE));
+        Poster raw = new Poster();
+        Poster filtered = new Poster();
+        double rawError = 0.0;
+        double filteredError = 0.0;
+        int rawCount = 0;
+        int filteredCount = 0;
+        long time = 0L;
+
+        for (int i = 0; i < 600; i++) {
+            boolean repeat = i > 0 && i % 20 == 0;
+            if (!repeat) time = i * 1000L;
+            boolean coarse = i % 50 == 25;
+            double sigma = coarse ? 300.0 : 6.0;
+            double truthX = speed * time / 1000.0;
+            double x = truthX + random.nextGaussian() * sigma;
+            double y = random.nextGaussian() * sigma;
+            double latitude = LATITUDE + y / METERS_PER_DEGREE;
+            double longitude = LONGITUDE + x / metersPerLongitude;
+
+            raw.offer(x, y);
+            rawError += (x - truthX) * (x - truthX) + y * y;
+            rawCount++;
+
+            fix.set(coarse, time, i * 1000L, 0L, latitude, longitude, coarse ? 500.0F : 8.0F);
+            if (chain.process(fix)) {
+                double fx = (fix.getLongitude() - LONGITUDE) * metersPerLongitude;
+                double fy = (fix.getLatitude() - LATITUDE) * METERS_PER_DEGREE;
+                filtered.offer(fx, fy);
+                filteredError += (fx - truthX) * (fx - truthX) + fy * fy;
+                filteredCount++;
+            }
+        }
+        return new double[] {raw.posts, filtered.posts, Math.sqrt(rawError / rawCount), Math.sqrt(filteredError / filteredCount)};
+    }
+
+    /**
+     * Counts posts after the minimum distance filter applied by the location push service.
+     */
+    private static final class Poster {
+        private static final double MIN_DISTANCE = 10.0;
+        private int posts = 0;
+        private double lastX = Double.NaN;
+        private double lastY = Double.NaN;
+
+        private void offer(double x, double y) {
+            if (Double.isNaN(this.lastX) || Math.hypot(x - this.lastX, y - this.lastY) >= MIN_DISTANCE) {
+                this.lastX = x;
+                this.lastY = y;
+                this.posts++;
+            }
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package info.varden.hauk.location;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+public final class PointBufferTest {
+
+    private static final long SAMPLE_INTERVAL = 100L;
+    private static final long UPLOAD_INTERVAL = 1000L;
+    private static final int MAX_BATCH_POINTS = 600;
+    private static final long STEADY_MARGIN = 30000L;
+
+    @Test
+    public void encodesBatch() {
+        PointBuffer buffer = new PointBuffer(10);
+        buffer.add(1000000L, 59.9139, 10.7522, 4.56F, 1.5F);
+        buffer.add(1000100L, -33.8688, -151.2093, -1.0F, -1.0F);
+        StringBuilder out = new StringBuilder();
+        assertThat(buffer.drain(out, 10), is(2));
+        assertThat(buffer.getBaseTime(), is(1000000L));
+        assertThat(out.toString(), is("0,59913900,10752200,46,150;100,-33868800,-151209300,,"));
+    }
+
+    @Test
+    public void resendsFailedBatch() {
+        PointBuffer buffer = new PointBuffer(10);
+        buffer.add(0L, 1.0, 1.0, 1.0F, 1.0F);
+        StringBuilder first = new StringBuilder();
+        assertThat(buffer.drain(first, 10), is(1));
+        buffer.add(100L, 2.0, 2.0, 1.0F, 1.0F);
+        assertThat("Drained while in flight", buffer.drain(new StringBuilder(), 10), is(0));
+
+        buffer.retry();
+        StringBuilder second = new StringBuilder();
+        assertThat(buffer.drain(second, 10), is(2));
+        assertThat(second.toString(), startsWith(first.toString() + ";"));
+        buffer.acknowledge();
+        assertThat(buffer.size(), is(0));
+    }
+
+    @Test
+    public void dropsOldestPointNotInFlightWhenFull() {
+        PointBuffer buffer = new PointBuffer(3);
+        buffer.add(0L, 0.0, 0.0, 1.0F, 1.0F);
+        buffer.add(100L, 0.0, 0.0, 1.0F, 1.0F);
+        buffer.drain(new StringBuilder(), 1);
+        buffer.add(200L, 0.0, 0.0, 1.0F, 1.0F);
+        buffer.add(300L, 0.0, 0.0, 1.0F, 1.0F);
+        assertThat(buffer.getDropped(), is(1L));
+
+        // The point in flight is still acknowledged, and the point at 100 ms is the one dropped.
+        buffer.acknowledge();
+        StringBuilder out = new StringBuilder();
+        assertThat(buffer.drain(out, 10), is(2));
+        assertThat(buffer.getBaseTime(), is(200L));
+        assertThat(out.toString(), startsWith("0,"));
+        assertThat(out.toString(), containsString(";100,"));
+    }
+
+    @Test
+    public void addDoesNotAllocate() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+
+        PointBuffer buffer = new PointBuffer(1000);
+        // Warm up so that the measured loop is compiled, and wrap around the buffer.
+        for (int i = 0; i < 100000; i++) buffer.add(i, 1.0, 2.0, 3.0F, 4.0F);
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < 100000; i++) buffer.add(i, 1.0, 2.0, 3.0F, 4.0F);
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+        // Allow for the measurement itself.
+        assertTrue("Allocated " + allocated + " bytes for 100000 points", allocated < 1024L);
+    }
+
+    /**
+     * Simulates an hour of sharing at 10 Hz over a link with varying latency, random failures and
+     * a two-minute outage, and verifies that every point reaches the backend exactly once and in
+     * order.
+     */
+    @Test
+    public void deliversSustainedRateWithoutLoss() {
+        Random random = new Random(7L);
+        long duration = 3600000L;
+        long outageStart = 1200000L;
+        long outageEnd = outageStart + 120000L;
+        PointBuffer buffer = new PointBuffer((int) (5L * 60000L / SAMPLE_INTERVAL));
+        StringBuilder batch = new StringBuilder();
+        List<Long> received = new ArrayList<>();
+
+        long nextFlush = UPLOAD_INTERVAL;
+        long responseAt = -1L;
+        boolean success = false;
+        long batchBase = 0L;
+        long maxLatency = 0L;
+        long maxSteadyLatency = 0L;
+
+        for (long time = 0L; time < duration + 60000L; time += SAMPLE_INTERVAL) {
+            if (time < duration) buffer.add(time, time * 1.0E-9, 0.0, 5.0F, 1.0F);
+
+            boolean flush = time >= nextFlush;
+            if (responseAt >= 0L && time >= responseAt) {
+                responseAt = -1L;
+                if (success) {
+                    for (String point : batch.toString().split(";")) {
+                        long pointTime = batchBase + Long.parseLong(point.split(",")[0]);
+                        received.add(pointTime);
+                        maxLatency = Math.max(maxLatency, time - pointTime);
+                        // Points sampled well clear of the outage should not wait behind it.
+                        if (pointTime < outageStart - STEADY_MARGIN || pointTime >= outageEnd + STEADY_MARGIN) {
+                            maxSteadyLatency = Math.max(maxSteadyLatency, time - pointTime);
+                        }
+                    }
+                    buffer.acknowledge();
+                    // Catch up straight away if points have backed up.
+                    if (buffer.size() >= MAX_BATCH_POINTS) flush = true;
+                } else {
+                    buffer.retry();
+                }
+            }
+            if (flush) {
+                if (time >= nextFlush) nextFlush += UPLOAD_INTERVAL;
+                StringBuilder next = new StringBuilder();
+                if (buffer.drain(next, MAX_BATCH_POINTS) > 0) {
+                    batch = next;
+                    batchBase = buffer.getBaseTime();
+                    long rtt = 50L + random.nextInt(random.nextInt(20) == 0 ? 3000 : 400);
+                    responseAt = time + rtt;
+                    success = (time < outageStart || time >= outageEnd) && random.nextInt(20) != 0;
+                }
+            }
+        }
+
+        assertThat(buffer.getDropped(), is(0L));
+        assertThat(received.size(), is((int) (duration / SAMPLE_INTERVAL)));
+        for (int i = 0; i < received.size(); i++) {
+            assertThat("Point lost, duplicated or out of order", received.get(i), is(i * SAMPLE_INTERVAL));
+        }
+        assertTrue("Max latency " + maxLatency + " ms", maxLatency < outageEnd - outageStart + 5000L);
+        assertTrue("Max latency outside the outage " + maxSteadyLatency + " ms", maxSteadyLatency < 10000L);
+    }
+}
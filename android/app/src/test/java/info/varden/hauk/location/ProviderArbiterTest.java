@@ -0,0 +1,105 @@
+package info.varden.hauk.location;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+public final class ProviderArbiterTest {
+
+    private static final long INTERVAL = 1000L;
+    private static final long FALLBACK = 30000L;
+    private static final long TICK = 5000L;
+
+    @Test
+    public void switchesToGnssOnFirstFix() {
+        ProviderArbiter arbiter = new ProviderArbiter(0L, FALLBACK);
+        assertThat(arbiter.wantsCoarse(), is(true));
+        assertThat(arbiter.shouldUseCoarse(1000L, INTERVAL), is(true));
+        assertThat(arbiter.onFix(false, 2000L, 8.0F), is(true));
+        assertThat(arbiter.getState(), is(ProviderArbiter.STATE_FINE));
+        assertThat("Acquisition counted as a switch", arbiter.getSwitchCount(), is(0));
+    }
+
+    @Test
+    public void fallsBackWhenGnssIsLostAndRequiresGoodFixesToRestore() {
+        ProviderArbiter arbiter = new ProviderArbiter(0L, FALLBACK);
+        arbiter.onFix(false, 1000L, 8.0F);
+        assertThat(arbiter.tick(1000L + INTERVAL + FALLBACK, INTERVAL), is(false));
+        assertThat(arbiter.tick(2000L + INTERVAL + FALLBACK, INTERVAL), is(true));
+        assertThat(arbiter.getState(), is(ProviderArbiter.STATE_COARSE));
+
+        // A single GNSS fix right after the fallback is not enough to switch back.
+        long time = 40000L;
+        assertThat(arbiter.onFix(false, time, 8.0F), is(false));
+        // Neither are several fixes before the dwell time has passed.
+        for (int i = 0; i < 5; i++) assertThat(arbiter.onFix(false, time += 1000L, 8.0F), is(false));
+        assertThat(arbiter.onFix(false, time + 30000L, 8.0F), is(true));
+        assertThat(arbiter.getState(), is(ProviderArbiter.STATE_FINE));
+        assertThat(arbiter.getSwitchCount(), is(2));
+    }
+
+    @Test
+    public void fallsBackWhenGnssDegrades() {
+        ProviderArbiter arbiter = new ProviderArbiter(0L, FALLBACK);
+        long time = 0L;
+        arbiter.onFix(false, time, 8.0F);
+        boolean changed = false;
+        while (!changed && time < 120000L) changed = arbiter.onFix(false, time += 1000L, 200.0F);
+        assertThat(arbiter.getState(), is(ProviderArbiter.STATE_COARSE));
+        assertTrue("Switched before dwell time", time >= 30000L);
+    }
+
+    @Test
+    public void prefersRecentGnssOverCoarseFixes() {
+        ProviderArbiter arbiter = new ProviderArbiter(0L, FALLBACK);
+        arbiter.onFix(false, 1000L, 8.0F);
+        arbiter.tick(100000L, INTERVAL);
+        arbiter.onFix(true, 100500L, 40.0F);
+        arbiter.onFix(false, 101000L, 10.0F);
+        assertThat(arbiter.shouldUseCoarse(101500L, INTERVAL), is(false));
+        assertThat(arbiter.shouldUseCoarse(103000L, INTERVAL), is(true));
+    }
+
+    /**
+     * Simulates an hour in an urban canyon where GNSS is clear for 40 seconds out of every two
+     * minutes, with a brief glimpse of a couple of fixes while blocked, and compares the provider
+     * switches with the previous per-fix timer, which rebound the coarse provider on timeout and
+     * unbound it again on the first GNSS fix.
+     */
+    @Test
+    public void reducesFlappingInUrbanCanyon() {
+        Random random = new Random(3L);
+        ProviderArbiter arbiter = new ProviderArbiter(0L, FALLBACK);
+        boolean timerCoarse = true;
+        long lastFine = -1L;
+        int timerSwitches = 0;
+        long nextTick = TICK;
+
+        for (long time = 0L; time < 3600000L; time += INTERVAL) {
+            long phase = time % 120000L;
+            boolean glimpse = phase >= 78000L && phase < 80000L;
+            boolean hasFix = (phase < 40000L && random.nextInt(10) != 0) || glimpse;
+            if (hasFix) {
+                arbiter.onFix(false, time, 6.0F + random.nextInt(10));
+                lastFine = time;
+                if (timerCoarse) {
+                    timerCoarse = false;
+                    timerSwitches++;
+                }
+            } else if (!timerCoarse && lastFine >= 0L && time - lastFine > INTERVAL + FALLBACK) {
+                timerCoarse = true;
+                timerSwitches++;
+            }
+            if (time >= nextTick) {
+                arbiter.tick(time, INTERVAL);
+                nextTick += TICK;
+            }
+        }
+        int switches = arbiter.getSwitchCount();
+        assertTrue("Switches reduced by less than 40%: " + switches + " vs " + timerSwitches + " with timer", switches * 10 <= timerSwitches * 6);
+        assertTrue("More than one switch per minute: " + arbiter.getSwitchesPerHour(3600000L), arbiter.getSwitchesPerHour(3600000L) <= 60.0F);
+    }
+}
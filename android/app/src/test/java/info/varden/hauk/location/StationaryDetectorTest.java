@@ -0,0 +1,65 @@
+package info.varden.hauk.location;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+public final class StationaryDetectorTest {
+
+    private static final double LATITUDE = 59.9139;
+    private static final double LONGITUDE = 10.7522;
+
+    @Test
+    public void becomesStationaryAfterMinimumDuration() {
+        StationaryDetector detector = new StationaryDetector();
+        int reported = 0;
+        for (long time = 0L; time <= 120000L; time += 15000L) {
+            if (detector.onFix(time, LATITUDE, offsetLongitude(time % 2L == 0L ? 2.0 : -2.0), 8.0F)) reported++;
+        }
+        assertThat("Not stationary after two minutes in place", detector.isStationary(), is(true));
+        assertThat("Stationary reported more than once", reported, is(1));
+    }
+
+    @Test
+    public void notStationaryAtTrafficLight() {
+        StationaryDetector detector = new StationaryDetector();
+        // Five fixes in the same place, but only for 20 seconds.
+        for (long time = 0L; time <= 20000L; time += 5000L) {
+            assertThat("Stationary at a short stop", detector.onFix(time, LATITUDE, LONGITUDE, 5.0F), is(false));
+        }
+        assertThat("Not settling at a short stop", detector.isSettling(), is(true));
+        assertThat("Stationary at a short stop", detector.isStationary(), is(false));
+    }
+
+    @Test
+    public void movementResetsCount() {
+        StationaryDetector detector = new StationaryDetector();
+        double position = 0.0;
+        for (long time = 0L; time <= 300000L; time += 15000L) {
+            position += 30.0;
+            detector.onFix(time, LATITUDE, offsetLongitude(position), 5.0F);
+            assertThat("Stationary while moving", detector.isStationary(), is(false));
+            assertThat("Settling while moving", detector.isSettling(), is(false));
+        }
+    }
+
+    @Test
+    public void resetClearsStationary() {
+        StationaryDetector detector = new StationaryDetector();
+        for (long time = 0L; time <= 120000L; time += 15000L) {
+            detector.onFix(time, LATITUDE, LONGITUDE, 5.0F);
+        }
+        assertThat("Not stationary", detector.isStationary(), is(true));
+        detector.reset();
+        assertThat("Stationary after reset", detector.isStationary(), is(false));
+        assertThat("Settling after reset", detector.isSettling(), is(false));
+    }
+
+    /**
+     * Returns the longitude that is the given number of meters east of the test location.
+     */
+    private static double offsetLongitude(double meters) {
+        return LONGITUDE + Math.toDegrees(meters / (6371008.8 * Math.cos(Math.toRadians(LATITUDE))));
+    }
+}
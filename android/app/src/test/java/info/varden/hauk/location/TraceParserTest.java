@@ -0,0 +1,156 @@
+package info.varden.hauk.location;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+public final class TraceParserTest {
+
+    private static final double LATITUDE = 59.9139;
+    private static final double LONGITUDE = 10.7522;
+    private static final double METERS_PER_DEGREE = 6371008.8 * Math.PI / 180.0;
+
+    // 2020-01-02T03:04:05Z
+    private static final long START = 1577934245000L;
+
+    @Test
+    public void parsesGpx() throws IOException {
+        String gpx = "<?xml version=\"1.0\"?>\n"
+                + "<gpx version=\"1.1\" xmlns=\"http://www.topografix.com/GPX/1/1\"><trk><trkseg>"
+                + "<trkpt lat=\"59.9139\" lon=\"10.7522\"><time>2020-01-02T03:04:05Z</time><hdop>1.2</hdop></trkpt>"
+                + "<trkpt lat=\"59.9140\" lon=\"10.7523\"><time>2020-01-02T05:04:06.500+02:00</time>"
+                + "<extensions><speed>1.5</speed></extensions></trkpt>"
+                + "</trkseg></trk></gpx>";
+        List<TracePoint> points = TraceParser.parse(stream(gpx));
+        assertThat(points.size(), is(2));
+        assertThat(points.get(0).getTime(), is(START));
+        assertThat(points.get(0).getLatitude(), is(59.9139));
+        assertThat(points.get(0).getAccuracy(), is(6.0F));
+        assertThat(points.get(0).hasSpeed(), is(false));
+        assertThat(points.get(1).getTime(), is(START + 1500L));
+        assertThat(points.get(1).getLongitude(), is(10.7523));
+        assertThat(points.get(1).getSpeed(), is(1.5F));
+    }
+
+    @Test
+    public void parsesNmea() throws IOException {
+        String nmea = "\n" + sentence("GPGGA,030405.00,5954.834,N,01045.132,E,1,08,0.9,20.0,M,40.0,M,,")
+                + sentence("GPRMC,030405.00,A,5954.834,N,01045.132,E,10.0,90.0,020120,,,A")
+                + sentence("GPRMC,030406.00,V,,,,,,,020120,,,N")
+                + "$GPRMC,030407.00,A,5954.834,N,01045.132,E,10.0,90.0,020120,,,A*00\n"
+                + sentence("GPRMC,030408.50,A,5954.834,S,01045.132,W,,,020120,,,A");
+        List<TracePoint> points = TraceParser.parse(stream(nmea));
+        // The void fix and the one with an invalid checksum are skipped.
+        assertThat(points.size(), is(2));
+        assertThat(points.get(0).getTime(), is(START));
+        assertEquals(59.9139, points.get(0).getLatitude(), 1.0E-6);
+        assertEquals(10.7522, points.get(0).getLongitude(), 1.0E-6);
+        assertEquals(4.5F, points.get(0).getAccuracy(), 1.0E-6F);
+        assertEquals(5.14444F, points.get(0).getSpeed(), 1.0E-4F);
+        assertThat(points.get(1).getTime(), is(START + 3500L));
+        assertEquals(-59.9139, points.get(1).getLatitude(), 1.0E-6);
+        assertThat(points.get(1).hasSpeed(), is(false));
+    }
+
+    @Test
+    public void replaysWithScaledTiming() {
+        List<TracePoint> points = track(4, 1.0, 5.0F);
+        TraceReplay replay = new TraceReplay(points, 4.0);
+        assertThat(replay.getDurationMillis(), is(750L));
+        assertThat(replay.getDelayMillis(), is(0L));
+        replay.next();
+        assertThat(replay.getDelayMillis(), is(250L));
+        replay.next();
+        replay.next();
+        replay.next();
+        assertThat(replay.hasNext(), is(false));
+    }
+
+    /**
+     * Replays a one hour walk through the fix filters, the minimum distance filter and the
+     * dead-reckoning predictor, and checks the number of posts, which is a proxy for the radio
+     * cost of sharing the trace.
+     */
+    @Test
+    public void replaysTraceThroughPipeline() throws IOException {
+        List<TracePoint> points = TraceParser.parse(stream(toGpx(track(3600, 1.4, 8.0F))));
+        assertThat(points.size(), is(3600));
+
+        int[] posts = replay(points);
+        // The walk covers about 5 km, so the 10 meter minimum distance filter passes about 500.
+        assertTrue("Walk filtered to " + posts[0] + " fixes", posts[0] > 400 && posts[0] <= 520);
+        assertTrue("Predictable walk reduced by less than 40%: " + posts[1] + " of " + posts[0] + " posted", posts[1] < posts[0] * 0.6);
+    }
+
+    /**
+     * @return The number of fixes passed by the minimum distance filter, and the number of those
+     *         posted after dead reckoning.
+     */
+    private static int[] replay(List<TracePoint> points) {
+        FixFilter chain = new FixFilterChain(new QualityFilter(30000L), new KalmanSmoother());
+        DeadReckoningPredictor predictor = new DeadReckoningPredictor(25.0F, 10);
+        Fix fix = new Fix();
+        double lastLatitude = Double.NaN;
+        double lastLongitude = Double.NaN;
+        int filtered = 0;
+        int posted = 0;
+        for (TracePoint point : points) {
+            long time = point.getTime() - START;
+            fix.set(false, time, time, 0L, point.getLatitude(), point.getLongitude(), point.getAccuracy());
+            if (!chain.process(fix)) continue;
+            if (!Double.isNaN(lastLatitude) && AdaptiveIntervalController.distance(lastLatitude, lastLongitude, fix.getLatitude(), fix.getLongitude()) < 10.0) continue;
+            lastLatitude = fix.getLatitude();
+            lastLongitude = fix.getLongitude();
+            filtered++;
+            if (predictor.shouldPost(time, fix.getLatitude(), fix.getLongitude(), 1000L)) {
+                predictor.onPosted(time, fix.getLatitude(), fix.getLongitude(), 1.4F);
+                posted++;
+            }
+        }
+        return new int[] {filtered, posted};
+    }
+
+    /**
+     * Generates a track moving east at the given speed with one point per second and a small,
+     * deterministic wobble.
+     */
+    private static List<TracePoint> track(int count, double speed, float accuracy) {
+        double metersPerLongitude = METERS_PER_DEGREE * Math.cos(Math.toRadians(LATITUDE));
+        java.util.ArrayList<TracePoint> points = new java.util.ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            double x = speed * i + 2.0 * Math.sin(i * 0.7);
+            double y = 2.0 * Math.cos(i * 1.3);
+            points.add(new TracePoint(START + i * 1000L, LATITUDE + y / METERS_PER_DEGREE, LONGITUDE + x / metersPerLongitude, accuracy, Float.NaN));
+        }
+        return points;
+    }
+
+    private static String toGpx(List<TracePoint> points) {
+        java.text.SimpleDateFormat format = new java.text.SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+        format.setTimeZone(java.util.TimeZone.getTimeZone("UTC"));
+        StringBuilder gpx = new StringBuilder("<gpx version=\"1.1\" xmlns=\"http://www.topografix.com/GPX/1/1\"><trk><trkseg>");
+        for (TracePoint point : points) {
+            gpx.append(String.format(Locale.US, "<trkpt lat=\"%.7f\" lon=\"%.7f\"><time>%s</time><hdop>%.1f</hdop></trkpt>",
+                    point.getLatitude(), point.getLongitude(), format.format(new java.util.Date(point.getTime())), point.getAccuracy() / 5.0F));
+        }
+        return gpx.append("</trkseg></trk></gpx>").toString();
+    }
+
+    private static String sentence(String body) {
+        int checksum = 0;
+        for (int i = 0; i < body.length(); i++) checksum ^= body.charAt(i);
+        return String.format("$%s*%02X%n", body, checksum);
+    }
+
+    private static InputStream stream(String data) {
+        return new ByteArrayInputStream(data.getBytes(StandardCharsets.UTF_8));
+    }
+}
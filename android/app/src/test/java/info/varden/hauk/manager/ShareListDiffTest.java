@@ -0,0 +1,95 @@
+package info.varden.hauk.manager;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+public final class ShareListDiffTest {
+
+    private static final int TARGETS = 500;
+    private static final int ROUNDS = 2000;
+
+    @Test
+    public void findsAddedAndRemovedShares() {
+        Map<String, Object> known = new HashMap<>();
+        known.put("AAAA-AAAA", null);
+        known.put("BBBB-BBBB", null);
+        ShareListDiff diff = new ShareListDiff(known.keySet(), new String[] {"BBBB-BBBB", "CCCC-CCCC", "CCCC-CCCC"});
+        assertThat("New share not found, or duplicate not ignored", diff.getAdded(), is(Collections.singletonList("CCCC-CCCC")));
+        assertThat("Ended share not found", diff.getRemoved(), is(Collections.singletonList("AAAA-AAAA")));
+        assertThat("Diff with changes reported as empty", diff.isEmpty(), is(false));
+    }
+
+    @Test
+    public void isEmptyForSameShares() {
+        Map<String, Object> known = new HashMap<>();
+        known.put("AAAA-AAAA", null);
+        assertThat("Diff of identical lists not empty", new ShareListDiff(known.keySet(), new String[] {"AAAA-AAAA"}).isEmpty(), is(true));
+        assertThat("Diff of empty lists not empty", new ShareListDiff(Collections.<String>emptySet(), new String[0]).isEmpty(), is(true));
+    }
+
+    /**
+     * Diffs a list of 500 group shares with one change, and compares the time it takes against the
+     * previous approach of looking up each known share in the received list. The timings are only
+     * reported, since they depend on the machine running the test.
+     */
+    @Test
+    public void diffsLargeShareListInLinearTime() {
+        Map<String, Object> known = new HashMap<>();
+        String[] current = new String[TARGETS];
+        for (int i = 0; i < TARGETS; i++) {
+            current[i] = String.format("%04X-%04X", i, i * 7);
+            known.put(current[i], null);
+        }
+        known.remove(current[TARGETS / 2]);
+        known.put("GONE-GONE", null);
+
+        // Warm up both implementations before timing them.
+        int checksum = 0;
+        for (int i = 0; i < ROUNDS; i++) checksum += listContainsDiff(known, current) + hashSetDiff(known, current);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) checksum += listContainsDiff(known, current);
+        long listNanos = (System.nanoTime() - start) / ROUNDS;
+        start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) checksum += hashSetDiff(known, current);
+        long setNanos = (System.nanoTime() - start) / ROUNDS;
+
+        System.out.println("Diffing " + TARGETS + " shares: " + setNanos + " ns with hash sets, " + listNanos + " ns with List.contains()");
+
+        // Each diff finds one added and one removed share.
+        assertThat("Diffs did not all find one added and one removed share", checksum, is(4 * ROUNDS * 2));
+        ShareListDiff diff = new ShareListDiff(known.keySet(), current);
+        assertThat("Re-added share not found among " + TARGETS, diff.getAdded(), is(Collections.singletonList(current[TARGETS / 2])));
+        assertThat("Ended share not found among " + TARGETS, diff.getRemoved(), is(Collections.singletonList("GONE-GONE")));
+        assertThat("Diff with changes reported as empty", diff.isEmpty(), is(false));
+    }
+
+    /**
+     * The diff previously done in SessionManager.
+     */
+    private static int listContainsDiff(Map<String, Object> known, String[] current) {
+        List<String> currentShares = Arrays.asList(current);
+        List<String> changes = new ArrayList<>();
+        for (String shareID : currentShares) {
+            if (!known.containsKey(shareID)) changes.add(shareID);
+        }
+        for (String shareID : known.keySet()) {
+            if (!currentShares.contains(shareID)) changes.add(shareID);
+        }
+        return changes.size();
+    }
+
+    private static int hashSetDiff(Map<String, Object> known, String[] current) {
+        ShareListDiff diff = new ShareListDiff(known.keySet(), current);
+        return diff.getAdded().size() + diff.getRemoved().size();
+    }
+}
@@ -0,0 +1,68 @@
+package info.varden.hauk.struct;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+public final class KeyDerivableTest {
+
+    private static final String PASSWORD = "correct horse battery staple";
+    private static final byte[] SALT = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16};
+
+    @Test
+    public void doesNotSerializeDerivedKey() throws Exception {
+        KeyDerivable key = new KeyDerivable(PASSWORD, SALT);
+        byte[] derived = key.deriveSpec().getEncoded();
+        byte[] serialized = serialize(key);
+        assertThat("Derived key was serialized", indexOf(serialized, derived), is(-1));
+        assertThat("Deserialized key is marked as derived", ((KeyDerivable) deserialize(serialized)).isDerived(), is(false));
+    }
+
+    @Test
+    public void copiesDerivedKeyOnlyFromMatchingInstance() throws Exception {
+        KeyDerivable original = new KeyDerivable(PASSWORD, SALT);
+        KeyDerivable copy = (KeyDerivable) deserialize(serialize(original));
+        copy.copyDerivedSpec(original);
+        assertThat("Key copied before it was derived", copy.isDerived(), is(false));
+
+        original.deriveSpec();
+        KeyDerivable otherSalt = new KeyDerivable(PASSWORD, new byte[16]);
+        otherSalt.copyDerivedSpec(original);
+        assertThat("Key copied to a different salt", otherSalt.isDerived(), is(false));
+        copy.copyDerivedSpec(original);
+        assertThat("Key not copied from matching instance", copy.isDerived(), is(true));
+        assertThat("Copied key derived again", copy.deriveSpec(), is(sameInstance(original.deriveSpec())));
+    }
+
+    private static byte[] serialize(Object obj) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(buffer)) {
+            out.writeObject(obj);
+        }
+        return buffer.toByteArray();
+    }
+
+    private static Object deserialize(byte[] data) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data))) {
+            return in.readObject();
+        }
+    }
+
+    private static int indexOf(byte[] haystack, byte[] needle) {
+        outer:
+        for (int i = 0; i <= haystack.length - needle.length; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (haystack[i + j] != needle[j]) continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+}
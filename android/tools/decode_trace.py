@@ -0,0 +1,178 @@
+#!/usr/bin/env python3
+"""
+Decodes Hauk flight recorder traces exported from the app into readable text.
+
+Usage: decode_trace.py [--csv] <trace file> [<trace file> ...]
+
+Each app process writes its own trace. When several traces are given, their records are merged in
+timestamp order and prefixed with the name of the file they came from.
+
+The trace format is documented in info.varden.hauk.diagnostics.FlightRecorder.
+"""
+
+import argparse
+import datetime
+import os
+import struct
+import sys
+
+MAGIC = b"HAUKTRC1"
+HEADER = struct.Struct(">8siiiiq")
+RECORD = struct.Struct(">qhhiqff")
+HEADER_SIZE = 64
+
+EVENTS = {
+    1: "SESSION_STARTED",
+    2: "SESSION_STOPPED",
+    3: "SERVICE_STARTED",
+    4: "SERVICE_STOPPED",
+    5: "SESSION_REATTACHED",
+    6: "SESSION_RECOVERED",
+    10: "FIX_RECEIVED",
+    11: "FIX_SUPPRESSED",
+    12: "INTERVAL_CHANGED",
+    13: "FIX_REJECTED",
+    14: "FIX_LAST_KNOWN",
+    15: "INTERVAL_SUGGESTED",
+    20: "PACKET_QUEUED",
+    21: "PACKET_SENT",
+    22: "PACKET_ACKED",
+    23: "PACKET_FAILED",
+    24: "FAN_OUT_ACKED",
+    25: "FAN_OUT_FAILED",
+    26: "FAN_OUT_DROPPED",
+    27: "REQUEST_COMPRESSED",
+    28: "RESPONSE_DECOMPRESSED",
+    30: "CONNECTIVITY_LOST",
+    31: "CONNECTIVITY_RESTORED",
+    32: "ENDPOINT_SWITCHED",
+    33: "STREAM_CONNECTED",
+    34: "STREAM_LOST",
+    35: "STREAM_FALLBACK",
+    40: "PROVIDER_FALLBACK",
+    41: "PROVIDER_ENABLED",
+    42: "PROVIDER_DISABLED",
+    43: "GNSS_ACQUIRED",
+    44: "STATIONARY_ENTERED",
+    45: "STATIONARY_EXITED",
+    46: "DUTY_WINDOW_CLOSED",
+    47: "FIX_PREDICTED",
+    48: "PROVIDER_RESTORED",
+    50: "MEMORY_SAMPLE",
+}
+
+ENDPOINTS = {0: "other", 1: "create", 2: "post", 3: "stop", 4: "new-link", 5: "adopt"}
+PROVIDERS = {0: "other", 1: "gps", 2: "network", 3: "passive", 4: "unknown"}
+
+
+def describe(name, arg, seq, value, f1, f2):
+    """Returns a human-readable description of the payload of one record."""
+    if name == "FIX_RECEIVED":
+        return "provider=%s acc=%.1fm spd=%.1fm/s" % (PROVIDERS.get(arg, arg), f1, f2)
+    if name == "FIX_SUPPRESSED":
+        return "provider=%s dist=%.1fm acc=%.1fm" % (PROVIDERS.get(arg, arg), f1, f2)
+    if name == "FIX_PREDICTED":
+        return "provider=%s error=%.1fm acc=%.1fm" % (PROVIDERS.get(arg, arg), f1, f2)
+    if name == "FIX_REJECTED":
+        return "reason=%s age=%dms acc=%.1fm" % ({1: "accuracy", 2: "age", 3: "duplicate"}.get(arg, arg), value, f1)
+    if name == "FIX_LAST_KNOWN":
+        return "provider=%s age=%dms acc=%.1fm" % (PROVIDERS.get(arg, arg), value, f1)
+    if name == "INTERVAL_CHANGED":
+        return "provider=%s interval=%dms spd=%.1fm/s" % (PROVIDERS.get(arg, arg), value, f1)
+    if name == "INTERVAL_SUGGESTED":
+        return "%s interval=%dms" % ("unwatched" if arg else "watched", value)
+    if name == "PACKET_QUEUED" or name == "PACKET_SENT":
+        return "seq=%d endpoint=%s" % (seq, ENDPOINTS.get(arg, arg))
+    if name == "PACKET_ACKED" or name == "PACKET_FAILED":
+        return "seq=%d endpoint=%s latency=%dms" % (seq, ENDPOINTS.get(arg, arg), value)
+    if name == "REQUEST_COMPRESSED" or name == "RESPONSE_DECOMPRESSED":
+        return "seq=%d endpoint=%s size=%dB compressed=%.0fB ratio=%.2f" % (seq, ENDPOINTS.get(arg, arg), value, f1, f1 / value if value else 0.0)
+    if name == "FAN_OUT_ACKED" or name == "FAN_OUT_FAILED":
+        return "destination=%d latency=%dms" % (arg, value)
+    if name == "FAN_OUT_DROPPED":
+        return "destination=%d pending=%d" % (arg, value)
+    if name == "ENDPOINT_SWITCHED":
+        return "server=%d previous=%d latency=%.0fms previous-errors=%.2f" % (arg, value, f1, f2)
+    if name == "STREAM_CONNECTED":
+        return "resent=%d handshake=%dms" % (arg, value)
+    if name == "STREAM_LOST":
+        return "unacked=%d open=%dms" % (arg, value)
+    if name == "STREAM_FALLBACK":
+        return "reason=%s retry-in=%dms" % ("unsupported" if arg else "failed", value)
+    if name == "PROVIDER_FALLBACK" or name == "PROVIDER_RESTORED":
+        return "switches=%d rate=%.1f/h gnss-quality=%.2f" % (arg, f1, f2)
+    if name == "PROVIDER_ENABLED" or name == "PROVIDER_DISABLED":
+        return "provider=%s" % PROVIDERS.get(arg, arg)
+    if name == "GNSS_ACQUIRED":
+        return "after=%dms acc=%.1fm" % (value, f1)
+    if name == "STATIONARY_ENTERED":
+        return "reason=%s" % {1: "fixes", 2: "signal-lost"}.get(arg, arg)
+    if name == "STATIONARY_EXITED":
+        return "sensor=%s after=%dms" % ({1: "significant-motion", 2: "accelerometer"}.get(arg, arg), value)
+    if name == "DUTY_WINDOW_CLOSED":
+        return "%s gnss-active=%dms" % ("fix" if arg else "timeout", value)
+    if name == "MEMORY_SAMPLE":
+        return "pss=%dkB process=%s" % (value, "location" if arg else "main")
+    if name == "SESSION_RECOVERED":
+        return "since_last_sent=%dms" % value
+    if name == "SERVICE_STARTED":
+        return "flags=%d startId=%d" % (arg, value)
+    if name == "SESSION_STARTED":
+        return "reason=%d expires=%s" % (arg, format_time(value))
+    return ""
+
+
+def format_time(millis):
+    return datetime.datetime.fromtimestamp(millis / 1000.0).isoformat(sep=" ", timespec="milliseconds")
+
+
+def read_records(data):
+    """Yields the records of a trace in the order they were written."""
+    magic, version, record_size, capacity, _, count = HEADER.unpack_from(data, 0)
+    if magic != MAGIC:
+        raise ValueError("not a Hauk trace file")
+    if version != 1 or record_size != RECORD.size:
+        raise ValueError("unsupported trace version %d (record size %d)" % (version, record_size))
+    if len(data) < HEADER_SIZE + capacity * record_size:
+        raise ValueError("trace file is truncated")
+    first = max(0, count - capacity)
+    for index in range(first, count):
+        offset = HEADER_SIZE + (index % capacity) * record_size
+        yield RECORD.unpack_from(data, offset)
+
+
+def main():
+    parser = argparse.ArgumentParser(description="Decode Hauk flight recorder traces.")
+    parser.add_argument("--csv", action="store_true", help="output raw fields as CSV")
+    parser.add_argument("traces", nargs="+", help="paths to the exported .trc files")
+    args = parser.parse_args()
+
+    records = []
+    for path in args.traces:
+        source = os.path.basename(path)
+        with open(path, "rb") as f:
+            data = f.read()
+        try:
+            records.extend((record[0], i, source, record) for i, record in enumerate(read_records(data)))
+        except ValueError as ex:
+            print("error: %s: %s" % (path, ex), file=sys.stderr)
+            return 1
+    # Sort by timestamp, keeping the write order of records within each trace.
+    records.sort(key=lambda entry: (entry[0], entry[2], entry[1]))
+    prefix = len(args.traces) > 1
+
+    if args.csv:
+        print("source,time,event,arg,seq,value,f1,f2" if prefix else "time,event,arg,seq,value,f1,f2")
+    for _, _, source, (time, code, arg, seq, value, f1, f2) in records:
+        name = EVENTS.get(code, "UNKNOWN_%d" % code)
+        if args.csv:
+            line = "%d,%s,%d,%d,%d,%g,%g" % (time, name, arg, seq, value, f1, f2)
+            print(source + "," + line if prefix else line)
+        else:
+            line = "%s  %-21s %s" % (format_time(time), name, describe(name, arg, seq, value, f1, f2))
+            print("%-24s %s" % (source, line) if prefix else line)
+    return 0
+
+
+if __name__ == "__main__":
+    sys.exit(main())
@@ -1,7 +1,9 @@
 <?php
 
 // This script is called from the Hauk app to adopt an existing single-user
-// share into a group share.
+// share into a group share. Several shares can be adopted at once by passing
+// "nic" and "aid" as arrays; the result of each adoption is then returned on a
+// separate line in the order they were given.
 
 include("../include/inc.php");
 header("X-Hauk-Version: ".BACKEND_VERSION);
@@ -14,28 +16,54 @@ requirePOST(
 );
 
 $memcache = memConnect();
-$nickname = $_POST["nic"];
 
 // Retrieve the session data from memcached.
 $sid = $_POST["sid"];
 $session = new Client($memcache, $sid);
 if (!$session->exists()) die($LANG['session_expired']."\n");
 
-// Retrieve adopted share data from memcached.
-$shid = $_POST["aid"];
-$share = Share::fromShareID($memcache, $shid);
-if (!$share->exists()) die($LANG['share_not_found']."\n");
-if (!$share->getType() === SHARE_TYPE_ALONE) die($LANG['group_share_not_adoptable']."\n");
-if (!$share->isAdoptable()) die($LANG['share_adoption_not_allowed']."\n");
-if ($share->getHost()->isEncrypted()) die($LANG['e2e_adoption_not_allowed']."\n");
-
 // Retrieve the target share.
 $pin = $_POST["pin"];
 $target = Share::fromGroupPIN($memcache, $pin);
 if (!$target->exists()) die($LANG['session_expired']."\n");
 
-// Join the shares.
-$target->addHost($nickname, $share->getHost())->save();
-$share->getHost()->addTarget($target)->save();
+// Adopts the share with the given ID into the target share. Returns null if
+// successful, or otherwise the reason the share could not be adopted. The
+// target share must be saved afterwards.
+function adoptShare($memcache, $target, $shid, $nickname) {
+    global $LANG;
+
+    // Retrieve adopted share data from memcached.
+    $share = Share::fromShareID($memcache, $shid);
+    if (!$share->exists()) return $LANG['share_not_found'];
+    if (!$share->getType() === SHARE_TYPE_ALONE) return $LANG['group_share_not_adoptable'];
+    if (!$share->isAdoptable()) return $LANG['share_adoption_not_allowed'];
+    if ($share->getHost()->isEncrypted()) return $LANG['e2e_adoption_not_allowed'];
+
+    // Join the shares.
+    $target->addHost($nickname, $share->getHost());
+    $share->getHost()->addTarget($target)->save();
+    return null;
+}
+
+if (is_array($_POST["aid"])) {
+    // Every share must have a nickname. This is checked before adopting any of
+    // them, so that a malformed request does not leave a partial adoption.
+    if (!is_array($_POST["nic"]) || array_keys($_POST["nic"]) != array_keys($_POST["aid"])) die("Missing data!\n");
+    $output = array("OK");
+    foreach ($_POST["aid"] as $i => $shid) {
+        $error = adoptShare($memcache, $target, $shid, $_POST["nic"][$i]);
+        $output[] = $error === null ? "OK" : $error;
+    }
+    $target->save();
+
+    foreach ($output as $line) {
+        echo $line."\n";
+    }
+} else {
+    $error = adoptShare($memcache, $target, $_POST["aid"], $_POST["nic"]);
+    if ($error !== null) die($error."\n");
+    $target->save();
 
-echo "OK\n";
+    echo "OK\n";
+}
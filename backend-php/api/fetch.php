@@ -29,6 +29,7 @@ if (!$share->exists()) {
                 header("HTTP/1.1 404 Not Found");
                 die($LANG['session_invalid']."\n");
             }
+            $share->setViewed($session->getInterval());
             echo json_encode(array(
                 "type" => $share->getType(),
                 "expire" => $share->getExpirationTime(),
@@ -41,6 +42,7 @@ if (!$share->exists()) {
             break;
 
         case SHARE_TYPE_GROUP:
+            $share->setViewed($share->getAutoInterval());
             echo json_encode(array(
                 "type" => $share->getType(),
                 "expire" => $share->getExpirationTime(),
@@ -1,7 +1,8 @@
 <?php
 
 // This script allows Hauk clients to attach themselves to a new single-user
-// share.
+// share. Several shares can be created at once by passing the number of shares
+// to create as "cnt".
 
 include("../include/inc.php");
 header("X-Hauk-Version: ".BACKEND_VERSION);
@@ -18,22 +19,26 @@ $sid = $_POST["sid"];
 $session = new Client($memcache, $sid);
 if (!$session->exists()) die($LANG['session_expired']."\n");
 
-// Create a new solo share and set its arguments.
-$share = new SoloShare($memcache);
-$share
-    ->setAdoptable(intval($_POST["ado"]))
-    ->setHost($session)
-    ->setExpirationTime($session->getExpirationTime())
-    ->save();
-
-// Tell the session that it is posting to this share.
-$session->addTarget($share)->save();
-
-$output = array(
-    "OK",
-    $share->getViewLink(),
-    $share->getShareID()
-);
+$count = isset($_POST["cnt"]) ? max(1, min(MAX_LINKS_PER_REQUEST, intval($_POST["cnt"]))) : 1;
+$output = array("OK");
+
+for ($i = 0; $i < $count; $i++) {
+    // Create a new solo share and set its arguments.
+    $share = new SoloShare($memcache);
+    $share
+        ->setAdoptable(intval($_POST["ado"]))
+        ->setHost($session)
+        ->setExpirationTime($session->getExpirationTime())
+        ->save();
+
+    // Tell the session that it is posting to this share.
+    $session->addTarget($share);
+
+    $output[] = $share->getViewLink();
+    $output[] = $share->getShareID();
+}
+
+$session->save();
 
 foreach ($output as $line) {
     echo $line."\n";
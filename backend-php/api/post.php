@@ -2,16 +2,15 @@
 
 // This script is called from the Hauk app to push location updates to the
 // server. Each update contains a location and timestamp from when the location
-// was fetched by the client.
+// was fetched by the client. Clients in high-frequency mode may instead post a
+// batch of several locations at once in the "pts" field, and clients may send
+// one or more locations in the compact point format in the "cpt" field.
 
 include("../include/inc.php");
 header("X-Hauk-Version: ".BACKEND_VERSION);
 
 requirePOST(
-    "lat",  // Current latitude.
-    "lon",  // Current longitude.
-    "time", // Current timestamp.
-    "sid"   // Session ID to post to.
+    "sid" // Session ID to post to.
 );
 
 $memcache = memConnect();
@@ -21,7 +20,52 @@ $sid = $_POST["sid"];
 $session = new Client($memcache, $sid);
 if (!$session->exists()) die($LANG['session_expired']."\n");
 
-if (!$session->isEncrypted()) {
+if (isset($_POST["cpt"])) {
+    // Compact points are not supported for end-to-end encrypted sessions, as
+    // they cannot be decoded.
+    if ($session->isEncrypted()) die($LANG['location_invalid']."\n");
+
+    $points = decodeCompactPoints($_POST["cpt"]);
+    if ($points === false || count($points) == 0) die($LANG['location_invalid']."\n");
+    $provider = isset($_POST["prv"]) && $_POST["prv"] == "1" ? 1 : 0;
+    $entries = array();
+    foreach ($points as list($lat, $lon, $time, $accuracy, $speed)) {
+        if ($lat < -90 || $lat > 90 || $lon < -180 || $lon > 180) die($LANG['location_invalid']."\n");
+        $entries[] = [$lat, $lon, $time, $provider, $accuracy, $speed];
+    }
+    $session->addPoints($entries)->save();
+
+} else if (isset($_POST["pts"])) {
+    requirePOST("time"); // Timestamp of the first point in the batch.
+
+    // Batches of points are not supported for end-to-end encrypted sessions,
+    // as they cannot be validated.
+    if ($session->isEncrypted()) die($LANG['location_invalid']."\n");
+
+    // Each point in the batch is separated by a semicolon, and contains comma-
+    // separated fields for the time offset from the first point in
+    // milliseconds, latitude and longitude in millionths of a degree, accuracy
+    // in decimeters and speed in centimeters per second. Accuracy and speed are
+    // empty if unknown.
+    $base = floatval($_POST["time"]);
+    $provider = isset($_POST["prv"]) && $_POST["prv"] == "1" ? 1 : 0;
+    $points = array();
+    foreach (explode(";", $_POST["pts"]) as $pt) {
+        $fields = explode(",", $pt);
+        if (count($fields) != 5) die($LANG['location_invalid']."\n");
+        $lat = intval($fields[1]) / 1000000;
+        $lon = intval($fields[2]) / 1000000;
+        if ($lat < -90 || $lat > 90 || $lon < -180 || $lon > 180) die($LANG['location_invalid']."\n");
+        $time = $base + intval($fields[0]) / 1000;
+        $accuracy = $fields[3] === "" ? null : intval($fields[3]) / 10;
+        $speed = $fields[4] === "" ? null : intval($fields[4]) / 100;
+        $points[] = [$lat, $lon, $time, $provider, $accuracy, $speed];
+    }
+    $session->addPoints($points)->save();
+
+} else if (!$session->isEncrypted()) {
+    requirePOST("lat", "lon", "time");
+
     // Perform input validation.
     $lat = floatval($_POST["lat"]);
     $lon = floatval($_POST["lon"]);
@@ -42,6 +86,7 @@ if (!$session->isEncrypted()) {
 
 } else {
     // Input validation cannot be performed for end-to-end encrypted data.
+    requirePOST("lat", "lon", "time");
     $lat = $_POST["lat"];
     $lon = $_POST["lon"];
     $time = $_POST["time"];
@@ -61,5 +106,15 @@ if (!$session->isEncrypted()) {
 if ($session->hasExpired()) {
     echo $LANG['session_expired']."\n";
 } else {
-    echo "OK\n".getConfig("public_url")."?%s\n".implode(",", $session->getTargetIDs())."\n";
+    // The list of shares is only sent if it has changed since the version the
+    // client says it has. The version is sent on the last line.
+    $version = $session->getTargetsVersion();
+    $unchanged = isset($_POST["slv"]) && $_POST["slv"] === $version;
+    echo "OK\n".getConfig("public_url")."?%s\n".($unchanged ? "" : implode(",", $session->getTargetIDs()))."\n";
+
+    // Suggest a longer interval to the client while nobody is viewing any of its
+    // shares. The client returns to its own interval when this line is empty.
+    $unwatched = getConfig("unwatched_interval");
+    echo ($unwatched > $session->getInterval() && !$session->isViewed() ? $unwatched : "")."\n";
+    echo $version."\n";
 }
@@ -14,27 +14,43 @@ $sid = $_POST["sid"];
 $memcache = memConnect();
 $session = new Client($memcache, $sid);
 
-if (isset($_POST["lid"])) {
-    // Terminate the given share membership.
-    $lid = $_POST["lid"];
+// Terminates the given share membership. Returns whether or not the session
+// was a member of the share. The session must be saved afterwards.
+function stopShare($memcache, $session, $lid) {
     // Check that the share exists and that the user actually owns it.
-    if ($session->exists() && in_array($lid, $session->getTargetIDs())) {
-        $share = Share::fromShareID($memcache, $lid);
-        if ($share->exists()) {
-            switch ($share->getType()) {
-                case SHARE_TYPE_ALONE:
-                    $share->end();
-                    break;
-                case SHARE_TYPE_GROUP:
-                    $share->removeHost($session)->clean();
-                    break;
-            }
+    if (!$session->exists() || !in_array($lid, $session->getTargetIDs())) return false;
+    $share = Share::fromShareID($memcache, $lid);
+    if ($share->exists()) {
+        switch ($share->getType()) {
+            case SHARE_TYPE_ALONE:
+                $share->end();
+                break;
+            case SHARE_TYPE_GROUP:
+                $share->removeHost($session)->clean();
+                break;
         }
-        $session->removeTarget($share)->save();
     }
+    $session->removeTarget($share);
+    return true;
+}
+
+$output = array("OK");
+
+if (isset($_POST["lid"]) && is_array($_POST["lid"])) {
+    // Terminate several share memberships, and report the result for each of
+    // them on a separate line in the order they were given.
+    foreach ($_POST["lid"] as $lid) {
+        $output[] = stopShare($memcache, $session, $lid) ? "OK" : $LANG['share_not_found'];
+    }
+    if ($session->exists()) $session->save();
+} elseif (isset($_POST["lid"])) {
+    // Terminate the given share membership.
+    if (stopShare($memcache, $session, $_POST["lid"])) $session->save();
 } else {
     // Tell the entire session to terminate.
     if ($session->exists()) $session->end();
 }
 
-echo "OK\n";
+foreach ($output as $line) {
+    echo $line."\n";
+}
@@ -254,6 +254,14 @@
 // network connection.
 "request_timeout"   => 10,
 
+// The interval in seconds at which clients are asked to post their location
+// while nobody is viewing any of their shares. The app posts at the normal rate
+// again once the share is opened, which may take up to this long. Only applies
+// if longer than the interval chosen in the app, and the app may cap it to a
+// maximum set by the user. Disabled by default; set to e.g. 30 to enable, or 0 to
+// always post at the normal rate.
+"unwatched_interval" => 0,
+
 // Maximum number of data points stored for each share before old points are
 // deleted. Map clients will see up to this amount of data points when they load
 // the page.
@@ -3,7 +3,7 @@
 // An include file containing constants and common functions for the Hauk
 // backend. It loads the configuration file and declares it as a constant.
 
-const BACKEND_VERSION = "1.6.1";
+const BACKEND_VERSION = "1.7";
 const LANGUAGES = ["ca", "de", "en", "eu", "fr", "it", "nb_NO", "nl", "nn", "ro", "ru", "tr", "uk"];
 
 // Create mode for create.php. Corresponds with the constants from the Android
@@ -17,6 +17,19 @@ const SHARE_MODE_JOIN_GROUP = 2;
 const SHARE_TYPE_ALONE = 0;
 const SHARE_TYPE_GROUP = 1;
 
+// Maximum number of links that can be created with a single request to
+// new-link.php. Corresponds with LINK_COUNT_MAX in the Android app.
+const MAX_LINKS_PER_REQUEST = 100;
+
+// Content codings accepted for compressed request bodies. Advertised to clients
+// in the Accept-Encoding header of every response, as described in RFC 7694.
+const REQUEST_ENCODINGS = ["deflate", "gzip"];
+// Maximum size of a compressed request body after decompression.
+const MAX_DECODED_REQUEST_SIZE = 1048576;
+// Responses shorter than this many bytes are sent uncompressed, as compressing
+// them would barely make them smaller.
+const COMPRESSION_THRESHOLD = 256;
+
 const SESSION_ID_SIZE = 32;
 const LINK_ID_RAND_BYTES = 32;
 const GROUP_PIN_MIN = 100000;
@@ -144,6 +157,7 @@ const DEFAULTS = array(
     "min_interval"          => 1,
     "offline_timeout"       => 30,
     "request_timeout"       => 10,
+    "unwatched_interval"    => 0,
     "max_cached_pts"        => 3,
     "max_shown_pts"         => 100,
     "v_data_points"         => 2,
@@ -181,6 +195,39 @@ function getConfig($item) {
 define("PREFIX_SESSION", "-session-");
 define("PREFIX_LOCDATA", "-locdata-");
 define("PREFIX_GROUPID", "-groupid-");
+define("PREFIX_VIEWED", "-viewed-");
+
+// Clients may compress large request bodies. PHP does not decompress them by
+// itself, so the form is parsed again from the decompressed body.
+header("Accept-Encoding: ".implode(", ", REQUEST_ENCODINGS));
+$contentEncoding = strtolower(trim((string) filter_input(INPUT_SERVER, "HTTP_CONTENT_ENCODING")));
+if ($contentEncoding !== "" && $contentEncoding !== "identity") {
+    if (!in_array($contentEncoding, REQUEST_ENCODINGS)) {
+        header("HTTP/1.1 415 Unsupported Media Type");
+        die("Unsupported content encoding!\n");
+    }
+    $body = @zlib_decode(file_get_contents("php://input"), MAX_DECODED_REQUEST_SIZE);
+    if ($body === false) {
+        header("HTTP/1.1 400 Bad Request");
+        die("Invalid compressed data!\n");
+    }
+    $_POST = array();
+    parse_str($body, $_POST);
+}
+
+// Compress responses for clients that accept gzip, once they are long enough to
+// benefit. The whole response is buffered so that its length is known.
+if (!ini_get("zlib.output_compression")) {
+    ob_start(function($buffer, $phase) {
+        $complete = ($phase & PHP_OUTPUT_HANDLER_START) && ($phase & PHP_OUTPUT_HANDLER_FINAL);
+        $accept = (string) filter_input(INPUT_SERVER, "HTTP_ACCEPT_ENCODING");
+        if (!$complete || strlen($buffer) < COMPRESSION_THRESHOLD || headers_sent()) return $buffer;
+        if (!preg_match("/(^|,)\s*gzip\s*(;\s*q\s*=\s*(0*\.\d*[1-9]|1)|,|$)/i", $accept)) return $buffer;
+        header("Content-Encoding: gzip");
+        header("Vary: Accept-Encoding");
+        return gzencode($buffer);
+    });
+}
 
 // A base class for location shares. Shares contain a reference to all sessions
 // that broadcasts location data to the share, but does not contain the location
@@ -289,6 +336,15 @@ class Share {
         return $this->getExpirationTime() <= time();
     }
 
+    // Records that the share was just fetched by a viewer polling for updates
+    // every $interval seconds. The share is considered viewed until the viewer
+    // has missed a poll.
+    public function setViewed($interval) {
+        $deadline = time() + 2 * $interval + getConfig("request_timeout");
+        $this->memcache->set(PREFIX_VIEWED.$this->getShareID(), $deadline, $this->getExpirationTime());
+        return $this;
+    }
+
     // Requests usage of a custom link instead of the autogenerated ID. This
     // does not delete the old share ID and should only be used when creating
     // new shares.
@@ -743,11 +799,30 @@ class Client {
         return $this->sessionData["targets"];
     }
 
+    // Returns a short string that changes whenever the list of shares this
+    // session is contributing to changes. Clients send it back so that the list
+    // can be left out of responses when it has not changed.
+    public function getTargetsVersion() {
+        return hash("crc32b", implode(",", $this->getTargetIDs()));
+    }
+
+    // Returns whether or not any of the shares this session is contributing to
+    // is currently being viewed.
+    public function isViewed() {
+        foreach ($this->getTargetIDs() as $id) {
+            $deadline = $this->memcache->get(PREFIX_VIEWED.$id);
+            if ($deadline !== false && $deadline >= time()) return true;
+        }
+        return false;
+    }
+
     // Adds a new coordinate point to the session. $point is an array containing
     // a latitude, longitude, timestamp, accuracy and speed, in that order. The
-    // latter two elements may be null. Does not take effect until save() is
+    // latter two elements may be null. Points that are already stored are
+    // dropped, see isRepeatedPoint(). Does not take effect until save() is
     // called.
     public function addPoint($point) {
+        if ($this->isRepeatedPoint($point)) return $this;
         $this->sessionData["points"][] = $point;
         // Ensure that we don't exceed the maximum number of points stored in
         // memcached.
@@ -757,6 +832,41 @@ class Client {
         return $this;
     }
 
+    // Adds several coordinate points to the session at once, in the same
+    // format as addPoint(). Enough points are kept that clients fetching once
+    // per interval do not miss any points from the batch, even if that exceeds
+    // the usual maximum number of stored points. Points that are already stored
+    // are dropped, see isRepeatedPoint(). Does not take effect until save() is
+    // called.
+    public function addPoints($points) {
+        $max = max(getConfig("max_cached_pts"), 2 * count($points));
+        foreach ($points as $point) {
+            if (!$this->isRepeatedPoint($point)) $this->sessionData["points"][] = $point;
+        }
+        while (count($this->sessionData["points"]) > $max) {
+            array_shift($this->sessionData["points"]);
+        }
+        return $this;
+    }
+
+    // Returns whether or not the given point has already been stored. A client
+    // repeats a location update on a mirror if the response to it was lost, so
+    // the same point may be posted more than once. Points are posted in order,
+    // so a point that is not newer than the last stored point is a repeat. The
+    // timestamp of an end-to-end encrypted point cannot be read, but each one
+    // is encrypted with a new IV, so a point with a stored IV is a repeat.
+    private function isRepeatedPoint($point) {
+        $stored = $this->sessionData["points"];
+        if (count($stored) == 0) return false;
+        if ($this->isEncrypted()) {
+            foreach ($stored as $existing) {
+                if ($existing[0] === $point[0]) return true;
+            }
+            return false;
+        }
+        return $point[2] <= $stored[count($stored) - 1][2];
+    }
+
     // Returns a list of all point arrays for this session.
     public function getPoints() {
         return $this->sessionData["points"];
@@ -779,6 +889,55 @@ function requirePOST(...$args) {
     }
 }
 
+// Decodes a list of locations in the compact point format. The data is Base64-
+// encoded and starts with a byte giving the number of decimal places of the
+// coordinates. Each point then consists of five unsigned variable-length
+// integers: the zigzag-encoded differences in time (in milliseconds), latitude
+// and longitude from the previous point, followed by the accuracy in decimeters
+// and the speed in centimeters per second, each plus one, or zero if unknown.
+// Returns a list of arrays containing a latitude, longitude, timestamp,
+// accuracy and speed, in that order, or false if the data is malformed.
+function decodeCompactPoints($data) {
+    $bytes = base64_decode($data, true);
+    if ($bytes === false || strlen($bytes) < 1) return false;
+    $precision = ord($bytes[0]);
+    if ($precision > 9) return false;
+    $scale = pow(10, $precision);
+
+    // Read all variable-length integers. Each byte holds seven bits of the
+    // value, least significant first, and the high bit is set on all but the
+    // last byte of each integer.
+    $values = array();
+    $length = strlen($bytes);
+    $offset = 1;
+    while ($offset < $length) {
+        $value = 0;
+        $shift = 0;
+        do {
+            if ($offset >= $length || $shift > 63) return false;
+            $byte = ord($bytes[$offset++]);
+            $value |= ($byte & 0x7F) << $shift;
+            $shift += 7;
+        } while ($byte & 0x80);
+        $values[] = $value;
+    }
+    if (count($values) % 5 != 0) return false;
+
+    $points = array();
+    $time = 0;
+    $lat = 0;
+    $lon = 0;
+    for ($i = 0; $i < count($values); $i += 5) {
+        $time += ($values[$i] >> 1) ^ -($values[$i] & 1);
+        $lat += ($values[$i + 1] >> 1) ^ -($values[$i + 1] & 1);
+        $lon += ($values[$i + 2] >> 1) ^ -($values[$i + 2] & 1);
+        $accuracy = $values[$i + 3] == 0 ? null : ($values[$i + 3] - 1) / 10;
+        $speed = $values[$i + 4] == 0 ? null : ($values[$i + 4] - 1) / 100;
+        $points[] = [$lat / $scale, $lon / $scale, $time / 1000, $accuracy, $speed];
+    }
+    return $points;
+}
+
 // Checks whether or not the user is correctly authenticated based on the
 // server's requirements.
 function authenticated() {
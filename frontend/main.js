@@ -13,6 +13,11 @@ const STATE_DEAD_COLOR = '#555555';
 const EARTH_DIAMETER_KM = 6371 * 2;
 const HAV_MOD = EARTH_DIAMETER_KM * 1000;
 
+// The longest time in seconds the position of a user is extrapolated from their
+// last speed and direction of movement when no new location has been received.
+// Clients that skip predictable updates post at least this often.
+const EXTRAPOLATION_LIMIT = 20;
+
 // Find preferred language.
 var locales = ['ca', 'de', 'en', 'eu', 'fr', 'it', 'nb_NO', 'nl', 'nn', 'pt_BR', 'ro', 'ru', 'tr', 'uk'];
 var prefLang = 'en';
@@ -682,6 +687,7 @@ function processUpdate(data, init) {
 
         // Get the last location received.
         var lastPoint = shares[user].points.length > 0 ? shares[user].points[shares[user].points.length - 1] : null;
+        var added = false;
 
         for (var i = 0; i < users[user].length; i++) {
             var lat = users[user][i][0];
@@ -726,8 +732,11 @@ function processUpdate(data, init) {
                     shares[user].marker.addTo(markerLayer);
                 } else {
                     // If there is a marker, draw a line from its last location
-                    // instead and move the marker.
-                    line = L.polyline([shares[user].marker.getLatLng(), [lat, lon]], {color: TRAIL_COLOR}).addTo(markerLayer);
+                    // instead and move the marker. The marker may have been
+                    // moved to an extrapolated location, so draw the line from
+                    // the last received location if there is one.
+                    var from = lastPoint !== null ? [lastPoint.lat, lastPoint.lon] : shares[user].marker.getLatLng();
+                    line = L.polyline([from, [lat, lon]], {color: TRAIL_COLOR}).addTo(markerLayer);
                     shares[user].marker.setLatLng([lat, lon]);
                 }
                 // Draw an accuracy circle if GPS accuracy was provided by the
@@ -740,7 +749,23 @@ function processUpdate(data, init) {
                 }
                 shares[user].points.push({lat: lat, lon: lon, line: line, time: time, spd: spd, acc: acc});
                 lastPoint = shares[user].points[shares[user].points.length - 1];
+                added = true;
+            }
+        }
+
+        // If no new location was received, move the marker to where the user is
+        // expected to be from their last speed and direction of movement. The
+        // client may have skipped updates that would match this prediction.
+        if (!added && lastPoint !== null && shares[user].points.length >= 2) {
+            var position = [lastPoint.lat, lastPoint.lon];
+            var elapsed = data.serverTime - lastPoint.time;
+            if (lastPoint.spd !== null && elapsed > 0 && elapsed <= EXTRAPOLATION_LIMIT) {
+                var prevPoint = shares[user].points[shares[user].points.length - 2];
+                var predicted = destination(lastPoint, angle(prevPoint, lastPoint), lastPoint.spd * elapsed);
+                position = [predicted.lat, predicted.lon];
             }
+            shares[user].marker.setLatLng(position);
+            if (shares[user].circle !== null) shares[user].circle.setLatLng(position);
         }
 
         if (lastPoint !== null) shares[user].listEntry.style.display = "block";
@@ -909,6 +934,18 @@ function velocity(distance, intv) {
     return distance * VELOCITY_UNIT.mpsMultiplier * HAV_MOD / intv;
 }
 
+// Calculates the point reached by moving the given distance in meters from a
+// point on a sphere, in the direction of the given bearing in degrees.
+function destination(from, bearing, meters) {
+    var d2r = Math.PI / 180;
+    var lat = from.lat * d2r, lon = from.lon * d2r;
+    var brg = bearing * d2r;
+    var delta = meters / (HAV_MOD / 2);
+    var toLat = Math.asin(Math.sin(lat) * Math.cos(delta) + Math.cos(lat) * Math.sin(delta) * Math.cos(brg));
+    var toLon = lon + Math.atan2(Math.sin(brg) * Math.sin(delta) * Math.cos(lat), Math.cos(delta) - Math.sin(lat) * Math.sin(toLat));
+    return {lat: toLat / d2r, lon: toLon / d2r};
+}
+
 // Calculates the bearing between two points on a sphere in degrees.
 function angle(from, to) {
     var d2r = Math.PI / 180;